@@ -0,0 +1,140 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import com.coverity.ws.v6.CheckerSubcategoryIdDataObj;
+import com.coverity.ws.v6.DefectInstanceDataObj;
+import com.coverity.ws.v6.EventDataObj;
+import com.coverity.ws.v6.FileIdDataObj;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import org.sonar.api.profiles.RulesProfile;
+import org.sonar.api.rules.Rule;
+import org.sonar.api.rules.RulePriority;
+import org.sonar.plugins.coverity.CoverityPlugin;
+import org.sonar.plugins.coverity.util.CoverityUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic defects, spread over the files of a generated source tree, with the rules of their checkers active
+ * in a quality profile. The same seed always generates the same dataset.
+ */
+public class DefectDataset {
+    public static final String LANGUAGE = "java";
+    public static final String DOMAIN = "STATIC_JAVA";
+    public static final String BUILD_ROOT = "/build/agent1/ws/";
+
+    private final List<ImportedDefect> defects = new ArrayList<ImportedDefect>();
+    private final List<CheckerSubcategoryIdDataObj> checkers = new ArrayList<CheckerSubcategoryIdDataObj>();
+    private final RulesProfile profile = RulesProfile.create("benchmark", LANGUAGE);
+
+    /**
+     * @param sourceDir  directory the source files are created in, under the working directory
+     * @param defects    number of merged defects
+     * @param files      number of files the defects are spread over
+     * @param instances  instances of every defect
+     * @param events     events of every instance, the main event being the last one
+     * @param checkers   number of checker subcategories, all active
+     */
+    public DefectDataset(File sourceDir, int defects, int files, int instances, int events, int checkers) throws IOException {
+        Random random = new Random(42);
+        String base = new File(".").getCanonicalPath();
+        String relativeDir = sourceDir.getCanonicalPath().substring(base.length() + 1).replace(File.separatorChar, '/');
+
+        StringBuilder description = new StringBuilder();
+        for(int i = 0; i < 20; i++) {
+            description.append("<p>Description of the checker, with some <code>code</code>.</p>");
+        }
+        for(int i = 0; i < checkers; i++) {
+            CheckerSubcategoryIdDataObj csido = new CheckerSubcategoryIdDataObj();
+            csido.setDomain(DOMAIN);
+            csido.setCheckerName("CHECKER_" + i);
+            csido.setSubcategory("subcategory_" + (i % 5));
+            this.checkers.add(csido);
+            Rule rule = Rule.create(CoverityPlugin.REPOSITORY_KEY + "-" + LANGUAGE, CoverityUtil.flattenCheckerSubcategoryId(csido), "Checker " + i);
+            rule.setDescription(description.toString());
+            profile.activateRule(rule, RulePriority.MAJOR);
+        }
+
+        List<String> paths = new ArrayList<String>(files);
+        for(int i = 0; i < files; i++) {
+            String name = "pkg" + (i % 50) + "/File" + i + ".java";
+            File file = new File(sourceDir, name);
+            if(!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+                throw new IOException("Cannot create " + file.getParentFile());
+            }
+            if(!file.isFile() && !file.createNewFile()) {
+                throw new IOException("Cannot create " + file);
+            }
+            paths.add(BUILD_ROOT + relativeDir + "/" + name);
+        }
+
+        for(int i = 0; i < defects; i++) {
+            long cid = 10000 + i;
+            String path = paths.get(random.nextInt(files));
+            CheckerSubcategoryIdDataObj checker = this.checkers.get(random.nextInt(checkers));
+
+            MergedDefectDataObj mddo = new MergedDefectDataObj();
+            mddo.setCid(cid);
+            mddo.setFilePathname(path);
+            mddo.setDomain(checker.getDomain());
+            mddo.setCheckerName(checker.getCheckerName());
+            mddo.setCheckerSubcategory(checker.getSubcategory());
+
+            StreamDefectDataObj sddo = new StreamDefectDataObj();
+            sddo.setCid(cid);
+            sddo.setCheckerSubcategoryId(checker);
+            for(int j = 0; j < instances; j++) {
+                DefectInstanceDataObj dido = new DefectInstanceDataObj();
+                dido.setCheckerSubcategoryId(checker);
+                for(int k = 0; k < events; k++) {
+                    EventDataObj event = new EventDataObj();
+                    event.setMain(k == events - 1);
+                    event.setLineNumber(1 + random.nextInt(2000));
+                    event.setEventDescription("Event " + k + " of CID " + cid);
+                    FileIdDataObj fileId = new FileIdDataObj();
+                    fileId.setFilePathname(path);
+                    event.setFileId(fileId);
+                    dido.getEvents().add(event);
+                }
+                sddo.getDefectInstances().add(dido);
+            }
+            this.defects.add(new ImportedDefect(mddo, sddo));
+        }
+    }
+
+    public List<ImportedDefect> getDefects() {
+        return defects;
+    }
+
+    public List<CheckerSubcategoryIdDataObj> getCheckers() {
+        return checkers;
+    }
+
+    public RulesProfile getProfile() {
+        return profile;
+    }
+}
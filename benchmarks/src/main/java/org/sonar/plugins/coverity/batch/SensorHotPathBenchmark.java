@@ -0,0 +1,246 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import com.coverity.ws.v6.DefectInstanceDataObj;
+import com.coverity.ws.v6.EventDataObj;
+import com.coverity.ws.v6.ProjectDataObj;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sonar.api.component.ResourcePerspectives;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.Issuable;
+import org.sonar.api.resources.Language;
+import org.sonar.api.resources.Project;
+import org.sonar.api.resources.ProjectFileSystem;
+import org.sonar.api.resources.Resource;
+import org.sonar.plugins.coverity.CoverityPlugin;
+import org.sonar.plugins.coverity.util.CoverityUtil;
+import org.sonar.plugins.coverity.ws.CIMClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per defect steps of {@link CoveritySensor#analyse}, on a synthetic dataset. Every invocation handles the
+ * next defect of the dataset, so the scores are per defect. Build with mvn package, then run with
+ * <pre>java -jar target/benchmarks.jar [-p defects=200000] [-p events=5,50]</pre>
+ * from the benchmarks directory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SensorHotPathBenchmark {
+    private static final File SOURCE_DIR = new File("target/benchmark-sources");
+    private static final Map<Class<?>, Object> STUBS = new ConcurrentHashMap<Class<?>, Object>();
+
+    @Param({"1000", "20000"})
+    public int defects;
+
+    @Param({"5", "40"})
+    public int events;
+
+    @Param({"2"})
+    public int instances;
+
+    @Param({"500"})
+    public int checkers;
+
+    private DefectDataset dataset;
+    private List<ImportedDefect> importedDefects;
+    private CoveritySensor sensor;
+    private Project project;
+    private PathMapper pathMapper;
+    private RuleLookupTable ruleTable;
+    private CIMClient client;
+    private ProjectDataObj projectObj;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataset = new DefectDataset(SOURCE_DIR, defects, Math.max(1, defects / 20), instances, events, checkers);
+        importedDefects = dataset.getDefects();
+
+        Settings settings = new Settings();
+        settings.setProperty(CoverityPlugin.COVERITY_PREFIX, DefectDataset.BUILD_ROOT);
+        sensor = new CoveritySensor(settings, dataset.getProfile(), stub(ResourcePerspectives.class));
+        pathMapper = sensor.createPathMapper();
+        project = createProject();
+
+        client = new CIMClient("localhost", 8080, "admin", "coverity", false);
+        projectObj = new ProjectDataObj();
+        projectObj.setProjectKey(10001L);
+        ruleTable = new RuleLookupTable(dataset.getProfile(), sensor.getDefectURLPrefix(client, projectObj));
+        sensor.createRuleTable(client, projectObj);
+
+        for(ImportedDefect defect : importedDefects) {
+            if(sensor.getResourceForFile(pathMapper.map(defect.getMergedDefect().getFilePathname()), project) == null) {
+                throw new IllegalStateException("Cannot resolve " + defect.getMergedDefect().getFilePathname());
+            }
+        }
+    }
+
+    private ImportedDefect nextDefect() {
+        if(next == importedDefects.size()) {
+            next = 0;
+        }
+        return importedDefects.get(next++);
+    }
+
+    @Benchmark
+    public void getMainEvent(Blackhole bh) {
+        for(DefectInstanceDataObj dido : nextDefect().getStreamDefect().getDefectInstances()) {
+            EventDataObj event = sensor.getMainEvent(dido);
+            bh.consume(event);
+        }
+    }
+
+    @Benchmark
+    public void getRuleKey(Blackhole bh) {
+        for(DefectInstanceDataObj dido : nextDefect().getStreamDefect().getDefectInstances()) {
+            bh.consume(CoverityUtil.getRuleKey(DefectDataset.LANGUAGE, dido));
+        }
+    }
+
+    @Benchmark
+    public void flattenCheckerSubcategoryId(Blackhole bh) {
+        for(DefectInstanceDataObj dido : nextDefect().getStreamDefect().getDefectInstances()) {
+            bh.consume(CoverityUtil.flattenCheckerSubcategoryId(dido.getCheckerSubcategoryId()));
+        }
+    }
+
+    @Benchmark
+    public void ruleLookup(Blackhole bh) {
+        for(DefectInstanceDataObj dido : nextDefect().getStreamDefect().getDefectInstances()) {
+            bh.consume(ruleTable.get(DefectDataset.LANGUAGE, dido.getCheckerSubcategoryId()));
+        }
+    }
+
+    @Benchmark
+    public Object mapPath() {
+        return pathMapper.map(nextDefect().getMergedDefect().getFilePathname());
+    }
+
+    /**
+     * Path mapping and source file lookup, without the once per path memo of resolveResource
+     */
+    @Benchmark
+    public Resource getResourceForFile() throws IOException {
+        return sensor.getResourceForFile(pathMapper.map(nextDefect().getMergedDefect().getFilePathname()), project);
+    }
+
+    @Benchmark
+    public void buildMessage(Blackhole bh) {
+        ImportedDefect defect = nextDefect();
+        for(DefectInstanceDataObj dido : defect.getStreamDefect().getDefectInstances()) {
+            RuleLookupTable.Entry rule = ruleTable.get(DefectDataset.LANGUAGE, dido.getCheckerSubcategoryId());
+            bh.consume(ruleTable.getMessage(rule, defect.getMergedDefect().getCid()));
+        }
+    }
+
+    /**
+     * The issue loop of analyse: file resolution, rule lookup, message and issue creation for every instance of a
+     * defect
+     */
+    @Benchmark
+    public void createIssues() throws Exception {
+        sensor.addIssues(sensor.prepareFile(project, pathMapper, Collections.singletonList(nextDefect())));
+    }
+
+    private static Project createProject() {
+        final ProjectFileSystem fileSystem = stub(ProjectFileSystem.class);
+        Project project = new Project("benchmark") {
+            @Override
+            public ProjectFileSystem getFileSystem() {
+                return fileSystem;
+            }
+        };
+        project.setLanguage(stub(Language.class));
+        return project;
+    }
+
+    /**
+     * Minimal implementations of the Sonar interfaces the sensor uses, so that the measurements do not include
+     * mock overhead: builders return themselves, issues are accepted and the language is Java
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(final Class<T> type) {
+        T stub = (T)STUBS.get(type);
+        if(stub == null) {
+            stub = createStub(type);
+            STUBS.put(type, stub);
+        }
+        return stub;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T createStub(final Class<T> type) {
+        return (T)Proxy.newProxyInstance(SensorHotPathBenchmark.class.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                Class<?> returnType = method.getReturnType();
+                if(name.equals("getSourceDirs")) {
+                    return Arrays.asList(SOURCE_DIR.getAbsoluteFile());
+                } else if(name.equals("getKey")) {
+                    return DefectDataset.LANGUAGE;
+                } else if(name.equals("as")) {
+                    return stub(Issuable.class);
+                } else if(name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if(name.equals("equals")) {
+                    return proxy == args[0];
+                } else if(name.equals("toString")) {
+                    return "Stub " + type.getSimpleName();
+                } else if(returnType == boolean.class) {
+                    return Boolean.TRUE;
+                } else if(returnType.isInstance(proxy)) {
+                    return proxy;
+                } else if(returnType.isInterface()) {
+                    return stub(returnType);
+                }
+                return null;
+            }
+        });
+    }
+}
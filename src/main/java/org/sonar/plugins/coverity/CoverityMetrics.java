@@ -0,0 +1,66 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity;
+
+import org.sonar.api.measures.Metric;
+import org.sonar.api.measures.Metrics;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures of the last Coverity import of a module
+ */
+public class CoverityMetrics implements Metrics {
+    public static final String DOMAIN = "Coverity";
+
+    public static final Metric DEFECTS = new Metric.Builder("coverity_defects", "Coverity Defects", Metric.ValueType.INT)
+            .setDescription("Coverity defects found in the files of the module")
+            .setDirection(Metric.DIRECTION_WORST)
+            .setQualitative(false)
+            .setDomain(DOMAIN)
+            .create();
+
+    public static final Metric UNRESOLVED_DEFECTS = new Metric.Builder("coverity_unresolved_defects", "Coverity Unresolved Defects", Metric.ValueType.INT)
+            .setDescription("Coverity defects whose file could not be found in the module")
+            .setDirection(Metric.DIRECTION_WORST)
+            .setQualitative(false)
+            .setDomain(DOMAIN)
+            .create();
+
+    public static final Metric UNMATCHED_RULE_INSTANCES = new Metric.Builder("coverity_unmatched_rule_instances", "Coverity Instances Without Active Rule", Metric.ValueType.INT)
+            .setDescription("Coverity defect instances whose rule is not active in the quality profile")
+            .setDirection(Metric.DIRECTION_WORST)
+            .setQualitative(false)
+            .setDomain(DOMAIN)
+            .create();
+
+    public static final Metric IMPORT_TIME = new Metric.Builder("coverity_import_time", "Coverity Import Time", Metric.ValueType.MILLISEC)
+            .setDescription("Time spent importing the Coverity defects of the module")
+            .setDirection(Metric.DIRECTION_WORST)
+            .setQualitative(false)
+            .setDomain(DOMAIN)
+            .create();
+
+    public List<Metric> getMetrics() {
+        return Arrays.asList(DEFECTS, UNRESOLVED_DEFECTS, UNMATCHED_RULE_INSTANCES, IMPORT_TIME);
+    }
+}
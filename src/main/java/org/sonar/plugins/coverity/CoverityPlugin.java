@@ -29,6 +29,8 @@ import org.sonar.plugins.coverity.batch.CoveritySensor;
 import org.sonar.plugins.coverity.server.CoverityProfiles;
 import org.sonar.plugins.coverity.server.CoverityRulesRepositories;
 import org.sonar.plugins.coverity.ui.CoverityFooter;
+import org.sonar.plugins.coverity.ws.CIMClient;
+import org.sonar.plugins.coverity.ws.ResilientCaller;
 
 import java.util.List;
 
@@ -39,10 +41,46 @@ public final class CoverityPlugin extends SonarPlugin {
     public static final String COVERITY_CONNECT_USERNAME = "sonar.coverity.connect.username";
     public static final String COVERITY_CONNECT_PASSWORD = "sonar.coverity.connect.password";
     public static final String COVERITY_PROJECT = "sonar.coverity.stream";
+    public static final String COVERITY_EXPORT_FILE = "sonar.coverity.export.file";
     public static final String COVERITY_PREFIX = "sonar.coverity.prefix";
+    public static final String COVERITY_PATH_MAPPINGS = "sonar.coverity.pathMappings";
     public static final String COVERITY_CONNECT_SSL = "sonar.coverity.ssl";
     public static final String REPOSITORY_KEY = "coverity";
     public static final String COVERITY_SOURCE_PATH="sonar.coverity.source.path";
+    public static final String COVERITY_MODULE_FILTER = "sonar.coverity.moduleFilter";
+    public static final String COVERITY_FILTER_STATUSES = "sonar.coverity.filter.statuses";
+    public static final String COVERITY_FILTER_ACTIONS = "sonar.coverity.filter.actions";
+    public static final String COVERITY_FILTER_SEVERITIES = "sonar.coverity.filter.severities";
+    public static final String COVERITY_FILTER_CLASSIFICATIONS = "sonar.coverity.filter.classifications";
+    public static final String COVERITY_FILTER_COMPONENTS = "sonar.coverity.filter.components";
+    public static final String COVERITY_FILTER_ACTIVE_CHECKERS = "sonar.coverity.filter.activeCheckers";
+    public static final String COVERITY_FETCH_THREADS = "sonar.coverity.fetch.threads";
+    public static final String COVERITY_INSTANCE_THREADS = "sonar.coverity.instance.threads";
+    public static final String COVERITY_IMPORT_THREADS = "sonar.coverity.import.threads";
+    public static final String COVERITY_WS_XWSS = "sonar.coverity.ws.xwss";
+    public static final String COVERITY_WS_STREAMING = "sonar.coverity.ws.streaming";
+    public static final String COVERITY_WS_TARGET_LATENCY = "sonar.coverity.ws.targetLatency";
+    public static final String COVERITY_WS_MAX_PAGE_SIZE = "sonar.coverity.ws.maxPageSize";
+    public static final String COVERITY_WS_MAX_SLICE_SIZE = "sonar.coverity.ws.maxSliceSize";
+    public static final String COVERITY_WS_RETRIES = "sonar.coverity.ws.retries";
+    public static final String COVERITY_WS_HEDGING = "sonar.coverity.ws.hedging";
+    public static final String COVERITY_WS_SKIP_FAILED = "sonar.coverity.ws.skipFailedSlices";
+    public static final String COVERITY_WS_COMPRESSION = "sonar.coverity.ws.compression";
+    public static final String COVERITY_WS_COMPRESS_REQUESTS = "sonar.coverity.ws.compressRequests";
+    public static final String COVERITY_WS_FAST_INFOSET = "sonar.coverity.ws.fastInfoset";
+    public static final String COVERITY_WS_CONNECT_TIMEOUT = "sonar.coverity.ws.connectTimeout";
+    public static final String COVERITY_WS_READ_TIMEOUT = "sonar.coverity.ws.readTimeout";
+    public static final String COVERITY_WS_MAX_CONNECTIONS = "sonar.coverity.ws.maxConnections";
+    public static final String COVERITY_CACHE_TTL = "sonar.coverity.cache.ttl";
+    public static final String COVERITY_CACHE_MAX_PROJECTS = "sonar.coverity.cache.maxProjects";
+    public static final String COVERITY_CACHE_MAX_HEAP = "sonar.coverity.cache.maxHeapMb";
+    public static final String COVERITY_INCREMENTAL = "sonar.coverity.incremental";
+    public static final String COVERITY_INCREMENTAL_DIR = "sonar.coverity.incremental.dir";
+    public static final String COVERITY_INCREMENTAL_FULL_SYNC_DAYS = "sonar.coverity.incremental.fullSyncDays";
+    public static final String COVERITY_INCREMENTAL_TIMEOUT = "sonar.coverity.incremental.timeout";
+    public static final String COVERITY_SNAPSHOT = "sonar.coverity.snapshot";
+    public static final String COVERITY_SNAPSHOT_DIR = "sonar.coverity.snapshot.dir";
+    public static final String COVERITY_SNAPSHOT_MAX_AGE = "sonar.coverity.snapshot.maxAge";
 
     // This is where you're going to declare all your Sonar extensions
     public List getExtensions() {
@@ -95,16 +133,273 @@ public final class CoverityPlugin extends SonarPlugin {
                         .onlyOnQualifiers(Qualifiers.PROJECT)
                         .index(++i)
                         .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_EXPORT_FILE)
+                        .name("Coverity Export File")
+                        .description("A cov-format-errors JSON file or an exported defect XML file, optionally gzipped, to read the defects from instead of Coverity Connect. Relative paths are resolved against the module base directory")
+                        .type(PropertyType.STRING)
+                        .onlyOnQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
                 PropertyDefinition.builder(CoverityPlugin.COVERITY_PREFIX)
                         .name("Coverity Files Prefix")
-                        .description("Prefix to strip from filenames to match this Sonar project")
+                        .description("Prefix to strip from filenames to match this Sonar project. Applied after the path mappings")
+                        .type(PropertyType.STRING)
+                        .onlyOnQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_PATH_MAPPINGS)
+                        .name("Coverity Path Mappings")
+                        .description("Rules rewriting the filenames of Coverity into paths of this Sonar project, tried in order. "
+                                + "from=>to replaces the prefix from by to, e.g. /build/agent1/ws=>. and "
+                                + "regex:pattern=>replacement replaces the first match of a regular expression, e.g. regex:^/build/agent\\d+/ws=>.")
+                        .type(PropertyType.STRING)
+                        .multiValues(true)
+                        .onlyOnQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_FETCH_THREADS)
+                        .name("Concurrent Page Requests")
+                        .description("Number of defect pages requested from Coverity Connect at the same time. 1 fetches the pages one after another")
+                        .defaultValue("1")
+                        .type(PropertyType.INTEGER)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_INSTANCE_THREADS)
+                        .name("Concurrent Defect Instance Requests")
+                        .description("Number of worker threads fetching defect instances. Instances are requested while defect pages are still being fetched")
+                        .defaultValue("1")
+                        .type(PropertyType.INTEGER)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_IMPORT_THREADS)
+                        .name("Issue Preparation Threads")
+                        .description("Number of worker threads resolving files and preparing issues. Issues are still added to Sonar by one thread. 0 uses a thread per processor")
+                        .defaultValue("0")
+                        .type(PropertyType.INTEGER)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_WS_XWSS)
+                        .name("Use XWSS Security Processing")
+                        .description("Secure each web service request with XWSS instead of adding a precomputed username token header")
+                        .defaultValue("false")
+                        .type(PropertyType.BOOLEAN)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_WS_STREAMING)
+                        .name("Streaming Defect Decoding")
+                        .description("Decode defect instances while they are received, keeping only their main event, instead of binding whole responses")
+                        .defaultValue("true")
+                        .type(PropertyType.BOOLEAN)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_WS_TARGET_LATENCY)
+                        .name("Target Request Duration")
+                        .description("Seconds a defect request should take. Page and slice sizes shrink when requests are slower, and grow back up to their maximum when they are faster. 0 always uses the maximum sizes")
+                        .defaultValue(String.valueOf(CIMClient.DEFAULT_TARGET_LATENCY / 1000))
+                        .type(PropertyType.INTEGER)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_WS_MAX_PAGE_SIZE)
+                        .name("Maximum Defect Page Size")
+                        .description("Maximum number of merged defects requested at once")
+                        .defaultValue(String.valueOf(CIMClient.MERGED_DEFECTS_PAGE_SIZE))
+                        .type(PropertyType.INTEGER)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_WS_MAX_SLICE_SIZE)
+                        .name("Maximum Defect Instance Request Size")
+                        .description("Maximum number of CIDs whose defect instances are requested at once")
+                        .defaultValue(String.valueOf(CIMClient.GET_STREAM_DEFECTS_MAX_CIDS))
+                        .type(PropertyType.INTEGER)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_WS_RETRIES)
+                        .name("Request Retries")
+                        .description("Number of times a request that failed to reach Coverity Connect is sent again")
+                        .defaultValue(String.valueOf(ResilientCaller.DEFAULT_RETRIES))
+                        .type(PropertyType.INTEGER)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_WS_HEDGING)
+                        .name("Hedged Requests")
+                        .description("Send a request again when it takes longer than 95% of the previous ones, and use the first answer")
+                        .defaultValue("true")
+                        .type(PropertyType.BOOLEAN)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_WS_SKIP_FAILED)
+                        .name("Skip Failed Requests")
+                        .description("Skip the defects whose instances cannot be fetched instead of failing the import")
+                        .defaultValue("true")
+                        .type(PropertyType.BOOLEAN)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_WS_COMPRESSION)
+                        .name("Compressed Responses")
+                        .description("Ask Coverity Connect to gzip its web service responses")
+                        .defaultValue("true")
+                        .type(PropertyType.BOOLEAN)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_WS_COMPRESS_REQUESTS)
+                        .name("Compressed Requests")
+                        .description("Gzip web service requests. Coverity Connect must be configured to accept them")
+                        .defaultValue("false")
+                        .type(PropertyType.BOOLEAN)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_WS_FAST_INFOSET)
+                        .name("Fast Infoset")
+                        .description("Negotiate the Fast Infoset binary XML encoding with Coverity Connect")
+                        .defaultValue("false")
+                        .type(PropertyType.BOOLEAN)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_WS_CONNECT_TIMEOUT)
+                        .name("Connect Timeout")
+                        .description("Seconds to wait for a connection to Coverity Connect. 0 waits indefinitely")
+                        .defaultValue("0")
+                        .type(PropertyType.INTEGER)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_WS_READ_TIMEOUT)
+                        .name("Read Timeout")
+                        .description("Seconds to wait for a web service response. 0 waits indefinitely")
+                        .defaultValue("0")
+                        .type(PropertyType.INTEGER)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_WS_MAX_CONNECTIONS)
+                        .name("Persistent Connections")
+                        .description("Number of idle HTTP connections kept open to Coverity Connect. 0 keeps one per concurrent request")
+                        .defaultValue("0")
+                        .type(PropertyType.INTEGER)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_CACHE_TTL)
+                        .name("Defect Cache Lifetime")
+                        .description("Seconds during which defects fetched from Coverity Connect are reused by later analyses running in the same JVM. 0 disables the cache")
+                        .defaultValue(String.valueOf(CIMClient.DEFAULT_CACHE_TTL / 1000))
+                        .type(PropertyType.INTEGER)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_CACHE_MAX_PROJECTS)
+                        .name("Defect Cache Size")
+                        .description("Maximum number of projects whose defects are kept in memory")
+                        .defaultValue(String.valueOf(CIMClient.DEFAULT_CACHE_MAX_PROJECTS))
+                        .type(PropertyType.INTEGER)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_CACHE_MAX_HEAP)
+                        .name("Defect Cache Heap Limit")
+                        .description("Maximum estimated heap usage of the cached defects, in megabytes. Defaults to the smaller of 64 and an eighth of the maximum heap size")
+                        .type(PropertyType.INTEGER)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_MODULE_FILTER)
+                        .name("Filter Defects by Module")
+                        .description("Only fetch the defects found in the source directories of the module being analysed, instead of every defect of the Coverity project")
+                        .defaultValue("false")
+                        .type(PropertyType.BOOLEAN)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_FILTER_STATUSES)
+                        .name("Defect Statuses")
+                        .description("Statuses of the defects to import, empty for every status")
+                        .defaultValue("Triaged,New")
+                        .multiValues(true)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_FILTER_ACTIONS)
+                        .name("Defect Actions")
+                        .description("Triage actions of the defects to import, empty for every action")
+                        .defaultValue("Undecided,Fix Required,Fix Submitted,Modeling Required")
+                        .multiValues(true)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_FILTER_SEVERITIES)
+                        .name("Defect Severities")
+                        .description("Triage severities of the defects to import, empty for every severity")
+                        .multiValues(true)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_FILTER_CLASSIFICATIONS)
+                        .name("Defect Classifications")
+                        .description("Triage classifications of the defects to import, empty for every classification")
+                        .multiValues(true)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_FILTER_COMPONENTS)
+                        .name("Components")
+                        .description("Names of the Coverity components whose defects are imported, empty for every component")
+                        .multiValues(true)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_FILTER_ACTIVE_CHECKERS)
+                        .name("Filter Defects by Active Rules")
+                        .description("Only fetch the defects of the checkers whose rules are active in the quality profile")
+                        .defaultValue("true")
+                        .type(PropertyType.BOOLEAN)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_INCREMENTAL)
+                        .name("Incremental Defect Import")
+                        .description("Keep a baseline of the imported defects on disk and only fetch the defects that changed since the previous analysis")
+                        .defaultValue("false")
+                        .type(PropertyType.BOOLEAN)
+                        .onlyOnQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_INCREMENTAL_DIR)
+                        .name("Defect Baseline Directory")
+                        .description("Directory where the defect baselines are stored. Defaults to a directory in the Sonar working directory")
                         .type(PropertyType.STRING)
                         .onlyOnQualifiers(Qualifiers.PROJECT)
                         .index(++i)
                         .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_INCREMENTAL_FULL_SYNC_DAYS)
+                        .name("Full Defect Import Interval")
+                        .description("Number of days after which every defect is fetched again, refreshing the line numbers of known defects")
+                        .defaultValue("7")
+                        .type(PropertyType.INTEGER)
+                        .onlyOnQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_INCREMENTAL_TIMEOUT)
+                        .name("Defect Baseline Refresh Timeout")
+                        .description("Seconds to wait for Coverity Connect before importing the stored defect baseline as is. 0 waits until the baseline is refreshed")
+                        .defaultValue("0")
+                        .type(PropertyType.INTEGER)
+                        .onlyOnQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_SNAPSHOT)
+                        .name("Shared Defect Snapshots")
+                        .description("Save the fetched defects of every module to a binary file, which the analyses of other modules and branches import until a new snapshot is committed to the Coverity project")
+                        .defaultValue("false")
+                        .type(PropertyType.BOOLEAN)
+                        .onlyOnQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_SNAPSHOT_DIR)
+                        .name("Defect Snapshot Directory")
+                        .description("Directory where the defect snapshots are stored, shared by the analyses that use it. Defaults to a directory in the Sonar working directory of the root project")
+                        .type(PropertyType.STRING)
+                        .onlyOnQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_SNAPSHOT_MAX_AGE)
+                        .name("Defect Snapshot Maximum Age")
+                        .description("Minutes after which the defects are fetched again even if no snapshot was committed, picking up triage changes")
+                        .defaultValue("60")
+                        .type(PropertyType.INTEGER)
+                        .onlyOnQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
 
                 //Batch
                 CoveritySensor.class,
+                CoverityMetrics.class,
 
                 //Server
                 CoverityRulesRepositories.class,
@@ -0,0 +1,113 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import com.coverity.ws.v6.CovRemoteServiceException_Exception;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.coverity.ws.CIMClient;
+import org.sonar.plugins.coverity.ws.ProjectDefects;
+import org.sonar.plugins.coverity.ws.ProjectDefectsCollector;
+import org.sonar.plugins.coverity.ws.StreamDefectFetcher;
+import org.sonar.plugins.coverity.ws.StreamDefectListener;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fetches the defects of a project from Coverity Connect. Merged defect pages are streamed into a
+ * {@link StreamDefectFetcher}, so instances are requested while pages are still arriving. Complete fetches are
+ * kept in the defect cache of the client and replayed by later analyses of the project.
+ */
+public class CIMDefectSource implements DefectSource {
+    private static final Logger LOG = LoggerFactory.getLogger(CIMDefectSource.class);
+    private static final int SLICE_SIZE = 500;
+
+    private final CIMClient client;
+    private final String project;
+    private List<Long> skippedCids = Collections.emptyList();
+
+    public CIMDefectSource(CIMClient client, String project) {
+        this.client = client;
+        this.project = project;
+    }
+
+    public void fetch(StreamDefectListener listener) throws IOException, CovRemoteServiceException_Exception {
+        ProjectDefects cached = client.getCachedProjectDefects(project);
+        if(cached != null) {
+            LOG.info("Using cached defects of project " + project);
+            replay(cached, listener);
+            skippedCids = Collections.emptyList();
+            return;
+        }
+
+        ProjectDefectsCollector collector = client.createProjectDefectsCollector(listener);
+        StreamDefectFetcher fetcher = client.createStreamDefectFetcher(collector);
+        boolean submitted = false;
+        try {
+            client.streamDefects(project, fetcher);
+            submitted = true;
+        } finally {
+            if(!submitted) {
+                fetcher.cancel();
+            }
+        }
+        fetcher.finish();
+        skippedCids = fetcher.getSkippedCids();
+        //defects of skipped slices have no stream defects, do not keep them for the next analysis
+        if(skippedCids.isEmpty()) {
+            client.cacheProjectDefects(project, collector);
+        }
+    }
+
+    private static void replay(ProjectDefects defects, StreamDefectListener listener) throws IOException {
+        List<MergedDefectDataObj> mergedDefects = defects.getMergedDefects();
+        try {
+            for(int i = 0; i < mergedDefects.size(); i += SLICE_SIZE) {
+                List<MergedDefectDataObj> mddos = mergedDefects.subList(i, Math.min(mergedDefects.size(), i + SLICE_SIZE));
+                List<StreamDefectDataObj> sddos = new ArrayList<StreamDefectDataObj>(mddos.size());
+                for(MergedDefectDataObj mddo : mddos) {
+                    StreamDefectDataObj sddo = defects.getStreamDefects().get(mddo.getCid());
+                    if(sddo != null) {
+                        sddos.add(sddo);
+                    }
+                }
+                listener.onStreamDefects(new ArrayList<MergedDefectDataObj>(mddos), sddos);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while replaying cached defects");
+        }
+    }
+
+    public List<Long> getSkippedCids() {
+        return skippedCids;
+    }
+
+    public boolean isStale() {
+        return false;
+    }
+}
@@ -20,12 +20,10 @@
 
 package org.sonar.plugins.coverity.batch;
 
-import com.coverity.ws.v6.CovRemoteServiceException_Exception;
 import com.coverity.ws.v6.DefectInstanceDataObj;
 import com.coverity.ws.v6.EventDataObj;
 import com.coverity.ws.v6.MergedDefectDataObj;
 import com.coverity.ws.v6.ProjectDataObj;
-import com.coverity.ws.v6.StreamDefectDataObj;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonar.api.batch.Sensor;
@@ -39,21 +37,37 @@ import org.sonar.api.resources.Project;
 import org.sonar.api.resources.ProjectFileSystem;
 import org.sonar.api.resources.Resource;
 import org.sonar.api.rules.ActiveRule;
-import org.sonar.api.rules.Rule;
+import org.sonar.plugins.coverity.CoverityMetrics;
 import org.sonar.plugins.coverity.CoverityPlugin;
+import org.sonar.plugins.coverity.server.CoverityRulesRepositories;
 import org.sonar.plugins.coverity.util.CoverityUtil;
 import org.sonar.plugins.coverity.ws.CIMClient;
+import org.sonar.plugins.coverity.ws.DefectFilterSpecFactory;
+import org.sonar.plugins.coverity.ws.ResilientCaller;
+import org.sonar.plugins.coverity.ws.TransportOptions;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
 
 public class CoveritySensor implements Sensor {
     private static final Logger LOG = LoggerFactory.getLogger(CoveritySensor.class); //logger
+    private static final int IMPORT_QUEUE_CAPACITY = 16;  //slices waiting between two import stages
+    private static final int MAX_CHECKER_FILTERS = 1000;  //checker subcategory filters sent with every defect request
+    private static final String SOURCE_PATH_REGEX = "\\/u/covdev/ccm_wa/symbios/RAIDCore-cdTrunk/dev_e10_820_\\w{4}-68.20.99.99+";  //build paths replaced by the source path
     private final ResourcePerspectives resourcePerspectives;  //resource perspective constructor injection
     private Settings settings;  //settings
     private RulesProfile profile;  //profile for rules
+    private SourceFileIndex sourceIndex;  //source files of the analysed module
+    private ImportMetrics metrics = new ImportMetrics();  //timers and counters of the analysis
+    private RuleLookupTable ruleTable;  //active rules of the analysis by checker subcategory
+    private final Map<String, Resource> resources = Collections.synchronizedMap(new HashMap<String, Resource>());  //resolved Coverity paths, null for files not in the module
 
     public CoveritySensor(Settings settings, RulesProfile profile, ResourcePerspectives resourcePerspectives) {
         this.settings = settings;
@@ -76,6 +90,25 @@ public class CoveritySensor implements Sensor {
             return;
         }
 
+        long analysisStart = System.nanoTime();
+        metrics = new ImportMetrics();
+        PathMapper pathMapper = createPathMapper();
+
+        File exportFile = getExportFile(project);
+        if(exportFile != null) {
+            ruleTable = new RuleLookupTable(profile, null);
+            try {
+                LOG.info("Reading defects from " + exportFile);
+                importDefects(project, new ExportDefectSource(exportFile), pathMapper);
+            } catch(Exception e) {
+                LOG.error("Error reading defects from " + exportFile, e);
+            }
+            metrics.record(ImportMetrics.Phase.TOTAL, analysisStart);
+            LOG.info(metrics.toString());
+            saveMeasures(project, sensorContext);
+            return;
+        }
+
         //make sure to use the right SAAJ library. The one included with some JREs is missing a required file (a
         // LocalStrings bundle)
         ClassLoader oldCL = Thread.currentThread().getContextClassLoader();
@@ -90,14 +123,33 @@ public class CoveritySensor implements Sensor {
         boolean ssl = settings.getBoolean(CoverityPlugin.COVERITY_CONNECT_SSL);
 
         String covProject = settings.getString(CoverityPlugin.COVERITY_PROJECT);
-        String stripPrefix = settings.getString(CoverityPlugin.COVERITY_PREFIX);
 
+        configureCache();
         CIMClient instance = new CIMClient(host, port, user, password, ssl);
+        instance.setPageFetchThreads(settings.getInt(CoverityPlugin.COVERITY_FETCH_THREADS));
+        instance.setStreamDefectThreads(settings.getInt(CoverityPlugin.COVERITY_INSTANCE_THREADS));
+        instance.setUseXWSS(settings.getBoolean(CoverityPlugin.COVERITY_WS_XWSS));
+        instance.setTransportOptions(createTransportOptions());
+        instance.configureBatchSizes(
+                settings.hasKey(CoverityPlugin.COVERITY_WS_TARGET_LATENCY) ? settings.getLong(CoverityPlugin.COVERITY_WS_TARGET_LATENCY) * 1000 : CIMClient.DEFAULT_TARGET_LATENCY,
+                settings.hasKey(CoverityPlugin.COVERITY_WS_MAX_PAGE_SIZE) ? settings.getInt(CoverityPlugin.COVERITY_WS_MAX_PAGE_SIZE) : CIMClient.MERGED_DEFECTS_PAGE_SIZE,
+                settings.hasKey(CoverityPlugin.COVERITY_WS_MAX_SLICE_SIZE) ? settings.getInt(CoverityPlugin.COVERITY_WS_MAX_SLICE_SIZE) : CIMClient.GET_STREAM_DEFECTS_MAX_CIDS);
+        instance.configureResilience(
+                settings.hasKey(CoverityPlugin.COVERITY_WS_RETRIES) ? settings.getInt(CoverityPlugin.COVERITY_WS_RETRIES) : ResilientCaller.DEFAULT_RETRIES,
+                !settings.hasKey(CoverityPlugin.COVERITY_WS_HEDGING) || settings.getBoolean(CoverityPlugin.COVERITY_WS_HEDGING));
+        instance.setSkipFailedSlices(!settings.hasKey(CoverityPlugin.COVERITY_WS_SKIP_FAILED) || settings.getBoolean(CoverityPlugin.COVERITY_WS_SKIP_FAILED));
+        instance.setStreamingDecoding(!settings.hasKey(CoverityPlugin.COVERITY_WS_STREAMING) || settings.getBoolean(CoverityPlugin.COVERITY_WS_STREAMING));
+        instance.setFilterSpecFactory(createFilterSpecFactory(project, pathMapper));
+        instance.getResilientCaller().setCallListener(metrics);
+        int maxConnections = settings.getInt(CoverityPlugin.COVERITY_WS_MAX_CONNECTIONS);
+        TransportOptions.configureConnectionPool(maxConnections > 0 ? maxConnections : instance.getPortPoolSize());
 
         //find the configured project
         ProjectDataObj covProjectObj = null;
         try {
+            long start = System.nanoTime();
             covProjectObj = instance.getProject(covProject);
+            metrics.record(ImportMetrics.Phase.PROJECT_LOOKUP, start);
             LOG.info("Found project: " + covProject + " (" + covProjectObj.getProjectKey() + ")");
 
             if(covProjectObj == null) {
@@ -116,85 +168,439 @@ public class CoveritySensor implements Sensor {
             LOG.debug(ar.toString());
         }
 
+        createRuleTable(instance, covProjectObj);
+
         try {
             LOG.info("Fetching defects for project: " + covProject);
-            List<MergedDefectDataObj> defects = instance.getDefects(covProject);
+            importDefects(project, createDefectSource(project, instance, covProject), pathMapper);
+            LOG.info(instance.getResilientCaller().toString());
+        } catch(Exception e) {
+            LOG.error("Error fetching defects", e);
+        }
+
+        metrics.record(ImportMetrics.Phase.TOTAL, analysisStart);
+        LOG.info(metrics.toString());
+        saveMeasures(project, sensorContext);
+
+        LOG.debug(CIMClient.getProjectCache().toString());
+        LOG.debug(CIMClient.getDefectCache().toString());
+
+        Thread.currentThread().setContextClassLoader(oldCL);
+    }
+
+    /**
+     * Creates the issues of the defects of a source, resolving their files on the worker threads of the import
+     *
+     * @return the number of defects read from the source
+     */
+    protected int importDefects(final Project project, DefectSource source, final PathMapper pathMapper) throws Exception {
+        sourceIndex = createSourceFileIndex(project);
+        resources.clear();
+
+        DefectImportPipeline pipeline = new DefectImportPipeline(source, new DefectImportPipeline.Preparer() {
+            public PreparedFile prepare(List<ImportedDefect> defects) throws IOException {
+                return prepareFile(project, pathMapper, defects);
+            }
+        }, IMPORT_QUEUE_CAPACITY);
+        pipeline.setMetrics(metrics);
+        int threads = settings.getInt(CoverityPlugin.COVERITY_IMPORT_THREADS);
+        pipeline.setThreads(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+
+        int count = pipeline.run(new DefectImportPipeline.Consumer() {
+            public void accept(PreparedFile file) {
+                addIssues(file);
+            }
+        });
+
+        metrics.add(ImportMetrics.Count.DEFECTS, count);
+        //defects of the slices the source could not fetch never reach the pipeline
+        metrics.add(ImportMetrics.Count.SKIPPED_DEFECTS, source.getSkippedCids().size());
+        LOG.info("Found " + count + " defects");
+        LOG.info(pathMapper.toString());
+        return count;
+    }
+
+    protected ImportMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the configured export file to read the defects from, or null to fetch them from Coverity Connect
+     */
+    protected File getExportFile(Project project) {
+        String path = settings.getString(CoverityPlugin.COVERITY_EXPORT_FILE);
+        if(path == null || path.trim().isEmpty()) {
+            return null;
+        }
+        File file = new File(path.trim());
+        if(!file.isAbsolute()) {
+            file = new File(project.getFileSystem().getBasedir(), path.trim());
+        }
+        return file;
+    }
+
+    /**
+     * Saves the metrics of the import as measures of the module, and writes them to coverity-import.json in the
+     * working directory
+     */
+    protected void saveMeasures(Project project, SensorContext sensorContext) {
+        sensorContext.saveMeasure(CoverityMetrics.DEFECTS, (double)(metrics.get(ImportMetrics.Count.DEFECTS) - metrics.get(ImportMetrics.Count.UNRESOLVED_DEFECTS)));
+        sensorContext.saveMeasure(CoverityMetrics.UNRESOLVED_DEFECTS, (double)metrics.get(ImportMetrics.Count.UNRESOLVED_DEFECTS));
+        sensorContext.saveMeasure(CoverityMetrics.UNMATCHED_RULE_INSTANCES, (double)metrics.get(ImportMetrics.Count.UNMATCHED_RULE_INSTANCES));
+        sensorContext.saveMeasure(CoverityMetrics.IMPORT_TIME, (double)metrics.getMillis(ImportMetrics.Phase.TOTAL));
+
+        File report = new File(project.getFileSystem().getSonarWorkingDirectory(), "coverity-import.json");
+        try {
+            metrics.writeJson(report);
+            LOG.debug("Wrote import metrics to " + report);
+        } catch(IOException e) {
+            LOG.warn("Cannot write import metrics to " + report, e);
+        }
+    }
+
+    /**
+     * Creates the path mapper from the configured rules, followed by the prefix to strip and the source path
+     */
+    protected PathMapper createPathMapper() {
+        PathMapper mapper = new PathMapper();
+        for(String rule : settings.getStringArray(CoverityPlugin.COVERITY_PATH_MAPPINGS)) {
+            if(!rule.trim().isEmpty()) {
+                mapper.add(rule);
+            }
+        }
+        String stripPrefix = settings.getString(CoverityPlugin.COVERITY_PREFIX);
+        if(stripPrefix != null && !stripPrefix.isEmpty()) {
+            mapper.addPrefix(stripPrefix, "./");
+        }
+        String sourcePath = settings.getString(CoverityPlugin.COVERITY_SOURCE_PATH);
+        if(sourcePath != null) {
+            mapper.addRegex(SOURCE_PATH_REGEX, Matcher.quoteReplacement(sourcePath));
+        }
+        return mapper;
+    }
+
+    protected SourceFileIndex createSourceFileIndex(Project module) {
+        SourceFileIndex index = new SourceFileIndex(new File("."), module.getFileSystem().getSourceDirs());
+        LOG.info("Indexed " + index.size() + " source files");
+        return index;
+    }
+
+    private TransportOptions createTransportOptions() {
+        TransportOptions options = new TransportOptions();
+        options.setCompressResponses(!settings.hasKey(CoverityPlugin.COVERITY_WS_COMPRESSION) || settings.getBoolean(CoverityPlugin.COVERITY_WS_COMPRESSION));
+        options.setCompressRequests(settings.getBoolean(CoverityPlugin.COVERITY_WS_COMPRESS_REQUESTS));
+        options.setFastInfoset(settings.getBoolean(CoverityPlugin.COVERITY_WS_FAST_INFOSET));
+        options.setConnectTimeout(settings.getInt(CoverityPlugin.COVERITY_WS_CONNECT_TIMEOUT) * 1000);
+        options.setReadTimeout(settings.getInt(CoverityPlugin.COVERITY_WS_READ_TIMEOUT) * 1000);
+        LOG.debug(options.toString());
+        return options;
+    }
+
+    /**
+     * Applies the cache settings to the defect cache shared by the analyses of this JVM
+     */
+    private void configureCache() {
+        long ttl = settings.hasKey(CoverityPlugin.COVERITY_CACHE_TTL) ? settings.getLong(CoverityPlugin.COVERITY_CACHE_TTL) * 1000 : CIMClient.DEFAULT_CACHE_TTL;
+        int maxProjects = settings.hasKey(CoverityPlugin.COVERITY_CACHE_MAX_PROJECTS) ? settings.getInt(CoverityPlugin.COVERITY_CACHE_MAX_PROJECTS) : CIMClient.DEFAULT_CACHE_MAX_PROJECTS;
+        long maxHeap = settings.hasKey(CoverityPlugin.COVERITY_CACHE_MAX_HEAP) ? settings.getLong(CoverityPlugin.COVERITY_CACHE_MAX_HEAP) * 1024 * 1024 : CIMClient.DEFAULT_CACHE_MAX_HEAP;
+        CIMClient.configureCache(ttl, maxProjects, maxHeap);
+    }
+
+    /**
+     * Creates the source of the defects to import, incremental and read from a shared snapshot if enabled in the
+     * settings
+     */
+    protected DefectSource createDefectSource(Project project, CIMClient instance, String covProject) {
+        if(!settings.getBoolean(CoverityPlugin.COVERITY_SNAPSHOT)) {
+            return createFetchSource(project, instance, covProject);
+        }
+
+        //the snapshot holds the defects of every module, the module picks the defects of its files from it
+        List<String> filenamePatterns = instance.getFilterSpecFactory().getFilenamePatterns();
+        instance.getFilterSpecFactory().setFilenamePatterns(Collections.<String>emptyList());
+
+        String dir = settings.getString(CoverityPlugin.COVERITY_SNAPSHOT_DIR);
+        File snapshotDir = dir != null && dir.length() > 0 ? new File(dir) : new File(getRoot(project).getFileSystem().getSonarWorkingDirectory(), "coverity");
+        File snapshotFile = new File(snapshotDir, getCacheFileName(instance, covProject) + ".snapshot");
+        long maxAge = Math.max(0, settings.getInt(CoverityPlugin.COVERITY_SNAPSHOT_MAX_AGE)) * 60L * 1000;
+
+        SnapshotDefectSource source = new SnapshotDefectSource(instance, covProject, snapshotFile, createFetchSource(project, instance, covProject), maxAge);
+        source.setFilenamePatterns(filenamePatterns);
+        return source;
+    }
+
+    /**
+     * Creates the source fetching the defects from Coverity Connect, incremental if enabled in the settings
+     */
+    protected DefectSource createFetchSource(Project project, CIMClient instance, String covProject) {
+        if(!settings.getBoolean(CoverityPlugin.COVERITY_INCREMENTAL)) {
+            return new CIMDefectSource(instance, covProject);
+        }
+
+        String dir = settings.getString(CoverityPlugin.COVERITY_INCREMENTAL_DIR);
+        File baselineDir = dir != null && dir.length() > 0 ? new File(dir) : new File(project.getFileSystem().getSonarWorkingDirectory(), "coverity");
+        File baselineFile = new File(baselineDir, getCacheFileName(instance, covProject) + ".baseline");
+        long fullSyncInterval = Math.max(0, settings.getInt(CoverityPlugin.COVERITY_INCREMENTAL_FULL_SYNC_DAYS)) * 24L * 60 * 60 * 1000;
+        long revalidateTimeout = Math.max(0, settings.getInt(CoverityPlugin.COVERITY_INCREMENTAL_TIMEOUT)) * 1000L;
+
+        LOG.info("Using defect baseline " + baselineFile);
+        return new IncrementalDefectSource(instance, covProject, baselineFile, fullSyncInterval, revalidateTimeout);
+    }
+
+    /**
+     * @return a file name identifying the server, project and filter of the defects fetched by the client
+     */
+    private static String getCacheFileName(CIMClient instance, String covProject) {
+        String name = instance.getHost() + "_" + instance.getPort() + "_" + covProject;
+        String filter = instance.getFilterSpecFactory().getFingerprint();
+        if(!filter.isEmpty()) {
+            name += "_" + Integer.toHexString(filter.hashCode());
+        }
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
 
-            Map<Long, StreamDefectDataObj> streamDefects = instance.getStreamDefectsForMergedDefects(defects);
+    private static Project getRoot(Project project) {
+        Project root = project;
+        while(root.getParent() != null) {
+            root = root.getParent();
+        }
+        return root;
+    }
+
+    /**
+     * Creates the filter selecting the defects to fetch from the filter settings, the active rules of the module
+     * language and, if enabled, the source directories of the module
+     */
+    protected DefectFilterSpecFactory createFilterSpecFactory(Project project, PathMapper pathMapper) {
+        DefectFilterSpecFactory factory = new DefectFilterSpecFactory();
+        if(settings.hasKey(CoverityPlugin.COVERITY_FILTER_STATUSES)) {
+            factory.setStatuses(Arrays.asList(settings.getStringArray(CoverityPlugin.COVERITY_FILTER_STATUSES)));
+        }
+        if(settings.hasKey(CoverityPlugin.COVERITY_FILTER_ACTIONS)) {
+            factory.setActions(Arrays.asList(settings.getStringArray(CoverityPlugin.COVERITY_FILTER_ACTIONS)));
+        }
+        if(settings.hasKey(CoverityPlugin.COVERITY_FILTER_SEVERITIES)) {
+            factory.setSeverities(Arrays.asList(settings.getStringArray(CoverityPlugin.COVERITY_FILTER_SEVERITIES)));
+        }
+        if(settings.hasKey(CoverityPlugin.COVERITY_FILTER_CLASSIFICATIONS)) {
+            factory.setClassifications(Arrays.asList(settings.getStringArray(CoverityPlugin.COVERITY_FILTER_CLASSIFICATIONS)));
+        }
+        if(settings.hasKey(CoverityPlugin.COVERITY_FILTER_COMPONENTS)) {
+            factory.setComponents(Arrays.asList(settings.getStringArray(CoverityPlugin.COVERITY_FILTER_COMPONENTS)));
+        }
+
+        String domain = CoverityRulesRepositories.languageDomains.get(project.getLanguageKey());
+        if(domain != null && (!settings.hasKey(CoverityPlugin.COVERITY_FILTER_ACTIVE_CHECKERS) || settings.getBoolean(CoverityPlugin.COVERITY_FILTER_ACTIVE_CHECKERS))) {
+            List<String> checkers = new ArrayList<String>();
+            for(ActiveRule ar : profile.getActiveRulesByRepository(CoverityPlugin.REPOSITORY_KEY + "-" + project.getLanguageKey())) {
+                checkers.add(ar.getRuleKey());
+            }
+            factory.setCheckers(domain, checkers);
+            if(factory.getCheckerFilterCount() > MAX_CHECKER_FILTERS) {
+                //larger filters cost more on every request than the inactive defects they would leave out
+                LOG.info(checkers.size() + " active rules, fetching the defects of every checker");
+                factory.setCheckers(domain, Collections.<String>emptyList());
+            }
+        }
+
+        if(settings.getBoolean(CoverityPlugin.COVERITY_MODULE_FILTER)) {
+            List<String> patterns = getModuleFilenamePatterns(project, pathMapper);
+            if(patterns != null) {
+                factory.setFilenamePatterns(patterns);
+            }
+        }
 
-            LOG.info("Found " + streamDefects.size() + " defects");
+        LOG.info("Fetching defects with " + factory);
+        return factory;
+    }
 
-            for(MergedDefectDataObj mddo : defects) {
-                String filePath = mddo.getFilePathname();
-                if (stripPrefix != null && !stripPrefix.isEmpty() && filePath.startsWith(stripPrefix))
-                    filePath = "./" + filePath.substring(stripPrefix.length());
-                Resource res = getResourceForFile(filePath, project);
+    /**
+     * Turns the source directories of a module into Coverity filename patterns, so that the server only returns
+     * the defects of the module. The patterns undo the prefix rules of the path mapper: a source directory covered
+     * by the target of prefix rules is matched under each of their prefixes, otherwise by its absolute path.
+     *
+     * @return the patterns, or null if the paths of the defects of the module cannot be described by patterns
+     */
+    protected List<String> getModuleFilenamePatterns(Project module, PathMapper pathMapper) {
+        if(pathMapper.hasRegexRules()) {
+            LOG.warn("Cannot filter defects by module with regular expression path mappings, fetching the defects of every module");
+            return null;
+        }
 
-                if(res == null) {
-                    LOG.info("Cannot find the file '" + filePath + "' in "+ project.getFileSystem().getSourceDirs() + ", skipping defect (CID " + mddo.getCid() + ")");
+        String base = SourceFileIndex.normalize(getCanonicalPath(new File(".")));
+        List<String> patterns = new ArrayList<String>();
+        for(File dir : module.getFileSystem().getSourceDirs()) {
+            String canonical = SourceFileIndex.normalize(getCanonicalPath(dir));
+            List<String> paths = new ArrayList<String>();
+            for(PathMapper.Rule rule : pathMapper.getRules()) {
+                String target = rule.getTo().startsWith("/") ? SourceFileIndex.normalize(rule.getTo()) : SourceFileIndex.normalize(base + "/" + rule.getTo());
+                String rest;
+                if(canonical.equals(target)) {
+                    rest = "";
+                } else if(canonical.startsWith(target.endsWith("/") ? target : target + "/")) {
+                    rest = canonical.substring(target.endsWith("/") ? target.length() : target.length() + 1);
+                } else {
                     continue;
                 }
+                String from = rule.getFrom();
+                paths.add(from.endsWith("/") || rest.isEmpty() ? from + rest : from + "/" + rest);
+            }
+            if(paths.isEmpty()) {
+                if(!pathMapper.getRules().isEmpty()) {
+                    LOG.warn("Source directory " + dir + " is not covered by the path mappings, fetching the defects of every module");
+                    return null;
+                }
+                paths.add(dir.getAbsolutePath().replace(File.separatorChar, '/'));
+            }
+            for(String path : paths) {
+                patterns.add(path.endsWith("/") ? path + "*" : path + "/*");
+            }
+        }
+        return patterns.isEmpty() ? null : patterns;
+    }
 
-                for(DefectInstanceDataObj dido : streamDefects.get(mddo.getCid()).getDefectInstances()) {
-                    //find the main event, so we can use its line number
-                    EventDataObj mainEvent = getMainEvent(dido);
-                    
-                    
+    private static String getCanonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch(IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
 
-                    Issuable issuable = resourcePerspectives.as(Issuable.class, res);
+    /**
+     * Finds the resource of the file a defect was found in, after rewriting its path with the path mapper. Every
+     * path is only resolved once per analysis.
+     *
+     * @return the resource, or null if the file isn't part of the module
+     */
+    protected Resource resolveResource(MergedDefectDataObj mddo, Project project, PathMapper pathMapper) throws IOException {
+        String coverityPath = mddo.getFilePathname();
+        if(resources.containsKey(coverityPath)) {
+            return resources.get(coverityPath);
+        }
 
-                    org.sonar.api.resources.Language lang = res.getLanguage();
-                    if (lang == null) {
-                        lang = project.getLanguage();
-                    }
-                    org.sonar.api.rule.RuleKey rk = CoverityUtil.getRuleKey(lang.getKey(), dido);
-                    ActiveRule ar = profile.getActiveRule(rk.repository(), rk.rule());
+        String filePath = pathMapper.map(coverityPath);
+        Resource res = getResourceForFile(filePath, project);
 
+        if(res == null) {
+            LOG.info("Cannot find the file '" + filePath + "' in "+ project.getFileSystem().getSourceDirs() + ", skipping its defects (first CID " + mddo.getCid() + ")");
+        }
+        resources.put(coverityPath, res);
+        return res;
+    }
+
+    /**
+     * Looks up the active rules of the analysis, with links to the defects of the Coverity project in their messages
+     */
+    protected void createRuleTable(CIMClient instance, ProjectDataObj covProjectObj) {
+        ruleTable = new RuleLookupTable(profile, getDefectURLPrefix(instance, covProjectObj));
+    }
+
+    /**
+     * Resolves the file of defects found in the same Coverity file and prepares their issues. Runs on the worker
+     * threads of the import, so it must not use the issue API of Sonar.
+     */
+    protected PreparedFile prepareFile(Project project, PathMapper pathMapper, List<ImportedDefect> defects) throws IOException {
+        long start = System.nanoTime();
+        Resource res = resolveResource(defects.get(0).getMergedDefect(), project, pathMapper);
+        metrics.record(ImportMetrics.Phase.PATH_RESOLUTION, start);
+        if(res == null) {
+            metrics.add(ImportMetrics.Count.UNRESOLVED_DEFECTS, defects.size());
+            return new PreparedFile(null, defects.size(), Collections.<PreparedIssue>emptyList());
+        }
+        return new PreparedFile(res, defects.size(), prepareIssues(project, res, defects));
+    }
+
+    /**
+     * Finds the main event and the rule of every instance of the defects, and builds the issue messages. The
+     * language of the file is looked up once for all of them.
+     */
+    protected List<PreparedIssue> prepareIssues(Project project, Resource res, List<ImportedDefect> defects) {
+        org.sonar.api.resources.Language lang = res.getLanguage();
+        if (lang == null) {
+            lang = project.getLanguage();
+        }
+        String language = lang.getKey();
+
+        List<PreparedIssue> issues = new ArrayList<PreparedIssue>();
+        for(ImportedDefect defect : defects) {
+            MergedDefectDataObj mddo = defect.getMergedDefect();
+            for(DefectInstanceDataObj dido : defect.getStreamDefect().getDefectInstances()) {
+                metrics.increment(ImportMetrics.Count.INSTANCES);
+                //find the main event, so we can use its line number
+                EventDataObj mainEvent = getMainEvent(dido);
+                long start = System.nanoTime();
+                RuleLookupTable.Entry rule = ruleTable.get(language, dido.getCheckerSubcategoryId());
+                metrics.record(ImportMetrics.Phase.RULE_LOOKUP, start);
+
+                if(LOG.isDebugEnabled()) {
                     LOG.debug("mainEvent=" + mainEvent);
-                    LOG.debug("issuable=" + issuable);
-                    LOG.debug("ar=" + ar);
-                    if(mainEvent != null && issuable != null && ar != null) {
-                        LOG.debug("instance=" + instance);
-                        LOG.debug("ar.getRule()=" + ar.getRule());
-                        LOG.debug("covProjectObj=" + covProjectObj);
-                        LOG.debug("mddo=" + mddo);
-                        LOG.debug("dido=" + dido);
-                        LOG.debug("ar.getRule().getDescription()=" + ar.getRule().getDescription());
-                        String message = getIssueMessage(instance, ar.getRule(), covProjectObj, mddo, dido);
-
-                        Issue issue = issuable.newIssueBuilder()
-                                .ruleKey(ar.getRule().ruleKey())
-                                .line(mainEvent.getLineNumber())
-                                .message(message)
-                                .attribute("coverity-issue-id", mddo.getCid().toString())
-                                .build();
-                        LOG.debug("issue=" + issue);
-                        boolean result = issuable.addIssue(issue);
-                        LOG.debug("result=" + result);
-                    } else {
-                        LOG.info("Couldn't create issue: " + mddo.getCid());
+                    LOG.debug("ar=" + (rule == null ? null : rule.getActiveRule()));
+                    LOG.debug("mddo=" + mddo);
+                    LOG.debug("dido=" + dido);
+                }
+                if(mainEvent != null && rule != null) {
+                    issues.add(new PreparedIssue(rule.getRuleKey(), mainEvent.getLineNumber(), ruleTable.getMessage(rule, mddo.getCid()), mddo.getCid()));
+                } else {
+                    if(mainEvent == null) {
+                        metrics.increment(ImportMetrics.Count.NO_MAIN_EVENT_INSTANCES);
+                    }
+                    if(rule == null) {
+                        metrics.increment(ImportMetrics.Count.UNMATCHED_RULE_INSTANCES);
                     }
+                    LOG.debug("Couldn't create issue: " + mddo.getCid());
                 }
             }
-        } catch(Exception e) {
-            LOG.error("Error fetching defects", e);
         }
-
-        Thread.currentThread().setContextClassLoader(oldCL);
+        return issues;
     }
 
-    protected String getIssueMessage(CIMClient instance, Rule rule, ProjectDataObj covProjectObj, MergedDefectDataObj mddo, DefectInstanceDataObj dido) throws CovRemoteServiceException_Exception, IOException {
-        String url = getDefectURL(instance, covProjectObj, mddo);
-
-        LOG.debug("rule:" + rule);
-        LOG.debug("description:" + rule.getDescription());
+    /**
+     * Adds prepared issues to their file, with one issuable for all of them. Only called from the analysis thread.
+     */
+    protected void addIssues(PreparedFile file) {
+        if(file.getResource() == null || file.getIssues().isEmpty()) {
+            return;
+        }
+        Issuable issuable = resourcePerspectives.as(Issuable.class, file.getResource());
+        if(issuable == null) {
+            LOG.debug("No issuable for " + file.getResource() + ", skipping " + file.getIssues().size() + " issues");
+            return;
+        }
 
-        return rule.getDescription() + "\n\nView in Coverity Connect: \n" + url;
+        for(PreparedIssue prepared : file.getIssues()) {
+            long start = System.nanoTime();
+            Issuable.IssueBuilder builder = issuable.newIssueBuilder()
+                    .ruleKey(prepared.getRuleKey())
+                    .line(prepared.getLine())
+                    .message(prepared.getMessage());
+            if(prepared.getCid() >= 0) {
+                //defects of export files without a CID have a negative local id
+                builder.attribute("coverity-issue-id", String.valueOf(prepared.getCid()));
+            }
+            Issue issue = builder.build();
+            boolean result = issuable.addIssue(issue);
+            metrics.record(ImportMetrics.Phase.ISSUE_CREATION, start);
+            if(result) {
+                metrics.increment(ImportMetrics.Count.ISSUES);
+            }
+            if(LOG.isDebugEnabled()) {
+                LOG.debug("issue=" + issue);
+                LOG.debug("result=" + result);
+            }
+        }
     }
 
     protected String getDefectURL(CIMClient instance, ProjectDataObj covProjectObj, MergedDefectDataObj mddo) {
-        return String.format("%s://%s:%d/sourcebrowser.htm?projectId=%s#mergedDefectId=%d",
-                instance.isUseSSL() ? "https" : "http", instance.getHost(), instance.getPort(), covProjectObj.getProjectKey(), mddo.getCid());
+        return getDefectURLPrefix(instance, covProjectObj) + mddo.getCid();
+    }
+
+    /**
+     * @return the URL of a defect of the project without its CID
+     */
+    protected String getDefectURLPrefix(CIMClient instance, ProjectDataObj covProjectObj) {
+        return (instance.isUseSSL() ? "https" : "http") + "://" + instance.getHost() + ":" + instance.getPort()
+                + "/sourcebrowser.htm?projectId=" + covProjectObj.getProjectKey() + "#mergedDefectId=";
     }
 
     protected EventDataObj getMainEvent(DefectInstanceDataObj dido) {
@@ -207,19 +613,12 @@ public class CoveritySensor implements Sensor {
     }
 
     protected Resource getResourceForFile(String filePath, Project module) throws IOException {
-	   // String newPath = filePath.replaceAll("\\/u/coverity/ccm_wa/symbios/RAIDCore-covTrunk/dev_e10_820_\\w{4}-68.20.99.99+", "/u/chockali/ccm_wa/symbios/RAIDCore-3278_ce/IMTdev_cov_e10_820_5501-68.20.32.78");
-    	String source_path = settings.getString(CoverityPlugin.COVERITY_SOURCE_PATH);
-    	if(source_path!=null){
-    		filePath = filePath.replaceAll("\\/u/covdev/ccm_wa/symbios/RAIDCore-cdTrunk/dev_e10_820_\\w{4}-68.20.99.99+", source_path);
-    	}
-		LOG.info("filePath: " + filePath);
-        File f = new File(filePath);
-        Resource ret;
-        ret = org.sonar.api.resources.File.fromIOFile(f, module);
-        if(ret == null) {
-            LOG.info("Cannot find file: "+filePath);
-        }
-        return ret;
+        LOG.debug("filePath: " + filePath);
+        if(sourceIndex == null) {
+            sourceIndex = createSourceFileIndex(module);
+        }
+        File f = sourceIndex.find(filePath);
+        return f == null ? null : org.sonar.api.resources.File.fromIOFile(f, module);
     }
 
     @Override
@@ -0,0 +1,274 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import com.coverity.ws.v6.CovRemoteServiceException_Exception;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.coverity.util.DaemonThreadFactory;
+import org.sonar.plugins.coverity.ws.CIMClient;
+import org.sonar.plugins.coverity.ws.StreamDefectListener;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Imports defects through a chain of stages connected by bounded queues:
+ * <ol>
+ * <li>fetch merged defect pages and their stream defects (the {@link DefectSource})</li>
+ * <li>group the defects of a window by file</li>
+ * <li>prepare the issues of every file on a pool of worker threads (the {@link Preparer})</li>
+ * <li>hand the prepared files to the consumer in order, on the thread calling {@link #run(Consumer)}</li>
+ * </ol>
+ * Only a bounded number of slices and windows is in flight between two stages, so memory use does not grow with
+ * the size of the project, and network I/O overlaps with issue creation. The last stage runs on the calling thread,
+ * so the Sonar API is only used from that thread.
+ * <p/>
+ * Defects come in server order, so the defects of a file are spread over the whole import. Grouping them by their
+ * normalized Coverity path over a window of {@link #setGroupSize group size} defects lets the per file work be done
+ * once per group rather than once per defect.
+ */
+public class DefectImportPipeline {
+    private static final Logger LOG = LoggerFactory.getLogger(DefectImportPipeline.class);
+
+    /**
+     * Marks the end of a queue. Compared by identity.
+     */
+    private static final List<ImportedDefect> END = new ArrayList<ImportedDefect>(0);
+    private static final List<Future<PreparedFile>> END_OF_WINDOWS = new ArrayList<Future<PreparedFile>>(0);
+
+    public static final int DEFAULT_GROUP_SIZE = 5000;
+
+    public interface Preparer {
+        /**
+         * Called on the worker threads of the pipeline, so implementations must be thread safe
+         *
+         * @param defects defects of the same file, in server order
+         */
+        PreparedFile prepare(List<ImportedDefect> defects) throws IOException, CovRemoteServiceException_Exception;
+    }
+
+    public interface Consumer {
+        void accept(PreparedFile file) throws IOException, CovRemoteServiceException_Exception;
+    }
+
+    private final DefectSource source;
+    private final Preparer preparer;
+    private final BlockingQueue<List<ImportedDefect>> fetched;
+    private final BlockingQueue<List<Future<PreparedFile>>> prepared;
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    private ImportMetrics metrics = new ImportMetrics();
+    private int groupSize = DEFAULT_GROUP_SIZE;
+    private int threads = 1;
+
+    /**
+     * @param queueCapacity number of fetched slices that may wait to be grouped
+     */
+    public DefectImportPipeline(DefectSource source, Preparer preparer, int queueCapacity) {
+        this.source = source;
+        this.preparer = preparer;
+        this.fetched = new ArrayBlockingQueue<List<ImportedDefect>>(queueCapacity);
+        //a window is prepared while the previous one is consumed
+        this.prepared = new ArrayBlockingQueue<List<Future<PreparedFile>>>(1);
+    }
+
+    /**
+     * @param metrics counts the skipped defects
+     */
+    public void setMetrics(ImportMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param groupSize number of defects grouped by file before their issues are prepared, at least 1
+     */
+    public void setGroupSize(int groupSize) {
+        this.groupSize = Math.max(1, groupSize);
+    }
+
+    /**
+     * @param threads number of worker threads preparing issues, at least 1
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Runs the pipeline, handing every prepared file to the consumer on the calling thread
+     *
+     * @return the number of defects handed to the consumer
+     */
+    public int run(Consumer consumer) throws IOException, CovRemoteServiceException_Exception {
+        ThreadFactory threadFactory = new DaemonThreadFactory("coverity-import");
+        final ExecutorService workers = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("coverity-prepare"));
+        Thread fetchStage = threadFactory.newThread(new Runnable() {
+            public void run() {
+                fetch();
+            }
+        });
+        Thread groupStage = threadFactory.newThread(new Runnable() {
+            public void run() {
+                group(workers);
+            }
+        });
+        fetchStage.start();
+        groupStage.start();
+
+        int count = 0;
+        boolean completed = false;
+        try {
+            for(List<Future<PreparedFile>> window = prepared.take(); window != END_OF_WINDOWS && failure.get() == null; window = prepared.take()) {
+                for(Future<PreparedFile> result : window) {
+                    PreparedFile file = result.get();
+                    consumer.accept(file);
+                    count += file.getDefectCount();
+                }
+            }
+            completed = true;
+        } catch(ExecutionException e) {
+            failure.compareAndSet(null, e.getCause());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while importing defects");
+        } finally {
+            if(!completed || failure.get() != null) {
+                fetchStage.interrupt();
+                groupStage.interrupt();
+            }
+            workers.shutdownNow();
+        }
+
+        Throwable t = failure.get();
+        if(t != null) {
+            throw CIMClient.rethrow(t);
+        }
+        return count;
+    }
+
+    private void fetch() {
+        try {
+            source.fetch(new StreamDefectListener() {
+                public void onStreamDefects(List<MergedDefectDataObj> mergedDefects, List<StreamDefectDataObj> streamDefects) throws InterruptedException {
+                    fetched.put(pair(mergedDefects, streamDefects));
+                }
+            });
+        } catch(Throwable t) {
+            failure.compareAndSet(null, t);
+        } finally {
+            end(fetched, END);
+        }
+    }
+
+    private void group(ExecutorService workers) {
+        Map<String, List<ImportedDefect>> window = new LinkedHashMap<String, List<ImportedDefect>>();
+        int windowSize = 0;
+        try {
+            for(List<ImportedDefect> slice = fetched.take(); slice != END; slice = fetched.take()) {
+                if(failure.get() != null) {
+                    continue;
+                }
+                for(ImportedDefect defect : slice) {
+                    String path = SourceFileIndex.normalize(defect.getMergedDefect().getFilePathname());
+                    List<ImportedDefect> group = window.get(path);
+                    if(group == null) {
+                        group = new ArrayList<ImportedDefect>();
+                        window.put(path, group);
+                    }
+                    group.add(defect);
+                }
+
+                windowSize += slice.size();
+                if(windowSize >= groupSize) {
+                    prepared.put(submit(workers, window.values()));
+                    window.clear();
+                    windowSize = 0;
+                }
+            }
+            if(!window.isEmpty() && failure.get() == null) {
+                prepared.put(submit(workers, window.values()));
+            }
+        } catch(Throwable t) {
+            failure.compareAndSet(null, t);
+        } finally {
+            end(prepared, END_OF_WINDOWS);
+        }
+    }
+
+    private List<Future<PreparedFile>> submit(ExecutorService workers, Collection<List<ImportedDefect>> groups) {
+        List<Future<PreparedFile>> results = new ArrayList<Future<PreparedFile>>(groups.size());
+        for(final List<ImportedDefect> group : groups) {
+            results.add(workers.submit(new Callable<PreparedFile>() {
+                public PreparedFile call() throws Exception {
+                    return preparer.prepare(group);
+                }
+            }));
+        }
+        return results;
+    }
+
+    /**
+     * Matches the merged defects of a slice with their stream defects
+     */
+    private List<ImportedDefect> pair(List<MergedDefectDataObj> mergedDefects, List<StreamDefectDataObj> streamDefects) {
+        Map<Long, StreamDefectDataObj> byCid = new HashMap<Long, StreamDefectDataObj>();
+        for(StreamDefectDataObj sddo : streamDefects) {
+            byCid.put(sddo.getCid(), sddo);
+        }
+
+        List<ImportedDefect> slice = new ArrayList<ImportedDefect>(mergedDefects.size());
+        for(MergedDefectDataObj mddo : mergedDefects) {
+            StreamDefectDataObj sddo = byCid.get(mddo.getCid());
+            if(sddo == null) {
+                LOG.debug("No stream defect returned for CID " + mddo.getCid());
+                metrics.increment(ImportMetrics.Count.SKIPPED_DEFECTS);
+                continue;
+            }
+            slice.add(new ImportedDefect(mddo, sddo));
+        }
+        return slice;
+    }
+
+    private static <T> void end(BlockingQueue<T> queue, T marker) {
+        try {
+            queue.put(marker);
+        } catch(InterruptedException e) {
+            //the pipeline is being torn down, nobody is waiting for the end of this queue
+            Thread.currentThread().interrupt();
+        }
+    }
+}
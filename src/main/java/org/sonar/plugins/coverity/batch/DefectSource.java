@@ -0,0 +1,48 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import com.coverity.ws.v6.CovRemoteServiceException_Exception;
+import org.sonar.plugins.coverity.ws.StreamDefectListener;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Produces the defects to import, as slices of merged defects with their stream defects
+ */
+public interface DefectSource {
+    /**
+     * Hands every slice of defects to the listener, returning once all of them have been delivered
+     */
+    void fetch(StreamDefectListener listener) throws IOException, CovRemoteServiceException_Exception;
+
+    /**
+     * @return the CIDs of the last fetch whose stream defects could not be fetched, and which are missing from it
+     */
+    List<Long> getSkippedCids();
+
+    /**
+     * @return whether the last fetch imported defects stored by an earlier analysis because the current ones could not
+     * be fetched
+     */
+    boolean isStale();
+}
@@ -0,0 +1,172 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.coverity.ws.StreamDefectListener;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the defects to import from a Coverity export file instead of Coverity Connect: the JSON output of
+ * cov-format-errors or a defect XML file, gzipped or not. The format is recognized from the content of the file,
+ * which is parsed while the defects are imported, so that large exports are never held in memory.
+ * <p/>
+ * Consecutive occurrences of the same defect, with the same CID or merge key, become instances of one defect.
+ * Defects that were never committed to Coverity Connect have no CID and are given negative ids.
+ */
+public class ExportDefectSource implements DefectSource {
+    private static final Logger LOG = LoggerFactory.getLogger(ExportDefectSource.class);
+
+    public static final int SLICE_SIZE = 500;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+
+    public ExportDefectSource(File file) {
+        this.file = file;
+    }
+
+    public void fetch(StreamDefectListener listener) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        try {
+            if(startsWith(in, 0x1f, 0x8b)) {
+                in = new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+            }
+            ExportReader reader = createReader(in);
+            try {
+                read(reader, listener);
+            } finally {
+                reader.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return an empty list, export files hold every defect they were written with
+     */
+    public List<Long> getSkippedCids() {
+        return Collections.emptyList();
+    }
+
+    public boolean isStale() {
+        return false;
+    }
+
+    private ExportReader createReader(InputStream in) throws IOException {
+        int c = firstCharacter(in);
+        if(c == '{') {
+            LOG.info("Reading cov-format-errors JSON file " + file);
+            return new JsonExportReader(new InputStreamReader(in, "UTF-8"));
+        } else if(c == '<') {
+            LOG.info("Reading defect XML file " + file);
+            return new XmlExportReader(in);
+        }
+        throw new IOException("Unknown export format in " + file + ", expected cov-format-errors JSON or defect XML");
+    }
+
+    private void read(ExportReader reader, StreamDefectListener listener) throws IOException {
+        Map<String, ImportedDefect> slice = new LinkedHashMap<String, ImportedDefect>();
+        long nextLocalId = -1;
+        int occurrences = 0;
+        for(ImportedDefect defect = reader.next(); defect != null; defect = reader.next()) {
+            occurrences++;
+            MergedDefectDataObj mddo = defect.getMergedDefect();
+            String key = mddo.getCid() != null ? "cid:" + mddo.getCid() : mddo.getMergeKey() != null ? "mk:" + mddo.getMergeKey() : null;
+            ImportedDefect existing = key == null ? null : slice.get(key);
+            if(existing != null) {
+                existing.getStreamDefect().getDefectInstances().addAll(defect.getStreamDefect().getDefectInstances());
+                continue;
+            }
+
+            if(mddo.getCid() == null) {
+                long id = nextLocalId--;
+                mddo.setCid(id);
+                defect.getStreamDefect().setCid(id);
+            }
+            //a slice is only handed over when the next defect starts, so the occurrences of its last defect still join it
+            if(slice.size() == SLICE_SIZE) {
+                deliver(slice, listener);
+                slice.clear();
+            }
+            slice.put(key != null ? key : "id:" + mddo.getCid(), defect);
+        }
+        if(!slice.isEmpty()) {
+            deliver(slice, listener);
+        }
+        LOG.info("Read " + occurrences + " defect occurrences from " + file);
+    }
+
+    private void deliver(Map<String, ImportedDefect> slice, StreamDefectListener listener) throws IOException {
+        List<MergedDefectDataObj> mergedDefects = new ArrayList<MergedDefectDataObj>(slice.size());
+        List<StreamDefectDataObj> streamDefects = new ArrayList<StreamDefectDataObj>(slice.size());
+        for(ImportedDefect defect : slice.values()) {
+            mergedDefects.add(defect.getMergedDefect());
+            streamDefects.add(defect.getStreamDefect());
+        }
+        try {
+            listener.onStreamDefects(mergedDefects, streamDefects);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading " + file);
+        }
+    }
+
+    private static boolean startsWith(InputStream in, int b0, int b1) throws IOException {
+        in.mark(2);
+        try {
+            return in.read() == b0 && in.read() == b1;
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * @return the first character of the stream that isn't whitespace or a UTF-8 byte order mark, left unread
+     */
+    private static int firstCharacter(InputStream in) throws IOException {
+        while(true) {
+            in.mark(1);
+            int c = in.read();
+            if(c != ' ' && c != '\n' && c != '\r' && c != '\t' && c != 0xef && c != 0xbb && c != 0xbf) {
+                in.reset();
+                return c;
+            }
+        }
+    }
+}
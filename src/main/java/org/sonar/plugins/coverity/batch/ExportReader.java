@@ -0,0 +1,35 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the defects of a Coverity export file one at a time
+ */
+interface ExportReader extends Closeable {
+    /**
+     * @return the next defect of the file, with its merged defect and a stream defect of one instance, the CID being
+     * null for defects that were never committed to Coverity Connect, or null at the end of the file
+     */
+    ImportedDefect next() throws IOException;
+}
@@ -0,0 +1,233 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import org.sonar.plugins.coverity.ws.CallListener;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timers and counters of a defect import. Phases running on several threads add up the time spent on each of
+ * them, so their times may exceed the elapsed time of the import. Safe for concurrent use.
+ */
+public class ImportMetrics implements CallListener {
+    public enum Phase {
+        PROJECT_LOOKUP, PAGE_FETCH, INSTANCE_FETCH, PATH_RESOLUTION, RULE_LOOKUP, ISSUE_CREATION, TOTAL
+    }
+
+    public enum Count {
+        /**
+         * Defects handed to issue creation
+         */
+        DEFECTS,
+        /**
+         * Defects dropped because their stream defects could not be fetched
+         */
+        SKIPPED_DEFECTS,
+        /**
+         * Defects whose file is not part of the module
+         */
+        UNRESOLVED_DEFECTS,
+        INSTANCES,
+        /**
+         * Instances whose rule is not active in the quality profile
+         */
+        UNMATCHED_RULE_INSTANCES,
+        /**
+         * Instances without a main event to take the line from
+         */
+        NO_MAIN_EVENT_INSTANCES,
+        ISSUES
+    }
+
+    /**
+     * The web service operations timed as fetch phases
+     */
+    private static final Map<String, Phase> OPERATION_PHASES = new TreeMap<String, Phase>();
+    static {
+        OPERATION_PHASES.put("getMergedDefectsForProject", Phase.PAGE_FETCH);
+        OPERATION_PHASES.put("getStreamDefects", Phase.INSTANCE_FETCH);
+    }
+
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+    private final AtomicLongArray phaseCalls = new AtomicLongArray(Phase.values().length);
+    private final AtomicLongArray counts = new AtomicLongArray(Count.values().length);
+    private final ConcurrentMap<String, OperationStats> operations = new ConcurrentHashMap<String, OperationStats>();
+
+    /**
+     * Adds the time elapsed since the given start to a phase
+     *
+     * @param start the start of the phase, from {@link System#nanoTime()}
+     */
+    public void record(Phase phase, long start) {
+        add(phase, System.nanoTime() - start);
+    }
+
+    public void add(Phase phase, long nanos) {
+        phaseNanos.addAndGet(phase.ordinal(), nanos);
+        phaseCalls.incrementAndGet(phase.ordinal());
+    }
+
+    public void increment(Count count) {
+        counts.incrementAndGet(count.ordinal());
+    }
+
+    public void add(Count count, long delta) {
+        counts.addAndGet(count.ordinal(), delta);
+    }
+
+    public long get(Count count) {
+        return counts.get(count.ordinal());
+    }
+
+    /**
+     * @return the time spent in the phase, in milliseconds
+     */
+    public long getMillis(Phase phase) {
+        return phaseNanos.get(phase.ordinal()) / 1000000;
+    }
+
+    public long getCalls(Phase phase) {
+        return phaseCalls.get(phase.ordinal());
+    }
+
+    public void onCall(String operation, long nanos, boolean success) {
+        OperationStats stats = operations.get(operation);
+        if(stats == null) {
+            operations.putIfAbsent(operation, new OperationStats());
+            stats = operations.get(operation);
+        }
+        stats.calls.incrementAndGet();
+        stats.nanos.addAndGet(nanos);
+        if(!success) {
+            stats.failures.incrementAndGet();
+        }
+        long max = stats.maxNanos.get();
+        while(nanos > max && !stats.maxNanos.compareAndSet(max, nanos)) {
+            max = stats.maxNanos.get();
+        }
+
+        Phase phase = OPERATION_PHASES.get(operation);
+        if(phase != null) {
+            add(phase, nanos);
+        }
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("{\n  \"phases\": {");
+        String separator = "\n";
+        for(Phase phase : Phase.values()) {
+            sb.append(separator).append("    \"").append(key(phase)).append("\": {\"millis\": ").append(getMillis(phase))
+                    .append(", \"calls\": ").append(getCalls(phase)).append('}');
+            separator = ",\n";
+        }
+        sb.append("\n  },\n  \"counts\": {");
+        separator = "\n";
+        for(Count count : Count.values()) {
+            sb.append(separator).append("    \"").append(key(count)).append("\": ").append(get(count));
+            separator = ",\n";
+        }
+        sb.append("\n  },\n  \"calls\": {");
+        separator = "\n";
+        for(Map.Entry<String, OperationStats> entry : new TreeMap<String, OperationStats>(operations).entrySet()) {
+            OperationStats stats = entry.getValue();
+            sb.append(separator).append("    \"").append(escape(entry.getKey())).append("\": {\"calls\": ").append(stats.calls.get())
+                    .append(", \"failures\": ").append(stats.failures.get())
+                    .append(", \"millis\": ").append(stats.nanos.get() / 1000000)
+                    .append(", \"maxMillis\": ").append(stats.maxNanos.get() / 1000000).append('}');
+            separator = ",\n";
+        }
+        return sb.append("\n  }\n}\n").toString();
+    }
+
+    public void writeJson(File file) throws IOException {
+        File dir = file.getParentFile();
+        if(dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(toJson());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * PAGE_FETCH becomes pageFetch
+     */
+    private static String key(Enum<?> e) {
+        StringBuilder sb = new StringBuilder();
+        boolean upper = false;
+        for(char c : e.name().toCharArray()) {
+            if(c == '_') {
+                upper = true;
+            } else {
+                sb.append(upper ? c : Character.toLowerCase(c));
+                upper = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for(char c : s.toCharArray()) {
+            if(c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if(c < 0x20) {
+                sb.append(String.format("\\u%04x", (int)c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Import metrics:");
+        for(Phase phase : Phase.values()) {
+            sb.append(' ').append(key(phase)).append('=').append(getMillis(phase)).append("ms");
+        }
+        for(Count count : Count.values()) {
+            sb.append(' ').append(key(count)).append('=').append(get(count));
+        }
+        return sb.toString();
+    }
+
+    private static class OperationStats {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+
+/**
+ * A merged defect travelling through the {@link DefectImportPipeline}, with its stream defect
+ */
+public class ImportedDefect {
+    private final MergedDefectDataObj mergedDefect;
+    private final StreamDefectDataObj streamDefect;
+
+    public ImportedDefect(MergedDefectDataObj mergedDefect, StreamDefectDataObj streamDefect) {
+        this.mergedDefect = mergedDefect;
+        this.streamDefect = streamDefect;
+    }
+
+    public MergedDefectDataObj getMergedDefect() {
+        return mergedDefect;
+    }
+
+    public StreamDefectDataObj getStreamDefect() {
+        return streamDefect;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import com.coverity.ws.v6.CovRemoteServiceException_Exception;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.MergedDefectFilterSpecDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.coverity.cache.DefectBaseline;
+import org.sonar.plugins.coverity.util.DaemonThreadFactory;
+import org.sonar.plugins.coverity.ws.CIMClient;
+import org.sonar.plugins.coverity.ws.StreamDefectFetcher;
+import org.sonar.plugins.coverity.ws.StreamDefectListener;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Synchronizes a {@link DefectBaseline} stored on disk with Coverity Connect, then replays it.
+ * <p/>
+ * The first run fetches every defect. Other runs compare the CIDs returned by getCIDsForProject with the baseline:
+ * defects that no longer match the import filter (fixed, dismissed, ...) are dropped and only the details of new
+ * CIDs are fetched, along with the defects triaged since the watermark.
+ * <p/>
+ * When snapshots were committed since the last full synchronization, the instances of the known defects detected
+ * since the watermark are fetched again, so that their line numbers follow the code. Every defect is fetched again
+ * when that synchronization is also older than the full synchronization interval.
+ * <p/>
+ * When a baseline exists, a synchronization that fails or takes longer than the revalidation timeout does not fail
+ * the analysis: the stored baseline is imported instead. A synchronization that timed out keeps running in the
+ * background and saves its result for the next analysis if it completes before the analysis ends.
+ */
+public class IncrementalDefectSource implements DefectSource {
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalDefectSource.class);
+
+    private static final int REPLAY_SLICE_SIZE = 100;
+    private static final int CID_LIST_MAX_SIZE = 2500;
+
+    private final CIMClient client;
+    private final String project;
+    private final File baselineFile;
+    private final long fullSyncInterval;
+    private final long revalidateTimeout;
+    private List<Long> skippedCids = Collections.emptyList();
+    private boolean storedBaselineImported;
+
+    /**
+     * @param fullSyncInterval  maximum age of a baseline, in milliseconds, before every defect is fetched again
+     * @param revalidateTimeout time to wait for the synchronization, in milliseconds, before importing the stored
+     *                          baseline instead, 0 to always wait
+     */
+    public IncrementalDefectSource(CIMClient client, String project, File baselineFile, long fullSyncInterval, long revalidateTimeout) {
+        this.client = client;
+        this.project = project;
+        this.baselineFile = baselineFile;
+        this.fullSyncInterval = fullSyncInterval;
+        this.revalidateTimeout = revalidateTimeout;
+    }
+
+    /**
+     * Identifies the server, project and filter of a baseline, so that a file is never reused for another one
+     */
+    protected String getBaselineKey() {
+        String filter = client.getFilterSpecFactory().getFingerprint();
+        return client.getHost() + ":" + client.getPort() + "/" + project + (filter.isEmpty() ? "" : "?" + filter);
+    }
+
+    public void fetch(StreamDefectListener listener) throws IOException, CovRemoteServiceException_Exception {
+        final DefectBaseline stale = DefectBaseline.load(baselineFile, getBaselineKey());
+        final List<Long> skipped = Collections.synchronizedList(new ArrayList<Long>());
+        skippedCids = Collections.emptyList();
+        storedBaselineImported = false;
+        if(stale.getWatermark() == 0) {
+            synchronize(stale, skipped).replay(listener, REPLAY_SLICE_SIZE);
+            skippedCids = skipped;
+            return;
+        }
+
+        ExecutorService executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("coverity-sync"));
+        Future<DefectBaseline> sync = executor.submit(new Callable<DefectBaseline>() {
+            public DefectBaseline call() throws Exception {
+                return synchronize(stale.copy(), skipped);
+            }
+        });
+        executor.shutdown();
+
+        DefectBaseline baseline;
+        try {
+            baseline = revalidateTimeout > 0 ? sync.get(revalidateTimeout, TimeUnit.MILLISECONDS) : sync.get();
+        } catch(TimeoutException e) {
+            LOG.warn("Coverity Connect did not answer within " + revalidateTimeout + " ms, importing the defect baseline of "
+                    + new Date(stale.getWatermark()) + " while it is being refreshed");
+            baseline = stale;
+        } catch(ExecutionException e) {
+            LOG.warn("Failed to refresh the defect baseline, importing the defect baseline of " + new Date(stale.getWatermark()), e.getCause());
+            baseline = stale;
+        } catch(InterruptedException e) {
+            sync.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while refreshing the defect baseline");
+        }
+
+        baseline.replay(listener, REPLAY_SLICE_SIZE);
+        if(baseline != stale) {
+            skippedCids = skipped;
+        }
+        storedBaselineImported = baseline == stale;
+    }
+
+    /**
+     * @return the CIDs skipped by the synchronization whose baseline was last imported. The stored baseline imported
+     * instead of a synchronization has no skipped CIDs
+     */
+    public List<Long> getSkippedCids() {
+        return skippedCids;
+    }
+
+    /**
+     * @return whether the stored baseline was imported because the synchronization failed or timed out
+     */
+    public boolean isStale() {
+        return storedBaselineImported;
+    }
+
+    /**
+     * Brings the baseline up to date with the server and saves it
+     *
+     * @param skippedCids receives the CIDs whose stream defects could not be fetched
+     * @return the given baseline
+     */
+    private DefectBaseline synchronize(DefectBaseline baseline, List<Long> skippedCids) throws IOException, CovRemoteServiceException_Exception {
+        long serverTime = client.getServerTime();
+        long snapshotId = client.getLastSnapshotId(project);
+        long watermark = baseline.getWatermark();
+        long start = System.currentTimeMillis();
+
+        if(watermark == 0 || (snapshotId != baseline.getSnapshotId() && serverTime - baseline.getFullSyncTime() > fullSyncInterval)) {
+            LOG.info("Fetching every defect of project " + project + " into baseline " + baselineFile);
+            baseline.clear();
+            fetchInto(baseline, client.createDefectFilterSpec(), skippedCids);
+            baseline.setFullSyncTime(serverTime);
+            baseline.setSnapshotId(snapshotId);
+        } else {
+            update(baseline, watermark, snapshotId, skippedCids);
+        }
+
+        baseline.setWatermark(serverTime);
+        baseline.save(baselineFile, getBaselineKey());
+        LOG.info("Synchronized defect baseline of project " + project + " (" + baseline.size() + " defects) in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return baseline;
+    }
+
+    private void update(DefectBaseline baseline, long watermark, long snapshotId, List<Long> skippedCids) throws IOException, CovRemoteServiceException_Exception {
+        Set<Long> current = new HashSet<Long>(client.getCIDs(project, client.createDefectFilterSpec()));
+        int removed = baseline.retainAll(current);
+        int before = baseline.size();
+
+        MergedDefectFilterSpecDataObj triaged = client.createDefectFilterSpec();
+        triaged.setLastTriagedStartDate(toCalendar(watermark));
+        fetchInto(baseline, triaged, skippedCids);
+
+        //defects detected again by new snapshots may have moved
+        if(snapshotId != baseline.getSnapshotId()) {
+            MergedDefectFilterSpecDataObj detected = client.createDefectFilterSpec();
+            detected.setLastDetectedStartDate(toCalendar(watermark));
+            fetchInto(baseline, detected, skippedCids);
+        }
+
+        List<Long> missing = new ArrayList<Long>();
+        for(Long cid : current) {
+            if(!baseline.contains(cid)) {
+                missing.add(cid);
+            }
+        }
+        for(int i = 0; i < missing.size(); i += CID_LIST_MAX_SIZE) {
+            MergedDefectFilterSpecDataObj byCid = client.createDefectFilterSpec();
+            byCid.getCidList().addAll(missing.subList(i, Math.min(missing.size(), i + CID_LIST_MAX_SIZE)));
+            fetchInto(baseline, byCid, skippedCids);
+        }
+
+        //defects may have been fixed between the CID query and the fetches above
+        baseline.retainAll(current);
+
+        LOG.info("Defect baseline of project " + project + ": " + removed + " removed, "
+                + Math.max(0, baseline.size() - before) + " added");
+    }
+
+    private void fetchInto(final DefectBaseline baseline, MergedDefectFilterSpecDataObj filterSpec, List<Long> skippedCids) throws IOException, CovRemoteServiceException_Exception {
+        StreamDefectFetcher fetcher = client.createStreamDefectFetcher(new StreamDefectListener() {
+            public void onStreamDefects(List<MergedDefectDataObj> mergedDefects, List<StreamDefectDataObj> streamDefects) {
+                baseline.putAll(mergedDefects, streamDefects);
+            }
+        });
+        boolean submitted = false;
+        try {
+            client.streamDefects(project, filterSpec, fetcher);
+            submitted = true;
+        } finally {
+            if(!submitted) {
+                fetcher.cancel();
+            }
+        }
+        fetcher.finish();
+
+        //drop the outdated copies of skipped defects, the next update fetches them as missing defects
+        List<Long> skipped = fetcher.getSkippedCids();
+        baseline.removeAll(skipped);
+        skippedCids.addAll(skipped);
+    }
+
+    private static XMLGregorianCalendar toCalendar(long time) throws IOException {
+        GregorianCalendar calendar = new GregorianCalendar();
+        calendar.setTimeInMillis(time);
+        try {
+            return DatatypeFactory.newInstance().newXMLGregorianCalendar(calendar);
+        } catch(DatatypeConfigurationException e) {
+            IOException ioe = new IOException("Cannot create date for the defect filter");
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import com.coverity.ws.v6.CheckerSubcategoryIdDataObj;
+import com.coverity.ws.v6.DefectInstanceDataObj;
+import com.coverity.ws.v6.EventDataObj;
+import com.coverity.ws.v6.FileIdDataObj;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import org.sonar.plugins.coverity.util.JsonReader;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the issues of a cov-format-errors JSON file (--json-output-v2 and later). Only the fields the import uses
+ * are kept: the merge key, the checker, the file, the events of the issue and, if it was committed, its CID.
+ */
+public class JsonExportReader implements ExportReader {
+    private final JsonReader reader;
+    private boolean inIssues;
+
+    public JsonExportReader(Reader in) throws IOException {
+        reader = new JsonReader(in);
+        reader.beginObject();
+        while(reader.hasNext()) {
+            if(reader.nextName().equals("issues")) {
+                reader.beginArray();
+                inIssues = true;
+                return;
+            }
+            reader.skipValue();
+        }
+        throw new IOException("No issues in the JSON file, expected the output of cov-format-errors --json-output-v2 or later");
+    }
+
+    public ImportedDefect next() throws IOException {
+        if(!inIssues) {
+            return null;
+        }
+        if(!reader.hasNext()) {
+            reader.endArray();
+            inIssues = false;
+            return null;
+        }
+        return readIssue();
+    }
+
+    private ImportedDefect readIssue() throws IOException {
+        MergedDefectDataObj mddo = new MergedDefectDataObj();
+        CheckerSubcategoryIdDataObj csido = new CheckerSubcategoryIdDataObj();
+        DefectInstanceDataObj dido = new DefectInstanceDataObj();
+        Long mainLine = null;
+        Long cid = null;
+
+        reader.beginObject();
+        while(reader.hasNext()) {
+            String name = reader.nextName();
+            if(name.equals("mergeKey")) {
+                mddo.setMergeKey(reader.nextString());
+            } else if(name.equals("checkerName")) {
+                csido.setCheckerName(reader.nextString());
+            } else if(name.equals("subcategory")) {
+                csido.setSubcategory(reader.nextString());
+            } else if(name.equals("domain")) {
+                csido.setDomain(reader.nextString());
+            } else if(name.equals("mainEventFilePathname")) {
+                mddo.setFilePathname(reader.nextString());
+            } else if(name.equals("mainEventLineNumber")) {
+                mainLine = reader.nextLong();
+            } else if(name.equals("functionDisplayName")) {
+                mddo.setFunctionDisplayName(reader.nextString());
+            } else if(name.equals("extra")) {
+                dido.setExtra(reader.nextString());
+            } else if(name.equals("events") && reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                reader.beginArray();
+                while(reader.hasNext()) {
+                    dido.getEvents().add(readEvent());
+                }
+                reader.endArray();
+            } else if(name.equals("stateOnServer") && reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                cid = readCid();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if(mainLine != null && !hasMainEvent(dido)) {
+            EventDataObj main = new EventDataObj();
+            main.setMain(true);
+            main.setLineNumber(mainLine.intValue());
+            main.setFileId(fileId(mddo.getFilePathname()));
+            dido.getEvents().add(main);
+        }
+
+        mddo.setCid(cid);
+        mddo.setCheckerName(csido.getCheckerName());
+        mddo.setCheckerSubcategory(csido.getSubcategory());
+        mddo.setDomain(csido.getDomain());
+        dido.setCheckerSubcategoryId(csido);
+        StreamDefectDataObj sddo = new StreamDefectDataObj();
+        sddo.setCid(cid);
+        sddo.setCheckerSubcategoryId(csido);
+        sddo.getDefectInstances().add(dido);
+        return new ImportedDefect(mddo, sddo);
+    }
+
+    /**
+     * Reads an event, skipping the events nested in it
+     */
+    private EventDataObj readEvent() throws IOException {
+        EventDataObj event = new EventDataObj();
+        reader.beginObject();
+        while(reader.hasNext()) {
+            String name = reader.nextName();
+            if(name.equals("main") && reader.peek() == JsonReader.Token.BOOLEAN) {
+                event.setMain(reader.nextBoolean());
+            } else if(name.equals("lineNumber")) {
+                Long line = reader.nextLong();
+                event.setLineNumber(line == null ? 0 : line.intValue());
+            } else if(name.equals("eventNumber")) {
+                Long number = reader.nextLong();
+                event.setEventNumber(number == null ? 0 : number.intValue());
+            } else if(name.equals("eventTag")) {
+                event.setEventTag(reader.nextString());
+            } else if(name.equals("eventDescription")) {
+                event.setEventDescription(reader.nextString());
+            } else if(name.equals("filePathname")) {
+                event.setFileId(fileId(reader.nextString()));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return event;
+    }
+
+    private Long readCid() throws IOException {
+        Long cid = null;
+        reader.beginObject();
+        while(reader.hasNext()) {
+            if(reader.nextName().equals("cid")) {
+                cid = reader.nextLong();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return cid;
+    }
+
+    private static boolean hasMainEvent(DefectInstanceDataObj dido) {
+        for(EventDataObj event : dido.getEvents()) {
+            if(event.isMain()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static FileIdDataObj fileId(String filePathname) {
+        FileIdDataObj fileId = new FileIdDataObj();
+        fileId.setFilePathname(filePathname);
+        return fileId;
+    }
+
+    public void close() throws IOException {
+        reader.close();
+    }
+}
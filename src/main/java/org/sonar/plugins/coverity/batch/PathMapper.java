@@ -0,0 +1,233 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Rewrites the paths of the files defects were found in, as seen by the Coverity build, into paths of the
+ * analysed checkout.
+ * <p/>
+ * The rules are tried in order and the first matching rule rewrites the path; paths no rule matches are left as
+ * they are. A rule is written {@code from=>to}: the prefix {@code from} is replaced by {@code to}. Rules starting
+ * with {@code regex:} replace the first match of a regular expression instead, {@code $1} referring to its first
+ * group. The prefixes are kept in a trie, so that the matching prefix rules are found in a single walk along the
+ * path and the regular expressions are only evaluated when they come before it.
+ */
+public class PathMapper {
+    public static final String SEPARATOR = "=>";
+    public static final String REGEX = "regex:";
+
+    private final List<Rule> rules = new ArrayList<Rule>();
+    private final List<Rule> regexRules = new ArrayList<Rule>();
+    private final Node root = new Node();
+    private final AtomicLong unmapped = new AtomicLong();
+
+    /**
+     * Adds a rule written {@code from=>to} or {@code regex:pattern=>replacement}
+     *
+     * @throws IllegalArgumentException if the rule cannot be parsed
+     */
+    public PathMapper add(String rule) {
+        int separator = rule.lastIndexOf(SEPARATOR);
+        if(separator < 0) {
+            throw new IllegalArgumentException("Invalid path mapping '" + rule + "', expected from" + SEPARATOR + "to");
+        }
+        String from = rule.substring(0, separator).trim();
+        String to = rule.substring(separator + SEPARATOR.length()).trim();
+        if(from.startsWith(REGEX)) {
+            return addRegex(from.substring(REGEX.length()), to);
+        }
+        return addPrefix(from, to);
+    }
+
+    public PathMapper addPrefix(String from, String to) {
+        if(from.isEmpty()) {
+            throw new IllegalArgumentException("Invalid path mapping, the prefix to replace is empty");
+        }
+        Rule rule = new Rule(rules.size(), from, to, null);
+        rules.add(rule);
+
+        Node node = root;
+        for(int i = 0; i < from.length(); i++) {
+            node = node.child(from.charAt(i), true);
+        }
+        if(node.rule == null) {
+            node.rule = rule;
+        }
+        return this;
+    }
+
+    public PathMapper addRegex(String regex, String replacement) {
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(regex);
+        } catch(PatternSyntaxException e) {
+            throw new IllegalArgumentException("Invalid path mapping, " + e.getMessage(), e);
+        }
+        Rule rule = new Rule(rules.size(), regex, replacement, pattern);
+        rules.add(rule);
+        regexRules.add(rule);
+        return this;
+    }
+
+    /**
+     * @return the path rewritten by the first matching rule, or the path itself if no rule matches
+     */
+    public String map(String path) {
+        Rule prefixRule = findPrefixRule(path);
+        for(Rule rule : regexRules) {
+            if(prefixRule != null && rule.index > prefixRule.index) {
+                break;
+            }
+            Matcher matcher = rule.pattern.matcher(path);
+            if(matcher.find()) {
+                rule.hits.incrementAndGet();
+                StringBuffer sb = new StringBuffer(path.length());
+                matcher.appendReplacement(sb, rule.to);
+                matcher.appendTail(sb);
+                return sb.toString();
+            }
+        }
+        if(prefixRule != null) {
+            prefixRule.hits.incrementAndGet();
+            return prefixRule.to + path.substring(prefixRule.from.length());
+        }
+        unmapped.incrementAndGet();
+        return path;
+    }
+
+    /**
+     * @return the first prefix rule matching the path, or null
+     */
+    private Rule findPrefixRule(String path) {
+        Rule first = null;
+        Node node = root;
+        for(int i = 0; i < path.length() && node != null; i++) {
+            node = node.child(path.charAt(i), false);
+            if(node != null && node.rule != null && (first == null || node.rule.index < first.index)) {
+                first = node.rule;
+            }
+        }
+        return first;
+    }
+
+    public List<Rule> getRules() {
+        return Collections.unmodifiableList(rules);
+    }
+
+    public boolean hasRegexRules() {
+        return !regexRules.isEmpty();
+    }
+
+    /**
+     * @return the number of paths no rule matched
+     */
+    public long getUnmappedCount() {
+        return unmapped.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Path mappings:");
+        for(Rule rule : rules) {
+            sb.append(' ').append(rule).append(" (").append(rule.getHits()).append(" paths),");
+        }
+        return sb.append(" unmapped (").append(unmapped.get()).append(" paths)").toString();
+    }
+
+    public static class Rule {
+        private final int index;
+        private final String from;
+        private final String to;
+        private final Pattern pattern;
+        private final AtomicLong hits = new AtomicLong();
+
+        private Rule(int index, String from, String to, Pattern pattern) {
+            this.index = index;
+            this.from = from;
+            this.to = to;
+            this.pattern = pattern;
+        }
+
+        public String getFrom() {
+            return from;
+        }
+
+        public String getTo() {
+            return to;
+        }
+
+        public boolean isRegex() {
+            return pattern != null;
+        }
+
+        /**
+         * @return the number of paths the rule rewrote
+         */
+        public long getHits() {
+            return hits.get();
+        }
+
+        @Override
+        public String toString() {
+            return (isRegex() ? REGEX : "") + from + SEPARATOR + to;
+        }
+    }
+
+    /**
+     * A trie node, the children being kept in parallel arrays sorted by character
+     */
+    private static class Node {
+        private char[] chars = new char[0];
+        private Node[] children = new Node[0];
+        private Rule rule;
+
+        Node child(char c, boolean create) {
+            int i = Arrays.binarySearch(chars, c);
+            if(i >= 0) {
+                return children[i];
+            }
+            if(!create) {
+                return null;
+            }
+            i = -i - 1;
+            char[] newChars = new char[chars.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(chars, 0, newChars, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            System.arraycopy(chars, i, newChars, i + 1, chars.length - i);
+            System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+            newChars[i] = c;
+            newChildren[i] = new Node();
+            chars = newChars;
+            children = newChildren;
+            return newChildren[i];
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import org.sonar.api.resources.Resource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The prepared issues of the defects of one file
+ */
+public final class PreparedFile {
+    private final Resource resource;
+    private final int defectCount;
+    private final List<PreparedIssue> issues;
+
+    /**
+     * @param resource the resource of the file, null if it isn't part of the module
+     * @param defectCount number of defects the issues were prepared from
+     */
+    public PreparedFile(Resource resource, int defectCount, List<PreparedIssue> issues) {
+        this.resource = resource;
+        this.defectCount = defectCount;
+        this.issues = Collections.unmodifiableList(new ArrayList<PreparedIssue>(issues));
+    }
+
+    /**
+     * @return the resource of the file, or null if it isn't part of the module
+     */
+    public Resource getResource() {
+        return resource;
+    }
+
+    public int getDefectCount() {
+        return defectCount;
+    }
+
+    public List<PreparedIssue> getIssues() {
+        return issues;
+    }
+}
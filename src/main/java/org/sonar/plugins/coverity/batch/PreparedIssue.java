@@ -0,0 +1,68 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import org.sonar.api.rule.RuleKey;
+
+/**
+ * An issue ready to be added to its file, built from a defect instance on a worker thread of the import. Immutable,
+ * so it can be handed to the thread using the Sonar API without further synchronization.
+ */
+public final class PreparedIssue {
+    private final RuleKey ruleKey;
+    private final Integer line;
+    private final String message;
+    private final long cid;
+
+    public PreparedIssue(RuleKey ruleKey, Integer line, String message, long cid) {
+        this.ruleKey = ruleKey;
+        this.line = line;
+        this.message = message;
+        this.cid = cid;
+    }
+
+    public RuleKey getRuleKey() {
+        return ruleKey;
+    }
+
+    /**
+     * @return the line of the main event of the instance
+     */
+    public Integer getLine() {
+        return line;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the CID of the merged defect
+     */
+    public long getCid() {
+        return cid;
+    }
+
+    @Override
+    public String toString() {
+        return "PreparedIssue{cid=" + cid + ", ruleKey=" + ruleKey + ", line=" + line + "}";
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import com.coverity.ws.v6.CheckerSubcategoryIdDataObj;
+import org.sonar.api.profiles.RulesProfile;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rules.ActiveRule;
+import org.sonar.plugins.coverity.CoverityPlugin;
+import org.sonar.plugins.coverity.util.CoverityUtil;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves the active rule of a defect instance and builds its issue message, once per checker subcategory and
+ * analysis. Later instances of the same checker subcategory only cost a few map lookups, without building rule
+ * keys or scanning the active rules of the profile. Safe for concurrent use.
+ */
+public class RuleLookupTable {
+    private static final String NULL = "null";  //how flattenCheckerSubcategoryId writes missing parts
+    private static final Entry INACTIVE = new Entry(null, null);
+
+    private final RulesProfile profile;
+    private final String defectUrlPrefix;
+    private final ConcurrentMap<String, LanguageRules> languages = new ConcurrentHashMap<String, LanguageRules>();
+
+    /**
+     * @param defectUrlPrefix the URL of the defects of the Coverity project, the CID being appended to it, or null
+     *                        when there is no Coverity Connect to link to
+     */
+    public RuleLookupTable(RulesProfile profile, String defectUrlPrefix) {
+        this.profile = profile;
+        this.defectUrlPrefix = defectUrlPrefix;
+    }
+
+    /**
+     * @return the rule of the checker subcategory in the repository of the language, or null if it isn't active
+     */
+    public Entry get(String language, CheckerSubcategoryIdDataObj csido) {
+        LanguageRules rules = languages.get(language);
+        if(rules == null) {
+            rules = new LanguageRules(language);
+            LanguageRules existing = languages.putIfAbsent(language, rules);
+            if(existing != null) {
+                rules = existing;
+            }
+        }
+        Entry entry = rules.get(csido);
+        return entry == INACTIVE ? null : entry;
+    }
+
+    /**
+     * @param cid the CID of the defect, negative for defects that were never committed to Coverity Connect
+     * @return the message of an issue of the given defect
+     */
+    public String getMessage(Entry entry, long cid) {
+        if(defectUrlPrefix == null || cid < 0) {
+            return entry.description;
+        }
+        return entry.messagePrefix + defectUrlPrefix + cid;
+    }
+
+    public static class Entry {
+        private final ActiveRule activeRule;
+        private final RuleKey ruleKey;
+        private final String description;
+        private final String messagePrefix;
+
+        private Entry(ActiveRule activeRule, RuleKey ruleKey) {
+            this.activeRule = activeRule;
+            this.ruleKey = ruleKey;
+            this.description = activeRule == null ? null : activeRule.getRule().getDescription();
+            this.messagePrefix = activeRule == null ? null : description + "\n\nView in Coverity Connect: \n";
+        }
+
+        public ActiveRule getActiveRule() {
+            return activeRule;
+        }
+
+        public RuleKey getRuleKey() {
+            return ruleKey;
+        }
+    }
+
+    /**
+     * The active rules of a language by rule key, and the entries resolved so far by domain, checker name and
+     * subcategory
+     */
+    private class LanguageRules {
+        private final Map<String, ActiveRule> byKey = new HashMap<String, ActiveRule>();
+        private final ConcurrentMap<String, ConcurrentMap<String, ConcurrentMap<String, Entry>>> entries =
+                new ConcurrentHashMap<String, ConcurrentMap<String, ConcurrentMap<String, Entry>>>();
+
+        LanguageRules(String language) {
+            for(ActiveRule ar : profile.getActiveRulesByRepository(CoverityPlugin.REPOSITORY_KEY + "-" + language)) {
+                byKey.put(ar.getRuleKey(), ar);
+            }
+        }
+
+        Entry get(CheckerSubcategoryIdDataObj csido) {
+            String domain = key(csido.getDomain());
+            ConcurrentMap<String, ConcurrentMap<String, Entry>> byChecker = entries.get(domain);
+            if(byChecker == null) {
+                entries.putIfAbsent(domain, new ConcurrentHashMap<String, ConcurrentMap<String, Entry>>());
+                byChecker = entries.get(domain);
+            }
+            String checker = key(csido.getCheckerName());
+            ConcurrentMap<String, Entry> bySubcategory = byChecker.get(checker);
+            if(bySubcategory == null) {
+                byChecker.putIfAbsent(checker, new ConcurrentHashMap<String, Entry>());
+                bySubcategory = byChecker.get(checker);
+            }
+            String subcategory = key(csido.getSubcategory());
+            Entry entry = bySubcategory.get(subcategory);
+            if(entry == null) {
+                ActiveRule ar = byKey.get(CoverityUtil.flattenCheckerSubcategoryId(csido));
+                entry = ar == null ? INACTIVE : new Entry(ar, ar.getRule().ruleKey());
+                bySubcategory.put(subcategory, entry);
+            }
+            return entry;
+        }
+
+        private String key(String s) {
+            return s == null ? NULL : s;
+        }
+    }
+}
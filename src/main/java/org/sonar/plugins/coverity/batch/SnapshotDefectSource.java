@@ -0,0 +1,171 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.coverity.batch;
+
+import com.coverity.ws.v6.CovRemoteServiceException_Exception;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.coverity.cache.DefectSnapshot;
+import org.sonar.plugins.coverity.cache.DefectSnapshotWriter;
+import org.sonar.plugins.coverity.ws.CIMClient;
+import org.sonar.plugins.coverity.ws.StreamDefectListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Imports the defects of a project from a {@link DefectSnapshot} file shared by the analyses of its modules and
+ * branches, as long as nothing was committed to the project since the file was written and the file is younger than
+ * the maximum age. Otherwise the defects are fetched from another source and written to the file while they are
+ * imported.
+ * <p/>
+ * The file holds the defects of every module. Each module selects the defects of its files with filename patterns,
+ * through the file index of the snapshot.
+ */
+public class SnapshotDefectSource implements DefectSource {
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotDefectSource.class);
+
+    private static final int REPLAY_SLICE_SIZE = 500;
+
+    private final CIMClient client;
+    private final String project;
+    private final File snapshotFile;
+    private final DefectSource fetchSource;
+    private final long maxAge;
+    private List<String> filenamePatterns = Collections.emptyList();
+    private List<Long> skippedCids = Collections.emptyList();
+
+    /**
+     * @param fetchSource fetches the defects when the snapshot file is missing or outdated. Its filter must not
+     *                    select files, since the snapshot is shared by every module
+     * @param maxAge      maximum age of a snapshot file, in milliseconds, so that triage changes are picked up
+     */
+    public SnapshotDefectSource(CIMClient client, String project, File snapshotFile, DefectSource fetchSource, long maxAge) {
+        this.client = client;
+        this.project = project;
+        this.snapshotFile = snapshotFile;
+        this.fetchSource = fetchSource;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @param filenamePatterns Coverity filename patterns selecting the files of the module, or an empty list to import
+     *                         the defects of every file
+     */
+    public void setFilenamePatterns(List<String> filenamePatterns) {
+        this.filenamePatterns = filenamePatterns;
+    }
+
+    /**
+     * Identifies the server, project and filter of a snapshot, so that a file is never reused for another one
+     */
+    protected String getSnapshotKey() {
+        String filter = client.getFilterSpecFactory().getFingerprint();
+        return client.getHost() + ":" + client.getPort() + "/" + project + (filter.isEmpty() ? "" : "?" + filter);
+    }
+
+    public void fetch(final StreamDefectListener listener) throws IOException, CovRemoteServiceException_Exception {
+        long snapshotId = client.getLastSnapshotId(project);
+        String key = getSnapshotKey();
+
+        skippedCids = Collections.emptyList();
+        DefectSnapshot snapshot = DefectSnapshot.open(snapshotFile, key);
+        if(snapshot != null && snapshot.getSnapshotId() == snapshotId && System.currentTimeMillis() - snapshot.getCreatedTime() <= maxAge) {
+            LOG.info("Importing the defects of Coverity snapshot " + snapshotId + " from " + snapshotFile + " (" + snapshot.size() + " defects in "
+                    + snapshot.getFileCount() + " files)");
+            snapshot.replay(listener, REPLAY_SLICE_SIZE, snapshot.findFiles(filenamePatterns));
+            return;
+        }
+
+        LOG.info("Fetching the defects of Coverity snapshot " + snapshotId + " into " + snapshotFile);
+        final DefectSnapshotWriter writer = new DefectSnapshotWriter();
+        final Pattern files = DefectSnapshot.compileFilenamePatterns(filenamePatterns);
+        fetchSource.fetch(new StreamDefectListener() {
+            public void onStreamDefects(List<MergedDefectDataObj> mergedDefects, List<StreamDefectDataObj> streamDefects) throws InterruptedException {
+                writer.onStreamDefects(mergedDefects, streamDefects);
+                if(files == null) {
+                    listener.onStreamDefects(mergedDefects, streamDefects);
+                } else {
+                    select(listener, files, mergedDefects, streamDefects);
+                }
+            }
+        });
+
+        //a snapshot missing skipped defects would hide them from the next analyses
+        skippedCids = fetchSource.getSkippedCids();
+        if(!skippedCids.isEmpty()) {
+            LOG.warn("Not saving defect snapshot " + snapshotFile + ", some defects could not be fetched");
+            return;
+        }
+        //stored defects are older than the snapshot id, they would be reused as current by the next analyses
+        if(fetchSource.isStale()) {
+            LOG.warn("Not saving defect snapshot " + snapshotFile + ", the current defects could not be fetched");
+            return;
+        }
+        try {
+            writer.write(snapshotFile, key, snapshotId);
+            LOG.info("Saved " + writer.size() + " defects to " + snapshotFile);
+        } catch(IOException e) {
+            LOG.warn("Cannot save defect snapshot " + snapshotFile, e);
+        }
+    }
+
+    public List<Long> getSkippedCids() {
+        return skippedCids;
+    }
+
+    /**
+     * @return false, snapshot files are only imported while they hold the defects of the last Coverity snapshot
+     */
+    public boolean isStale() {
+        return false;
+    }
+
+    /**
+     * Hands the defects of the files of the module to the listener
+     */
+    private static void select(StreamDefectListener listener, Pattern files, List<MergedDefectDataObj> mergedDefects, List<StreamDefectDataObj> streamDefects) throws InterruptedException {
+        List<MergedDefectDataObj> mddos = new ArrayList<MergedDefectDataObj>();
+        Set<Long> cids = new HashSet<Long>();
+        for(MergedDefectDataObj mddo : mergedDefects) {
+            if(mddo.getFilePathname() != null && files.matcher(mddo.getFilePathname()).matches()) {
+                mddos.add(mddo);
+                cids.add(mddo.getCid());
+            }
+        }
+        List<StreamDefectDataObj> sddos = new ArrayList<StreamDefectDataObj>(mddos.size());
+        for(StreamDefectDataObj sddo : streamDefects) {
+            if(cids.contains(sddo.getCid())) {
+                sddos.add(sddo);
+            }
+        }
+        if(!mddos.isEmpty()) {
+            listener.onStreamDefects(mddos, sddos);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The source files of a module, indexed once per analysis so that the file of a defect is found without touching
+ * the file system.
+ * <p/>
+ * A path is first looked up as is, after being made absolute against the base directory and normalized. Paths
+ * that are not found are then matched on their end: a file matches if the path ends with the path of the file
+ * relative to the base directory, so that defects found in another checkout of the same tree are still placed,
+ * but never on the file of another module.
+ */
+public class SourceFileIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(SourceFileIndex.class);
+
+    private final String base;
+    /**
+     * Files by normalized absolute and canonical path
+     */
+    private final Map<String, File> byPath = new HashMap<String, File>();
+    /**
+     * Paths relative to the base directory, by file name
+     */
+    private final Map<String, List<String>> byName = new HashMap<String, List<String>>();
+    private final Map<String, File> byRelativePath = new HashMap<String, File>();
+
+    /**
+     * @param baseDir the directory relative paths are resolved against
+     */
+    public SourceFileIndex(File baseDir, List<File> sourceDirs) {
+        this.base = normalize(baseDir.getAbsolutePath());
+        long start = System.currentTimeMillis();
+        for(File dir : sourceDirs) {
+            addFiles(dir);
+        }
+        LOG.debug("Indexed " + byRelativePath.size() + " source files in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private void addFiles(File root) {
+        LinkedList<File> dirs = new LinkedList<File>();
+        dirs.add(root);
+        while(!dirs.isEmpty()) {
+            File[] children = dirs.removeFirst().listFiles();
+            if(children == null) {
+                continue;
+            }
+            for(File child : children) {
+                if(child.isDirectory()) {
+                    dirs.add(child);
+                } else {
+                    add(child);
+                }
+            }
+        }
+    }
+
+    private void add(File file) {
+        String path = normalize(file.getAbsolutePath());
+        byPath.put(path, file);
+        try {
+            byPath.put(normalize(file.getCanonicalPath()), file);
+        } catch(IOException e) {
+            LOG.debug("Cannot resolve " + file, e);
+        }
+
+        if(path.startsWith(base + "/")) {
+            String relative = path.substring(base.length() + 1);
+            byRelativePath.put(relative, file);
+            String name = relative.substring(relative.lastIndexOf('/') + 1);
+            List<String> paths = byName.get(name);
+            if(paths == null) {
+                paths = new ArrayList<String>(1);
+                byName.put(name, paths);
+            }
+            paths.add(relative);
+        }
+    }
+
+    /**
+     * @return the number of indexed files
+     */
+    public int size() {
+        return byRelativePath.size();
+    }
+
+    /**
+     * @return the source file at the given path, or null if it isn't a source file of the module
+     */
+    public File find(String path) {
+        String normalized = normalize(path.startsWith("/") || isWindowsAbsolute(path) ? path : base + "/" + path);
+        File file = byPath.get(normalized);
+        if(file != null) {
+            return file;
+        }
+
+        List<String> candidates = byName.get(normalized.substring(normalized.lastIndexOf('/') + 1));
+        if(candidates == null) {
+            return null;
+        }
+        String match = null;
+        for(String relative : candidates) {
+            if(normalized.endsWith("/" + relative) && (match == null || relative.length() > match.length())) {
+                match = relative;
+            }
+        }
+        return match == null ? null : byRelativePath.get(match);
+    }
+
+    private static boolean isWindowsAbsolute(String path) {
+        return path.length() > 2 && path.charAt(1) == ':' && (path.charAt(2) == '/' || path.charAt(2) == '\\');
+    }
+
+    /**
+     * Uses forward slashes, and removes empty, "." and ".." path elements, without touching the file system
+     */
+    static String normalize(String path) {
+        String[] elements = path.replace('\\', '/').split("/");
+        LinkedList<String> result = new LinkedList<String>();
+        for(String element : elements) {
+            if(element.isEmpty() || element.equals(".")) {
+                continue;
+            } else if(element.equals("..")) {
+                if(!result.isEmpty()) {
+                    result.removeLast();
+                }
+            } else {
+                result.add(element);
+            }
+        }
+        StringBuilder sb = new StringBuilder(path.length());
+        for(String element : result) {
+            if(sb.length() > 0 || !isDrive(element)) {
+                sb.append('/');
+            }
+            sb.append(element);
+        }
+        return sb.length() == 0 ? "/" : sb.toString();
+    }
+
+    private static boolean isDrive(String element) {
+        return element.length() == 2 && element.charAt(1) == ':';
+    }
+}
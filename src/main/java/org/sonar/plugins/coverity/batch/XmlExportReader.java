@@ -0,0 +1,174 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import com.coverity.ws.v6.CheckerSubcategoryIdDataObj;
+import com.coverity.ws.v6.DefectInstanceDataObj;
+import com.coverity.ws.v6.EventDataObj;
+import com.coverity.ws.v6.FileIdDataObj;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import org.sonar.plugins.coverity.ws.StreamingDefectService;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the error elements of a Coverity defect XML file, as written by cov-analyze and read by cov-commit-defects:
+ * <pre>
+ * &lt;error&gt;
+ *   &lt;checker&gt;NULL_RETURNS&lt;/checker&gt; &lt;subcategory&gt;none&lt;/subcategory&gt; &lt;domain&gt;STATIC_JAVA&lt;/domain&gt;
+ *   &lt;file&gt;/build/src/Foo.java&lt;/file&gt; &lt;function&gt;Foo.bar()&lt;/function&gt;
+ *   &lt;event&gt;&lt;tag&gt;..&lt;/tag&gt;&lt;description&gt;..&lt;/description&gt;&lt;line&gt;12&lt;/line&gt;&lt;file&gt;..&lt;/file&gt;&lt;main&gt;true&lt;/main&gt;&lt;/event&gt;
+ * &lt;/error&gt;
+ * </pre>
+ * Errors may be at any depth of the document. Optional cid and mergeKey elements identify committed defects and
+ * occurrences of the same defect. Other elements are skipped.
+ */
+public class XmlExportReader implements ExportReader {
+    private static final XMLInputFactory INPUT_FACTORY = StreamingDefectService.createInputFactory();
+
+    private final XMLStreamReader reader;
+
+    public XmlExportReader(InputStream in) throws IOException {
+        try {
+            reader = INPUT_FACTORY.createXMLStreamReader(in);
+        } catch(XMLStreamException e) {
+            throw new IOException("Cannot read the defect XML file: " + e.getMessage());
+        }
+    }
+
+    public ImportedDefect next() throws IOException {
+        try {
+            while(reader.hasNext()) {
+                if(reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("error")) {
+                    return readError();
+                }
+            }
+            return null;
+        } catch(XMLStreamException e) {
+            throw new IOException("Malformed defect XML file: " + e.getMessage());
+        } catch(NumberFormatException e) {
+            throw new IOException("Malformed number in the defect XML file: " + e.getMessage());
+        }
+    }
+
+    private ImportedDefect readError() throws XMLStreamException {
+        MergedDefectDataObj mddo = new MergedDefectDataObj();
+        CheckerSubcategoryIdDataObj csido = new CheckerSubcategoryIdDataObj();
+        DefectInstanceDataObj dido = new DefectInstanceDataObj();
+        while(nextChild()) {
+            String name = reader.getLocalName();
+            if(name.equals("checker")) {
+                csido.setCheckerName(reader.getElementText().trim());
+            } else if(name.equals("subcategory")) {
+                csido.setSubcategory(reader.getElementText().trim());
+            } else if(name.equals("domain")) {
+                csido.setDomain(reader.getElementText().trim());
+            } else if(name.equals("file")) {
+                mddo.setFilePathname(reader.getElementText().trim());
+            } else if(name.equals("function")) {
+                mddo.setFunctionDisplayName(reader.getElementText().trim());
+            } else if(name.equals("extra")) {
+                dido.setExtra(reader.getElementText());
+            } else if(name.equals("cid")) {
+                mddo.setCid(Long.valueOf(reader.getElementText().trim()));
+            } else if(name.equals("mergeKey")) {
+                mddo.setMergeKey(reader.getElementText().trim());
+            } else if(name.equals("event")) {
+                dido.getEvents().add(readEvent());
+            } else {
+                skip();
+            }
+        }
+
+        mddo.setCheckerName(csido.getCheckerName());
+        mddo.setCheckerSubcategory(csido.getSubcategory());
+        mddo.setDomain(csido.getDomain());
+        dido.setCheckerSubcategoryId(csido);
+        StreamDefectDataObj sddo = new StreamDefectDataObj();
+        sddo.setCid(mddo.getCid());
+        sddo.setCheckerSubcategoryId(csido);
+        sddo.getDefectInstances().add(dido);
+        return new ImportedDefect(mddo, sddo);
+    }
+
+    private EventDataObj readEvent() throws XMLStreamException {
+        EventDataObj event = new EventDataObj();
+        while(nextChild()) {
+            String name = reader.getLocalName();
+            if(name.equals("main")) {
+                event.setMain(Boolean.parseBoolean(reader.getElementText().trim()));
+            } else if(name.equals("line")) {
+                event.setLineNumber(Integer.parseInt(reader.getElementText().trim()));
+            } else if(name.equals("tag")) {
+                event.setEventTag(reader.getElementText());
+            } else if(name.equals("description")) {
+                event.setEventDescription(reader.getElementText());
+            } else if(name.equals("file")) {
+                FileIdDataObj fileId = new FileIdDataObj();
+                fileId.setFilePathname(reader.getElementText().trim());
+                event.setFileId(fileId);
+            } else {
+                skip();
+            }
+        }
+        return event;
+    }
+
+    private boolean nextChild() throws XMLStreamException {
+        while(true) {
+            int event = reader.next();
+            if(event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            } else if(event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Skips the current element and its content
+     */
+    private void skip() throws XMLStreamException {
+        int depth = 1;
+        while(depth > 0) {
+            int event = reader.next();
+            if(event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if(event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch(XMLStreamException e) {
+            throw new IOException("Cannot close the defect XML file: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.cache;
+
+/**
+ * Identifies the data of one Coverity project as seen by one user of one Coverity Connect server, optionally
+ * narrowed down by a defect filter
+ */
+public final class CacheKey {
+    private final String host;
+    private final int port;
+    private final String user;
+    private final String project;
+    private final String filter;
+
+    public CacheKey(String host, int port, String user, String project) {
+        this(host, port, user, project, "");
+    }
+
+    /**
+     * @param filter fingerprint of the filter that selected the data, empty for the default filter
+     */
+    public CacheKey(String host, int port, String user, String project, String filter) {
+        this.host = host;
+        this.port = port;
+        this.user = user;
+        this.project = project;
+        this.filter = filter;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getProject() {
+        return project;
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) {
+            return true;
+        }
+        if(!(o instanceof CacheKey)) {
+            return false;
+        }
+        CacheKey other = (CacheKey)o;
+        return port == other.port && equal(host, other.host) && equal(user, other.user) && equal(project, other.project)
+                && equal(filter, other.filter);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = host != null ? host.hashCode() : 0;
+        result = 31 * result + port;
+        result = 31 * result + (user != null ? user.hashCode() : 0);
+        result = 31 * result + (project != null ? project.hashCode() : 0);
+        result = 31 * result + (filter != null ? filter.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return user + "@" + host + ":" + port + "/" + project + (filter == null || filter.isEmpty() ? "" : "?" + filter);
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
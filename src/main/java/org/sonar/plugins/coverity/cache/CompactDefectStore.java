@@ -0,0 +1,519 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.cache;
+
+import com.coverity.ws.v6.CheckerSubcategoryIdDataObj;
+import com.coverity.ws.v6.DefectInstanceDataObj;
+import com.coverity.ws.v6.EventDataObj;
+import com.coverity.ws.v6.FileIdDataObj;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+
+import java.util.Arrays;
+
+/**
+ * Column oriented storage of the parts of merged defects and stream defects that the import uses (see
+ * {@link DefectCodec}). Defects, defect instances and main events are rows of primitive arrays; strings are
+ * replaced by ids into dictionaries shared by every row, so a file path or checker name is only stored once. A
+ * defect costs about a hundred bytes instead of several kilobytes of JAXB objects.
+ * <p/>
+ * Defects are looked up by CID through a primitive hash map. Replaced and removed defects leave unused rows behind,
+ * which are reclaimed once they make up half of the store.
+ * <p/>
+ * Not thread safe.
+ */
+public class CompactDefectStore {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int CHECKER_NAME_BITS = 21;
+
+    private final StringDictionary strings;
+    /**
+     * Domains, checker names and subcategories, kept apart from the other strings so that their ids stay small
+     * enough to be packed into the keys of {@link #checkerIds}
+     */
+    private final StringDictionary checkerNames;
+    /**
+     * Checker subcategory ids, as the ids of their domain, checker name and subcategory in {@link #checkerNames}
+     */
+    private int[] checkers;
+    private int checkerCount;
+    private final LongIntHashMap checkerIds;
+
+    /**
+     * Defect rows
+     */
+    private long[] cids;
+    private int[] files;
+    private int[] mergedCheckers;
+    private int[] components;
+    private int[] statuses;
+    private int[] actions;
+    private int[] classifications;
+    private int[] severities;
+    private int[] streamCheckers;
+    private int[] firstInstances;
+    private int[] instanceCounts;
+    private int defectRows;
+    private final LongIntHashMap rowsByCid;
+
+    /**
+     * Defect instance rows
+     */
+    private int[] instanceCheckers;
+    private int[] firstEvents;
+    private int[] eventCounts;
+    private int instanceRows;
+
+    /**
+     * Main event rows
+     */
+    private int[] lines;
+    private int[] eventFiles;
+    private int[] tags;
+    private int[] descriptions;
+    private int eventRows;
+
+    public CompactDefectStore() {
+        strings = new StringDictionary();
+        checkerNames = new StringDictionary();
+        checkers = new int[3 * INITIAL_CAPACITY];
+        checkerIds = new LongIntHashMap(INITIAL_CAPACITY);
+        allocateDefects(INITIAL_CAPACITY);
+        allocateInstances(INITIAL_CAPACITY);
+        allocateEvents(INITIAL_CAPACITY);
+        rowsByCid = new LongIntHashMap(INITIAL_CAPACITY);
+    }
+
+    private CompactDefectStore(CompactDefectStore other) {
+        strings = other.strings.copy();
+        checkerNames = other.checkerNames.copy();
+        checkers = other.checkers.clone();
+        checkerCount = other.checkerCount;
+        checkerIds = other.checkerIds.copy();
+        cids = other.cids.clone();
+        files = other.files.clone();
+        mergedCheckers = other.mergedCheckers.clone();
+        components = other.components.clone();
+        statuses = other.statuses.clone();
+        actions = other.actions.clone();
+        classifications = other.classifications.clone();
+        severities = other.severities.clone();
+        streamCheckers = other.streamCheckers.clone();
+        firstInstances = other.firstInstances.clone();
+        instanceCounts = other.instanceCounts.clone();
+        defectRows = other.defectRows;
+        rowsByCid = other.rowsByCid.copy();
+        instanceCheckers = other.instanceCheckers.clone();
+        firstEvents = other.firstEvents.clone();
+        eventCounts = other.eventCounts.clone();
+        instanceRows = other.instanceRows;
+        lines = other.lines.clone();
+        eventFiles = other.eventFiles.clone();
+        tags = other.tags.clone();
+        descriptions = other.descriptions.clone();
+        eventRows = other.eventRows;
+    }
+
+    /**
+     * @return the number of defects
+     */
+    public int size() {
+        return rowsByCid.size();
+    }
+
+    public boolean contains(long cid) {
+        return rowsByCid.get(cid) >= 0;
+    }
+
+    /**
+     * @return the number of defect instances, including the ones of replaced and removed defects until they are
+     * reclaimed
+     */
+    public int getInstanceRows() {
+        return instanceRows;
+    }
+
+    /**
+     * Adds a defect, replacing the one with the same CID if any. Only the main events of the instances are kept.
+     */
+    public void put(MergedDefectDataObj mddo, StreamDefectDataObj sddo) {
+        int previous = rowsByCid.get(mddo.getCid());
+        if(previous >= 0) {
+            markUnused(previous);
+        }
+
+        int row = defectRows;
+        if(row == cids.length) {
+            growDefects();
+        }
+        cids[row] = mddo.getCid();
+        files[row] = strings.add(mddo.getFilePathname());
+        mergedCheckers[row] = addChecker(mddo.getDomain(), mddo.getCheckerName(), mddo.getCheckerSubcategory());
+        components[row] = strings.add(mddo.getComponentName());
+        statuses[row] = strings.add(mddo.getStatus());
+        actions[row] = strings.add(mddo.getAction());
+        classifications[row] = strings.add(mddo.getClassification());
+        severities[row] = strings.add(mddo.getSeverity());
+        CheckerSubcategoryIdDataObj csido = sddo.getCheckerSubcategoryId();
+        streamCheckers[row] = csido == null ? -1 : addChecker(csido.getDomain(), csido.getCheckerName(), csido.getSubcategory());
+        firstInstances[row] = instanceRows;
+        instanceCounts[row] = sddo.getDefectInstances().size();
+        defectRows++;
+
+        for(DefectInstanceDataObj dido : sddo.getDefectInstances()) {
+            addInstance(dido);
+        }
+        rowsByCid.put(mddo.getCid(), row);
+    }
+
+    private void addInstance(DefectInstanceDataObj dido) {
+        int row = instanceRows;
+        if(row == instanceCheckers.length) {
+            growInstances();
+        }
+        CheckerSubcategoryIdDataObj csido = dido.getCheckerSubcategoryId();
+        instanceCheckers[row] = csido == null ? -1 : addChecker(csido.getDomain(), csido.getCheckerName(), csido.getSubcategory());
+        firstEvents[row] = eventRows;
+        int count = 0;
+        for(EventDataObj edo : dido.getEvents()) {
+            if(edo.isMain()) {
+                addEvent(edo);
+                count++;
+            }
+        }
+        eventCounts[row] = count;
+        instanceRows++;
+    }
+
+    private void addEvent(EventDataObj edo) {
+        int row = eventRows;
+        if(row == lines.length) {
+            growEvents();
+        }
+        lines[row] = edo.getLineNumber();
+        eventFiles[row] = strings.add(edo.getFileId() != null ? edo.getFileId().getFilePathname() : null);
+        tags[row] = strings.add(edo.getEventTag());
+        descriptions[row] = strings.add(edo.getEventDescription());
+        eventRows++;
+    }
+
+    /**
+     * Removes the defect with the given CID
+     *
+     * @return whether the defect was in the store
+     */
+    public boolean remove(long cid) {
+        int row = rowsByCid.remove(cid);
+        if(row < 0) {
+            return false;
+        }
+        markUnused(row);
+        return true;
+    }
+
+    public void clear() {
+        defectRows = 0;
+        instanceRows = 0;
+        eventRows = 0;
+        rowsByCid.clear();
+        strings.clear();
+        checkerNames.clear();
+        checkerCount = 0;
+        checkerIds.clear();
+    }
+
+    /**
+     * @return the CIDs of the defects, in the order they were added
+     */
+    public long[] getCids() {
+        long[] result = new long[size()];
+        int n = 0;
+        for(int row = 0; row < defectRows; row++) {
+            if(isUsed(row)) {
+                result[n++] = cids[row];
+            }
+        }
+        return result;
+    }
+
+    public MergedDefectDataObj getMergedDefect(long cid) {
+        int row = rowsByCid.get(cid);
+        return row < 0 ? null : toMergedDefect(row);
+    }
+
+    public StreamDefectDataObj getStreamDefect(long cid) {
+        int row = rowsByCid.get(cid);
+        return row < 0 ? null : toStreamDefect(row);
+    }
+
+    /**
+     * @return the file path of the defect with the given CID, or null if it isn't in the store
+     */
+    public String getFilePathname(long cid) {
+        int row = rowsByCid.get(cid);
+        return row < 0 ? null : strings.get(files[row]);
+    }
+
+    /**
+     * Visits the defects of every file in turn. Files are visited in the order they were first seen, and the
+     * defects of a file in the order they were added.
+     */
+    public void visitByFile(FileVisitor visitor) throws Exception {
+        int fileCount = strings.size() + 1;
+        //counting sort of the used rows on their file id, with the null file first
+        int[] starts = new int[fileCount + 1];
+        for(int row = 0; row < defectRows; row++) {
+            if(isUsed(row)) {
+                starts[files[row] + 2]++;
+            }
+        }
+        for(int i = 1; i <= fileCount; i++) {
+            starts[i] += starts[i - 1];
+        }
+        int[] next = starts.clone();
+        long[] sorted = new long[size()];
+        for(int row = 0; row < defectRows; row++) {
+            if(isUsed(row)) {
+                sorted[next[files[row] + 1]++] = cids[row];
+            }
+        }
+        for(int file = 0; file < fileCount; file++) {
+            if(starts[file + 1] > starts[file]) {
+                visitor.visit(strings.get(file - 1), Arrays.copyOfRange(sorted, starts[file], starts[file + 1]));
+            }
+        }
+    }
+
+    /**
+     * Receives the defects of a file
+     */
+    public interface FileVisitor {
+        /**
+         * @param filePathname the path of the file, null for the defects without one
+         * @param cids         the CIDs of the defects of the file
+         */
+        void visit(String filePathname, long[] cids) throws Exception;
+    }
+
+    public CompactDefectStore copy() {
+        return new CompactDefectStore(this);
+    }
+
+    /**
+     * @return the approximate heap used by the store, in bytes
+     */
+    public long getHeapSize() {
+        long size = 8L * cids.length + 4L * 10 * cids.length;
+        size += 4L * 3 * instanceCheckers.length + 4L * 4 * lines.length + 4L * checkers.length;
+        size += 12L * (rowsByCid.size() + checkerIds.size()) / 0.6;
+        size += strings.getHeapSize() + checkerNames.getHeapSize();
+        return size;
+    }
+
+    private MergedDefectDataObj toMergedDefect(int row) {
+        MergedDefectDataObj mddo = new MergedDefectDataObj();
+        mddo.setCid(cids[row]);
+        mddo.setFilePathname(strings.get(files[row]));
+        int checker = mergedCheckers[row];
+        mddo.setDomain(checkerNames.get(checkers[3 * checker]));
+        mddo.setCheckerName(checkerNames.get(checkers[3 * checker + 1]));
+        mddo.setCheckerSubcategory(checkerNames.get(checkers[3 * checker + 2]));
+        mddo.setComponentName(strings.get(components[row]));
+        mddo.setStatus(strings.get(statuses[row]));
+        mddo.setAction(strings.get(actions[row]));
+        mddo.setClassification(strings.get(classifications[row]));
+        mddo.setSeverity(strings.get(severities[row]));
+        return mddo;
+    }
+
+    private StreamDefectDataObj toStreamDefect(int row) {
+        StreamDefectDataObj sddo = new StreamDefectDataObj();
+        sddo.setCid(cids[row]);
+        sddo.setCheckerSubcategoryId(toChecker(streamCheckers[row]));
+        for(int instance = firstInstances[row]; instance < firstInstances[row] + instanceCounts[row]; instance++) {
+            DefectInstanceDataObj dido = new DefectInstanceDataObj();
+            dido.setCheckerSubcategoryId(toChecker(instanceCheckers[instance]));
+            for(int event = firstEvents[instance]; event < firstEvents[instance] + eventCounts[instance]; event++) {
+                EventDataObj edo = new EventDataObj();
+                edo.setMain(true);
+                edo.setLineNumber(lines[event]);
+                String filePathname = strings.get(eventFiles[event]);
+                if(filePathname != null) {
+                    FileIdDataObj fido = new FileIdDataObj();
+                    fido.setFilePathname(filePathname);
+                    edo.setFileId(fido);
+                }
+                edo.setEventTag(strings.get(tags[event]));
+                edo.setEventDescription(strings.get(descriptions[event]));
+                dido.getEvents().add(edo);
+            }
+            sddo.getDefectInstances().add(dido);
+        }
+        return sddo;
+    }
+
+    private CheckerSubcategoryIdDataObj toChecker(int checker) {
+        if(checker < 0) {
+            return null;
+        }
+        CheckerSubcategoryIdDataObj csido = new CheckerSubcategoryIdDataObj();
+        csido.setDomain(checkerNames.get(checkers[3 * checker]));
+        csido.setCheckerName(checkerNames.get(checkers[3 * checker + 1]));
+        csido.setSubcategory(checkerNames.get(checkers[3 * checker + 2]));
+        return csido;
+    }
+
+    private int addChecker(String domain, String checkerName, String subcategory) {
+        int d = checkerNames.add(domain);
+        int c = checkerNames.add(checkerName);
+        int s = checkerNames.add(subcategory);
+        if(checkerNames.size() >= 1 << CHECKER_NAME_BITS) {
+            throw new IllegalStateException("Too many checker names: " + checkerNames.size());
+        }
+        //checker name ids are below 2^21, pack them into a single key
+        long key = ((long)(d + 1) << (2 * CHECKER_NAME_BITS)) | ((long)(c + 1) << CHECKER_NAME_BITS) | (s + 1);
+        int id = checkerIds.get(key);
+        if(id < 0) {
+            if(3 * checkerCount == checkers.length) {
+                checkers = Arrays.copyOf(checkers, checkers.length * 2);
+            }
+            id = checkerCount++;
+            checkers[3 * id] = d;
+            checkers[3 * id + 1] = c;
+            checkers[3 * id + 2] = s;
+            checkerIds.put(key, id);
+        }
+        return id;
+    }
+
+    private boolean isUsed(int row) {
+        return rowsByCid.get(cids[row]) == row;
+    }
+
+    private void markUnused(int row) {
+        if(2 * (defectRows - size()) > defectRows && defectRows > INITIAL_CAPACITY) {
+            compact(row);
+        }
+    }
+
+    /**
+     * Moves the used rows to the start of the arrays, dropping the given row as well
+     */
+    private void compact(int dropped) {
+        int defects = 0;
+        int instances = 0;
+        int events = 0;
+        for(int row = 0; row < defectRows; row++) {
+            if(row == dropped || !isUsed(row)) {
+                continue;
+            }
+            int firstInstance = instances;
+            for(int instance = firstInstances[row]; instance < firstInstances[row] + instanceCounts[row]; instance++) {
+                int firstEvent = events;
+                for(int event = firstEvents[instance]; event < firstEvents[instance] + eventCounts[instance]; event++) {
+                    lines[events] = lines[event];
+                    eventFiles[events] = eventFiles[event];
+                    tags[events] = tags[event];
+                    descriptions[events] = descriptions[event];
+                    events++;
+                }
+                instanceCheckers[instances] = instanceCheckers[instance];
+                firstEvents[instances] = firstEvent;
+                eventCounts[instances] = eventCounts[instance];
+                instances++;
+            }
+
+            cids[defects] = cids[row];
+            files[defects] = files[row];
+            mergedCheckers[defects] = mergedCheckers[row];
+            components[defects] = components[row];
+            statuses[defects] = statuses[row];
+            actions[defects] = actions[row];
+            classifications[defects] = classifications[row];
+            severities[defects] = severities[row];
+            streamCheckers[defects] = streamCheckers[row];
+            firstInstances[defects] = firstInstance;
+            instanceCounts[defects] = instanceCounts[row];
+            rowsByCid.put(cids[defects], defects);
+            defects++;
+        }
+        defectRows = defects;
+        instanceRows = instances;
+        eventRows = events;
+    }
+
+    private void allocateDefects(int capacity) {
+        cids = new long[capacity];
+        files = new int[capacity];
+        mergedCheckers = new int[capacity];
+        components = new int[capacity];
+        statuses = new int[capacity];
+        actions = new int[capacity];
+        classifications = new int[capacity];
+        severities = new int[capacity];
+        streamCheckers = new int[capacity];
+        firstInstances = new int[capacity];
+        instanceCounts = new int[capacity];
+    }
+
+    private void growDefects() {
+        int capacity = cids.length * 2;
+        cids = Arrays.copyOf(cids, capacity);
+        files = Arrays.copyOf(files, capacity);
+        mergedCheckers = Arrays.copyOf(mergedCheckers, capacity);
+        components = Arrays.copyOf(components, capacity);
+        statuses = Arrays.copyOf(statuses, capacity);
+        actions = Arrays.copyOf(actions, capacity);
+        classifications = Arrays.copyOf(classifications, capacity);
+        severities = Arrays.copyOf(severities, capacity);
+        streamCheckers = Arrays.copyOf(streamCheckers, capacity);
+        firstInstances = Arrays.copyOf(firstInstances, capacity);
+        instanceCounts = Arrays.copyOf(instanceCounts, capacity);
+    }
+
+    private void allocateInstances(int capacity) {
+        instanceCheckers = new int[capacity];
+        firstEvents = new int[capacity];
+        eventCounts = new int[capacity];
+    }
+
+    private void growInstances() {
+        int capacity = instanceCheckers.length * 2;
+        instanceCheckers = Arrays.copyOf(instanceCheckers, capacity);
+        firstEvents = Arrays.copyOf(firstEvents, capacity);
+        eventCounts = Arrays.copyOf(eventCounts, capacity);
+    }
+
+    private void allocateEvents(int capacity) {
+        lines = new int[capacity];
+        eventFiles = new int[capacity];
+        tags = new int[capacity];
+        descriptions = new int[capacity];
+    }
+
+    private void growEvents() {
+        int capacity = lines.length * 2;
+        lines = Arrays.copyOf(lines, capacity);
+        eventFiles = Arrays.copyOf(eventFiles, capacity);
+        tags = Arrays.copyOf(tags, capacity);
+        descriptions = Arrays.copyOf(descriptions, capacity);
+    }
+}
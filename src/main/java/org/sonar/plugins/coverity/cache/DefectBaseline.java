@@ -0,0 +1,339 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.cache;
+
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.coverity.ws.StreamDefectListener;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The defects of a Coverity project as of the last synchronization, together with the watermark of that
+ * synchronization and the time and last snapshot of the last full synchronization. Stored on disk between analyses
+ * so that later analyses only fetch what changed.
+ * <p/>
+ * The file starts with a header identifying the format and the server and project it was fetched from, and ends
+ * with a CRC32 checksum of everything before it. A file that fails either check is ignored.
+ */
+public class DefectBaseline {
+    private static final Logger LOG = LoggerFactory.getLogger(DefectBaseline.class);
+
+    private static final int MAGIC = 0x43564231; // "CVB1"
+    private static final int VERSION = 2;
+
+    /**
+     * Coverity Connect server time at the start of the last synchronization, 0 if never synchronized
+     */
+    private long watermark;
+    /**
+     * Coverity Connect server time at the start of the last full synchronization
+     */
+    private long fullSyncTime;
+    /**
+     * Highest snapshot id of the project at the last full synchronization, -1 if unknown
+     */
+    private long snapshotId = -1;
+    private CompactDefectStore defects = new CompactDefectStore();
+
+    public synchronized long getWatermark() {
+        return watermark;
+    }
+
+    public synchronized void setWatermark(long watermark) {
+        this.watermark = watermark;
+    }
+
+    public synchronized long getFullSyncTime() {
+        return fullSyncTime;
+    }
+
+    public synchronized void setFullSyncTime(long fullSyncTime) {
+        this.fullSyncTime = fullSyncTime;
+    }
+
+    public synchronized long getSnapshotId() {
+        return snapshotId;
+    }
+
+    public synchronized void setSnapshotId(long snapshotId) {
+        this.snapshotId = snapshotId;
+    }
+
+    public synchronized int size() {
+        return defects.size();
+    }
+
+    public synchronized boolean contains(long cid) {
+        return defects.contains(cid);
+    }
+
+    public synchronized Set<Long> getCids() {
+        Set<Long> cids = new HashSet<Long>();
+        for(long cid : defects.getCids()) {
+            cids.add(cid);
+        }
+        return cids;
+    }
+
+    public synchronized void clear() {
+        watermark = 0;
+        fullSyncTime = 0;
+        snapshotId = -1;
+        defects.clear();
+    }
+
+    /**
+     * Returns an independent baseline holding the same defects
+     */
+    public synchronized DefectBaseline copy() {
+        DefectBaseline copy = new DefectBaseline();
+        copy.watermark = watermark;
+        copy.fullSyncTime = fullSyncTime;
+        copy.snapshotId = snapshotId;
+        copy.defects = defects.copy();
+        return copy;
+    }
+
+    /**
+     * Adds or replaces the defects of a slice. Merged defects without a stream defect are ignored.
+     */
+    public synchronized void putAll(List<MergedDefectDataObj> mddos, List<StreamDefectDataObj> sddos) {
+        Map<Long, StreamDefectDataObj> byCid = new HashMap<Long, StreamDefectDataObj>();
+        for(StreamDefectDataObj sddo : sddos) {
+            byCid.put(sddo.getCid(), sddo);
+        }
+        for(MergedDefectDataObj mddo : mddos) {
+            StreamDefectDataObj sddo = byCid.get(mddo.getCid());
+            if(sddo != null) {
+                defects.put(mddo, sddo);
+            }
+        }
+    }
+
+    /**
+     * Removes every defect whose CID is not in the given collection
+     *
+     * @return the number of defects removed
+     */
+    public synchronized int retainAll(Collection<Long> cids) {
+        int removed = 0;
+        for(long cid : defects.getCids()) {
+            if(!cids.contains(cid)) {
+                defects.remove(cid);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Drops the given defects, so that they are fetched again by the next update
+     *
+     * @return the number of defects removed
+     */
+    public synchronized int removeAll(Collection<Long> cids) {
+        int removed = 0;
+        for(Long cid : cids) {
+            if(defects.remove(cid)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Hands every defect of the baseline to the listener, in slices of at most the given size. The defects of a file
+     * are handed over together.
+     */
+    public synchronized void replay(final StreamDefectListener listener, final int sliceSize) throws IOException {
+        final List<MergedDefectDataObj> mddos = new ArrayList<MergedDefectDataObj>(sliceSize);
+        final List<StreamDefectDataObj> sddos = new ArrayList<StreamDefectDataObj>(sliceSize);
+        try {
+            defects.visitByFile(new CompactDefectStore.FileVisitor() {
+                public void visit(String filePathname, long[] cids) throws Exception {
+                    for(long cid : cids) {
+                        mddos.add(defects.getMergedDefect(cid));
+                        sddos.add(defects.getStreamDefect(cid));
+                        if(mddos.size() == sliceSize) {
+                            flush(listener, mddos, sddos);
+                        }
+                    }
+                }
+            });
+            if(!mddos.isEmpty()) {
+                flush(listener, mddos, sddos);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while replaying defects");
+        } catch(IOException e) {
+            throw e;
+        } catch(RuntimeException e) {
+            throw e;
+        } catch(Exception e) {
+            IOException ioe = new IOException("Failed to replay defects");
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+    private static void flush(StreamDefectListener listener, List<MergedDefectDataObj> mddos, List<StreamDefectDataObj> sddos) throws InterruptedException {
+        listener.onStreamDefects(new ArrayList<MergedDefectDataObj>(mddos), new ArrayList<StreamDefectDataObj>(sddos));
+        mddos.clear();
+        sddos.clear();
+    }
+
+    /**
+     * @return the approximate heap used by the defects of the baseline, in bytes
+     */
+    public synchronized long getHeapSize() {
+        return defects.getHeapSize();
+    }
+
+    /**
+     * Reads a baseline from disk. A missing or unreadable file, or one written for another key, yields an empty
+     * baseline, which causes a full synchronization.
+     *
+     * @param key identifies the server and project the baseline belongs to
+     */
+    public static DefectBaseline load(File file, String key) {
+        DefectBaseline baseline = new DefectBaseline();
+        if(!file.isFile()) {
+            return baseline;
+        }
+
+        DataInputStream in = null;
+        try {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(new FileInputStream(file)), new CRC32());
+            in = new DataInputStream(checked);
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOG.warn("Ignoring defect baseline with unknown format: " + file);
+                return baseline;
+            }
+            if(!key.equals(in.readUTF())) {
+                LOG.warn("Ignoring defect baseline of another server or project: " + file);
+                return baseline;
+            }
+            long snapshotId = in.readLong();
+            long fullSyncTime = in.readLong();
+            long watermark = in.readLong();
+            int count = in.readInt();
+            for(int i = 0; i < count; i++) {
+                MergedDefectDataObj mddo = DefectCodec.readMergedDefect(in);
+                StreamDefectDataObj sddo = DefectCodec.readStreamDefect(in);
+                baseline.defects.put(mddo, sddo);
+            }
+            long checksum = checked.getChecksum().getValue();
+            if(in.readLong() != checksum) {
+                throw new IOException("Checksum mismatch");
+            }
+            baseline.snapshotId = snapshotId;
+            baseline.fullSyncTime = fullSyncTime;
+            baseline.watermark = watermark;
+        } catch(IOException e) {
+            LOG.warn("Ignoring unreadable defect baseline: " + file, e);
+            baseline.clear();
+        } finally {
+            close(in);
+        }
+        return baseline;
+    }
+
+    /**
+     * Writes the baseline to disk. The file is replaced atomically, so an interrupted write leaves the previous
+     * baseline in place.
+     */
+    public synchronized void save(File file, String key) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if(!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory: " + dir);
+        }
+
+        //a temporary file of its own, so that concurrent analyses saving the same baseline do not mix their writes
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            write(tmp, key);
+            if(!tmp.renameTo(file)) {
+                //renameTo does not replace existing files on every platform
+                if(!file.delete() || !tmp.renameTo(file)) {
+                    throw new IOException("Cannot replace defect baseline: " + file);
+                }
+            }
+        } finally {
+            if(tmp.exists() && !tmp.delete()) {
+                LOG.debug("Failed to delete " + tmp);
+            }
+        }
+    }
+
+    private void write(File tmp, String key) throws IOException {
+        CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)), new CRC32());
+        DataOutputStream out = new DataOutputStream(checked);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+            out.writeLong(snapshotId);
+            out.writeLong(fullSyncTime);
+            out.writeLong(watermark);
+            out.writeInt(defects.size());
+            for(long cid : defects.getCids()) {
+                DefectCodec.writeMergedDefect(out, defects.getMergedDefect(cid));
+                DefectCodec.writeStreamDefect(out, defects.getStreamDefect(cid));
+            }
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void close(DataInputStream in) {
+        if(in != null) {
+            try {
+                in.close();
+            } catch(IOException e) {
+                LOG.debug("Failed to close " + in, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.cache;
+
+import com.coverity.ws.v6.CheckerSubcategoryIdDataObj;
+import com.coverity.ws.v6.DefectInstanceDataObj;
+import com.coverity.ws.v6.EventDataObj;
+import com.coverity.ws.v6.FileIdDataObj;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Binary encoding of the parts of merged defects and stream defects that the import uses.
+ * <p/>
+ * Only the main events of a defect instance are kept, since they are the only ones used to place issues. Everything
+ * else (history, properties, secondary events) is dropped.
+ */
+public final class DefectCodec {
+    /**
+     * DataOutput.writeUTF is limited to 65535 bytes, which this many characters cannot exceed
+     */
+    private static final int MAX_STRING_LENGTH = 65535 / 3;
+
+    private DefectCodec() {
+    }
+
+    public static void writeMergedDefect(DataOutput out, MergedDefectDataObj mddo) throws IOException {
+        out.writeLong(mddo.getCid());
+        writeString(out, mddo.getFilePathname());
+        writeString(out, mddo.getDomain());
+        writeString(out, mddo.getCheckerName());
+        writeString(out, mddo.getCheckerSubcategory());
+        writeString(out, mddo.getComponentName());
+        writeString(out, mddo.getStatus());
+        writeString(out, mddo.getAction());
+        writeString(out, mddo.getClassification());
+        writeString(out, mddo.getSeverity());
+    }
+
+    public static MergedDefectDataObj readMergedDefect(DataInput in) throws IOException {
+        MergedDefectDataObj mddo = new MergedDefectDataObj();
+        mddo.setCid(in.readLong());
+        mddo.setFilePathname(readString(in));
+        mddo.setDomain(readString(in));
+        mddo.setCheckerName(readString(in));
+        mddo.setCheckerSubcategory(readString(in));
+        mddo.setComponentName(readString(in));
+        mddo.setStatus(readString(in));
+        mddo.setAction(readString(in));
+        mddo.setClassification(readString(in));
+        mddo.setSeverity(readString(in));
+        return mddo;
+    }
+
+    public static void writeStreamDefect(DataOutput out, StreamDefectDataObj sddo) throws IOException {
+        out.writeLong(sddo.getCid());
+        writeChecker(out, sddo.getCheckerSubcategoryId());
+        out.writeInt(sddo.getDefectInstances().size());
+        for(DefectInstanceDataObj dido : sddo.getDefectInstances()) {
+            writeChecker(out, dido.getCheckerSubcategoryId());
+
+            int mainEvents = 0;
+            for(EventDataObj edo : dido.getEvents()) {
+                if(edo.isMain()) {
+                    mainEvents++;
+                }
+            }
+            out.writeInt(mainEvents);
+            for(EventDataObj edo : dido.getEvents()) {
+                if(edo.isMain()) {
+                    out.writeInt(edo.getLineNumber());
+                    writeString(out, edo.getFileId() != null ? edo.getFileId().getFilePathname() : null);
+                    writeString(out, edo.getEventTag());
+                    writeString(out, edo.getEventDescription());
+                }
+            }
+        }
+    }
+
+    public static StreamDefectDataObj readStreamDefect(DataInput in) throws IOException {
+        StreamDefectDataObj sddo = new StreamDefectDataObj();
+        sddo.setCid(in.readLong());
+        sddo.setCheckerSubcategoryId(readChecker(in));
+        int instances = in.readInt();
+        for(int i = 0; i < instances; i++) {
+            DefectInstanceDataObj dido = new DefectInstanceDataObj();
+            dido.setCheckerSubcategoryId(readChecker(in));
+
+            int mainEvents = in.readInt();
+            for(int e = 0; e < mainEvents; e++) {
+                EventDataObj edo = new EventDataObj();
+                edo.setMain(true);
+                edo.setLineNumber(in.readInt());
+                String filePathname = readString(in);
+                if(filePathname != null) {
+                    FileIdDataObj fido = new FileIdDataObj();
+                    fido.setFilePathname(filePathname);
+                    edo.setFileId(fido);
+                }
+                edo.setEventTag(readString(in));
+                edo.setEventDescription(readString(in));
+                dido.getEvents().add(edo);
+            }
+            sddo.getDefectInstances().add(dido);
+        }
+        return sddo;
+    }
+
+    private static void writeChecker(DataOutput out, CheckerSubcategoryIdDataObj csido) throws IOException {
+        out.writeBoolean(csido != null);
+        if(csido != null) {
+            writeString(out, csido.getDomain());
+            writeString(out, csido.getCheckerName());
+            writeString(out, csido.getSubcategory());
+        }
+    }
+
+    private static CheckerSubcategoryIdDataObj readChecker(DataInput in) throws IOException {
+        if(!in.readBoolean()) {
+            return null;
+        }
+        CheckerSubcategoryIdDataObj csido = new CheckerSubcategoryIdDataObj();
+        csido.setDomain(readString(in));
+        csido.setCheckerName(readString(in));
+        csido.setSubcategory(readString(in));
+        return csido;
+    }
+
+    public static void writeString(DataOutput out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if(s != null) {
+            out.writeUTF(s.length() > MAX_STRING_LENGTH ? s.substring(0, MAX_STRING_LENGTH) : s);
+        }
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
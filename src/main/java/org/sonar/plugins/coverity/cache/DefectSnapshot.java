@@ -0,0 +1,386 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.coverity.cache;
+
+import com.coverity.ws.v6.CheckerSubcategoryIdDataObj;
+import com.coverity.ws.v6.DefectInstanceDataObj;
+import com.coverity.ws.v6.EventDataObj;
+import com.coverity.ws.v6.FileIdDataObj;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.coverity.ws.StreamDefectListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A set of defects fetched from Coverity Connect, stored in a compact binary file that is memory mapped to be read,
+ * so that the analyses of several modules and branches can import the same Coverity snapshot without fetching or
+ * decoding it again. Opening a snapshot only checks its header; defects are decoded from the mapped file while they
+ * are replayed.
+ * <p/>
+ * The file, written by {@link DefectSnapshotWriter}, is made of these sections, big endian:
+ * <ul>
+ * <li>a header with the format, the length of the file, the Coverity snapshot id, the creation time, the counts and
+ * offsets of the other sections, and the key of the server, project and filter the defects were fetched with</li>
+ * <li>the paths of the files, sorted, as a string table</li>
+ * <li>the domains, names and subcategories of the checkers, as a string table</li>
+ * <li>the checkers, as the ids of their domain, name and subcategory</li>
+ * <li>the file index: for the file of each path, its first record and its number of records</li>
+ * <li>the records, one per defect instance and grouped by file: CID, checker and line of the main event. The
+ * instances of a defect are consecutive.</li>
+ * </ul>
+ * A string table is the number of strings, the end offset of each string and their UTF-8 bytes. Only what the import
+ * uses is kept, the other events and attributes of the defects are dropped.
+ * <p/>
+ * Files are replaced instead of modified, so a mapped file never changes. Thread safe.
+ */
+public class DefectSnapshot {
+    private static final Logger LOG = LoggerFactory.getLogger(DefectSnapshot.class);
+
+    static final int MAGIC = 0x43565331; // "CVS1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 72;  //without the key
+    static final int CHECKER_SIZE = 12;
+    static final int FILE_SIZE = 8;
+    static final int RECORD_SIZE = 16;
+    static final int NO_MAIN_EVENT = -1;  //line of instances without a main event
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+    private final long snapshotId;
+    private final long createdTime;
+    private final int recordCount;
+    private final int defectCount;
+    private final int fileCount;
+    private final int checkerCount;
+    private final int pathsOffset;
+    private final int namesOffset;
+    private final int checkersOffset;
+    private final int filesOffset;
+    private final int recordsOffset;
+    private final String key;
+
+    private DefectSnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if(buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Unknown format");
+        }
+        if(buffer.getLong(8) != buffer.capacity()) {
+            throw new IOException("Truncated file");
+        }
+        snapshotId = buffer.getLong(16);
+        createdTime = buffer.getLong(24);
+        recordCount = buffer.getInt(32);
+        defectCount = buffer.getInt(36);
+        fileCount = buffer.getInt(40);
+        checkerCount = buffer.getInt(44);
+        pathsOffset = buffer.getInt(48);
+        namesOffset = buffer.getInt(52);
+        checkersOffset = buffer.getInt(56);
+        filesOffset = buffer.getInt(60);
+        recordsOffset = buffer.getInt(64);
+        int keyLength = buffer.getInt(68);
+        if(keyLength < 0 || HEADER_SIZE + keyLength > pathsOffset || pathsOffset > namesOffset || namesOffset > checkersOffset
+                || (long)checkersOffset + (long)CHECKER_SIZE * checkerCount != filesOffset
+                || (long)filesOffset + (long)FILE_SIZE * fileCount != recordsOffset
+                || (long)recordsOffset + (long)RECORD_SIZE * recordCount != buffer.capacity()) {
+            throw new IOException("Inconsistent sections");
+        }
+        key = getString(HEADER_SIZE, keyLength);
+    }
+
+    /**
+     * Maps a snapshot file. A missing or unreadable file, or one written for another key, yields null.
+     *
+     * @param key identifies the server, project and filter the defects must have been fetched with
+     */
+    public static DefectSnapshot open(File file, String key) {
+        if(!file.isFile()) {
+            return null;
+        }
+        try {
+            DefectSnapshot snapshot = new DefectSnapshot(map(file));
+            if(!key.equals(snapshot.key)) {
+                LOG.warn("Ignoring defect snapshot of another server, project or filter: " + file);
+                return null;
+            }
+            return snapshot;
+        } catch(IOException e) {
+            LOG.warn("Ignoring unreadable defect snapshot: " + file, e);
+            return null;
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if(raf.length() > Integer.MAX_VALUE) {
+                throw new IOException("Defect snapshots are limited to 2 GB");
+            }
+            //the mapping stays valid once the file is closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return the highest snapshot id of the Coverity project when the defects were fetched
+     */
+    public long getSnapshotId() {
+        return snapshotId;
+    }
+
+    /**
+     * @return the time the defects were fetched
+     */
+    public long getCreatedTime() {
+        return createdTime;
+    }
+
+    /**
+     * @return the number of defects
+     */
+    public int size() {
+        return defectCount;
+    }
+
+    public int getInstanceCount() {
+        return recordCount;
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * @return the path of a file of the index, in order of paths
+     */
+    public String getFile(int file) {
+        return getTableString(pathsOffset, file);
+    }
+
+    /**
+     * @return the index of the file with the given path, or -1 if it has no defects
+     */
+    public int indexOf(String filePathname) {
+        int index = lowerBound(filePathname);
+        return index < fileCount && getFile(index).equals(filePathname) ? index : -1;
+    }
+
+    /**
+     * @return the number of defect instances of a file of the index
+     */
+    public int getInstanceCount(int file) {
+        return buffer.getInt(filesOffset + FILE_SIZE * file + 4);
+    }
+
+    /**
+     * @return the index of the first file whose path is not before the given one
+     */
+    private int lowerBound(String filePathname) {
+        int low = 0;
+        int high = fileCount;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(getFile(mid).compareTo(filePathname) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the files matching Coverity filename patterns, where * matches any sequence of characters. Only the
+     * files sharing the part of a pattern before its first * are compared with it.
+     *
+     * @return the indexes of the files, every file for an empty collection
+     */
+    public BitSet findFiles(Collection<String> filenamePatterns) {
+        BitSet files = new BitSet(fileCount);
+        if(filenamePatterns == null || filenamePatterns.isEmpty()) {
+            files.set(0, fileCount);
+            return files;
+        }
+        for(String filenamePattern : filenamePatterns) {
+            int star = filenamePattern.indexOf('*');
+            String prefix = star < 0 ? filenamePattern : filenamePattern.substring(0, star);
+            Pattern pattern = compileFilenamePatterns(Collections.singletonList(filenamePattern));
+            for(int file = lowerBound(prefix); file < fileCount; file++) {
+                String path = getFile(file);
+                if(!path.startsWith(prefix)) {
+                    break;
+                }
+                if(pattern.matcher(path).matches()) {
+                    files.set(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * @return a regular expression matching the paths matched by any of the Coverity filename patterns, or null
+     * for an empty collection
+     */
+    public static Pattern compileFilenamePatterns(Collection<String> filenamePatterns) {
+        if(filenamePatterns == null || filenamePatterns.isEmpty()) {
+            return null;
+        }
+        StringBuilder regex = new StringBuilder();
+        for(String filenamePattern : filenamePatterns) {
+            regex.append(regex.length() == 0 ? "" : "|");
+            String[] parts = filenamePattern.split("\\*", -1);
+            for(int i = 0; i < parts.length; i++) {
+                regex.append(i == 0 ? "" : ".*").append(Pattern.quote(parts[i]));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * Hands every defect of the snapshot to the listener, in slices of at most the given size and in order of files
+     */
+    public void replay(StreamDefectListener listener, int sliceSize) throws IOException {
+        replay(listener, sliceSize, findFiles(null));
+    }
+
+    /**
+     * Hands the defects of the given files of the index to the listener, in slices of at most the given size and in
+     * order of files
+     */
+    public void replay(StreamDefectListener listener, int sliceSize, BitSet files) throws IOException {
+        CheckerSubcategoryIdDataObj[] checkers = new CheckerSubcategoryIdDataObj[checkerCount];
+        for(int i = 0; i < checkerCount; i++) {
+            int position = checkersOffset + CHECKER_SIZE * i;
+            checkers[i] = new CheckerSubcategoryIdDataObj();
+            checkers[i].setDomain(getTableString(namesOffset, buffer.getInt(position)));
+            checkers[i].setCheckerName(getTableString(namesOffset, buffer.getInt(position + 4)));
+            checkers[i].setSubcategory(getTableString(namesOffset, buffer.getInt(position + 8)));
+        }
+
+        List<MergedDefectDataObj> mddos = new ArrayList<MergedDefectDataObj>(sliceSize);
+        List<StreamDefectDataObj> sddos = new ArrayList<StreamDefectDataObj>(sliceSize);
+        try {
+            for(int file = files.nextSetBit(0); file >= 0 && file < fileCount; file = files.nextSetBit(file + 1)) {
+                String path = getFile(file);
+                FileIdDataObj fileId = new FileIdDataObj();
+                fileId.setFilePathname(path);
+                int first = buffer.getInt(filesOffset + FILE_SIZE * file);
+                int end = first + buffer.getInt(filesOffset + FILE_SIZE * file + 4);
+
+                StreamDefectDataObj sddo = null;
+                for(int record = first; record < end; record++) {
+                    int position = recordsOffset + RECORD_SIZE * record;
+                    long cid = buffer.getLong(position);
+                    int checker = buffer.getInt(position + 8);
+                    int line = buffer.getInt(position + 12);
+                    CheckerSubcategoryIdDataObj csido = checker < 0 ? null : checkers[checker];
+
+                    if(sddo == null || sddo.getCid() != cid) {
+                        if(mddos.size() == sliceSize) {
+                            flush(listener, mddos, sddos);
+                        }
+                        MergedDefectDataObj mddo = new MergedDefectDataObj();
+                        mddo.setCid(cid);
+                        mddo.setFilePathname(path);
+                        if(csido != null) {
+                            mddo.setDomain(csido.getDomain());
+                            mddo.setCheckerName(csido.getCheckerName());
+                            mddo.setCheckerSubcategory(csido.getSubcategory());
+                        }
+                        sddo = new StreamDefectDataObj();
+                        sddo.setCid(cid);
+                        sddo.setCheckerSubcategoryId(csido);
+                        mddos.add(mddo);
+                        sddos.add(sddo);
+                    }
+
+                    DefectInstanceDataObj dido = new DefectInstanceDataObj();
+                    dido.setCheckerSubcategoryId(csido);
+                    if(line != NO_MAIN_EVENT) {
+                        EventDataObj main = new EventDataObj();
+                        main.setMain(true);
+                        main.setLineNumber(line);
+                        main.setFileId(fileId);
+                        dido.getEvents().add(main);
+                    }
+                    sddo.getDefectInstances().add(dido);
+                }
+            }
+            if(!mddos.isEmpty()) {
+                flush(listener, mddos, sddos);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while replaying defects");
+        } catch(IndexOutOfBoundsException e) {
+            IOException ioe = new IOException("Corrupted defect snapshot");
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+    private static void flush(StreamDefectListener listener, List<MergedDefectDataObj> mddos, List<StreamDefectDataObj> sddos) throws InterruptedException {
+        listener.onStreamDefects(new ArrayList<MergedDefectDataObj>(mddos), new ArrayList<StreamDefectDataObj>(sddos));
+        mddos.clear();
+        sddos.clear();
+    }
+
+    /**
+     * @return a string of a string table, null for the id -1
+     */
+    private String getTableString(int table, int id) {
+        if(id < 0) {
+            return null;
+        }
+        int start = id == 0 ? 0 : buffer.getInt(table + 4 * id);
+        int end = buffer.getInt(table + 4 + 4 * id);
+        return getString(table + 4 + 4 * buffer.getInt(table) + start, end - start);
+    }
+
+    private String getString(int position, int length) {
+        if(length < 0 || position < 0 || position + length > buffer.capacity()) {
+            throw new IndexOutOfBoundsException("String of " + length + " bytes at " + position);
+        }
+        byte[] bytes = new byte[length];
+        //the position of a duplicate is private to the calling thread
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
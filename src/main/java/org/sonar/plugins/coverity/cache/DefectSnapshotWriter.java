@@ -0,0 +1,274 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.coverity.cache;
+
+import com.coverity.ws.v6.CheckerSubcategoryIdDataObj;
+import com.coverity.ws.v6.DefectInstanceDataObj;
+import com.coverity.ws.v6.EventDataObj;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.coverity.ws.StreamDefectListener;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the defects of a fetch and writes them as a {@link DefectSnapshot}. Listens to the slices of the fetch,
+ * keeping each defect instance as a row of primitive arrays until the snapshot is written. Defects without
+ * instances have no issues and are left out.
+ * <p/>
+ * Thread safe.
+ */
+public class DefectSnapshotWriter implements StreamDefectListener {
+    private static final Logger LOG = LoggerFactory.getLogger(DefectSnapshotWriter.class);
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final StringDictionary paths = new StringDictionary();
+    private final StringDictionary names = new StringDictionary();
+    /**
+     * Checkers, as the ids in names of their domain, checker name and subcategory
+     */
+    private final StringDictionary checkerKeys = new StringDictionary();
+    private int[] checkers = new int[3 * 64];
+
+    /**
+     * Instance rows
+     */
+    private long[] cids = new long[INITIAL_CAPACITY];
+    private int[] files = new int[INITIAL_CAPACITY];
+    private int[] instanceCheckers = new int[INITIAL_CAPACITY];
+    private int[] lines = new int[INITIAL_CAPACITY];
+    private int rows;
+    private int defects;
+
+    public synchronized void onStreamDefects(List<MergedDefectDataObj> mergedDefects, List<StreamDefectDataObj> streamDefects) {
+        Map<Long, StreamDefectDataObj> byCid = new HashMap<Long, StreamDefectDataObj>();
+        for(StreamDefectDataObj sddo : streamDefects) {
+            byCid.put(sddo.getCid(), sddo);
+        }
+        for(MergedDefectDataObj mddo : mergedDefects) {
+            StreamDefectDataObj sddo = byCid.get(mddo.getCid());
+            if(sddo == null || sddo.getDefectInstances().isEmpty()) {
+                continue;
+            }
+            int file = paths.add(mddo.getFilePathname() == null ? "" : mddo.getFilePathname());
+            for(DefectInstanceDataObj dido : sddo.getDefectInstances()) {
+                CheckerSubcategoryIdDataObj csido = dido.getCheckerSubcategoryId() != null ? dido.getCheckerSubcategoryId() : sddo.getCheckerSubcategoryId();
+                addRow(mddo.getCid(), file, getChecker(csido), getMainLine(dido));
+            }
+            defects++;
+        }
+    }
+
+    /**
+     * @return the number of defects collected so far
+     */
+    public synchronized int size() {
+        return defects;
+    }
+
+    private int getChecker(CheckerSubcategoryIdDataObj csido) {
+        if(csido == null) {
+            return -1;
+        }
+        int domain = names.add(csido.getDomain());
+        int name = names.add(csido.getCheckerName());
+        int subcategory = names.add(csido.getSubcategory());
+        int id = checkerKeys.add(domain + ":" + name + ":" + subcategory);
+        if(3 * id + 3 > checkers.length) {
+            checkers = Arrays.copyOf(checkers, checkers.length * 2);
+        }
+        checkers[3 * id] = domain;
+        checkers[3 * id + 1] = name;
+        checkers[3 * id + 2] = subcategory;
+        return id;
+    }
+
+    private static int getMainLine(DefectInstanceDataObj dido) {
+        for(EventDataObj event : dido.getEvents()) {
+            if(event.isMain()) {
+                return event.getLineNumber();
+            }
+        }
+        return DefectSnapshot.NO_MAIN_EVENT;
+    }
+
+    private void addRow(long cid, int file, int checker, int line) {
+        if(rows == cids.length) {
+            int capacity = rows * 2;
+            cids = Arrays.copyOf(cids, capacity);
+            files = Arrays.copyOf(files, capacity);
+            instanceCheckers = Arrays.copyOf(instanceCheckers, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+        cids[rows] = cid;
+        files[rows] = file;
+        instanceCheckers[rows] = checker;
+        lines[rows] = line;
+        rows++;
+    }
+
+    /**
+     * Writes the collected defects. The file is replaced atomically, so that snapshots mapped by other analyses
+     * never change.
+     *
+     * @param key        identifies the server, project and filter the defects were fetched with
+     * @param snapshotId highest snapshot id of the Coverity project when the defects were fetched
+     */
+    public synchronized void write(File file, String key, long snapshotId) throws IOException {
+        //paths are sorted, so that the files of the index can be found by binary search
+        String[] sortedPaths = new String[paths.size()];
+        for(int i = 0; i < sortedPaths.length; i++) {
+            sortedPaths[i] = paths.get(i);
+        }
+        Arrays.sort(sortedPaths);
+        int[] fileIndexes = new int[paths.size()];
+        for(int i = 0; i < fileIndexes.length; i++) {
+            fileIndexes[i] = Arrays.binarySearch(sortedPaths, paths.get(i));
+        }
+
+        //rows are grouped by file, keeping their order within a file
+        int[] fileStarts = new int[sortedPaths.length + 1];
+        for(int row = 0; row < rows; row++) {
+            fileStarts[fileIndexes[files[row]] + 1]++;
+        }
+        for(int i = 0; i < sortedPaths.length; i++) {
+            fileStarts[i + 1] += fileStarts[i];
+        }
+        int[] order = new int[rows];
+        int[] next = fileStarts.clone();
+        for(int row = 0; row < rows; row++) {
+            order[next[fileIndexes[files[row]]]++] = row;
+        }
+
+        byte[] keyBytes = key.getBytes(DefectSnapshot.UTF8);
+        byte[][] pathBytes = encode(sortedPaths);
+        String[] nameValues = new String[names.size()];
+        for(int i = 0; i < nameValues.length; i++) {
+            nameValues[i] = names.get(i);
+        }
+        byte[][] nameBytes = encode(nameValues);
+
+        long pathsOffset = DefectSnapshot.HEADER_SIZE + keyBytes.length;
+        long namesOffset = pathsOffset + getTableSize(pathBytes);
+        long checkersOffset = namesOffset + getTableSize(nameBytes);
+        long filesOffset = checkersOffset + (long)DefectSnapshot.CHECKER_SIZE * checkerKeys.size();
+        long recordsOffset = filesOffset + (long)DefectSnapshot.FILE_SIZE * sortedPaths.length;
+        long length = recordsOffset + (long)DefectSnapshot.RECORD_SIZE * rows;
+        if(length > Integer.MAX_VALUE) {
+            throw new IOException("Too many defects for a defect snapshot: " + defects);
+        }
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        if(!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory: " + dir);
+        }
+        //a temporary file of its own, so that concurrent analyses writing the same snapshot do not mix their writes
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE));
+            try {
+                out.writeInt(DefectSnapshot.MAGIC);
+                out.writeInt(DefectSnapshot.VERSION);
+                out.writeLong(length);
+                out.writeLong(snapshotId);
+                out.writeLong(System.currentTimeMillis());
+                out.writeInt(rows);
+                out.writeInt(defects);
+                out.writeInt(sortedPaths.length);
+                out.writeInt(checkerKeys.size());
+                out.writeInt((int)pathsOffset);
+                out.writeInt((int)namesOffset);
+                out.writeInt((int)checkersOffset);
+                out.writeInt((int)filesOffset);
+                out.writeInt((int)recordsOffset);
+                out.writeInt(keyBytes.length);
+                out.write(keyBytes);
+
+                writeTable(out, pathBytes);
+                writeTable(out, nameBytes);
+                for(int i = 0; i < 3 * checkerKeys.size(); i++) {
+                    out.writeInt(checkers[i]);
+                }
+                for(int i = 0; i < sortedPaths.length; i++) {
+                    out.writeInt(fileStarts[i]);
+                    out.writeInt(fileStarts[i + 1] - fileStarts[i]);
+                }
+                for(int row : order) {
+                    out.writeLong(cids[row]);
+                    out.writeInt(instanceCheckers[row]);
+                    out.writeInt(lines[row]);
+                }
+            } finally {
+                out.close();
+            }
+
+            if(!tmp.renameTo(file)) {
+                //renameTo does not replace existing files on every platform
+                if(!file.delete() || !tmp.renameTo(file)) {
+                    throw new IOException("Cannot replace defect snapshot: " + file);
+                }
+            }
+        } finally {
+            if(tmp.exists() && !tmp.delete()) {
+                LOG.debug("Failed to delete " + tmp);
+            }
+        }
+    }
+
+    private static byte[][] encode(String[] values) {
+        byte[][] bytes = new byte[values.length][];
+        for(int i = 0; i < values.length; i++) {
+            bytes[i] = values[i].getBytes(DefectSnapshot.UTF8);
+        }
+        return bytes;
+    }
+
+    private static long getTableSize(byte[][] values) {
+        long size = 4 + 4L * values.length;
+        for(byte[] value : values) {
+            size += value.length;
+        }
+        return size;
+    }
+
+    private static void writeTable(DataOutputStream out, byte[][] values) throws IOException {
+        out.writeInt(values.length);
+        int end = 0;
+        for(byte[] value : values) {
+            end += value.length;
+            out.writeInt(end);
+        }
+        for(byte[] value : values) {
+            out.write(value);
+        }
+    }
+}
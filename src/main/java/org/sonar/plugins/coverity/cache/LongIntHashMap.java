@@ -0,0 +1,184 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.cache;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash map from long keys to non-negative int values, without boxing. Collisions are resolved
+ * by linear probing, and removals shift the following entries back so that no tombstones are needed.
+ */
+public class LongIntHashMap {
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private boolean hasEmptyKey;
+    private int emptyKeyValue;
+
+    public LongIntHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    private LongIntHashMap(LongIntHashMap other) {
+        keys = other.keys.clone();
+        values = other.values.clone();
+        size = other.size;
+        hasEmptyKey = other.hasEmptyKey;
+        emptyKeyValue = other.emptyKeyValue;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the value of the key, or -1 if it isn't in the map
+     */
+    public int get(long key) {
+        if(key == EMPTY) {
+            return hasEmptyKey ? emptyKeyValue : -1;
+        }
+        for(int i = slot(key); ; i = (i + 1) & (keys.length - 1)) {
+            if(keys[i] == key) {
+                return values[i];
+            } else if(keys[i] == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * @return the previous value of the key, or -1 if it wasn't in the map
+     */
+    public int put(long key, int value) {
+        if(key == EMPTY) {
+            int previous = hasEmptyKey ? emptyKeyValue : -1;
+            if(!hasEmptyKey) {
+                size++;
+            }
+            hasEmptyKey = true;
+            emptyKeyValue = value;
+            return previous;
+        }
+        if(size + 1 > keys.length * LOAD_FACTOR) {
+            rehash(keys.length * 2);
+        }
+        for(int i = slot(key); ; i = (i + 1) & (keys.length - 1)) {
+            if(keys[i] == key) {
+                int previous = values[i];
+                values[i] = value;
+                return previous;
+            } else if(keys[i] == EMPTY) {
+                keys[i] = key;
+                values[i] = value;
+                size++;
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * @return the value of the removed key, or -1 if it wasn't in the map
+     */
+    public int remove(long key) {
+        if(key == EMPTY) {
+            int previous = hasEmptyKey ? emptyKeyValue : -1;
+            if(hasEmptyKey) {
+                size--;
+            }
+            hasEmptyKey = false;
+            return previous;
+        }
+        int mask = keys.length - 1;
+        int i = slot(key);
+        while(keys[i] != key) {
+            if(keys[i] == EMPTY) {
+                return -1;
+            }
+            i = (i + 1) & mask;
+        }
+        int previous = values[i];
+        size--;
+
+        //move back the entries of the probe sequence that follows, if the hole is between their slot and them
+        int hole = i;
+        for(int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            if(((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        keys[hole] = EMPTY;
+        return previous;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        hasEmptyKey = false;
+    }
+
+    public LongIntHashMap copy() {
+        return new LongIntHashMap(this);
+    }
+
+    private int slot(long key) {
+        //spread the bits of sequential CIDs over the table
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & (keys.length - 1);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] != EMPTY) {
+                for(int j = slot(oldKeys[i]); ; j = (j + 1) & (keys.length - 1)) {
+                    if(keys[j] == EMPTY) {
+                        keys[j] = oldKeys[i];
+                        values[j] = oldValues[i];
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = 16;
+        while(capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
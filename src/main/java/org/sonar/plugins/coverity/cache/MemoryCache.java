@@ -0,0 +1,188 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread-safe in-memory cache that keeps the least recently used entries within limits on their number, their
+ * age and their estimated heap usage. Entries are weighed by the caller, in bytes.
+ */
+public class MemoryCache<K, V> {
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryCache.class);
+
+    private final String name;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+
+    private long ttl;
+    private int maxEntries;
+    private long maxWeight;
+    private long weight;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param ttl        maximum age of an entry, in milliseconds
+     * @param maxEntries maximum number of entries
+     * @param maxWeight  maximum total weight of the entries, in bytes
+     */
+    public MemoryCache(String name, long ttl, int maxEntries, long maxWeight) {
+        this.name = name;
+        configure(ttl, maxEntries, maxWeight);
+    }
+
+    /**
+     * Changes the limits of the cache, evicting entries that no longer fit
+     */
+    public synchronized void configure(long ttl, int maxEntries, long maxWeight) {
+        this.ttl = Math.max(0, ttl);
+        this.maxEntries = Math.max(0, maxEntries);
+        this.maxWeight = Math.max(0, maxWeight);
+        evict();
+    }
+
+    /**
+     * @return the cached value, or null if there is none or it has expired
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if(entry != null && now() - entry.created >= ttl) {
+            remove(key, entry);
+            entry = null;
+        }
+        if(entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Caches a value, unless it alone exceeds the weight limit
+     *
+     * @param weight estimated heap usage of the value, in bytes
+     */
+    public synchronized void put(K key, V value, long weight) {
+        Entry<V> old = entries.remove(key);
+        if(old != null) {
+            this.weight -= old.weight;
+        }
+        if(weight > maxWeight || maxEntries == 0 || ttl == 0) {
+            LOG.debug("Not caching " + key + " in " + name + " (" + weight + " bytes)");
+            return;
+        }
+        entries.put(key, new Entry<V>(value, weight, now()));
+        this.weight += weight;
+        evict();
+    }
+
+    public synchronized void invalidate(K key) {
+        Entry<V> entry = entries.get(key);
+        if(entry != null) {
+            remove(key, entry);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return whether the limits of the cache allow keeping any entry
+     */
+    public synchronized boolean isEnabled() {
+        return ttl > 0 && maxEntries > 0 && maxWeight > 0;
+    }
+
+    public synchronized long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return name + ": " + entries.size() + " entries, " + weight + " bytes, " + hits + " hits, " + misses
+                + " misses, " + evictions + " evictions";
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    private void evict() {
+        long now = now();
+        for(Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<K, Entry<V>> e = it.next();
+            boolean expired = now - e.getValue().created >= ttl;
+            if(expired || entries.size() > maxEntries || weight > maxWeight) {
+                it.remove();
+                weight -= e.getValue().weight;
+                evictions++;
+            }
+        }
+    }
+
+    private void remove(K key, Entry<V> entry) {
+        entries.remove(key);
+        weight -= entry.weight;
+        evictions++;
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long weight;
+        final long created;
+
+        Entry(V value, long weight, long created) {
+            this.value = value;
+            this.weight = weight;
+            this.created = created;
+        }
+    }
+}
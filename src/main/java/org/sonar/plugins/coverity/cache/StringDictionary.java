@@ -0,0 +1,99 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps strings to dense int ids and back. Ids are assigned in order of first appearance, starting at 0. Null is
+ * represented by the id -1.
+ */
+public class StringDictionary {
+    private static final long STRING_OVERHEAD = 96;  //estimated heap usage of a string and its entries, without its characters
+
+    private final Map<String, Integer> ids;
+    private final List<String> values;
+    private long heapSize;
+
+    public StringDictionary() {
+        ids = new HashMap<String, Integer>();
+        values = new ArrayList<String>();
+    }
+
+    private StringDictionary(StringDictionary other) {
+        ids = new HashMap<String, Integer>(other.ids);
+        values = new ArrayList<String>(other.values);
+        heapSize = other.heapSize;
+    }
+
+    /**
+     * @return the id of the string, which is added if it wasn't in the dictionary yet
+     */
+    public int add(String value) {
+        if(value == null) {
+            return -1;
+        }
+        Integer id = ids.get(value);
+        if(id == null) {
+            id = values.size();
+            ids.put(value, id);
+            values.add(value);
+            heapSize += STRING_OVERHEAD + 2L * value.length();
+        }
+        return id;
+    }
+
+    /**
+     * @return the id of the string, or -1 if it isn't in the dictionary
+     */
+    public int indexOf(String value) {
+        Integer id = value == null ? null : ids.get(value);
+        return id == null ? -1 : id;
+    }
+
+    public String get(int id) {
+        return id < 0 ? null : values.get(id);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * @return the approximate heap used by the strings and their ids, in bytes
+     */
+    public long getHeapSize() {
+        return heapSize;
+    }
+
+    public void clear() {
+        ids.clear();
+        values.clear();
+        heapSize = 0;
+    }
+
+    public StringDictionary copy() {
+        return new StringDictionary(this);
+    }
+}
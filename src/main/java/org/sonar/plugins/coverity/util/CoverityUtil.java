@@ -28,6 +28,9 @@ import org.sonar.plugins.coverity.CoverityPlugin;
 import org.sonar.plugins.coverity.server.CoverityRulesRepositories;
 import org.sonar.plugins.coverity.ws.CIMClient;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class CoverityUtil {
     public static RuleKey getRuleKey(String language, DefectInstanceDataObj dido) {
         return RuleKey.of(CoverityPlugin.REPOSITORY_KEY + "-" + language, flattenCheckerSubcategoryId(dido.getCheckerSubcategoryId()));
@@ -37,6 +40,30 @@ public class CoverityUtil {
         return csido.getDomain() + "_" + csido.getCheckerName() + "_" + csido.getSubcategory();
     }
 
+    /**
+     * Finds the checker subcategory ids that are flattened into the given id by
+     * {@link #flattenCheckerSubcategoryId(CheckerSubcategoryIdDataObj)}. Checker names and subcategories may both
+     * contain underscores, so every way of splitting the id is returned.
+     *
+     * @param domain the domain the flattened id starts with
+     */
+    public static List<CheckerSubcategoryIdDataObj> expandCheckerSubcategoryId(String domain, String flattened) {
+        List<CheckerSubcategoryIdDataObj> ids = new ArrayList<CheckerSubcategoryIdDataObj>();
+        String prefix = domain + "_";
+        if(!flattened.startsWith(prefix)) {
+            return ids;
+        }
+        String rest = flattened.substring(prefix.length());
+        for(int i = rest.indexOf('_', 1); i > 0 && i < rest.length() - 1; i = rest.indexOf('_', i + 1)) {
+            CheckerSubcategoryIdDataObj id = new CheckerSubcategoryIdDataObj();
+            id.setDomain(domain);
+            id.setCheckerName(rest.substring(0, i));
+            id.setSubcategory(rest.substring(i + 1));
+            ids.add(id);
+        }
+        return ids;
+    }
+
     public static String createURL(CIMClient client) {
         return createURL(client.getHost(), client.getPort(), client.isUseSSL());
     }
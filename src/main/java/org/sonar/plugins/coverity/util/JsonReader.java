@@ -0,0 +1,374 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A pull parser for JSON documents that holds one value at a time, so that files larger than the heap can be read.
+ * Values are read in document order with {@link #beginObject()}, {@link #nextName()}, {@link #nextString()} and so
+ * on, and skipped with {@link #skipValue()}.
+ */
+public class JsonReader implements Closeable {
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    //scopes of the values being read
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int NONEMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+    private long offset;  //of the start of the buffer in the document
+
+    private int[] stack = new int[32];
+    private int depth = 1;
+
+    private Token peeked;
+    private String value;  //of the peeked name or scalar
+    private final StringBuilder sb = new StringBuilder();
+
+    public JsonReader(Reader in) {
+        this.in = in;
+        stack[0] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * @return the type of the next token, without consuming it
+     */
+    public Token peek() throws IOException {
+        if(peeked != null) {
+            return peeked;
+        }
+
+        int scope = stack[depth - 1];
+        int c;
+        switch(scope) {
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if(c == ']') {
+                    return peeked = Token.END_ARRAY;
+                } else if(c < 0) {
+                    throw syntaxError("Unexpected end of document");
+                }
+                pos--;
+                break;
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if(c == ']') {
+                    return peeked = Token.END_ARRAY;
+                } else if(c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if(c == '}') {
+                    return peeked = Token.END_OBJECT;
+                }
+                if(scope == NONEMPTY_OBJECT) {
+                    if(c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if(c != '"') {
+                    throw syntaxError("Expected a name");
+                }
+                value = readString();
+                stack[depth - 1] = DANGLING_NAME;
+                return peeked = Token.NAME;
+            case DANGLING_NAME:
+                if(nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            default:
+                if(fill() && nextNonWhitespace() >= 0) {
+                    throw syntaxError("Expected the end of the document");
+                }
+                return peeked = Token.END_DOCUMENT;
+        }
+        return peeked = readValue();
+    }
+
+    private Token readValue() throws IOException {
+        int c = nextNonWhitespace();
+        switch(c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                value = readString();
+                return Token.STRING;
+            case 't':
+            case 'f':
+            case 'n':
+                pos--;
+                value = readLiteral();
+                if(value.equals("null")) {
+                    return Token.NULL;
+                } else if(value.equals("true") || value.equals("false")) {
+                    return Token.BOOLEAN;
+                }
+                throw syntaxError("Unexpected '" + value + "'");
+            default:
+                if(c == '-' || (c >= '0' && c <= '9')) {
+                    pos--;
+                    value = readLiteral();
+                    return Token.NUMBER;
+                }
+                throw syntaxError(c < 0 ? "Unexpected end of document" : "Unexpected '" + (char)c + "'");
+        }
+    }
+
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return value;
+    }
+
+    /**
+     * @return the next string, number or boolean as a string, or null for null
+     */
+    public String nextString() throws IOException {
+        Token token = peek();
+        if(token == Token.NULL) {
+            peeked = null;
+            return null;
+        } else if(token != Token.STRING && token != Token.NUMBER && token != Token.BOOLEAN) {
+            throw syntaxError("Expected a string but was " + token);
+        }
+        peeked = null;
+        return value;
+    }
+
+    /**
+     * @return the next number, or null for null
+     */
+    public Long nextLong() throws IOException {
+        String s = nextString();
+        try {
+            return s == null ? null : Long.valueOf(s);
+        } catch(NumberFormatException e) {
+            throw syntaxError("Expected an integer but was " + s);
+        }
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return value.equals("true");
+    }
+
+    /**
+     * Skips the next value, with all it contains
+     */
+    public void skipValue() throws IOException {
+        int count = 0;
+        do {
+            Token token = peek();
+            if(token == Token.BEGIN_OBJECT) {
+                beginObject();
+                count++;
+            } else if(token == Token.BEGIN_ARRAY) {
+                beginArray();
+                count++;
+            } else if(token == Token.END_OBJECT) {
+                endObject();
+                count--;
+            } else if(token == Token.END_ARRAY) {
+                endArray();
+                count--;
+            } else if(token == Token.END_DOCUMENT) {
+                throw syntaxError("Unexpected end of document");
+            } else {
+                peeked = null;
+            }
+        } while(count > 0);
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if(token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if(depth == stack.length) {
+            int[] larger = new int[depth * 2];
+            System.arraycopy(stack, 0, larger, 0, depth);
+            stack = larger;
+        }
+        stack[depth++] = scope;
+    }
+
+    /**
+     * @return false at the end of the input
+     */
+    private boolean fill() throws IOException {
+        if(pos < limit) {
+            return true;
+        }
+        offset += limit;
+        pos = 0;
+        limit = 0;
+        int n = in.read(buffer, 0, buffer.length);
+        if(n <= 0) {
+            return false;
+        }
+        limit = n;
+        return true;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while(fill()) {
+            char c = buffer[pos++];
+            if(c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    private String readString() throws IOException {
+        sb.setLength(0);
+        while(true) {
+            if(!fill()) {
+                throw syntaxError("Unterminated string");
+            }
+            int start = pos;
+            while(pos < limit) {
+                char c = buffer[pos++];
+                if(c == '"') {
+                    sb.append(buffer, start, pos - start - 1);
+                    return sb.toString();
+                } else if(c == '\\') {
+                    sb.append(buffer, start, pos - start - 1);
+                    sb.append(readEscape());
+                    start = pos;
+                }
+            }
+            sb.append(buffer, start, pos - start);
+        }
+    }
+
+    private char readEscape() throws IOException {
+        if(!fill()) {
+            throw syntaxError("Unterminated escape sequence");
+        }
+        char c = buffer[pos++];
+        switch(c) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int code = 0;
+                for(int i = 0; i < 4; i++) {
+                    if(!fill()) {
+                        throw syntaxError("Unterminated escape sequence");
+                    }
+                    int digit = Character.digit(buffer[pos++], 16);
+                    if(digit < 0) {
+                        throw syntaxError("Malformed unicode escape");
+                    }
+                    code = code * 16 + digit;
+                }
+                return (char)code;
+            default:
+                //\" \\ \/ and lenient escapes of any other character
+                return c;
+        }
+    }
+
+    /**
+     * Reads an unquoted number or literal up to the next delimiter
+     */
+    private String readLiteral() throws IOException {
+        sb.setLength(0);
+        while(fill()) {
+            char c = buffer[pos];
+            if(c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                break;
+            }
+            sb.append(c);
+            pos++;
+        }
+        return sb.toString();
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at offset " + (offset + pos) + " of the JSON document");
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses the number of items requested per web service call from the latency and the response size of the
+ * previous calls. The per-item cost is smoothed over the calls, and the size moves toward the one expected to take
+ * the target latency, changing by at most a factor of two per call and staying within the configured limits.
+ */
+public class AdaptiveBatchSizer {
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveBatchSizer.class);
+
+    /**
+     * Weight of the last call in the smoothed per-item cost and response size
+     */
+    private static final double SMOOTHING = 0.3;
+
+    private final String name;
+    private final int minSize;
+    private final int maxSize;
+    private final long targetLatency;
+    private final long maxResponseSize;
+
+    private int size;
+    private double millisPerItem = -1;
+    private double responseSizePerItem = -1;
+    private int calls;
+    private long items;
+    private long millis;
+
+    /**
+     * @param targetLatency   latency to aim for, in milliseconds, 0 to always use the initial size
+     * @param maxResponseSize maximum expected response size, in the unit passed to {@link #record}, 0 for no limit
+     */
+    public AdaptiveBatchSizer(String name, int initialSize, int minSize, int maxSize, long targetLatency, long maxResponseSize) {
+        this.name = name;
+        this.minSize = Math.max(1, Math.min(minSize, maxSize));
+        this.maxSize = Math.max(1, maxSize);
+        this.targetLatency = targetLatency;
+        this.maxResponseSize = maxResponseSize;
+        this.size = clamp(initialSize, this.minSize, this.maxSize);
+    }
+
+    /**
+     * A sizer that always returns the same size
+     */
+    public static AdaptiveBatchSizer fixed(String name, int size) {
+        return new AdaptiveBatchSizer(name, size, size, size, 0, 0);
+    }
+
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * Accounts for a completed call
+     *
+     * @param requested    number of items requested
+     * @param latency      duration of the call, in milliseconds
+     * @param responseSize size of the response, in a unit chosen by the caller (defects, events, ...)
+     */
+    public synchronized void record(int requested, long latency, long responseSize) {
+        if(requested <= 0) {
+            return;
+        }
+        calls++;
+        items += requested;
+        millis += latency;
+        if(targetLatency <= 0) {
+            return;
+        }
+
+        millisPerItem = smooth(millisPerItem, (double)latency / requested);
+        responseSizePerItem = smooth(responseSizePerItem, (double)responseSize / requested);
+
+        double ideal = millisPerItem > 0 ? targetLatency / millisPerItem : maxSize;
+        if(maxResponseSize > 0 && responseSizePerItem > 0) {
+            ideal = Math.min(ideal, maxResponseSize / responseSizePerItem);
+        }
+        int next = clamp((int)Math.min(ideal, Integer.MAX_VALUE), Math.max(1, size / 2), size * 2);
+        next = clamp(next, minSize, maxSize);
+        if(next != size) {
+            LOG.debug(name + " size " + size + " -> " + next + " (" + latency + " ms for " + requested + " items)");
+            size = next;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return name + " size " + size + " after " + calls + " calls"
+                + (items > 0 ? " (" + (millis * 1000 / items) / 1000.0 + " ms per item)" : "");
+    }
+
+    private static double smooth(double average, double value) {
+        return average < 0 ? value : average + SMOOTHING * (value - average);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
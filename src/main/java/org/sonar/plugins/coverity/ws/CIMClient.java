@@ -23,6 +23,7 @@ package org.sonar.plugins.coverity.ws;
 import com.coverity.ws.v6.ConfigurationService;
 import com.coverity.ws.v6.ConfigurationServiceService;
 import com.coverity.ws.v6.CovRemoteServiceException_Exception;
+import com.coverity.ws.v6.DefectInstanceDataObj;
 import com.coverity.ws.v6.DefectService;
 import com.coverity.ws.v6.DefectServiceService;
 import com.coverity.ws.v6.MergedDefectDataObj;
@@ -32,16 +33,24 @@ import com.coverity.ws.v6.PageSpecDataObj;
 import com.coverity.ws.v6.ProjectDataObj;
 import com.coverity.ws.v6.ProjectFilterSpecDataObj;
 import com.coverity.ws.v6.ProjectIdDataObj;
+import com.coverity.ws.v6.SnapshotFilterSpecDataObj;
+import com.coverity.ws.v6.SnapshotIdDataObj;
 import com.coverity.ws.v6.StreamDataObj;
 import com.coverity.ws.v6.StreamDefectDataObj;
 import com.coverity.ws.v6.StreamDefectFilterSpecDataObj;
 import com.coverity.ws.v6.StreamFilterSpecDataObj;
 import com.coverity.ws.v6.StreamIdDataObj;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.coverity.cache.CacheKey;
+import org.sonar.plugins.coverity.cache.MemoryCache;
+import org.sonar.plugins.coverity.util.DaemonThreadFactory;
 
 import javax.xml.namespace.QName;
 import javax.xml.ws.BindingProvider;
 import javax.xml.ws.handler.Handler;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -49,24 +58,51 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Represents one Coverity Integrity Manager server. 
  * Abstracts functions like getting streams and defects.
  */
 public class CIMClient {
-	
-	public static Map<Long, StreamDefectDataObj> sddos=null;  //stream defect data object
-	public static List<MergedDefectDataObj> defects=null;  //defects
-	public static ProjectDataObj project=null;
-	
+    private static final Logger LOG = LoggerFactory.getLogger(CIMClient.class);
+
     public static final String COVERITY_WS_VERSION = "v6";
     public static final String COVERITY_NAMESPACE = "http://ws.coverity.com/" + COVERITY_WS_VERSION;
     public static final String CONFIGURATION_SERVICE_WSDL = "/ws/" + COVERITY_WS_VERSION + "/configurationservice?wsdl";
     public static final String DEFECT_SERVICE_WSDL = "/ws/" + COVERITY_WS_VERSION + "/defectservice?wsdl";
 
-    private static final int GET_STREAM_DEFECTS_MAX_CIDS = 100;
+    public static final int GET_STREAM_DEFECTS_MAX_CIDS = 100;
+    public static final int MERGED_DEFECTS_PAGE_SIZE = 2500;
+    private static final long PORT_IDLE_TIMEOUT = 5 * 60 * 1000L;
+    private static final int MIN_PAGE_SIZE = 100;
+    private static final int MIN_SLICE_SIZE = 10;
+    private static final long MAX_SLICE_EVENTS = 100000;
+    public static final long DEFAULT_TARGET_LATENCY = 10 * 1000L;
+
+    public static final long DEFAULT_CACHE_TTL = 10 * 60 * 1000L;
+    public static final int DEFAULT_CACHE_MAX_PROJECTS = 8;
+    public static final long DEFAULT_CACHE_MAX_HEAP = Math.min(64L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 8);
+
+    static final long MERGED_DEFECT_WEIGHT = 1024;  //estimated heap usage of a merged defect, in bytes
+    private static final long STREAM_DEFECT_WEIGHT = 1024;  //estimated heap usage of a stream defect without its events
+    private static final long EVENT_WEIGHT = 512;  //estimated heap usage of a defect event
+    private static final long PROJECT_WEIGHT = 4096;
+
+    /**
+     * Defects fetched by the clients of this JVM, shared between analyses
+     */
+    private static final MemoryCache<CacheKey, ProjectDefects> DEFECT_CACHE =
+            new MemoryCache<CacheKey, ProjectDefects>("Coverity defect cache", DEFAULT_CACHE_TTL, DEFAULT_CACHE_MAX_PROJECTS, DEFAULT_CACHE_MAX_HEAP);
+    private static final MemoryCache<CacheKey, ProjectDataObj> PROJECT_CACHE =
+            new MemoryCache<CacheKey, ProjectDataObj>("Coverity project cache", DEFAULT_CACHE_TTL, DEFAULT_CACHE_MAX_PROJECTS, DEFAULT_CACHE_MAX_PROJECTS * PROJECT_WEIGHT);
 
     /**
      * The host name for the CIM server
@@ -96,7 +132,46 @@ public class CIMClient {
      * cached webservice port for Configuration service
      */
     private transient ConfigurationServiceService configurationServiceService;
+    /**
+     * Authenticated ports, reused across calls and worker threads
+     */
+    private transient ServicePortPool<DefectService> defectServicePool;
+    private transient ServicePortPool<ConfigurationService> configurationServicePool;
+    private transient DefectService defectService;
+    private transient ConfigurationService configurationService;
     private transient Map<String, Long> projectKeys;
+    /**
+     * Maximum number of merged defect pages requested at the same time
+     */
+    private int pageFetchThreads = 1;
+    /**
+     * Number of worker threads fetching stream defects
+     */
+    private int streamDefectThreads = 1;
+    /**
+     * Build the security header with XWSS rather than copying a precomputed one
+     */
+    private boolean useXWSS = false;
+    private TransportOptions transportOptions = new TransportOptions();
+    /**
+     * Number of merged defects per page and of CIDs per getStreamDefects call
+     */
+    private AdaptiveBatchSizer pageSizer = createPageSizer(DEFAULT_TARGET_LATENCY, MERGED_DEFECTS_PAGE_SIZE);
+    private AdaptiveBatchSizer sliceSizer = createSliceSizer(DEFAULT_TARGET_LATENCY, GET_STREAM_DEFECTS_MAX_CIDS);
+    /**
+     * Decode getStreamDefects responses while they are received, keeping only the main events
+     */
+    private boolean streamingDecoding = true;
+    private transient StreamingDefectService streamingDefectService;
+    /**
+     * Retries, hedges and guards every call to the server with a circuit breaker
+     */
+    private final ResilientCaller resilientCaller;
+    private DefectFilterSpecFactory filterSpecFactory = new DefectFilterSpecFactory();
+    /**
+     * Whether a stream defect slice that still fails after its retries is skipped instead of failing the import
+     */
+    private boolean skipFailedSlices = true;
 
     public CIMClient(String host, int port, String user, String password, boolean ssl) {
         this.host = host;
@@ -104,6 +179,7 @@ public class CIMClient {
         this.user = user;
         this.password = password;
         this.useSSL = ssl;
+        this.resilientCaller = new ResilientCaller("Coverity Connect " + host + ":" + port);
     }
 
     public String getHost() {
@@ -126,6 +202,116 @@ public class CIMClient {
         return useSSL;
     }
 
+    public int getPageFetchThreads() {
+        return pageFetchThreads;
+    }
+
+    /**
+     * Sets how many merged defect pages may be requested concurrently. A value of 1 walks the pages one after
+     * another.
+     */
+    public void setPageFetchThreads(int pageFetchThreads) {
+        this.pageFetchThreads = Math.max(1, pageFetchThreads);
+        updatePortPoolSize();
+    }
+
+    public int getStreamDefectThreads() {
+        return streamDefectThreads;
+    }
+
+    /**
+     * Sets how many slices of stream defects may be requested concurrently
+     */
+    public void setStreamDefectThreads(int streamDefectThreads) {
+        this.streamDefectThreads = Math.max(1, streamDefectThreads);
+        updatePortPoolSize();
+    }
+
+    public boolean isUseXWSS() {
+        return useXWSS;
+    }
+
+    /**
+     * Selects {@link ClientAuthenticationHandlerWSS} instead of {@link UsernameTokenHandler} for the ports created
+     * from now on
+     */
+    public void setUseXWSS(boolean useXWSS) {
+        this.useXWSS = useXWSS;
+    }
+
+    public TransportOptions getTransportOptions() {
+        return transportOptions;
+    }
+
+    /**
+     * Sets the HTTP transport options of the ports created from now on
+     */
+    public synchronized void setTransportOptions(TransportOptions transportOptions) {
+        this.transportOptions = transportOptions;
+        streamingDefectService = null;
+    }
+
+    /**
+     * Sets the latency web service calls should take, and the largest page of merged defects and slice of CIDs
+     * that may be requested. Sizes start at the maximum and shrink when calls are slower than the target.
+     *
+     * @param targetLatency in milliseconds, 0 to always use the maximum sizes
+     */
+    public void configureBatchSizes(long targetLatency, int maxPageSize, int maxSliceSize) {
+        pageSizer = createPageSizer(targetLatency, maxPageSize);
+        sliceSizer = createSliceSizer(targetLatency, maxSliceSize);
+    }
+
+    private static AdaptiveBatchSizer createPageSizer(long targetLatency, int maxPageSize) {
+        return new AdaptiveBatchSizer("Merged defect page", maxPageSize, MIN_PAGE_SIZE, maxPageSize, targetLatency, 0);
+    }
+
+    private static AdaptiveBatchSizer createSliceSizer(long targetLatency, int maxSliceSize) {
+        return new AdaptiveBatchSizer("Stream defect slice", maxSliceSize, MIN_SLICE_SIZE, maxSliceSize, targetLatency, MAX_SLICE_EVENTS);
+    }
+
+    public DefectFilterSpecFactory getFilterSpecFactory() {
+        return filterSpecFactory;
+    }
+
+    public void setFilterSpecFactory(DefectFilterSpecFactory filterSpecFactory) {
+        this.filterSpecFactory = filterSpecFactory;
+    }
+
+    public ResilientCaller getResilientCaller() {
+        return resilientCaller;
+    }
+
+    /**
+     * @param retries number of times a failed read is tried again
+     * @param hedging whether reads slower than usual are sent a second time
+     */
+    public void configureResilience(int retries, boolean hedging) {
+        resilientCaller.setRetries(retries);
+        resilientCaller.setHedging(hedging);
+        updatePortPoolSize();
+    }
+
+    public boolean isSkipFailedSlices() {
+        return skipFailedSlices;
+    }
+
+    public void setSkipFailedSlices(boolean skipFailedSlices) {
+        this.skipFailedSlices = skipFailedSlices;
+    }
+
+    public boolean isStreamingDecoding() {
+        return streamingDecoding;
+    }
+
+    /**
+     * Selects how {@link #getStreamDefects(List, StreamDefectFilterSpecDataObj)} decodes responses: with the
+     * {@link StreamingDefectService}, or with the JAXB binding of the Defect service
+     */
+    public void setStreamingDecoding(boolean streamingDecoding) {
+        this.streamingDecoding = streamingDecoding;
+    }
+
     /**
      * The root URL for the CIM instance
      *
@@ -137,9 +323,22 @@ public class CIMClient {
     }
 
     /**
-     * Returns a Defect service client
+     * Returns a Defect service client. The client can be shared between threads: each call uses a port of a
+     * bounded pool of authenticated ports. Calls go through the {@link ResilientCaller} of this client.
      */
-    public DefectService getDefectService() throws IOException {
+    public synchronized DefectService getDefectService() throws IOException {
+        if(defectServicePool == null) {
+            defectServicePool = new ServicePortPool<DefectService>(DefectService.class, new ServicePortPool.Factory<DefectService>() {
+                public DefectService create() throws IOException {
+                    return createDefectServicePort();
+                }
+            }, getPortPoolSize(), PORT_IDLE_TIMEOUT);
+            defectService = resilientCaller.proxy(DefectService.class, defectServicePool.proxy());
+        }
+        return defectService;
+    }
+
+    private DefectService createDefectServicePort() throws IOException {
         synchronized(this) {
             if(defectServiceService == null) {
                 defectServiceService = new DefectServiceService(
@@ -152,6 +351,7 @@ public class CIMClient {
         try {
             DefectService defectService = defectServiceService.getDefectServicePort();
             attachAuthenticationHandler((BindingProvider)defectService);
+            transportOptions.apply((BindingProvider)defectService);
 
             return defectService;
         } finally {
@@ -163,13 +363,26 @@ public class CIMClient {
      * Attach an authentication handler to the web service, that uses the configured user and password
      */
     private void attachAuthenticationHandler(BindingProvider service) {
-        service.getBinding().setHandlerChain(Arrays.<Handler>asList(new ClientAuthenticationHandlerWSS(user, password)));
+        Handler handler = useXWSS ? new ClientAuthenticationHandlerWSS(user, password) : new UsernameTokenHandler(user, password);
+        service.getBinding().setHandlerChain(Arrays.<Handler>asList(handler));
     }
 
     /**
-     * Returns a Configuration service client
+     * Returns a Configuration service client, backed by a pool of ports like {@link #getDefectService()}
      */
-    public ConfigurationService getConfigurationService() throws IOException {
+    public synchronized ConfigurationService getConfigurationService() throws IOException {
+        if(configurationServicePool == null) {
+            configurationServicePool = new ServicePortPool<ConfigurationService>(ConfigurationService.class, new ServicePortPool.Factory<ConfigurationService>() {
+                public ConfigurationService create() throws IOException {
+                    return createConfigurationServicePort();
+                }
+            }, getPortPoolSize(), PORT_IDLE_TIMEOUT);
+            configurationService = resilientCaller.proxy(ConfigurationService.class, configurationServicePool.proxy());
+        }
+        return configurationService;
+    }
+
+    private ConfigurationService createConfigurationServicePort() throws IOException {
         synchronized(this) {
             if(configurationServiceService == null) {
                 // Create a Web Services port to the server
@@ -183,6 +396,7 @@ public class CIMClient {
         try {
             ConfigurationService configurationService = configurationServiceService.getConfigurationServicePort();
             attachAuthenticationHandler((BindingProvider)configurationService);
+            transportOptions.apply((BindingProvider)configurationService);
 
             return configurationService;
         } finally {
@@ -190,6 +404,22 @@ public class CIMClient {
         }
     }
 
+    /**
+     * One port per worker thread, plus one for the calling thread and one per hedged call
+     */
+    public int getPortPoolSize() {
+        return pageFetchThreads + streamDefectThreads + 1 + resilientCaller.getMaxHedges();
+    }
+
+    private synchronized void updatePortPoolSize() {
+        if(defectServicePool != null) {
+            defectServicePool.setMaxSize(getPortPoolSize());
+        }
+        if(configurationServicePool != null) {
+            configurationServicePool.setMaxSize(getPortPoolSize());
+        }
+    }
+
     public List<MergedDefectDataObj> getDefects(String streamId, List<Long> defectIds) throws IOException, CovRemoteServiceException_Exception {
         MergedDefectFilterSpecDataObj filterSpec1 = new MergedDefectFilterSpecDataObj();
         StreamIdDataObj stream = new StreamIdDataObj();
@@ -215,51 +445,235 @@ public class CIMClient {
     }
 
     public List<MergedDefectDataObj> getDefects(String project) throws IOException, CovRemoteServiceException_Exception {
-    	if(CIMClient.defects!=null)return CIMClient.defects;
-    	MergedDefectFilterSpecDataObj filterSpec = new MergedDefectFilterSpecDataObj();
+        return getDefects(project, (MergedDefectsPageListener)null);
+    }
+
+    /**
+     * Fetches the merged defects of a project. Each page is handed to the listener as soon as it has been fetched,
+     * so that the caller can start working on it while the remaining pages are still being requested.
+     *
+     * @param listener notified of every page, may be null
+     */
+    public List<MergedDefectDataObj> getDefects(String project, MergedDefectsPageListener listener) throws IOException, CovRemoteServiceException_Exception {
+        CacheKey key = getDefectCacheKey(project);
+        ProjectDefects cached = DEFECT_CACHE.get(key);
+        if(cached != null) {
+            if(listener != null) {
+                listener.onPage(cached.getMergedDefects());
+            }
+            return cached.getMergedDefects();
+        }
+
+        List<MergedDefectDataObj> result = new ArrayList<MergedDefectDataObj>();
+        fetchMergedDefects(project, createDefectFilterSpec(), listener, result);
+        ProjectDefects defects = new ProjectDefects(result, null);
+        DEFECT_CACHE.put(key, defects, estimateWeight(defects));
+        return result;
+    }
+
+    /**
+     * Fetches the merged defects of a project and hands every page to the listener without keeping them, so that
+     * memory use does not depend on the number of defects in the project.
+     *
+     * @return the number of merged defects fetched
+     */
+    public int streamDefects(String project, MergedDefectsPageListener listener) throws IOException, CovRemoteServiceException_Exception {
+        ProjectDefects cached = DEFECT_CACHE.get(getDefectCacheKey(project));
+        if(cached != null) {
+            listener.onPage(cached.getMergedDefects());
+            return cached.getMergedDefects().size();
+        }
+        return fetchMergedDefects(project, createDefectFilterSpec(), listener, null);
+    }
+
+    /**
+     * Fetches the merged defects of a project matching the given filter and hands every page to the listener
+     * without keeping them
+     *
+     * @return the number of merged defects fetched
+     */
+    public int streamDefects(String project, MergedDefectFilterSpecDataObj filterSpec, MergedDefectsPageListener listener) throws IOException, CovRemoteServiceException_Exception {
+        return fetchMergedDefects(project, filterSpec, listener, null);
+    }
+
+    /**
+     * Returns the CIDs of the merged defects of a project matching the given filter. This is much cheaper than
+     * fetching the defects themselves.
+     */
+    public List<Long> getCIDs(String project, MergedDefectFilterSpecDataObj filterSpec) throws IOException, CovRemoteServiceException_Exception {
+        ProjectIdDataObj projectId = new ProjectIdDataObj();
+        projectId.setName(project);
+        return getDefectService().getCIDsForProject(projectId, filterSpec);
+    }
+
+    /**
+     * Returns the current time of the Coverity Connect server, in milliseconds
+     */
+    public long getServerTime() throws IOException, CovRemoteServiceException_Exception {
+        return getConfigurationService().getServerTime().toGregorianCalendar().getTimeInMillis();
+    }
+
+    /**
+     * Walks the merged defect pages of a project, either one after another or concurrently depending on
+     * {@link #pageFetchThreads}.
+     *
+     * @param filterSpec selects the defects to fetch
+     * @param listener   notified of every page, may be null
+     * @param result     receives the defects in server order, may be null
+     * @return the number of merged defects fetched
+     */
+    private int fetchMergedDefects(String project, MergedDefectFilterSpecDataObj filterSpec, MergedDefectsPageListener listener, List<MergedDefectDataObj> result) throws IOException, CovRemoteServiceException_Exception {
         ProjectIdDataObj projectId = new ProjectIdDataObj();
         projectId.setName(project);
+
+        long start = System.currentTimeMillis();
+        MergedDefectsPageDataObj firstPage = getMergedDefectsPage(projectId, filterSpec, 0, pageSizer.getSize(), listener);
+        int total = firstPage.getTotalNumberOfRecords();
+        int defectCount = firstPage.getMergedDefects().size();
+        if(result != null) {
+            result.addAll(firstPage.getMergedDefects());
+        }
+
+        if(pageFetchThreads > 1 && defectCount < total) {
+            defectCount += fetchRemainingPages(projectId, filterSpec, defectCount, total, listener, result);
+        } else {
+            MergedDefectsPageDataObj defects = firstPage;
+            while(defectCount < defects.getTotalNumberOfRecords() && !defects.getMergedDefects().isEmpty()) {
+                defects = getMergedDefectsPage(projectId, filterSpec, defectCount, pageSizer.getSize(), listener);
+                if(result != null) {
+                    result.addAll(defects.getMergedDefects());
+                }
+                defectCount += defects.getMergedDefects().size();
+            }
+        }
+
+        LOG.info("Fetched " + defectCount + " merged defects for project " + project + " in "
+                + (System.currentTimeMillis() - start) + " ms, " + pageSizer);
+        return defectCount;
+    }
+
+    /**
+     * Builds the filter used to select the defects of a project that get imported into Sonar
+     */
+    public MergedDefectFilterSpecDataObj createDefectFilterSpec() {
+        return filterSpecFactory.create();
+    }
+
+    /**
+     * Fetches a single page of merged defects, starting at the given index, and passes it to the listener
+     */
+    private MergedDefectsPageDataObj getMergedDefectsPage(ProjectIdDataObj projectId, MergedDefectFilterSpecDataObj filterSpec, int startIndex, int pageSize, MergedDefectsPageListener listener) throws IOException, CovRemoteServiceException_Exception {
         PageSpecDataObj pageSpec = new PageSpecDataObj();
-        pageSpec.setPageSize(2500);
-		
-		/*Adding coverity filters*/
-		
-		//Set component exclude flag
-		filterSpec.setComponentIdExclude(false);
-		
-		//Set Status Name List
-		filterSpec.getStatusNameList().add("Triaged");
-        filterSpec.getStatusNameList().add("New");    
-		
-		//Set Action name list
-        filterSpec.getActionNameList().add("Undecided");
-        filterSpec.getActionNameList().add("Fix Required");
-        filterSpec.getActionNameList().add("Fix Submitted");
-        filterSpec.getActionNameList().add("Modeling Required");
-        
-        List<MergedDefectDataObj> result = new ArrayList<MergedDefectDataObj>();
-        int defectCount = 0;
-        MergedDefectsPageDataObj defects = null;
-        do {
-            pageSpec.setStartIndex(defectCount);
-            defects = getDefectService().getMergedDefectsForProject(projectId, filterSpec, pageSpec);
-            result.addAll(defects.getMergedDefects());
-            defectCount += defects.getMergedDefects().size();
-        } while(defectCount < defects.getTotalNumberOfRecords());
-        CIMClient.defects=result;
-        return result;
+        pageSpec.setPageSize(pageSize);
+        pageSpec.setStartIndex(startIndex);
+
+        long start = System.currentTimeMillis();
+        MergedDefectsPageDataObj page = getDefectService().getMergedDefectsForProject(projectId, filterSpec, pageSpec);
+        long latency = System.currentTimeMillis() - start;
+        pageSizer.record(pageSize, latency, page.getMergedDefects().size());
+        LOG.debug("Fetched merged defects page [start=" + startIndex + ", size=" + page.getMergedDefects().size()
+                + "] in " + latency + " ms");
+
+        if(listener != null) {
+            listener.onPage(page.getMergedDefects());
+        }
+        return page;
+    }
+
+    /**
+     * Requests every page after the first one concurrently, using at most {@link #pageFetchThreads} threads. Each
+     * thread claims the next range of defects with the current page size, so page sizes can change while the pages
+     * are being fetched. Pages are appended to the result in the order of their start index, so the result is the
+     * same as the one produced by walking the pages sequentially.
+     *
+     * @return the number of merged defects fetched
+     */
+    private int fetchRemainingPages(final ProjectIdDataObj projectId, final MergedDefectFilterSpecDataObj filterSpec, final int firstIndex, final int total, final MergedDefectsPageListener listener, final List<MergedDefectDataObj> result) throws IOException, CovRemoteServiceException_Exception {
+        final AtomicInteger defectCount = new AtomicInteger();
+        final AtomicInteger nextIndex = new AtomicInteger(firstIndex);
+        final Map<Integer, List<MergedDefectDataObj>> pages = new TreeMap<Integer, List<MergedDefectDataObj>>();
+
+        Callable<Void> worker = new Callable<Void>() {
+            public Void call() throws Exception {
+                while(true) {
+                    int pageSize = pageSizer.getSize();
+                    int pageStart = nextIndex.getAndAdd(pageSize);
+                    if(pageStart >= total) {
+                        return null;
+                    }
+                    List<MergedDefectDataObj> page = getMergedDefectsPage(projectId, filterSpec, pageStart, pageSize, listener).getMergedDefects();
+                    defectCount.addAndGet(page.size());
+                    //only hold on to the page if the caller collects the defects
+                    if(result != null) {
+                        synchronized(pages) {
+                            pages.put(pageStart, page);
+                        }
+                    }
+                }
+            }
+        };
+
+        int threads = Math.min(pageFetchThreads, (total - firstIndex + pageSizer.getSize() - 1) / pageSizer.getSize());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), new DaemonThreadFactory("coverity-page-fetch"));
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for(int i = 0; i < Math.max(1, threads); i++) {
+                futures.add(executor.submit(worker));
+            }
+            for(Future<Void> future : futures) {
+                future.get();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching merged defects");
+        } catch(ExecutionException e) {
+            throw rethrow(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if(result != null) {
+            for(List<MergedDefectDataObj> page : pages.values()) {
+                result.addAll(page);
+            }
+        }
+        return defectCount.get();
+    }
+
+    /**
+     * Rethrows the cause of a failed asynchronous web service call with its original type when possible
+     */
+    public static IOException rethrow(Throwable cause) throws CovRemoteServiceException_Exception {
+        if(cause instanceof CovRemoteServiceException_Exception) {
+            throw (CovRemoteServiceException_Exception)cause;
+        } else if(cause instanceof IOException) {
+            return (IOException)cause;
+        } else if(cause instanceof RuntimeException) {
+            throw (RuntimeException)cause;
+        } else if(cause instanceof Error) {
+            throw (Error)cause;
+        }
+        IOException e = new IOException(String.valueOf(cause));
+        e.initCause(cause);
+        return e;
     }
 
     public ProjectDataObj getProject(String projectId) throws IOException, CovRemoteServiceException_Exception {
-    	if(CIMClient.project!=null)return CIMClient.project;
+        CacheKey key = getCacheKey(projectId);
+        ProjectDataObj project = PROJECT_CACHE.get(key);
+        if(project != null) {
+            return project;
+        }
+
         ProjectFilterSpecDataObj filterSpec = new ProjectFilterSpecDataObj();
         filterSpec.setNamePattern(projectId);
         List<ProjectDataObj> projects = getConfigurationService().getProjects(filterSpec);
         if(projects.size() == 0) {
             return null;
         } else {
-        	CIMClient.project=projects.get(0);
-            return CIMClient.project;
+            project = projects.get(0);
+            PROJECT_CACHE.put(key, project, PROJECT_WEIGHT);
+            return project;
         }
     }
 
@@ -290,6 +704,24 @@ public class CIMClient {
         return result;
     }
 
+    /**
+     * Returns the highest snapshot id over the streams of a project, or -1 if nothing was committed to them.
+     * Snapshot ids grow with every commit, so a different value means new analysis results.
+     */
+    public long getLastSnapshotId(String projectId) throws IOException, CovRemoteServiceException_Exception {
+        long last = -1;
+        ProjectDataObj project = getProject(projectId);
+        if(project == null) {
+            return last;
+        }
+        for(StreamDataObj stream : project.getStreams()) {
+            for(SnapshotIdDataObj snapshot : getConfigurationService().getSnapshotsForStream(stream.getId(), new SnapshotFilterSpecDataObj())) {
+                last = Math.max(last, snapshot.getId());
+            }
+        }
+        return last;
+    }
+
     public StreamDataObj getStream(String streamId) throws IOException, CovRemoteServiceException_Exception {
         StreamFilterSpecDataObj filter = new StreamFilterSpecDataObj();
         filter.setNamePattern(streamId);
@@ -302,31 +734,172 @@ public class CIMClient {
         }
     }
 
+    /**
+     * Fetches the merged defects of a project together with their stream defects. Stream defects are requested
+     * while merged defect pages are still arriving.
+     */
+    public ProjectDefects getProjectDefects(String project) throws IOException, CovRemoteServiceException_Exception {
+        CacheKey key = getDefectCacheKey(project);
+        ProjectDefects cached = DEFECT_CACHE.get(key);
+        if(cached != null && cached.getStreamDefects() != null) {
+            return cached;
+        }
+
+        Map<Long, StreamDefectDataObj> sddos = new ConcurrentHashMap<Long, StreamDefectDataObj>();
+        StreamDefectFetcher fetcher = createStreamDefectFetcher(StreamDefectFetcher.collectInto(sddos));
+        List<MergedDefectDataObj> defects = null;
+        try {
+            defects = getDefects(project, fetcher);
+        } finally {
+            if(defects == null) {
+                fetcher.cancel();
+            }
+        }
+        fetcher.finish();
+
+        ProjectDefects result = new ProjectDefects(defects, sddos);
+        //defects of skipped slices have no stream defects, do not keep the result for the next analysis
+        if(fetcher.getSkippedCids().isEmpty()) {
+            DEFECT_CACHE.put(key, result, estimateWeight(result));
+        }
+        return result;
+    }
+
+    /**
+     * @return the cached merged and stream defects of a project, or null if they are not cached
+     */
+    public ProjectDefects getCachedProjectDefects(String project) {
+        ProjectDefects cached = DEFECT_CACHE.get(getDefectCacheKey(project));
+        return cached != null && cached.getStreamDefects() != null ? cached : null;
+    }
+
+    /**
+     * Returns a listener that hands the stream defects of every slice to the given listener and collects them for
+     * {@link #cacheProjectDefects(String, ProjectDefectsCollector)}
+     */
+    public ProjectDefectsCollector createProjectDefectsCollector(StreamDefectListener listener) {
+        //nothing is collected while caching is disabled
+        return new ProjectDefectsCollector(listener, DEFECT_CACHE.isEnabled() ? DEFECT_CACHE.getMaxWeight() : 0);
+    }
+
+    /**
+     * Keeps the defects of a complete fetch in the defect cache, for the next analyses of the project
+     */
+    public void cacheProjectDefects(String project, ProjectDefectsCollector collector) {
+        ProjectDefects defects = collector.getProjectDefects();
+        if(defects != null) {
+            DEFECT_CACHE.put(getDefectCacheKey(project), defects, estimateWeight(defects));
+        }
+    }
+
+    /**
+     * Creates a fetcher that requests stream defects in slices sized by the slice sizer of this client, using
+     * {@link #streamDefectThreads} worker threads
+     */
+    public StreamDefectFetcher createStreamDefectFetcher(StreamDefectListener listener) {
+        StreamDefectFetcher fetcher = new StreamDefectFetcher(this, streamDefectThreads, sliceSizer, listener);
+        fetcher.setSkipFailedSlices(skipFailedSlices);
+        return fetcher;
+    }
+
     public Map<Long, StreamDefectDataObj> getStreamDefectsForMergedDefects(List<MergedDefectDataObj> defects) throws IOException, CovRemoteServiceException_Exception {
-    	if(CIMClient.sddos!=null)return CIMClient.sddos;
-    	Map<Long, MergedDefectDataObj> cids = new HashMap<Long, MergedDefectDataObj>();
+        Map<Long, MergedDefectDataObj> cids = new HashMap<Long, MergedDefectDataObj>();
 
-        Map<Long, StreamDefectDataObj> sddos = new HashMap<Long, StreamDefectDataObj>();
+        Map<Long, StreamDefectDataObj> sddos = new ConcurrentHashMap<Long, StreamDefectDataObj>();
 
         for(MergedDefectDataObj mddo : defects) {
             cids.put(mddo.getCid(), mddo);
         }
 
-        StreamDefectFilterSpecDataObj filter = new StreamDefectFilterSpecDataObj();
-        filter.setIncludeDefectInstances(true);
+        StreamDefectFetcher fetcher = createStreamDefectFetcher(StreamDefectFetcher.collectInto(sddos));
+        boolean submitted = false;
+        try {
+            fetcher.onPage(new ArrayList<MergedDefectDataObj>(cids.values()));
+            submitted = true;
+        } finally {
+            if(!submitted) {
+                fetcher.cancel();
+            }
+        }
+        fetcher.finish();
+        return sddos;
+    }
+
+    /**
+     * Fetches the stream defects of the given CIDs. With streaming decoding, the instances only contain their main
+     * event.
+     */
+    public List<StreamDefectDataObj> getStreamDefects(final List<Long> cids, final StreamDefectFilterSpecDataObj filterSpec) throws IOException, CovRemoteServiceException_Exception {
+        if(!streamingDecoding) {
+            return getDefectService().getStreamDefects(cids, filterSpec);
+        }
+        final StreamingDefectService service;
+        synchronized(this) {
+            if(streamingDefectService == null) {
+                streamingDefectService = new StreamingDefectService(getURL(), user, password, transportOptions);
+            }
+            service = streamingDefectService;
+        }
+        try {
+            return resilientCaller.call("getStreamDefects", true, new Callable<List<StreamDefectDataObj>>() {
+                public List<StreamDefectDataObj> call() throws Exception {
+                    return service.getStreamDefects(cids, filterSpec);
+                }
+            });
+        } catch(Exception e) {
+            throw rethrow(e);
+        }
+    }
 
-        List<Long> cidList = new ArrayList<Long>(cids.keySet());
+    /**
+     * Identifies a project as seen by this client in the caches shared between clients
+     */
+    public CacheKey getCacheKey(String project) {
+        return new CacheKey(host, port, user, project);
+    }
 
-        for(int i = 0; i < cidList.size(); i += GET_STREAM_DEFECTS_MAX_CIDS) {
-            List<Long> slice = cidList.subList(i, i + Math.min(GET_STREAM_DEFECTS_MAX_CIDS, cidList.size() - i));
+    /**
+     * Identifies the defects of a project selected by the filter of this client in the caches shared between clients
+     */
+    public CacheKey getDefectCacheKey(String project) {
+        return new CacheKey(host, port, user, project, filterSpecFactory.getFingerprint());
+    }
 
-            List<StreamDefectDataObj> temp = getDefectService().getStreamDefects(slice, filter);
+    /**
+     * Changes the limits of the defect cache shared between the clients of this JVM
+     *
+     * @param ttl        maximum age of cached defects, in milliseconds, 0 to disable caching
+     * @param maxEntries maximum number of projects whose defects are cached
+     * @param maxHeap    maximum estimated heap usage of the cached defects, in bytes
+     */
+    public static void configureCache(long ttl, int maxEntries, long maxHeap) {
+        DEFECT_CACHE.configure(ttl, maxEntries, maxHeap);
+        PROJECT_CACHE.configure(ttl, maxEntries, maxEntries * PROJECT_WEIGHT);
+    }
 
-            for(StreamDefectDataObj sddo : temp) {
-                sddos.put(sddo.getCid(), sddo);
+    public static MemoryCache<CacheKey, ProjectDefects> getDefectCache() {
+        return DEFECT_CACHE;
+    }
+
+    public static MemoryCache<CacheKey, ProjectDataObj> getProjectCache() {
+        return PROJECT_CACHE;
+    }
+
+    private static long estimateWeight(ProjectDefects defects) {
+        long weight = defects.getMergedDefects().size() * MERGED_DEFECT_WEIGHT;
+        if(defects.getStreamDefects() != null) {
+            for(StreamDefectDataObj sddo : defects.getStreamDefects().values()) {
+                weight += estimateWeight(sddo);
             }
         }
-        CIMClient.sddos=sddos;
-        return sddos;
+        return weight;
+    }
+
+    static long estimateWeight(StreamDefectDataObj sddo) {
+        long weight = STREAM_DEFECT_WEIGHT;
+        for(DefectInstanceDataObj dido : sddo.getDefectInstances()) {
+            weight += dido.getEvents().size() * EVENT_WEIGHT;
+        }
+        return weight;
     }
 }
@@ -0,0 +1,33 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+/**
+ * Notified of the web service calls made through a {@link ResilientCaller}, on the thread that made them
+ */
+public interface CallListener {
+    /**
+     * @param operation the name of the web service operation
+     * @param nanos     the time the call took
+     * @param success   false if the call failed, or was cancelled by a faster hedged call
+     */
+    void onCall(String operation, long nanos, boolean success);
+}
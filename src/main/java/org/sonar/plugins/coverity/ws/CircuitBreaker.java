@@ -0,0 +1,101 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops calling a server that keeps failing. After a number of consecutive failures the circuit opens and calls
+ * fail immediately; once the cool down period has passed, a single trial call is let through, and its outcome
+ * closes the circuit or opens it again.
+ */
+public class CircuitBreaker {
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private final String name;
+    private final int threshold;
+    private final long coolDown;
+    private int failures;
+    private long openUntil;
+    private boolean trialInFlight;
+
+    /**
+     * @param threshold number of consecutive failures that opens the circuit
+     * @param coolDown  time the circuit stays open, in milliseconds
+     */
+    public CircuitBreaker(String name, int threshold, long coolDown) {
+        this.name = name;
+        this.threshold = Math.max(1, threshold);
+        this.coolDown = coolDown;
+    }
+
+    /**
+     * Checks that a call may be made
+     *
+     * @throws CircuitOpenException if the circuit is open
+     */
+    public synchronized void acquire() {
+        if(openUntil == 0) {
+            return;
+        }
+        long remaining = openUntil - now();
+        if(remaining > 0 || trialInFlight) {
+            throw new CircuitOpenException(name + " failed " + failures + " times in a row, not calling it for "
+                    + Math.max(0, remaining) + " ms");
+        }
+        trialInFlight = true;
+    }
+
+    /**
+     * Records a call that reached the server, even if the server reported an error
+     */
+    public synchronized void onSuccess() {
+        if(openUntil != 0) {
+            LOG.info("Closing the circuit breaker of " + name);
+        }
+        failures = 0;
+        openUntil = 0;
+        trialInFlight = false;
+    }
+
+    /**
+     * Records a call that could not reach the server or timed out
+     */
+    public synchronized void onFailure() {
+        trialInFlight = false;
+        failures++;
+        if(failures >= threshold) {
+            if(openUntil == 0) {
+                LOG.warn("Opening the circuit breaker of " + name + " after " + failures + " consecutive failures");
+            }
+            openUntil = now() + coolDown;
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return openUntil != 0;
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+}
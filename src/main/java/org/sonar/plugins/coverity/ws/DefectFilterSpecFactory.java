@@ -0,0 +1,243 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import com.coverity.ws.v6.CheckerSubcategoryFilterSpecDataObj;
+import com.coverity.ws.v6.CheckerSubcategoryIdDataObj;
+import com.coverity.ws.v6.ComponentIdDataObj;
+import com.coverity.ws.v6.MergedDefectFilterSpecDataObj;
+import org.sonar.plugins.coverity.util.CoverityUtil;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Builds the filters used to select the defects of a project that get imported into Sonar: defects with the
+ * configured statuses, actions, severities, classifications and components, found by the checkers of the active
+ * rules, in the files matching a list of filename patterns. Empty lists do not filter anything.
+ */
+public class DefectFilterSpecFactory {
+    public static final List<String> DEFAULT_STATUSES = Collections.unmodifiableList(Arrays.asList("Triaged", "New"));
+    public static final List<String> DEFAULT_ACTIONS = Collections.unmodifiableList(Arrays.asList(
+            "Undecided", "Fix Required", "Fix Submitted", "Modeling Required"));
+
+    private List<String> statuses = DEFAULT_STATUSES;
+    private List<String> actions = DEFAULT_ACTIONS;
+    private List<String> severities = Collections.emptyList();
+    private List<String> classifications = Collections.emptyList();
+    private List<String> components = Collections.emptyList();
+    /**
+     * Flattened checker subcategory ids, see {@link CoverityUtil#flattenCheckerSubcategoryId}
+     */
+    private List<String> checkers = Collections.emptyList();
+    private List<CheckerSubcategoryIdDataObj> checkerIds = Collections.emptyList();
+    private List<String> filenamePatterns = Collections.emptyList();
+
+    public List<String> getStatuses() {
+        return statuses;
+    }
+
+    public void setStatuses(Collection<String> statuses) {
+        this.statuses = copy(statuses, false);
+    }
+
+    public List<String> getActions() {
+        return actions;
+    }
+
+    public void setActions(Collection<String> actions) {
+        this.actions = copy(actions, false);
+    }
+
+    public List<String> getSeverities() {
+        return severities;
+    }
+
+    public void setSeverities(Collection<String> severities) {
+        this.severities = copy(severities, false);
+    }
+
+    public List<String> getClassifications() {
+        return classifications;
+    }
+
+    public void setClassifications(Collection<String> classifications) {
+        this.classifications = copy(classifications, false);
+    }
+
+    public List<String> getComponents() {
+        return components;
+    }
+
+    /**
+     * @param components names of Coverity components, like "Default.Other"
+     */
+    public void setComponents(Collection<String> components) {
+        this.components = copy(components, false);
+    }
+
+    /**
+     * @return the flattened ids of the checker subcategories whose defects are selected, empty if every checker is
+     * selected
+     */
+    public List<String> getCheckers() {
+        return checkers;
+    }
+
+    /**
+     * Only selects the defects of the given checker subcategories
+     *
+     * @param domain   the domain of the checkers, like "STATIC_JAVA"
+     * @param checkers flattened checker subcategory ids, as used in rule keys, or an empty collection to select every
+     *                 checker
+     */
+    public void setCheckers(String domain, Collection<String> checkers) {
+        this.checkers = copy(checkers, true);
+        List<CheckerSubcategoryIdDataObj> ids = new ArrayList<CheckerSubcategoryIdDataObj>();
+        for(String checker : this.checkers) {
+            ids.addAll(CoverityUtil.expandCheckerSubcategoryId(domain, checker));
+        }
+        this.checkerIds = Collections.unmodifiableList(ids);
+    }
+
+    public List<String> getFilenamePatterns() {
+        return filenamePatterns;
+    }
+
+    /**
+     * @param filenamePatterns Coverity filename patterns, where * matches any sequence of characters, or an empty
+     *                         collection to select the defects of every file
+     */
+    public void setFilenamePatterns(Collection<String> filenamePatterns) {
+        this.filenamePatterns = copy(filenamePatterns, true);
+    }
+
+    public MergedDefectFilterSpecDataObj create() {
+        MergedDefectFilterSpecDataObj filterSpec = new MergedDefectFilterSpecDataObj();
+
+        filterSpec.setComponentIdExclude(false);
+        filterSpec.getStatusNameList().addAll(statuses);
+        filterSpec.getActionNameList().addAll(actions);
+        filterSpec.getSeverityNameList().addAll(severities);
+        filterSpec.getClassificationNameList().addAll(classifications);
+        for(String component : components) {
+            ComponentIdDataObj id = new ComponentIdDataObj();
+            id.setName(component);
+            filterSpec.getComponentIdList().add(id);
+        }
+        for(CheckerSubcategoryIdDataObj checker : checkerIds) {
+            CheckerSubcategoryFilterSpecDataObj spec = new CheckerSubcategoryFilterSpecDataObj();
+            spec.setDomain(checker.getDomain());
+            spec.setCheckerName(checker.getCheckerName());
+            spec.setSubcategory(checker.getSubcategory());
+            filterSpec.getCheckerSubcategoryFilterSpecList().add(spec);
+        }
+        filterSpec.getFilenamePatternList().addAll(filenamePatterns);
+
+        return filterSpec;
+    }
+
+    /**
+     * @return the number of checker subcategory filters sent with every request
+     */
+    public int getCheckerFilterCount() {
+        return checkerIds.size();
+    }
+
+    /**
+     * Describes the parts of the filter that differ from the default one, so that defects fetched with different
+     * filters are never mixed up
+     *
+     * @return an empty string for the default filter
+     */
+    public String getFingerprint() {
+        StringBuilder sb = new StringBuilder();
+        if(!statuses.equals(DEFAULT_STATUSES)) {
+            append(sb, "statuses", statuses);
+        }
+        if(!actions.equals(DEFAULT_ACTIONS)) {
+            append(sb, "actions", actions);
+        }
+        append(sb, "severities", severities);
+        append(sb, "classifications", classifications);
+        append(sb, "components", components);
+        if(!checkers.isEmpty()) {
+            //there may be thousands of them
+            sb.append("checkers=").append(checkers.size()).append(':').append(digest(checkers)).append(';');
+        }
+        append(sb, "files", filenamePatterns);
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, String name, List<String> values) {
+        if(values.isEmpty()) {
+            return;
+        }
+        sb.append(name).append('=');
+        for(int i = 0; i < values.size(); i++) {
+            sb.append(i == 0 ? "" : ",").append(values.get(i));
+        }
+        sb.append(';');
+    }
+
+    private static String digest(List<String> values) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            for(String value : values) {
+                md.update(value.getBytes("UTF-8"));
+                md.update((byte)0);
+            }
+            return new BigInteger(1, md.digest()).toString(16);
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch(UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param sorted whether the order of the values does not matter, in which case they are sorted so that equal
+     *               filters have equal fingerprints
+     */
+    private static List<String> copy(Collection<String> values, boolean sorted) {
+        List<String> copy = new ArrayList<String>();
+        for(String value : sorted ? new TreeSet<String>(values) : values) {
+            if(value != null && value.trim().length() > 0 && !copy.contains(value.trim())) {
+                copy.add(value.trim());
+            }
+        }
+        return Collections.unmodifiableList(copy);
+    }
+
+    @Override
+    public String toString() {
+        String fingerprint = getFingerprint();
+        return fingerprint.isEmpty() ? "default filter" : fingerprint;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+
+package org.sonar.plugins.coverity.ws;
+
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands the stream defects of every slice to a listener while collecting them, so that a complete fetch can be
+ * kept in the defect cache. Collecting stops once the defects no longer fit in the cache.
+ */
+public class ProjectDefectsCollector implements StreamDefectListener {
+    private final StreamDefectListener listener;
+    private final long maxWeight;
+    private List<MergedDefectDataObj> mergedDefects = new ArrayList<MergedDefectDataObj>();
+    private Map<Long, StreamDefectDataObj> streamDefects = new ConcurrentHashMap<Long, StreamDefectDataObj>();
+    private long weight;
+
+    /**
+     * @param maxWeight maximum estimated heap usage of the collected defects, in bytes
+     */
+    public ProjectDefectsCollector(StreamDefectListener listener, long maxWeight) {
+        this.listener = listener;
+        this.maxWeight = maxWeight;
+    }
+
+    public void onStreamDefects(List<MergedDefectDataObj> mergedDefects, List<StreamDefectDataObj> streamDefects) throws InterruptedException {
+        collect(mergedDefects, streamDefects);
+        listener.onStreamDefects(mergedDefects, streamDefects);
+    }
+
+    private synchronized void collect(List<MergedDefectDataObj> mddos, List<StreamDefectDataObj> sddos) {
+        if(mergedDefects == null) {
+            return;
+        }
+        weight += mddos.size() * CIMClient.MERGED_DEFECT_WEIGHT;
+        for(StreamDefectDataObj sddo : sddos) {
+            weight += CIMClient.estimateWeight(sddo);
+        }
+        if(weight > maxWeight) {
+            mergedDefects = null;
+            streamDefects = null;
+            return;
+        }
+        mergedDefects.addAll(mddos);
+        for(StreamDefectDataObj sddo : sddos) {
+            streamDefects.put(sddo.getCid(), sddo);
+        }
+    }
+
+    /**
+     * @return the collected defects, or null if they did not fit in the cache
+     */
+    public synchronized ProjectDefects getProjectDefects() {
+        return mergedDefects == null ? null : new ProjectDefects(mergedDefects, streamDefects);
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.coverity.util.DaemonThreadFactory;
+
+import javax.xml.ws.WebServiceException;
+import javax.xml.ws.soap.SOAPFaultException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes web service calls resilient to a slow or flaky server:
+ * <ul>
+ * <li>reads that fail with a transport error are retried, after an exponential backoff with full jitter</li>
+ * <li>a read that takes longer than the 95th percentile of the previous calls of the same operation is sent a
+ * second time, and the first answer wins</li>
+ * <li>every call goes through a {@link CircuitBreaker}, so a server that is down is not hammered with retries</li>
+ * </ul>
+ * Errors reported by the server itself (remote exceptions and SOAP faults) are neither retried nor counted as
+ * failures by the circuit breaker.
+ */
+public class ResilientCaller {
+    private static final Logger LOG = LoggerFactory.getLogger(ResilientCaller.class);
+
+    public static final int DEFAULT_RETRIES = 2;
+    public static final long DEFAULT_BACKOFF = 500;
+    private static final long MAX_BACKOFF = 30 * 1000L;
+    private static final int LATENCY_WINDOW = 100;
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    private static final long MIN_HEDGE_DELAY = 100;
+    private static final int MAX_HEDGES = 2;
+    private static final int BREAKER_THRESHOLD = 5;
+    private static final long BREAKER_COOL_DOWN = 30 * 1000L;
+
+    private final String name;
+    private final CircuitBreaker breaker;
+    private final ConcurrentMap<String, LatencyWindow> latencies = new ConcurrentHashMap<String, LatencyWindow>();
+    private final Semaphore hedges = new Semaphore(MAX_HEDGES);
+    private final AtomicInteger retryCount = new AtomicInteger();
+    private final AtomicInteger hedgeCount = new AtomicInteger();
+    private final Random random = new Random();
+    private int retries = DEFAULT_RETRIES;
+    private long backoff = DEFAULT_BACKOFF;
+    private boolean hedging = true;
+    private ExecutorService executor;
+    private volatile CallListener callListener;
+
+    public ResilientCaller(String name) {
+        this(name, new CircuitBreaker(name, BREAKER_THRESHOLD, BREAKER_COOL_DOWN));
+    }
+
+    public ResilientCaller(String name, CircuitBreaker breaker) {
+        this.name = name;
+        this.breaker = breaker;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    /**
+     * @param retries number of times a failed read is tried again, 0 to disable retries
+     */
+    public void setRetries(int retries) {
+        this.retries = Math.max(0, retries);
+    }
+
+    /**
+     * @param backoff maximum wait before the first retry, in milliseconds. It doubles with every retry.
+     */
+    public void setBackoff(long backoff) {
+        this.backoff = Math.max(0, backoff);
+    }
+
+    public boolean isHedging() {
+        return hedging;
+    }
+
+    public void setHedging(boolean hedging) {
+        this.hedging = hedging;
+    }
+
+    /**
+     * @return the maximum number of hedged calls in flight, which need ports and connections of their own. A hedge
+     * counts until both of its attempts have returned, so the losing attempts of cancelled calls are included
+     */
+    public int getMaxHedges() {
+        return hedging ? MAX_HEDGES : 0;
+    }
+
+    /**
+     * @param callListener notified of every attempt of every call, or null
+     */
+    public void setCallListener(CallListener callListener) {
+        this.callListener = callListener;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    public int getRetryCount() {
+        return retryCount.get();
+    }
+
+    public int getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * Returns a view of a web service port whose calls go through this caller. Methods whose name starts with "get"
+     * are considered idempotent reads, the others are only guarded by the circuit breaker.
+     */
+    public <T> T proxy(final Class<T> type, final T target) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+            public Object invoke(Object proxy, final Method method, final Object[] args) throws Throwable {
+                if(method.getDeclaringClass() == Object.class) {
+                    if(method.getName().equals("equals")) {
+                        return proxy == args[0];
+                    } else if(method.getName().equals("hashCode")) {
+                        return System.identityHashCode(proxy);
+                    }
+                    return "Resilient " + type.getSimpleName();
+                }
+
+                try {
+                    return call(method.getName(), method.getName().startsWith("get"), new Callable<Object>() {
+                        public Object call() throws Exception {
+                            try {
+                                return method.invoke(target, args);
+                            } catch(InvocationTargetException e) {
+                                throw unwrap(e.getCause());
+                            }
+                        }
+                    });
+                } catch(InterruptedIOException e) {
+                    //the service interfaces only declare remote exceptions
+                    throw new WebServiceException(e);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Makes a call, retrying and hedging it if it is idempotent
+     *
+     * @param operation identifies the calls whose latencies are compared to decide when to hedge
+     */
+    public <T> T call(String operation, boolean idempotent, Callable<T> call) throws Exception {
+        for(int attempt = 1; ; attempt++) {
+            breaker.acquire();
+            boolean recorded = false;
+            try {
+                T result = idempotent && hedging ? hedge(operation, call) : time(operation, call).call();
+                breaker.onSuccess();
+                recorded = true;
+                return result;
+            } catch(Exception e) {
+                boolean retry = isTransient(e);
+                if(retry) {
+                    breaker.onFailure();
+                } else {
+                    breaker.onSuccess();
+                }
+                recorded = true;
+                if(!retry || !idempotent || attempt > retries) {
+                    throw e;
+                }
+                long wait = getBackoff(attempt);
+                retryCount.incrementAndGet();
+                LOG.warn(name + " " + operation + " failed (" + e + "), retrying in " + wait + " ms");
+                sleep(wait);
+            } finally {
+                if(!recorded) {
+                    //an error of the client itself, release the trial call of the circuit breaker
+                    breaker.onSuccess();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the call on a worker thread and, if it has not answered after the usual latency of the operation, runs
+     * it a second time. The first successful answer is returned, and the other call is cancelled.
+     */
+    private <T> T hedge(String operation, Callable<T> call) throws Exception {
+        long delay = getHedgeDelay(operation);
+        if(delay < 0) {
+            return time(operation, call).call();
+        }
+
+        CompletionService<T> completion = new ExecutorCompletionService<T>(getExecutor());
+        HedgedCall hedgedCall = new HedgedCall();
+        List<Attempt<T>> attempts = new ArrayList<Attempt<T>>(2);
+        List<Future<T>> futures = new ArrayList<Future<T>>(2);
+        try {
+            attempts.add(hedgedCall.attempt(time(operation, call)));
+            futures.add(completion.submit(attempts.get(0)));
+            Future<T> done = completion.poll(delay, TimeUnit.MILLISECONDS);
+            if(done == null && hedges.tryAcquire()) {
+                hedgeCount.incrementAndGet();
+                LOG.debug(name + " " + operation + " did not answer within " + delay + " ms, sending it again");
+                attempts.add(hedgedCall.attempt(time(operation, call)));
+                hedgedCall.setHedged();
+                futures.add(completion.submit(attempts.get(1)));
+            }
+
+            Exception failure = null;
+            for(int pending = futures.size(); pending > 0; pending--) {
+                if(done == null) {
+                    done = completion.take();
+                }
+                try {
+                    return done.get();
+                } catch(ExecutionException e) {
+                    failure = unwrap(e.getCause());
+                }
+                done = null;
+            }
+            throw failure;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while calling " + name + " " + operation);
+        } finally {
+            for(Future<T> future : futures) {
+                future.cancel(true);
+            }
+            //attempts cancelled before they started, or that could not be submitted, will never return
+            for(Attempt<T> attempt : attempts) {
+                attempt.abandon();
+            }
+        }
+    }
+
+    private <T> Callable<T> time(final String operation, final Callable<T> call) {
+        return new Callable<T>() {
+            public T call() throws Exception {
+                long start = System.nanoTime();
+                boolean success = false;
+                try {
+                    T result = call.call();
+                    success = true;
+                    getLatencies(operation).add((System.nanoTime() - start) / 1000000);
+                    return result;
+                } finally {
+                    CallListener listener = callListener;
+                    if(listener != null) {
+                        listener.onCall(operation, System.nanoTime() - start, success);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * The attempts of a call that may be hedged. Cancelling an attempt only interrupts it, and blocking HTTP reads
+     * ignore interrupts, so a losing attempt keeps its port and connection until it returns. The hedge permit is
+     * therefore released once every attempt has returned or was abandoned before it started.
+     */
+    private class HedgedCall {
+        private final AtomicInteger running = new AtomicInteger();
+        private volatile boolean hedged;
+
+        <T> Attempt<T> attempt(Callable<T> call) {
+            running.incrementAndGet();
+            return new Attempt<T>(this, call);
+        }
+
+        /**
+         * Records that a hedge permit was acquired for this call. Called after the hedge attempt was created, so
+         * that the count of running attempts cannot drop to zero in between.
+         */
+        void setHedged() {
+            hedged = true;
+        }
+
+        void finished() {
+            if(running.decrementAndGet() == 0 && hedged) {
+                hedges.release();
+            }
+        }
+    }
+
+    /**
+     * An attempt of a call, which either runs or is abandoned, exactly once
+     */
+    private static class Attempt<T> implements Callable<T> {
+        private final HedgedCall owner;
+        private final Callable<T> call;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        Attempt(HedgedCall owner, Callable<T> call) {
+            this.owner = owner;
+            this.call = call;
+        }
+
+        public T call() throws Exception {
+            if(!claimed.compareAndSet(false, true)) {
+                //abandoned before it started, nobody waits for the result
+                return null;
+            }
+            try {
+                return call.call();
+            } finally {
+                owner.finished();
+            }
+        }
+
+        /**
+         * Accounts for an attempt that did not start, and makes sure it never does
+         */
+        void abandon() {
+            if(claimed.compareAndSet(false, true)) {
+                owner.finished();
+            }
+        }
+    }
+
+    /**
+     * @return the time after which a call of the operation is hedged, in milliseconds, or -1 if too few calls were
+     * made to tell
+     */
+    long getHedgeDelay(String operation) {
+        long p95 = getLatencies(operation).percentile(0.95);
+        return p95 < 0 ? -1 : Math.max(MIN_HEDGE_DELAY, p95);
+    }
+
+    private LatencyWindow getLatencies(String operation) {
+        LatencyWindow window = latencies.get(operation);
+        if(window == null) {
+            latencies.putIfAbsent(operation, new LatencyWindow());
+            window = latencies.get(operation);
+        }
+        return window;
+    }
+
+    /**
+     * Full jitter: a random wait between 0 and the exponential backoff, so that threads that failed together do
+     * not retry together
+     */
+    private long getBackoff(int attempt) {
+        long max = Math.min(MAX_BACKOFF, backoff << Math.min(attempt - 1, 16));
+        synchronized(random) {
+            return max > 0 ? (long)(random.nextDouble() * max) : 0;
+        }
+    }
+
+    protected void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry a call to " + name);
+        }
+    }
+
+    /**
+     * @return whether the call may succeed if it is tried again: the server could not be reached, or did not answer
+     */
+    static boolean isTransient(Throwable t) {
+        if(t instanceof CircuitOpenException || t instanceof SOAPFaultException) {
+            return false;
+        } else if(t instanceof WebServiceException) {
+            return !(t.getCause() instanceof InterruptedIOException) || isTransient(t.getCause());
+        } else if(t instanceof InterruptedIOException) {
+            //socket timeouts are interrupted I/O too
+            return t.getClass() != InterruptedIOException.class && !Thread.currentThread().isInterrupted();
+        }
+        return t instanceof IOException;
+    }
+
+    private static Exception unwrap(Throwable t) {
+        if(t instanceof Exception) {
+            return (Exception)t;
+        } else if(t instanceof Error) {
+            throw (Error)t;
+        }
+        return new ExecutionException(t);
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if(executor == null) {
+            executor = Executors.newCachedThreadPool(new DaemonThreadFactory("coverity-ws-call"));
+        }
+        return executor;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + retryCount.get() + " retries, " + hedgeCount.get() + " hedged calls"
+                + (breaker.isOpen() ? ", circuit open" : "");
+    }
+
+    /**
+     * The latencies of the last successful calls of an operation
+     */
+    private static class LatencyWindow {
+        private final long[] samples = new long[LATENCY_WINDOW];
+        private int next;
+        private int count;
+
+        synchronized void add(long latency) {
+            samples[next] = latency;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        synchronized long percentile(double p) {
+            if(count < MIN_HEDGE_SAMPLES) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            return sorted[(int)Math.ceil(p * sorted.length) - 1];
+        }
+    }
+}
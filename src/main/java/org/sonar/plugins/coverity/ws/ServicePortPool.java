@@ -0,0 +1,204 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.ws.WebServiceException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * A bounded pool of ready, authenticated web service ports. JAX-WS ports are not safe for concurrent use, and
+ * creating one (with its authentication handler) is expensive, so each port is used by one thread at a time and
+ * reused for later calls. Ports that stayed idle longer than the idle timeout are dropped.
+ */
+public class ServicePortPool<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(ServicePortPool.class);
+
+    /**
+     * Creates new ports for a pool
+     */
+    public interface Factory<T> {
+        T create() throws IOException;
+    }
+
+    private final Class<T> type;
+    private final Factory<T> factory;
+    private final long idleTimeout;
+    /**
+     * Idle ports, the most recently released first
+     */
+    private final LinkedList<IdlePort<T>> idle = new LinkedList<IdlePort<T>>();
+    private int maxSize;
+    private int size;
+    private int created;
+
+    /**
+     * @param maxSize     maximum number of ports, borrowed or idle
+     * @param idleTimeout time after which an idle port is dropped, in milliseconds
+     */
+    public ServicePortPool(Class<T> type, Factory<T> factory, int maxSize, long idleTimeout) {
+        this.type = type;
+        this.factory = factory;
+        this.maxSize = Math.max(1, maxSize);
+        this.idleTimeout = idleTimeout;
+    }
+
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+        notifyAll();
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the number of ports created since the pool was created
+     */
+    public synchronized int getCreated() {
+        return created;
+    }
+
+    /**
+     * Takes a port from the pool, creating one if none is idle and the pool is not full, or waiting for one to be
+     * released otherwise. The port must be handed back with {@link #release(Object)}.
+     */
+    public T borrow() throws IOException {
+        synchronized(this) {
+            evictIdle();
+            while(idle.isEmpty() && size >= maxSize) {
+                try {
+                    wait();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a " + type.getSimpleName() + " port");
+                }
+            }
+            if(!idle.isEmpty()) {
+                return idle.removeFirst().port;
+            }
+            size++;
+        }
+
+        boolean success = false;
+        try {
+            T port = factory.create();
+            synchronized(this) {
+                created++;
+            }
+            LOG.debug("Created " + type.getSimpleName() + " port");
+            success = true;
+            return port;
+        } finally {
+            if(!success) {
+                synchronized(this) {
+                    size--;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands a borrowed port back to the pool
+     */
+    public synchronized void release(T port) {
+        if(size > maxSize) {
+            size--;
+        } else {
+            idle.addFirst(new IdlePort<T>(port, System.currentTimeMillis()));
+        }
+        notifyAll();
+    }
+
+    /**
+     * Drops the idle ports
+     */
+    public synchronized void clear() {
+        size -= idle.size();
+        idle.clear();
+        notifyAll();
+    }
+
+    /**
+     * Returns a view of the pool that can be used by any number of threads: every call borrows a port, invokes it
+     * and releases it.
+     */
+    public T proxy() {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if(method.getDeclaringClass() == Object.class) {
+                    if(method.getName().equals("equals")) {
+                        return proxy == args[0];
+                    } else if(method.getName().equals("hashCode")) {
+                        return System.identityHashCode(proxy);
+                    }
+                    return "Pooled " + type.getSimpleName();
+                }
+
+                T port;
+                try {
+                    port = borrow();
+                } catch(IOException e) {
+                    //the service interfaces only declare remote exceptions, report it the way JAX-WS reports
+                    //transport failures
+                    throw new WebServiceException(e);
+                }
+                try {
+                    return method.invoke(port, args);
+                } catch(InvocationTargetException e) {
+                    throw e.getCause();
+                } finally {
+                    release(port);
+                }
+            }
+        }));
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        for(Iterator<IdlePort<T>> it = idle.iterator(); it.hasNext(); ) {
+            if(now - it.next().released > idleTimeout) {
+                it.remove();
+                size--;
+            }
+        }
+    }
+
+    private static class IdlePort<T> {
+        final T port;
+        final long released;
+
+        IdlePort(T port, long released) {
+            this.port = port;
+            this.released = released;
+        }
+    }
+}
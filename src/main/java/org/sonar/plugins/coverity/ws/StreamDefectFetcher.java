@@ -0,0 +1,235 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import com.coverity.ws.v6.CovRemoteServiceException_Exception;
+import com.coverity.ws.v6.DefectInstanceDataObj;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import com.coverity.ws.v6.StreamDefectFilterSpecDataObj;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.coverity.util.DaemonThreadFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fetches stream defects for slices of merged defects on a bounded pool of worker threads.
+ * <p/>
+ * Slices can be submitted while merged defect pages are still being fetched, by passing the fetcher as the
+ * {@link MergedDefectsPageListener} of {@link CIMClient#getDefects(String, MergedDefectsPageListener)}. Submitting
+ * blocks once every worker is busy and the same number of slices is queued, so a slow server does not make
+ * pending slices pile up in memory.
+ * <p/>
+ * When skipping failed slices is enabled, a slice that fails (after the retries of the client) is logged and
+ * skipped instead of failing every other slice. Slices are not skipped while the circuit breaker of the client is
+ * open, since the server is then considered down.
+ */
+public class StreamDefectFetcher implements MergedDefectsPageListener {
+    private static final Logger LOG = LoggerFactory.getLogger(StreamDefectFetcher.class);
+
+    private final CIMClient client;
+    private final StreamDefectListener listener;
+    private final AdaptiveBatchSizer sliceSizer;
+    private final int maxPending;
+    private final ExecutorService executor;
+    private final Semaphore pending;
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    private final StreamDefectFilterSpecDataObj filter;
+    private final List<Long> skippedCids = new ArrayList<Long>();
+    private boolean skipFailedSlices;
+
+    public StreamDefectFetcher(CIMClient client, int workers, AdaptiveBatchSizer sliceSizer, StreamDefectListener listener) {
+        this.client = client;
+        this.listener = listener;
+        this.sliceSizer = sliceSizer;
+        this.maxPending = Math.max(1, workers) * 2;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, workers), new DaemonThreadFactory("coverity-stream-defects"));
+        this.pending = new Semaphore(maxPending);
+
+        filter = new StreamDefectFilterSpecDataObj();
+        filter.setIncludeDefectInstances(true);
+    }
+
+    public void setSkipFailedSlices(boolean skipFailedSlices) {
+        this.skipFailedSlices = skipFailedSlices;
+    }
+
+    /**
+     * @return the CIDs of the slices that were skipped because their stream defects could not be fetched
+     */
+    public List<Long> getSkippedCids() {
+        synchronized(skippedCids) {
+            return new ArrayList<Long>(skippedCids);
+        }
+    }
+
+    /**
+     * Returns a listener that stores every fetched stream defect in the given map, indexed by CID
+     */
+    public static StreamDefectListener collectInto(final Map<Long, StreamDefectDataObj> streamDefects) {
+        return new StreamDefectListener() {
+            public void onStreamDefects(List<MergedDefectDataObj> mergedDefects, List<StreamDefectDataObj> sddos) {
+                for(StreamDefectDataObj sddo : sddos) {
+                    streamDefects.put(sddo.getCid(), sddo);
+                }
+            }
+        };
+    }
+
+    public void onPage(List<MergedDefectDataObj> defects) throws IOException, CovRemoteServiceException_Exception {
+        int i = 0;
+        while(i < defects.size()) {
+            int end = Math.min(defects.size(), i + sliceSizer.getSize());
+            submit(new ArrayList<MergedDefectDataObj>(defects.subList(i, end)));
+            i = end;
+        }
+    }
+
+    /**
+     * Queues a slice of merged defects, waiting while the maximum number of slices are pending
+     */
+    public void submit(final List<MergedDefectDataObj> slice) throws IOException, CovRemoteServiceException_Exception {
+        checkFailure();
+        try {
+            pending.acquire();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queuing stream defect requests");
+        }
+
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    if(failure.get() == null) {
+                        fetch(slice);
+                    }
+                } catch(Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    pending.release();
+                }
+            }
+        });
+    }
+
+    private void fetch(List<MergedDefectDataObj> slice) throws Exception {
+        List<Long> cids = getCids(slice);
+
+        long start = System.currentTimeMillis();
+        List<StreamDefectDataObj> sddos;
+        try {
+            sddos = client.getStreamDefects(cids, filter);
+        } catch(Exception e) {
+            //only failed requests are skipped, failures of the listener must fail the fetch
+            if(!canSkip(e)) {
+                throw e;
+            }
+            skip(slice, e);
+            return;
+        }
+        long latency = System.currentTimeMillis() - start;
+        sliceSizer.record(cids.size(), latency, countEvents(sddos));
+        LOG.debug("Fetched stream defects for " + cids.size() + " CIDs in " + latency + " ms");
+
+        listener.onStreamDefects(slice, sddos);
+    }
+
+    private boolean canSkip(Exception e) {
+        return skipFailedSlices && !(e instanceof CircuitOpenException) && !executor.isShutdown();
+    }
+
+    private void skip(List<MergedDefectDataObj> slice, Exception e) {
+        List<Long> cids = getCids(slice);
+        LOG.warn("Skipping the " + cids.size() + " defects of CIDs " + cids.get(0) + " to " + cids.get(cids.size() - 1)
+                + ", their stream defects could not be fetched", e);
+        synchronized(skippedCids) {
+            skippedCids.addAll(cids);
+        }
+    }
+
+    private static List<Long> getCids(List<MergedDefectDataObj> slice) {
+        List<Long> cids = new ArrayList<Long>(slice.size());
+        for(MergedDefectDataObj mddo : slice) {
+            cids.add(mddo.getCid());
+        }
+        return cids;
+    }
+
+    private static long countEvents(List<StreamDefectDataObj> sddos) {
+        if(sddos instanceof StreamDefectList) {
+            //streamed responses keep only the main events, count the ones of the response
+            return ((StreamDefectList)sddos).getEventCount();
+        }
+        long events = 0;
+        for(StreamDefectDataObj sddo : sddos) {
+            for(DefectInstanceDataObj dido : sddo.getDefectInstances()) {
+                events += dido.getEvents().size();
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Waits until every submitted slice has been fetched and handed to the listener, then releases the worker
+     * threads. The first failure of any slice is rethrown.
+     */
+    public void finish() throws IOException, CovRemoteServiceException_Exception {
+        try {
+            pending.acquire(maxPending);
+            pending.release(maxPending);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching stream defects");
+        } finally {
+            executor.shutdownNow();
+        }
+        checkFailure();
+        LOG.info(sliceSizer.toString());
+        synchronized(skippedCids) {
+            if(!skippedCids.isEmpty()) {
+                LOG.warn("Skipped " + skippedCids.size() + " defects whose stream defects could not be fetched");
+            }
+        }
+    }
+
+    /**
+     * Stops the worker threads without waiting for pending slices
+     */
+    public void cancel() {
+        executor.shutdownNow();
+    }
+
+    private void checkFailure() throws IOException, CovRemoteServiceException_Exception {
+        Throwable t = failure.get();
+        if(t != null) {
+            throw CIMClient.rethrow(t);
+        }
+    }
+}
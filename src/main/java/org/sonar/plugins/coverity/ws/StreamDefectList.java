@@ -0,0 +1,47 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+
+package org.sonar.plugins.coverity.ws;
+
+import com.coverity.ws.v6.StreamDefectDataObj;
+
+import java.util.ArrayList;
+
+/**
+ * The stream defects of a response decoded by a {@link StreamDefectReader}, with the number of events the response
+ * held. The decoded defects only keep their main events, so the size of the response cannot be told from them.
+ */
+public class StreamDefectList extends ArrayList<StreamDefectDataObj> {
+    private static final long serialVersionUID = 1L;
+
+    private long eventCount;
+
+    /**
+     * @return the number of events of the response, including the ones that were not decoded
+     */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    void setEventCount(long eventCount) {
+        this.eventCount = eventCount;
+    }
+}
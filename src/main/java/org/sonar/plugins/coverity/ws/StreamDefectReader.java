@@ -0,0 +1,215 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import com.coverity.ws.v6.CheckerSubcategoryIdDataObj;
+import com.coverity.ws.v6.CovRemoteServiceException;
+import com.coverity.ws.v6.CovRemoteServiceException_Exception;
+import com.coverity.ws.v6.DefectInstanceDataObj;
+import com.coverity.ws.v6.EventDataObj;
+import com.coverity.ws.v6.FileIdDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads a getStreamDefects SOAP response while it is being parsed, keeping only what the import uses: the CID, the
+ * checker subcategory and the main event of each instance. The other events, which are most of the response, are
+ * skipped without being bound to objects.
+ */
+public class StreamDefectReader {
+    private final XMLStreamReader reader;
+    private long eventCount;
+
+    public StreamDefectReader(XMLStreamReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the stream defects of the response, or throws the fault it carries
+     *
+     * @return the stream defects, with the number of events of the response, skipped ones included
+     */
+    public StreamDefectList read() throws XMLStreamException, CovRemoteServiceException_Exception {
+        StreamDefectList result = new StreamDefectList();
+        while(reader.hasNext()) {
+            if(reader.next() == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if(name.equals("return")) {
+                    result.add(readStreamDefect());
+                } else if(name.equals("Fault")) {
+                    throw readFault();
+                }
+            }
+        }
+        result.setEventCount(eventCount);
+        return result;
+    }
+
+    private StreamDefectDataObj readStreamDefect() throws XMLStreamException {
+        StreamDefectDataObj sddo = new StreamDefectDataObj();
+        while(nextChild()) {
+            String name = reader.getLocalName();
+            if(name.equals("cid")) {
+                sddo.setCid(Long.valueOf(reader.getElementText().trim()));
+            } else if(name.equals("checkerSubcategoryId")) {
+                sddo.setCheckerSubcategoryId(readCheckerSubcategoryId());
+            } else if(name.equals("defectInstances")) {
+                sddo.getDefectInstances().add(readDefectInstance());
+            } else {
+                skip();
+            }
+        }
+        return sddo;
+    }
+
+    private DefectInstanceDataObj readDefectInstance() throws XMLStreamException {
+        DefectInstanceDataObj dido = new DefectInstanceDataObj();
+        while(nextChild()) {
+            String name = reader.getLocalName();
+            if(name.equals("events")) {
+                eventCount++;
+                EventDataObj event = readEvent();
+                if(event.isMain()) {
+                    dido.getEvents().add(event);
+                }
+            } else if(name.equals("checkerSubcategoryId")) {
+                dido.setCheckerSubcategoryId(readCheckerSubcategoryId());
+            } else {
+                skip();
+            }
+        }
+        return dido;
+    }
+
+    /**
+     * Reads the fields of an event kept by {@link org.sonar.plugins.coverity.cache.DefectCodec}. Nested events are
+     * skipped.
+     */
+    private EventDataObj readEvent() throws XMLStreamException {
+        EventDataObj event = new EventDataObj();
+        while(nextChild()) {
+            String name = reader.getLocalName();
+            if(name.equals("main")) {
+                event.setMain(Boolean.parseBoolean(reader.getElementText().trim()));
+            } else if(name.equals("lineNumber")) {
+                event.setLineNumber(Integer.parseInt(reader.getElementText().trim()));
+            } else if(name.equals("eventTag")) {
+                event.setEventTag(reader.getElementText());
+            } else if(name.equals("eventDescription")) {
+                event.setEventDescription(reader.getElementText());
+            } else if(name.equals("fileId")) {
+                FileIdDataObj fileId = new FileIdDataObj();
+                while(nextChild()) {
+                    if(reader.getLocalName().equals("filePathname")) {
+                        fileId.setFilePathname(reader.getElementText());
+                    } else {
+                        skip();
+                    }
+                }
+                event.setFileId(fileId);
+            } else {
+                skip();
+            }
+        }
+        return event;
+    }
+
+    private CheckerSubcategoryIdDataObj readCheckerSubcategoryId() throws XMLStreamException {
+        CheckerSubcategoryIdDataObj csido = new CheckerSubcategoryIdDataObj();
+        while(nextChild()) {
+            String name = reader.getLocalName();
+            if(name.equals("checkerName")) {
+                csido.setCheckerName(reader.getElementText());
+            } else if(name.equals("domain")) {
+                csido.setDomain(reader.getElementText());
+            } else if(name.equals("subcategory")) {
+                csido.setSubcategory(reader.getElementText());
+            } else {
+                skip();
+            }
+        }
+        return csido;
+    }
+
+    private CovRemoteServiceException_Exception readFault() throws XMLStreamException {
+        String faultString = null;
+        CovRemoteServiceException detail = new CovRemoteServiceException();
+        int depth = 1;
+        while(depth > 0) {
+            int event = reader.next();
+            if(event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if(name.equals("faultstring")) {
+                    faultString = reader.getElementText();
+                } else if(name.equals("errorCode")) {
+                    detail.setErrorCode(Integer.parseInt(reader.getElementText().trim()));
+                } else if(name.equals("message")) {
+                    detail.setMessage(reader.getElementText());
+                } else {
+                    depth++;
+                }
+            } else if(event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return new CovRemoteServiceException_Exception(faultString, detail);
+    }
+
+    /**
+     * Moves to the next child element of the current element
+     *
+     * @return false when the end of the current element is reached instead
+     */
+    private boolean nextChild() throws XMLStreamException {
+        while(true) {
+            int event = reader.next();
+            if(event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            } else if(event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Skips the current element and its content, counting the events it holds
+     */
+    private void skip() throws XMLStreamException {
+        if(reader.getLocalName().equals("events")) {
+            eventCount++;
+        }
+        int depth = 1;
+        while(depth > 0) {
+            int event = reader.next();
+            if(event == XMLStreamConstants.START_ELEMENT) {
+                if(reader.getLocalName().equals("events")) {
+                    eventCount++;
+                }
+                depth++;
+            } else if(event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import com.coverity.ws.v6.CovRemoteServiceException_Exception;
+import com.coverity.ws.v6.GetStreamDefects;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import com.coverity.ws.v6.StreamDefectFilterSpecDataObj;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Calls getStreamDefects over plain HTTP and decodes the response with a {@link StreamDefectReader} while it is
+ * being received, instead of letting JAX-WS bind the whole response. The request carries the same plain text
+ * UsernameToken as the JAX-WS ports, and uses the compression and timeouts of the {@link TransportOptions}; Fast
+ * Infoset is not negotiated.
+ */
+public class StreamingDefectService {
+    private static final String SOAP_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+    private static final String DEFECT_SERVICE_PATH = "/ws/" + CIMClient.COVERITY_WS_VERSION + "/defectservice";
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+    private static JAXBContext jaxbContext;
+
+    private final URL endpoint;
+    private final String user;
+    private final String password;
+    private final TransportOptions transportOptions;
+
+    public StreamingDefectService(URL root, String user, String password, TransportOptions transportOptions) throws IOException {
+        this.endpoint = new URL(root, DEFECT_SERVICE_PATH);
+        this.user = user;
+        this.password = password;
+        this.transportOptions = transportOptions;
+    }
+
+    /**
+     * Creates a StAX factory that rejects DTDs and external entities, for XML that does not come from this JVM
+     */
+    public static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    private static synchronized JAXBContext getJaxbContext() throws JAXBException {
+        if(jaxbContext == null) {
+            jaxbContext = JAXBContext.newInstance(GetStreamDefects.class);
+        }
+        return jaxbContext;
+    }
+
+    public List<StreamDefectDataObj> getStreamDefects(List<Long> cids, StreamDefectFilterSpecDataObj filterSpec) throws IOException, CovRemoteServiceException_Exception {
+        HttpURLConnection connection = (HttpURLConnection)endpoint.openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "text/xml; charset=utf-8");
+        connection.setRequestProperty("SOAPAction", "\"\"");
+        connection.setConnectTimeout(transportOptions.getConnectTimeout());
+        connection.setReadTimeout(transportOptions.getReadTimeout());
+        if(transportOptions.isCompressResponses()) {
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+        }
+        if(transportOptions.isCompressRequests()) {
+            connection.setRequestProperty("Content-Encoding", "gzip");
+        }
+
+        OutputStream out = connection.getOutputStream();
+        try {
+            if(transportOptions.isCompressRequests()) {
+                out = new GZIPOutputStream(out);
+            }
+            writeRequest(out, cids, filterSpec);
+        } finally {
+            out.close();
+        }
+
+        int code = connection.getResponseCode();
+        InputStream in = code >= HttpURLConnection.HTTP_BAD_REQUEST ? connection.getErrorStream() : connection.getInputStream();
+        if(in == null) {
+            throw new IOException("getStreamDefects failed with HTTP " + code + " " + connection.getResponseMessage());
+        }
+        try {
+            if("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                in = new GZIPInputStream(in);
+            }
+            List<StreamDefectDataObj> result = readResponse(in);
+            if(code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("getStreamDefects failed with HTTP " + code + " " + connection.getResponseMessage());
+            }
+            return result;
+        } finally {
+            //reading to the end lets the connection be reused
+            drain(in);
+            in.close();
+        }
+    }
+
+    private void writeRequest(OutputStream out, List<Long> cids, StreamDefectFilterSpecDataObj filterSpec) throws IOException {
+        GetStreamDefects request = new GetStreamDefects();
+        request.getCids().addAll(cids);
+        request.setFilterSpec(filterSpec);
+
+        try {
+            XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement("S", "Envelope", SOAP_NS);
+            writer.writeNamespace("S", SOAP_NS);
+            writer.writeStartElement("S", "Header", SOAP_NS);
+            writeSecurityHeader(writer);
+            writer.writeEndElement();
+            writer.writeStartElement("S", "Body", SOAP_NS);
+
+            Marshaller marshaller = getJaxbContext().createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+            marshaller.marshal(new JAXBElement<GetStreamDefects>(new QName(CIMClient.COVERITY_NAMESPACE, "getStreamDefects"),
+                    GetStreamDefects.class, request), writer);
+
+            writer.writeEndElement();
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.flush();
+        } catch(XMLStreamException e) {
+            throw wrap("Cannot write getStreamDefects request", e);
+        } catch(JAXBException e) {
+            throw wrap("Cannot write getStreamDefects request", e);
+        }
+    }
+
+    private void writeSecurityHeader(XMLStreamWriter writer) throws XMLStreamException {
+        String ns = ClientAuthenticationHandlerWSS.WSS_AUTH_URI;
+        String prefix = ClientAuthenticationHandlerWSS.WSS_AUTH_PREFIX;
+        writer.writeStartElement(prefix, ClientAuthenticationHandlerWSS.WSS_AUTH_LNAME, ns);
+        writer.writeNamespace(prefix, ns);
+        writer.writeAttribute("S", SOAP_NS, "mustUnderstand", "1");
+        writer.writeStartElement(prefix, "UsernameToken", ns);
+        writer.writeStartElement(prefix, "Username", ns);
+        writer.writeCharacters(user);
+        writer.writeEndElement();
+        writer.writeStartElement(prefix, "Password", ns);
+        writer.writeAttribute("Type", UsernameTokenHandler.WSS_PASSWORD_TEXT);
+        writer.writeCharacters(password);
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    private static List<StreamDefectDataObj> readResponse(InputStream in) throws IOException, CovRemoteServiceException_Exception {
+        XMLStreamReader reader = null;
+        try {
+            reader = INPUT_FACTORY.createXMLStreamReader(in);
+            return new StreamDefectReader(reader).read();
+        } catch(XMLStreamException e) {
+            throw wrap("Cannot read getStreamDefects response", e);
+        } finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch(XMLStreamException e) {
+                    //the stream is closed by the caller
+                }
+            }
+        }
+    }
+
+    private static void drain(InputStream in) {
+        byte[] buffer = new byte[4096];
+        try {
+            while(in.read(buffer) >= 0) {
+                //discard
+            }
+        } catch(IOException e) {
+            //the connection will not be reused
+        }
+    }
+
+    private static IOException wrap(String message, Exception cause) {
+        IOException e = new IOException(message + ": " + cause.getMessage());
+        e.initCause(cause);
+        return e;
+    }
+}
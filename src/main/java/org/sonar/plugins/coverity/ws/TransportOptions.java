@@ -0,0 +1,165 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.handler.MessageContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HTTP transport settings of the web service ports. The property names are those of the JAX-WS reference
+ * implementation, both standalone and as bundled with the JRE.
+ */
+public class TransportOptions {
+    private static final Logger LOG = LoggerFactory.getLogger(TransportOptions.class);
+
+    private static final String[] CONNECT_TIMEOUT = {"com.sun.xml.ws.connect.timeout", "com.sun.xml.internal.ws.connect.timeout"};
+    private static final String[] REQUEST_TIMEOUT = {"com.sun.xml.ws.request.timeout", "com.sun.xml.internal.ws.request.timeout"};
+    private static final String[] CONTENT_NEGOTIATION = {"com.sun.xml.ws.client.ContentNegotiation", "com.sun.xml.internal.ws.client.ContentNegotiation"};
+
+    /**
+     * Ask the server for gzip compressed responses
+     */
+    private boolean compressResponses = true;
+    /**
+     * Send gzip compressed requests, the server must accept them
+     */
+    private boolean compressRequests = false;
+    /**
+     * Negotiate the Fast Infoset binary encoding with the server
+     */
+    private boolean fastInfoset = false;
+    /**
+     * Timeouts in milliseconds, 0 for none
+     */
+    private int connectTimeout;
+    private int readTimeout;
+
+    public boolean isCompressResponses() {
+        return compressResponses;
+    }
+
+    public void setCompressResponses(boolean compressResponses) {
+        this.compressResponses = compressResponses;
+    }
+
+    public boolean isCompressRequests() {
+        return compressRequests;
+    }
+
+    public void setCompressRequests(boolean compressRequests) {
+        this.compressRequests = compressRequests;
+    }
+
+    public boolean isFastInfoset() {
+        return fastInfoset;
+    }
+
+    public void setFastInfoset(boolean fastInfoset) {
+        this.fastInfoset = fastInfoset;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = Math.max(0, connectTimeout);
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = Math.max(0, readTimeout);
+    }
+
+    /**
+     * Sets the transport properties on the request context of a port
+     */
+    public void apply(BindingProvider port) {
+        Map<String, Object> context = port.getRequestContext();
+
+        Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        if(compressResponses) {
+            headers.put("Accept-Encoding", Collections.singletonList("gzip"));
+        }
+        if(compressRequests) {
+            headers.put("Content-Encoding", Collections.singletonList("gzip"));
+        }
+        if(!headers.isEmpty()) {
+            context.put(MessageContext.HTTP_REQUEST_HEADERS, headers);
+        }
+
+        if(fastInfoset) {
+            put(context, CONTENT_NEGOTIATION, "pessimistic");
+        }
+        if(connectTimeout > 0) {
+            put(context, CONNECT_TIMEOUT, connectTimeout);
+        }
+        if(readTimeout > 0) {
+            put(context, REQUEST_TIMEOUT, readTimeout);
+        }
+    }
+
+    private static void put(Map<String, Object> context, String[] names, Object value) {
+        for(String name : names) {
+            context.put(name, value);
+        }
+    }
+
+    /**
+     * Sizes the pool of persistent HTTP connections kept by the JRE, which the ports use. Only effective before
+     * the first HTTP connection of the JVM is opened, and never shrinks a pool configured by the user.
+     */
+    public static void configureConnectionPool(int maxConnections) {
+        System.setProperty("http.keepAlive", "true");
+        String current = System.getProperty("http.maxConnections");
+        int size = maxConnections;
+        if(current != null) {
+            try {
+                size = Math.max(size, Integer.parseInt(current.trim()));
+            } catch(NumberFormatException e) {
+                LOG.debug("Ignoring invalid http.maxConnections: " + current);
+            }
+        }
+        System.setProperty("http.maxConnections", String.valueOf(size));
+    }
+
+    @Override
+    public String toString() {
+        List<String> options = new ArrayList<String>();
+        options.add("compressResponses=" + compressResponses);
+        options.add("compressRequests=" + compressRequests);
+        options.add("fastInfoset=" + fastInfoset);
+        options.add("connectTimeout=" + connectTimeout);
+        options.add("readTimeout=" + readTimeout);
+        return "TransportOptions" + options;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.soap.SOAPEnvelope;
+import javax.xml.soap.SOAPException;
+import javax.xml.soap.SOAPHeader;
+import javax.xml.ws.WebServiceException;
+import javax.xml.ws.handler.MessageContext;
+import javax.xml.ws.handler.soap.SOAPHandler;
+import javax.xml.ws.handler.soap.SOAPMessageContext;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * SOAP handler for user authentication using ws-security, producing the same plain text UsernameToken as
+ * {@link ClientAuthenticationHandlerWSS} (no nonce, no password digest). The security header is built once and
+ * copied into each outbound message, instead of being processed by XWSS for every message.
+ */
+public class UsernameTokenHandler implements SOAPHandler<SOAPMessageContext> {
+    public static final String WSS_PASSWORD_TEXT = "http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-username-token-profile-1.0#PasswordText";
+
+    private static final Set<QName> HEADERS = Collections.singleton(new QName(ClientAuthenticationHandlerWSS.WSS_AUTH_URI,
+            ClientAuthenticationHandlerWSS.WSS_AUTH_LNAME, ClientAuthenticationHandlerWSS.WSS_AUTH_PREFIX));
+
+    /**
+     * The Security header element, owned by a private document
+     */
+    private final Element security;
+
+    public UsernameTokenHandler(String userName, String password) {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            document = factory.newDocumentBuilder().newDocument();
+        } catch(ParserConfigurationException e) {
+            throw new WebServiceException(e);
+        }
+
+        String ns = ClientAuthenticationHandlerWSS.WSS_AUTH_URI;
+        String prefix = ClientAuthenticationHandlerWSS.WSS_AUTH_PREFIX + ":";
+        security = document.createElementNS(ns, prefix + ClientAuthenticationHandlerWSS.WSS_AUTH_LNAME);
+        security.setAttributeNS("http://www.w3.org/2000/xmlns/", "xmlns:" + ClientAuthenticationHandlerWSS.WSS_AUTH_PREFIX, ns);
+        Element token = document.createElementNS(ns, prefix + "UsernameToken");
+        Element user = document.createElementNS(ns, prefix + "Username");
+        user.appendChild(document.createTextNode(userName));
+        Element pass = document.createElementNS(ns, prefix + "Password");
+        pass.setAttribute("Type", WSS_PASSWORD_TEXT);
+        pass.appendChild(document.createTextNode(password));
+        token.appendChild(user);
+        token.appendChild(pass);
+        security.appendChild(token);
+        document.appendChild(security);
+    }
+
+    public boolean handleMessage(SOAPMessageContext smc) {
+        boolean outbound = ((Boolean)smc.get(MessageContext.MESSAGE_OUTBOUND_PROPERTY)).booleanValue();
+        if(outbound) {
+            try {
+                SOAPEnvelope envelope = smc.getMessage().getSOAPPart().getEnvelope();
+                SOAPHeader header = envelope.getHeader();
+                if(header == null) {
+                    header = envelope.addHeader();
+                }
+                Element copy = (Element)header.getOwnerDocument().importNode(security, true);
+                copy.setAttributeNS(envelope.getNamespaceURI(), envelope.getPrefix() + ":mustUnderstand", "1");
+                header.appendChild(copy);
+            } catch(SOAPException e) {
+                throw new WebServiceException(e);
+            }
+        }
+        return true;
+    }
+
+    public boolean handleFault(SOAPMessageContext mc) {
+        return true;
+    }
+
+    public void close(MessageContext mc) {
+    }
+
+    public Set<QName> getHeaders() {
+        return HEADERS;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.coverity.batch;
+
+import com.coverity.ws.v6.CovRemoteServiceException_Exception;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import com.coverity.ws.v6.StreamDefectFilterSpecDataObj;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.plugins.coverity.ws.CIMClient;
+import org.sonar.plugins.coverity.ws.MergedDefectsPageListener;
+import org.sonar.plugins.coverity.ws.StreamDefectListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CIMDefectSourceTest {
+    int requests;
+    boolean failing;
+    CIMClient client;
+
+    private static class Collector implements StreamDefectListener {
+        List<Long> mergedCids = Collections.synchronizedList(new ArrayList<Long>());
+        List<Long> streamCids = Collections.synchronizedList(new ArrayList<Long>());
+
+        public void onStreamDefects(List<MergedDefectDataObj> mergedDefects, List<StreamDefectDataObj> streamDefects) {
+            for(MergedDefectDataObj mddo : mergedDefects) {
+                mergedCids.add(mddo.getCid());
+            }
+            for(StreamDefectDataObj sddo : streamDefects) {
+                streamCids.add(sddo.getCid());
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        CIMClient.getDefectCache().clear();
+        client = new CIMClient("localhost", 8080, "admin", "coverity", false) {
+            @Override
+            public int streamDefects(String project, MergedDefectsPageListener listener) throws IOException, CovRemoteServiceException_Exception {
+                List<MergedDefectDataObj> mddos = new ArrayList<MergedDefectDataObj>();
+                for(long cid = 0; cid < 3; cid++) {
+                    MergedDefectDataObj mddo = new MergedDefectDataObj();
+                    mddo.setCid(cid);
+                    mddos.add(mddo);
+                }
+                listener.onPage(mddos);
+                return mddos.size();
+            }
+
+            @Override
+            public List<StreamDefectDataObj> getStreamDefects(List<Long> cids, StreamDefectFilterSpecDataObj filterSpec) throws IOException {
+                requests++;
+                if(failing) {
+                    throw new IOException("Stream defects unavailable");
+                }
+                List<StreamDefectDataObj> sddos = new ArrayList<StreamDefectDataObj>();
+                for(Long cid : cids) {
+                    StreamDefectDataObj sddo = new StreamDefectDataObj();
+                    sddo.setCid(cid);
+                    sddos.add(sddo);
+                }
+                return sddos;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        CIMClient.getDefectCache().clear();
+    }
+
+    @Test
+    public void testFetchUsesCachedDefects() throws Exception {
+        Collector first = new Collector();
+        new CIMDefectSource(client, "project").fetch(first);
+        int fetched = requests;
+
+        Collector second = new Collector();
+        new CIMDefectSource(client, "project").fetch(second);
+
+        assertEquals(fetched, requests);
+        assertEquals(3, second.mergedCids.size());
+        assertEquals(3, second.streamCids.size());
+        assertEquals(second.mergedCids, second.streamCids);
+    }
+
+    @Test
+    public void testFetchWithSkippedDefectsIsNotCached() throws Exception {
+        client.setSkipFailedSlices(true);
+        failing = true;
+        CIMDefectSource source = new CIMDefectSource(client, "project");
+        source.fetch(new Collector());
+        assertEquals(3, source.getSkippedCids().size());
+
+        failing = false;
+        int fetched = requests;
+        Collector collector = new Collector();
+        new CIMDefectSource(client, "project").fetch(collector);
+
+        assertTrue(requests > fetched);
+        assertEquals(3, collector.streamCids.size());
+    }
+
+    @Test
+    public void testListenerFailuresAreNotSkipped() throws Exception {
+        client.setSkipFailedSlices(true);
+        CIMDefectSource source = new CIMDefectSource(client, "project");
+        try {
+            source.fetch(new StreamDefectListener() {
+                public void onStreamDefects(List<MergedDefectDataObj> mergedDefects, List<StreamDefectDataObj> streamDefects) {
+                    throw new IllegalStateException("Listener failed");
+                }
+            });
+            fail();
+        } catch(IllegalStateException e) {
+            assertEquals("Listener failed", e.getMessage());
+        }
+        assertTrue(source.getSkippedCids().isEmpty());
+    }
+
+    @Test
+    public void testFetchIsNotCachedWhenCachingIsDisabled() throws Exception {
+        CIMClient.configureCache(0, CIMClient.DEFAULT_CACHE_MAX_PROJECTS, CIMClient.DEFAULT_CACHE_MAX_HEAP);
+        try {
+            new CIMDefectSource(client, "project").fetch(new Collector());
+            int fetched = requests;
+            new CIMDefectSource(client, "project").fetch(new Collector());
+            assertTrue(requests > fetched);
+        } finally {
+            CIMClient.configureCache(CIMClient.DEFAULT_CACHE_TTL, CIMClient.DEFAULT_CACHE_MAX_PROJECTS, CIMClient.DEFAULT_CACHE_MAX_HEAP);
+        }
+    }
+}
@@ -30,11 +30,17 @@ import org.sonar.api.component.ResourcePerspectives;
 import org.sonar.api.config.Settings;
 import org.sonar.api.profiles.RulesProfile;
 import org.sonar.api.resources.Project;
+import org.sonar.api.resources.ProjectFileSystem;
 import org.sonar.plugins.coverity.ws.CIMClient;
+import org.sonar.plugins.coverity.ws.StreamDefectListener;
 
+import java.io.File;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -107,8 +113,51 @@ public class CoveritySensorTest {
         assertEquals("Found wrong event", em, result);
     }
 
+    @Test
+    public void testGetModuleFilenamePatterns() throws Exception {
+        Project module = mock(Project.class);
+        ProjectFileSystem fileSystem = mock(ProjectFileSystem.class);
+        when(module.getFileSystem()).thenReturn(fileSystem);
+        File base = new File(".").getCanonicalFile();
+        when(fileSystem.getSourceDirs()).thenReturn(Arrays.asList(new File(base, "module1/src"), new File(base, "module1/gen")));
+
+        assertEquals(Arrays.asList("/build/ws/module1/src/*", "/build/ws/module1/gen/*"), sensor.getModuleFilenamePatterns(module, new PathMapper().addPrefix("/build/ws", "./")));
+        assertEquals(Arrays.asList("/build/ws/module1/src/*", "/build/ws/module1/gen/*"), sensor.getModuleFilenamePatterns(module, new PathMapper().addPrefix("/build/ws/", "./")));
+        assertEquals(Arrays.asList("/a1/ws/src/*", "/a2/src/*", "/a1/ws/gen/*", "/a2/gen/*"),
+                sensor.getModuleFilenamePatterns(module, new PathMapper().add("/a1/ws=>./module1").add("/a2/=>" + base + "/module1/")));
+        assertNull(sensor.getModuleFilenamePatterns(module, new PathMapper().add("regex:^/a\\d/ws=>.")));
+
+        when(fileSystem.getSourceDirs()).thenReturn(Arrays.asList(new File("/elsewhere/src")));
+        assertNull(sensor.getModuleFilenamePatterns(module, new PathMapper().addPrefix("/build/ws", "./")));
+    }
+
     @Test
     public void testGetResourceForFile() throws Exception {
         //
     }
+
+    @Test
+    public void testImportCountsSkippedDefects() throws Exception {
+        CoveritySensor importer = new CoveritySensor(new Settings(), profile, resourcePerspectives) {
+            @Override
+            protected SourceFileIndex createSourceFileIndex(Project module) {
+                return new SourceFileIndex(new File("."), Collections.<File>emptyList());
+            }
+        };
+        DefectSource source = new DefectSource() {
+            public void fetch(StreamDefectListener listener) {
+            }
+
+            public List<Long> getSkippedCids() {
+                return Arrays.asList(3L, 4L, 5L);
+            }
+
+            public boolean isStale() {
+                return false;
+            }
+        };
+
+        assertEquals(0, importer.importDefects(mock(Project.class), source, importer.createPathMapper()));
+        assertEquals(3, importer.getMetrics().get(ImportMetrics.Count.SKIPPED_DEFECTS));
+    }
 }
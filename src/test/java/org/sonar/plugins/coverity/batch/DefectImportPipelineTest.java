@@ -0,0 +1,184 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import org.junit.Test;
+import org.sonar.plugins.coverity.ws.StreamDefectListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DefectImportPipelineTest {
+    private static final int SLICES = 50;
+    private static final int SLICE_SIZE = 100;
+    private static final int FILES = 7;
+
+    /**
+     * Produces SLICES slices of SLICE_SIZE defects in FILES files, with two spellings of every path. The stream
+     * defect of every tenth CID is missing.
+     */
+    private static class FakeSource implements DefectSource {
+        public void fetch(StreamDefectListener listener) {
+            for(int s = 0; s < SLICES; s++) {
+                List<MergedDefectDataObj> mddos = new ArrayList<MergedDefectDataObj>();
+                List<StreamDefectDataObj> sddos = new ArrayList<StreamDefectDataObj>();
+                for(long cid = s * SLICE_SIZE; cid < (s + 1) * SLICE_SIZE; cid++) {
+                    MergedDefectDataObj mddo = new MergedDefectDataObj();
+                    mddo.setCid(cid);
+                    mddo.setFilePathname("/build/src/" + (cid % 2 == 0 ? "" : "./") + "File" + (cid % FILES) + ".java");
+                    mddos.add(mddo);
+                    if(cid % 10 != 0) {
+                        StreamDefectDataObj sddo = new StreamDefectDataObj();
+                        sddo.setCid(cid);
+                        sddos.add(sddo);
+                    }
+                }
+                try {
+                    listener.onStreamDefects(mddos, sddos);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        public List<Long> getSkippedCids() {
+            return Collections.emptyList();
+        }
+
+        public boolean isStale() {
+            return false;
+        }
+    }
+
+    /**
+     * Prepares an issue per defect, with the CID of the defect
+     */
+    private static class FakePreparer implements DefectImportPipeline.Preparer {
+        public PreparedFile prepare(List<ImportedDefect> defects) throws IOException {
+            List<PreparedIssue> issues = new ArrayList<PreparedIssue>();
+            for(ImportedDefect defect : defects) {
+                assertEquals(defect.getMergedDefect().getCid(), defect.getStreamDefect().getCid());
+                assertEquals(SourceFileIndex.normalize(defects.get(0).getMergedDefect().getFilePathname()),
+                        SourceFileIndex.normalize(defect.getMergedDefect().getFilePathname()));
+                issues.add(new PreparedIssue(null, 1, "", defect.getMergedDefect().getCid()));
+            }
+            return new PreparedFile(null, defects.size(), issues);
+        }
+    }
+
+    private static class Collector implements DefectImportPipeline.Consumer {
+        final List<PreparedFile> files = Collections.synchronizedList(new ArrayList<PreparedFile>());
+
+        public void accept(PreparedFile file) {
+            files.add(file);
+        }
+    }
+
+    @Test
+    public void testRun() throws Exception {
+        DefectImportPipeline pipeline = new DefectImportPipeline(new FakeSource(), new FakePreparer(), 2);
+        Collector collector = new Collector();
+
+        int count = pipeline.run(collector);
+
+        assertEquals(SLICES * SLICE_SIZE * 9 / 10, count);
+        int issues = 0;
+        for(PreparedFile file : collector.files) {
+            issues += file.getIssues().size();
+        }
+        assertEquals(count, issues);
+    }
+
+    @Test
+    public void testDefectsAreGroupedByFile() throws Exception {
+        DefectImportPipeline pipeline = new DefectImportPipeline(new FakeSource(), new FakePreparer(), 2);
+        pipeline.setGroupSize(SLICE_SIZE * 10);
+        Collector collector = new Collector();
+
+        pipeline.run(collector);
+
+        assertEquals(SLICES / 10 * FILES, collector.files.size());
+    }
+
+    @Test
+    public void testPreparedFilesKeepServerOrder() throws Exception {
+        DefectImportPipeline pipeline = new DefectImportPipeline(new FakeSource(), new FakePreparer() {
+            public PreparedFile prepare(List<ImportedDefect> defects) throws IOException {
+                try {
+                    Thread.sleep((defects.get(0).getMergedDefect().getCid() * 7) % 5);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.prepare(defects);
+            }
+        }, 2);
+        pipeline.setGroupSize(SLICE_SIZE * 3);
+        pipeline.setThreads(8);
+        Collector collector = new Collector();
+
+        int count = pipeline.run(collector);
+
+        assertEquals(SLICES * SLICE_SIZE * 9 / 10, count);
+        long previous = -1;
+        for(PreparedFile file : collector.files) {
+            long first = file.getIssues().get(0).getCid();
+            assertTrue("Files out of order", first > previous);
+            previous = first;
+            for(int i = 1; i < file.getIssues().size(); i++) {
+                assertTrue(file.getIssues().get(i - 1).getCid() < file.getIssues().get(i).getCid());
+            }
+        }
+    }
+
+    @Test
+    public void testPreparerFailureStopsImport() throws Exception {
+        DefectImportPipeline pipeline = new DefectImportPipeline(new FakeSource(), new FakePreparer() {
+            public PreparedFile prepare(List<ImportedDefect> defects) throws IOException {
+                for(ImportedDefect defect : defects) {
+                    if(defect.getMergedDefect().getCid() == 1001) {
+                        throw new IOException("failed");
+                    }
+                }
+                return super.prepare(defects);
+            }
+        }, 2);
+        pipeline.setGroupSize(SLICE_SIZE);
+        pipeline.setThreads(4);
+        Collector collector = new Collector();
+
+        try {
+            pipeline.run(collector);
+            fail("Preparer failure was not reported");
+        } catch(IOException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertTrue(collector.files.size() < SLICES * FILES);
+    }
+}
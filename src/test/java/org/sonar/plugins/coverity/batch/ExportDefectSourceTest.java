@@ -0,0 +1,220 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.coverity.batch;
+
+import com.coverity.ws.v6.DefectInstanceDataObj;
+import com.coverity.ws.v6.EventDataObj;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.plugins.coverity.ws.StreamDefectListener;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExportDefectSourceTest {
+    private static final String JSON = "{\n" +
+            "  \"header\" : { \"version\" : 6, \"format\" : \"cov-format-errors json-output-v6\" },\n" +
+            "  \"issues\" : [\n" +
+            "    { \"mergeKey\" : \"a1\", \"checkerName\" : \"NULL_RETURNS\", \"subcategory\" : \"none\", \"domain\" : \"STATIC_JAVA\",\n" +
+            "      \"mainEventFilePathname\" : \"/build/src/Foo.java\", \"mainEventLineNumber\" : 12, \"functionDisplayName\" : \"Foo.bar()\",\n" +
+            "      \"events\" : [\n" +
+            "        { \"eventNumber\" : 1, \"eventTag\" : \"returned_null\", \"eventDescription\" : \"\\\"get\\\" returns null\", \"filePathname\" : \"/build/src/Foo.java\", \"lineNumber\" : 10, \"main\" : false,\n" +
+            "          \"events\" : [ { \"eventTag\" : \"nested\", \"main\" : true } ] },\n" +
+            "        { \"eventNumber\" : 2, \"eventTag\" : \"dereference\", \"eventDescription\" : \"Dereferencing null\", \"filePathname\" : \"/build/src/Foo.java\", \"lineNumber\" : 12, \"main\" : true }\n" +
+            "      ],\n" +
+            "      \"checkerProperties\" : { \"impact\" : \"Medium\", \"cweCategory\" : \"476\" },\n" +
+            "      \"stateOnServer\" : { \"cid\" : 10001, \"presentInReferenceSnapshot\" : true, \"triage\" : { \"action\" : null } } },\n" +
+            "    { \"mergeKey\" : \"a1\", \"checkerName\" : \"NULL_RETURNS\", \"subcategory\" : \"none\", \"domain\" : \"STATIC_JAVA\",\n" +
+            "      \"mainEventFilePathname\" : \"/build/src/Foo.java\", \"mainEventLineNumber\" : 30, \"events\" : [],\n" +
+            "      \"stateOnServer\" : { \"cid\" : 10001 } },\n" +
+            "    { \"mergeKey\" : \"b2\", \"checkerName\" : \"RESOURCE_LEAK\", \"subcategory\" : \"none\", \"domain\" : \"STATIC_JAVA\",\n" +
+            "      \"mainEventFilePathname\" : \"/build/src/Bar.java\", \"mainEventLineNumber\" : 7, \"stateOnServer\" : null }\n" +
+            "  ],\n" +
+            "  \"desktopAnalysisSettings\" : null\n" +
+            "}\n";
+
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<errors>\n" +
+            "  <error>\n" +
+            "    <checker>NULL_RETURNS</checker><subcategory>none</subcategory><domain>STATIC_JAVA</domain>\n" +
+            "    <file>/build/src/Foo.java</file><function>Foo.bar()</function><cid>10001</cid>\n" +
+            "    <event><tag>dereference</tag><description>Dereferencing null</description><line>12</line><file>/build/src/Foo.java</file><main>true</main></event>\n" +
+            "    <unknown><nested>x</nested></unknown>\n" +
+            "  </error>\n" +
+            "  <error>\n" +
+            "    <checker>RESOURCE_LEAK</checker><subcategory>none</subcategory><domain>STATIC_JAVA</domain>\n" +
+            "    <file>/build/src/Bar.java</file>\n" +
+            "    <event><tag>leaked_resource</tag><line>7</line><main>true</main></event>\n" +
+            "  </error>\n" +
+            "</errors>\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static class Collector implements StreamDefectListener {
+        List<List<MergedDefectDataObj>> slices = new ArrayList<List<MergedDefectDataObj>>();
+        List<MergedDefectDataObj> mergedDefects = new ArrayList<MergedDefectDataObj>();
+        List<StreamDefectDataObj> streamDefects = new ArrayList<StreamDefectDataObj>();
+
+        public void onStreamDefects(List<MergedDefectDataObj> mergedDefects, List<StreamDefectDataObj> streamDefects) {
+            slices.add(mergedDefects);
+            this.mergedDefects.addAll(mergedDefects);
+            this.streamDefects.addAll(streamDefects);
+        }
+    }
+
+    private File write(String name, String content, boolean gzip) throws IOException {
+        File file = folder.newFile(name);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            if(gzip) {
+                out = new GZIPOutputStream(out);
+            }
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static EventDataObj mainEvent(DefectInstanceDataObj dido) {
+        for(EventDataObj edo : dido.getEvents()) {
+            if(edo.isMain()) {
+                return edo;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        Collector collector = new Collector();
+        new ExportDefectSource(write("errors.json", JSON, false)).fetch(collector);
+
+        assertEquals(2, collector.mergedDefects.size());
+        MergedDefectDataObj foo = collector.mergedDefects.get(0);
+        assertEquals(Long.valueOf(10001), foo.getCid());
+        assertEquals("/build/src/Foo.java", foo.getFilePathname());
+        assertEquals("NULL_RETURNS", foo.getCheckerName());
+
+        //both occurrences of CID 10001 are instances of one defect
+        StreamDefectDataObj fooInstances = collector.streamDefects.get(0);
+        assertEquals(2, fooInstances.getDefectInstances().size());
+        DefectInstanceDataObj first = fooInstances.getDefectInstances().get(0);
+        assertEquals(2, first.getEvents().size());
+        assertEquals("\"get\" returns null", first.getEvents().get(0).getEventDescription());
+        assertEquals(12, mainEvent(first).getLineNumber());
+        assertEquals("STATIC_JAVA", first.getCheckerSubcategoryId().getDomain());
+        assertEquals(30, mainEvent(fooInstances.getDefectInstances().get(1)).getLineNumber());
+
+        //defects without a CID get a negative local id
+        MergedDefectDataObj bar = collector.mergedDefects.get(1);
+        assertEquals(Long.valueOf(-1), bar.getCid());
+        assertEquals(Long.valueOf(-1), collector.streamDefects.get(1).getCid());
+        assertEquals(7, mainEvent(collector.streamDefects.get(1).getDefectInstances().get(0)).getLineNumber());
+    }
+
+    @Test
+    public void testXml() throws Exception {
+        Collector collector = new Collector();
+        new ExportDefectSource(write("errors.xml", XML, false)).fetch(collector);
+
+        assertEquals(2, collector.mergedDefects.size());
+        assertEquals(Long.valueOf(10001), collector.mergedDefects.get(0).getCid());
+        assertEquals("Foo.bar()", collector.mergedDefects.get(0).getFunctionDisplayName());
+        DefectInstanceDataObj dido = collector.streamDefects.get(0).getDefectInstances().get(0);
+        assertEquals("NULL_RETURNS", dido.getCheckerSubcategoryId().getCheckerName());
+        assertEquals(12, mainEvent(dido).getLineNumber());
+        assertEquals(Long.valueOf(-1), collector.mergedDefects.get(1).getCid());
+        assertNull(mainEvent(collector.streamDefects.get(1).getDefectInstances().get(0)).getFileId());
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        Collector collector = new Collector();
+        new ExportDefectSource(write("errors.json.gz", JSON, true)).fetch(collector);
+        assertEquals(2, collector.mergedDefects.size());
+
+        collector = new Collector();
+        new ExportDefectSource(write("errors.xml.gz", XML, true)).fetch(collector);
+        assertEquals(2, collector.mergedDefects.size());
+    }
+
+    @Test
+    public void testSlices() throws Exception {
+        StringBuilder json = new StringBuilder("{\"issues\":[");
+        int total = ExportDefectSource.SLICE_SIZE * 2 + 1;
+        for(int i = 0; i < total; i++) {
+            json.append(i > 0 ? "," : "").append("{\"checkerName\":\"NULL_RETURNS\",\"mainEventFilePathname\":\"/build/src/F")
+                    .append(i).append(".java\",\"mainEventLineNumber\":1,\"stateOnServer\":{\"cid\":").append(i).append("}}");
+        }
+        json.append("]}");
+
+        Collector collector = new Collector();
+        new ExportDefectSource(write("large.json", json.toString(), false)).fetch(collector);
+
+        assertEquals(3, collector.slices.size());
+        assertEquals(total, collector.mergedDefects.size());
+        for(int i = 0; i < total; i++) {
+            assertEquals(Long.valueOf(i), collector.mergedDefects.get(i).getCid());
+        }
+    }
+
+    @Test
+    public void testExternalEntitiesAreNotResolved() throws Exception {
+        File secret = write("secret.txt", "secret", false);
+        String xml = "<?xml version=\"1.0\"?>\n" +
+                "<!DOCTYPE errors [<!ENTITY xxe SYSTEM \"" + secret.toURI() + "\">]>\n" +
+                "<errors><error><checker>NULL_RETURNS</checker><file>/build/src/Foo.java</file><function>&xxe;</function>" +
+                "<event><line>1</line><main>true</main></event></error></errors>\n";
+        Collector collector = new Collector();
+        try {
+            new ExportDefectSource(write("xxe.xml", xml, false)).fetch(collector);
+            fail("External entity was read");
+        } catch(IOException e) {
+            assertTrue(collector.mergedDefects.isEmpty());
+        }
+    }
+
+    @Test
+    public void testMalformedFiles() throws Exception {
+        for(String content : new String[] {"not an export", "{\"issues\":[{\"checkerName\":}]}", "{\"header\":{}}", "<errors><error><line>x"}) {
+            try {
+                new ExportDefectSource(write("malformed" + content.hashCode(), content, false)).fetch(new Collector());
+                fail("No error for " + content);
+            } catch(IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().length() > 0);
+            }
+        }
+    }
+}
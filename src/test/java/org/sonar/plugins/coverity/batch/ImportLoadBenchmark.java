@@ -0,0 +1,261 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import com.coverity.ws.v6.DefectInstanceDataObj;
+import com.coverity.ws.v6.EventDataObj;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.component.ResourcePerspectives;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.Issuable;
+import org.sonar.api.measures.Metric;
+import org.sonar.api.profiles.RulesProfile;
+import org.sonar.api.resources.Language;
+import org.sonar.api.resources.Project;
+import org.sonar.api.resources.ProjectFileSystem;
+import org.sonar.api.rules.Rule;
+import org.sonar.api.rules.RulePriority;
+import org.sonar.plugins.coverity.CoverityPlugin;
+import org.sonar.plugins.coverity.ws.CIMClient;
+import org.sonar.plugins.coverity.ws.server.CoverityConnectServer;
+import org.sonar.plugins.coverity.ws.server.SyntheticBackend;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs {@link CoveritySensor#analyse} end to end against a local {@link CoverityConnectServer} serving a
+ * synthetic project, web service calls included. Not a unit test, run it with
+ * <pre>java -Xmx4g -cp ... org.sonar.plugins.coverity.batch.ImportLoadBenchmark [defects...] [--latency=ms] [--export] [--snapshot]</pre>
+ * from the project directory, by default with 10000, 100000 and 1000000 defects. With --export the project is
+ * written to a cov-format-errors JSON file and imported from it instead. With --snapshot the project is imported
+ * twice, the second time from the defect snapshot saved by the first.
+ */
+public class ImportLoadBenchmark {
+    private static final String LANGUAGE = "java";
+    private static final String PROJECT = "load";
+    private static final File WORK_DIR = new File("target/load-benchmark");
+
+    private static final AtomicLong issues = new AtomicLong();
+    private static final Map<String, Double> measures = new LinkedHashMap<String, Double>();
+
+    public static void main(String[] args) throws Exception {
+        int latency = 0;
+        boolean export = false;
+        boolean snapshot = false;
+        int[] sizes = {10000, 100000, 1000000};
+        int count = 0;
+        for(String arg : args) {
+            if(arg.startsWith("--latency=")) {
+                latency = Integer.parseInt(arg.substring("--latency=".length()));
+            } else if(arg.equals("--export")) {
+                export = true;
+            } else if(arg.equals("--snapshot")) {
+                snapshot = true;
+            } else {
+                if(count == 0) {
+                    sizes = new int[args.length];
+                }
+                sizes[count++] = Integer.parseInt(arg);
+            }
+        }
+        if(count > 0) {
+            sizes = Arrays.copyOf(sizes, count);
+        }
+
+        for(int defects : sizes) {
+            run(defects, latency, export, snapshot);
+        }
+    }
+
+    private static void run(int defects, int latency, boolean export, boolean snapshot) throws Exception {
+        SyntheticBackend backend = new SyntheticBackend(PROJECT, defects).setFiles(Math.max(1, defects / 50));
+        File sourceDir = new File(WORK_DIR, "src-" + defects);
+        backend.createSourceTree(sourceDir);
+        File exportFile = null;
+        if(export) {
+            exportFile = new File(WORK_DIR, "errors-" + defects + ".json").getAbsoluteFile();
+            writeExport(backend, exportFile);
+        }
+
+        CoverityConnectServer server = new CoverityConnectServer(backend).setCredentials("admin", "coverity");
+        if(latency > 0) {
+            server.setLatency(null, latency, latency / 2);
+        }
+        server.start();
+        try {
+            Settings settings = new Settings(new PropertyDefinitions(new CoverityPlugin().getExtensions()));
+            settings.setProperty(CoverityPlugin.COVERITY_ENABLE, "true");
+            settings.setProperty(CoverityPlugin.COVERITY_CONNECT_HOSTNAME, "localhost");
+            settings.setProperty(CoverityPlugin.COVERITY_CONNECT_PORT, String.valueOf(server.getPort()));
+            settings.setProperty(CoverityPlugin.COVERITY_CONNECT_USERNAME, "admin");
+            settings.setProperty(CoverityPlugin.COVERITY_CONNECT_PASSWORD, "coverity");
+            settings.setProperty(CoverityPlugin.COVERITY_PROJECT, PROJECT);
+            settings.setProperty(CoverityPlugin.COVERITY_PATH_MAPPINGS, "/build/ws/src/=>" + sourceDir.getPath() + "/");
+            if(exportFile != null) {
+                settings.setProperty(CoverityPlugin.COVERITY_EXPORT_FILE, exportFile.getPath());
+            }
+            if(snapshot) {
+                settings.setProperty(CoverityPlugin.COVERITY_SNAPSHOT, "true");
+                settings.setProperty(CoverityPlugin.COVERITY_SNAPSHOT_DIR, new File(WORK_DIR, "snapshots-" + defects).getPath());
+            }
+
+            RulesProfile profile = RulesProfile.create("load", LANGUAGE);
+            for(String key : backend.getCheckerKeys()) {
+                profile.activateRule(Rule.create(CoverityPlugin.REPOSITORY_KEY + "-" + LANGUAGE, key, key), RulePriority.MAJOR);
+            }
+
+            for(int pass = 0; pass < (snapshot ? 2 : 1); pass++) {
+                CIMClient.getDefectCache().clear();
+                CIMClient.getProjectCache().clear();
+                issues.set(0);
+                measures.clear();
+                int pages = server.getRequestCount("getMergedDefectsForProject");
+                int slices = server.getRequestCount("getStreamDefects");
+
+                Runtime runtime = Runtime.getRuntime();
+                System.gc();
+                long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+                long start = System.nanoTime();
+                CoveritySensor sensor = new CoveritySensor(settings, profile, stub(ResourcePerspectives.class, sourceDir));
+                sensor.analyse(createProject(sourceDir), stub(SensorContext.class, sourceDir));
+                long elapsed = (System.nanoTime() - start) / 1000000;
+                long usedAfter = runtime.totalMemory() - runtime.freeMemory();
+
+                System.out.println(defects + " defects" + (pass > 0 ? " from the snapshot" : "") + ": " + elapsed + " ms, " + issues.get() + " issues, "
+                        + (exportFile != null ? exportFile.length() / (1024 * 1024) + " MB export file, " : "")
+                        + (server.getRequestCount("getMergedDefectsForProject") - pages) + " merged defect pages, "
+                        + (server.getRequestCount("getStreamDefects") - slices) + " stream defect requests, heap grew by "
+                        + (usedAfter - usedBefore) / (1024 * 1024) + " MB, measures " + measures);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Writes the defects of the backend as the output of cov-format-errors, one issue per instance
+     */
+    private static void writeExport(SyntheticBackend backend, File file) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            out.write("{\"type\":\"Coverity issues\",\"formatVersion\":6,\"issues\":[\n");
+            for(int i = 0; i < backend.getDefectCount(); i++) {
+                MergedDefectDataObj mddo = backend.getMergedDefect(i);
+                for(DefectInstanceDataObj dido : backend.getStreamDefect(i, true).getDefectInstances()) {
+                    EventDataObj main = null;
+                    StringBuilder events = new StringBuilder();
+                    for(EventDataObj event : dido.getEvents()) {
+                        main = event.isMain() ? event : main;
+                        events.append(events.length() > 0 ? "," : "").append("{\"eventNumber\":").append(event.getEventNumber())
+                                .append(",\"eventTag\":\"").append(event.getEventTag())
+                                .append("\",\"eventDescription\":\"").append(event.getEventDescription())
+                                .append("\",\"filePathname\":\"").append(event.getFileId().getFilePathname())
+                                .append("\",\"lineNumber\":").append(event.getLineNumber())
+                                .append(",\"main\":").append(event.isMain()).append("}");
+                    }
+                    out.write((i > 0 ? ",\n" : "") + "{\"mergeKey\":\"" + Long.toHexString(mddo.getCid())
+                            + "\",\"checkerName\":\"" + mddo.getCheckerName()
+                            + "\",\"subcategory\":\"" + mddo.getCheckerSubcategory()
+                            + "\",\"domain\":\"" + mddo.getDomain()
+                            + "\",\"mainEventFilePathname\":\"" + mddo.getFilePathname()
+                            + "\",\"mainEventLineNumber\":" + (main == null ? 0 : main.getLineNumber())
+                            + ",\"events\":[" + events + "],\"stateOnServer\":{\"cid\":" + mddo.getCid() + "}}");
+                }
+            }
+            out.write("\n]}\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Project createProject(final File sourceDir) {
+        final ProjectFileSystem fileSystem = stub(ProjectFileSystem.class, sourceDir);
+        Project project = new Project(PROJECT) {
+            @Override
+            public ProjectFileSystem getFileSystem() {
+                return fileSystem;
+            }
+
+            @Override
+            public String getLanguageKey() {
+                return LANGUAGE;
+            }
+        };
+        project.setLanguage(stub(Language.class, sourceDir));
+        return project;
+    }
+
+    /**
+     * Implementations of the Sonar interfaces the sensor uses that keep nothing but counts, mocks would record
+     * every issue
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(final Class<T> type, final File sourceDir) {
+        return (T)Proxy.newProxyInstance(ImportLoadBenchmark.class.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                Class<?> returnType = method.getReturnType();
+                if(name.equals("getSourceDirs")) {
+                    return Arrays.asList(sourceDir.getAbsoluteFile());
+                } else if(name.equals("getSonarWorkingDirectory")) {
+                    return WORK_DIR;
+                } else if(name.equals("getKey")) {
+                    return LANGUAGE;
+                } else if(name.equals("as")) {
+                    return stub(Issuable.class, sourceDir);
+                } else if(name.equals("addIssue")) {
+                    issues.incrementAndGet();
+                } else if(name.equals("saveMeasure") && args.length == 2 && args[0] instanceof Metric) {
+                    measures.put(((Metric)args[0]).getKey(), (Double)args[1]);
+                    return null;
+                } else if(name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if(name.equals("equals")) {
+                    return proxy == args[0];
+                } else if(name.equals("toString")) {
+                    return "Stub " + type.getSimpleName();
+                }
+                if(returnType == boolean.class) {
+                    return Boolean.TRUE;
+                } else if(returnType.isInstance(proxy)) {
+                    return proxy;
+                } else if(returnType.isInterface()) {
+                    return stub(returnType, sourceDir);
+                }
+                return null;
+            }
+        });
+    }
+}
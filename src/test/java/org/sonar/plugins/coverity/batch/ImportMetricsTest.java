@@ -0,0 +1,61 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ImportMetricsTest {
+    @Test
+    public void testCallsAreTimedAsPhases() throws Exception {
+        ImportMetrics metrics = new ImportMetrics();
+        metrics.onCall("getMergedDefectsForProject", 3000000, true);
+        metrics.onCall("getStreamDefects", 5000000, true);
+        metrics.onCall("getStreamDefects", 2000000, false);
+        metrics.onCall("getProjects", 1000000, true);
+
+        assertEquals(3, metrics.getMillis(ImportMetrics.Phase.PAGE_FETCH));
+        assertEquals(1, metrics.getCalls(ImportMetrics.Phase.PAGE_FETCH));
+        assertEquals(7, metrics.getMillis(ImportMetrics.Phase.INSTANCE_FETCH));
+        assertEquals(2, metrics.getCalls(ImportMetrics.Phase.INSTANCE_FETCH));
+        assertEquals(0, metrics.getCalls(ImportMetrics.Phase.PROJECT_LOOKUP));
+
+        String json = metrics.toJson();
+        assertTrue(json, json.contains("\"getStreamDefects\": {\"calls\": 2, \"failures\": 1, \"millis\": 7, \"maxMillis\": 5}"));
+        assertTrue(json, json.contains("\"instanceFetch\": {\"millis\": 7, \"calls\": 2}"));
+    }
+
+    @Test
+    public void testCounts() throws Exception {
+        ImportMetrics metrics = new ImportMetrics();
+        metrics.increment(ImportMetrics.Count.ISSUES);
+        metrics.add(ImportMetrics.Count.ISSUES, 2);
+        metrics.add(ImportMetrics.Phase.RULE_LOOKUP, 2500000);
+
+        assertEquals(3, metrics.get(ImportMetrics.Count.ISSUES));
+        assertEquals(0, metrics.get(ImportMetrics.Count.UNRESOLVED_DEFECTS));
+        assertEquals(2, metrics.getMillis(ImportMetrics.Phase.RULE_LOOKUP));
+        assertTrue(metrics.toJson().contains("\"unmatchedRuleInstances\": 0"));
+        assertTrue(metrics.toJson().contains("\"issues\": 3"));
+    }
+}
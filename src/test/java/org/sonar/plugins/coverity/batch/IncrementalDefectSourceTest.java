@@ -0,0 +1,187 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.coverity.batch;
+
+import com.coverity.ws.v6.CheckerSubcategoryIdDataObj;
+import com.coverity.ws.v6.CovRemoteServiceException_Exception;
+import com.coverity.ws.v6.DefectInstanceDataObj;
+import com.coverity.ws.v6.EventDataObj;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.MergedDefectFilterSpecDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import com.coverity.ws.v6.StreamDefectFilterSpecDataObj;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.plugins.coverity.ws.CIMClient;
+import org.sonar.plugins.coverity.ws.MergedDefectsPageListener;
+import org.sonar.plugins.coverity.ws.StreamDefectListener;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+public class IncrementalDefectSourceTest {
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    long serverTime = DAY;
+    long snapshotId = 1;
+    Map<Long, ServerDefect> defects = new TreeMap<Long, ServerDefect>();
+    CIMClient client;
+    File baselineFile;
+
+    /**
+     * A defect as stored by the fake Coverity Connect server
+     */
+    private static class ServerDefect {
+        int line;
+        long lastDetected;
+        long lastTriaged;
+
+        ServerDefect(int line, long lastDetected) {
+            this.line = line;
+            this.lastDetected = lastDetected;
+        }
+    }
+
+    private static class Collector implements StreamDefectListener {
+        Map<Long, Integer> lines = new HashMap<Long, Integer>();
+
+        public synchronized void onStreamDefects(List<MergedDefectDataObj> mergedDefects, List<StreamDefectDataObj> streamDefects) {
+            for(StreamDefectDataObj sddo : streamDefects) {
+                lines.put(sddo.getCid(), sddo.getDefectInstances().get(0).getEvents().get(0).getLineNumber());
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        client = new CIMClient("localhost", 8080, "admin", "coverity", false) {
+            @Override
+            public long getServerTime() {
+                return serverTime;
+            }
+
+            @Override
+            public long getLastSnapshotId(String projectId) {
+                return snapshotId;
+            }
+
+            @Override
+            public List<Long> getCIDs(String project, MergedDefectFilterSpecDataObj filterSpec) {
+                return new ArrayList<Long>(defects.keySet());
+            }
+
+            @Override
+            public int streamDefects(String project, MergedDefectFilterSpecDataObj filterSpec, MergedDefectsPageListener listener) throws IOException, CovRemoteServiceException_Exception {
+                List<MergedDefectDataObj> mddos = new ArrayList<MergedDefectDataObj>();
+                for(Map.Entry<Long, ServerDefect> e : defects.entrySet()) {
+                    if(matches(filterSpec, e.getKey(), e.getValue())) {
+                        MergedDefectDataObj mddo = new MergedDefectDataObj();
+                        mddo.setCid(e.getKey());
+                        mddo.setFilePathname("/build/src/A.java");
+                        mddos.add(mddo);
+                    }
+                }
+                listener.onPage(mddos);
+                return mddos.size();
+            }
+
+            @Override
+            public List<StreamDefectDataObj> getStreamDefects(List<Long> cids, StreamDefectFilterSpecDataObj filterSpec) {
+                List<StreamDefectDataObj> sddos = new ArrayList<StreamDefectDataObj>();
+                for(Long cid : cids) {
+                    CheckerSubcategoryIdDataObj checker = new CheckerSubcategoryIdDataObj();
+                    checker.setCheckerName("NULL_RETURNS");
+                    EventDataObj event = new EventDataObj();
+                    event.setMain(true);
+                    event.setLineNumber(defects.get(cid).line);
+                    DefectInstanceDataObj dido = new DefectInstanceDataObj();
+                    dido.setCheckerSubcategoryId(checker);
+                    dido.getEvents().add(event);
+                    StreamDefectDataObj sddo = new StreamDefectDataObj();
+                    sddo.setCid(cid);
+                    sddo.setCheckerSubcategoryId(checker);
+                    sddo.getDefectInstances().add(dido);
+                    sddos.add(sddo);
+                }
+                return sddos;
+            }
+        };
+        baselineFile = new File(folder.getRoot(), "project.baseline");
+    }
+
+    private static boolean matches(MergedDefectFilterSpecDataObj filterSpec, long cid, ServerDefect defect) {
+        if(!filterSpec.getCidList().isEmpty() && !filterSpec.getCidList().contains(cid)) {
+            return false;
+        }
+        return after(defect.lastTriaged, filterSpec.getLastTriagedStartDate()) && after(defect.lastDetected, filterSpec.getLastDetectedStartDate());
+    }
+
+    private static boolean after(long time, XMLGregorianCalendar start) {
+        return start == null || time >= start.toGregorianCalendar().getTimeInMillis();
+    }
+
+    private Collector fetch() throws Exception {
+        Collector collector = new Collector();
+        new IncrementalDefectSource(client, "project", baselineFile, 7 * DAY, 0).fetch(collector);
+        return collector;
+    }
+
+    @Test
+    public void testNewDefectsAreFetched() throws Exception {
+        defects.put(1L, new ServerDefect(10, serverTime));
+        assertEquals(Integer.valueOf(10), fetch().lines.get(1L));
+
+        serverTime += 1000;
+        defects.put(2L, new ServerDefect(20, serverTime));
+        Collector collector = fetch();
+        assertEquals(2, collector.lines.size());
+        assertEquals(Integer.valueOf(20), collector.lines.get(2L));
+    }
+
+    @Test
+    public void testMovedDefectsAreFetchedAfterNewSnapshots() throws Exception {
+        defects.put(1L, new ServerDefect(10, serverTime));
+        defects.put(2L, new ServerDefect(30, serverTime));
+        fetch();
+
+        //a new snapshot moves the main event of a known defect, long before the next full synchronization
+        serverTime += 1000;
+        snapshotId = 2;
+        defects.get(1L).line = 12;
+        defects.get(1L).lastDetected = serverTime;
+        Collector collector = fetch();
+
+        assertEquals(Integer.valueOf(12), collector.lines.get(1L));
+        assertEquals(Integer.valueOf(30), collector.lines.get(2L));
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PathMapperTest {
+    @Test
+    public void testPrefixRules() throws Exception {
+        PathMapper mapper = new PathMapper()
+                .add("/build/agent1/ws=>.")
+                .add("/build/agent1=>/other")
+                .add("/build/agent2/ws/ => ./");
+
+        assertEquals("./src/a.c", mapper.map("/build/agent1/ws/src/a.c"));
+        assertEquals("/other/src/a.c", mapper.map("/build/agent1/src/a.c"));
+        assertEquals("./src/a.c", mapper.map("/build/agent2/ws/src/a.c"));
+        assertEquals("/build/agent3/ws/src/a.c", mapper.map("/build/agent3/ws/src/a.c"));
+
+        assertEquals(1, mapper.getRules().get(0).getHits());
+        assertEquals(1, mapper.getRules().get(1).getHits());
+        assertEquals(1, mapper.getRules().get(2).getHits());
+        assertEquals(1, mapper.getUnmappedCount());
+    }
+
+    @Test
+    public void testRulesAreTriedInOrder() throws Exception {
+        PathMapper mapper = new PathMapper()
+                .add("/build/ws/gen=>./generated")
+                .add("regex:^/build/(agent\\d+)/ws=>./$1")
+                .add("/build/=>./");
+
+        assertEquals("./generated/a.c", mapper.map("/build/ws/gen/a.c"));
+        assertEquals("./agent7/a.c", mapper.map("/build/agent7/ws/a.c"));
+        assertEquals(".//ws/a.c", mapper.map("/build//ws/a.c"));
+        assertEquals(1, mapper.getRules().get(1).getHits());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRule() throws Exception {
+        new PathMapper().add("/build/ws");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRegex() throws Exception {
+        new PathMapper().add("regex:([a-z=>.");
+    }
+}
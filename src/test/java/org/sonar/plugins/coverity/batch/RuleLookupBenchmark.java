@@ -0,0 +1,110 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import com.coverity.ws.v6.CheckerSubcategoryIdDataObj;
+import com.coverity.ws.v6.DefectInstanceDataObj;
+import org.sonar.api.profiles.RulesProfile;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rules.ActiveRule;
+import org.sonar.api.rules.Rule;
+import org.sonar.api.rules.RulePriority;
+import org.sonar.plugins.coverity.CoverityPlugin;
+import org.sonar.plugins.coverity.util.CoverityUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the cost of finding the rule and building the message of a defect instance by rule key and with a
+ * {@link RuleLookupTable}. Not a unit test, run it with
+ * <pre>java -cp ... org.sonar.plugins.coverity.batch.RuleLookupBenchmark [active rules] [iterations]</pre>
+ */
+public class RuleLookupBenchmark {
+    private static final String LANGUAGE = "java";
+    private static final String URL_FORMAT = "%s://%s:%d/sourcebrowser.htm?projectId=%s#mergedDefectId=%d";
+
+    public static void main(String[] args) throws Exception {
+        int ruleCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+        RulesProfile profile = RulesProfile.create("benchmark", LANGUAGE);
+        StringBuilder description = new StringBuilder();
+        for(int i = 0; i < 50; i++) {
+            description.append("<p>Description of the checker, with some <code>code</code>.</p>");
+        }
+        List<DefectInstanceDataObj> instances = new ArrayList<DefectInstanceDataObj>();
+        for(int i = 0; i < ruleCount; i++) {
+            CheckerSubcategoryIdDataObj csido = new CheckerSubcategoryIdDataObj();
+            csido.setDomain("STATIC_JAVA");
+            csido.setCheckerName("CHECKER_" + i);
+            csido.setSubcategory("subcategory_" + (i % 7));
+            Rule rule = Rule.create(CoverityPlugin.REPOSITORY_KEY + "-" + LANGUAGE, CoverityUtil.flattenCheckerSubcategoryId(csido), "Rule " + i);
+            rule.setDescription(description.toString());
+            profile.activateRule(rule, RulePriority.MAJOR);
+
+            DefectInstanceDataObj dido = new DefectInstanceDataObj();
+            dido.setCheckerSubcategoryId(csido);
+            instances.add(dido);
+        }
+
+        for(int round = 0; round < 3; round++) {
+            long byKey = byKey(profile, instances, iterations);
+            long byTable = byTable(profile, instances, iterations);
+            System.out.println("round " + round + ": " + ruleCount + " active rules, by rule key " + byKey / iterations
+                    + " ns, lookup table " + byTable / iterations + " ns per instance");
+        }
+    }
+
+    /**
+     * What issue creation did for every instance before the lookup table
+     *
+     * @return the elapsed time in nanoseconds
+     */
+    private static long byKey(RulesProfile profile, List<DefectInstanceDataObj> instances, int iterations) {
+        long length = 0;
+        long start = System.nanoTime();
+        for(int i = 0; i < iterations; i++) {
+            DefectInstanceDataObj dido = instances.get(i % instances.size());
+            RuleKey rk = CoverityUtil.getRuleKey(LANGUAGE, dido);
+            ActiveRule ar = profile.getActiveRule(rk.repository(), rk.rule());
+            String url = String.format(URL_FORMAT, "http", "localhost", 8080, 10001L, (long)i);
+            String message = ar.getRule().getDescription() + "\n\nView in Coverity Connect: \n" + url;
+            length += message.length() + ar.getRule().ruleKey().hashCode();
+        }
+        long elapsed = System.nanoTime() - start;
+        return length == 0 ? -1 : elapsed;
+    }
+
+    private static long byTable(RulesProfile profile, List<DefectInstanceDataObj> instances, int iterations) {
+        RuleLookupTable table = new RuleLookupTable(profile, String.format(URL_FORMAT, "http", "localhost", 8080, 10001L, 0L).replaceAll("0$", ""));
+        long length = 0;
+        long start = System.nanoTime();
+        for(int i = 0; i < iterations; i++) {
+            DefectInstanceDataObj dido = instances.get(i % instances.size());
+            RuleLookupTable.Entry entry = table.get(LANGUAGE, dido.getCheckerSubcategoryId());
+            String message = table.getMessage(entry, i);
+            length += message.length() + entry.getRuleKey().hashCode();
+        }
+        long elapsed = System.nanoTime() - start;
+        return length == 0 ? -1 : elapsed;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import com.coverity.ws.v6.CheckerSubcategoryIdDataObj;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.profiles.RulesProfile;
+import org.sonar.api.rules.Rule;
+import org.sonar.api.rules.RulePriority;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class RuleLookupTableTest {
+    RuleLookupTable table;
+
+    private static CheckerSubcategoryIdDataObj checker(String domain, String name, String subcategory) {
+        CheckerSubcategoryIdDataObj csido = new CheckerSubcategoryIdDataObj();
+        csido.setDomain(domain);
+        csido.setCheckerName(name);
+        csido.setSubcategory(subcategory);
+        return csido;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        RulesProfile profile = RulesProfile.create("profile", "java");
+        profile.activateRule(Rule.create("coverity-java", "STATIC_JAVA_NULL_RETURNS_none", "Null returns").setDescription("Description"), RulePriority.MAJOR);
+        profile.activateRule(Rule.create("coverity-cpp", "STATIC_C_NULL_RETURNS_none", "Null returns").setDescription("C description"), RulePriority.MAJOR);
+
+        table = new RuleLookupTable(profile, "http://localhost:8080/sourcebrowser.htm?projectId=10001#mergedDefectId=");
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        RuleLookupTable.Entry entry = table.get("java", checker("STATIC_JAVA", "NULL_RETURNS", "none"));
+        assertEquals("STATIC_JAVA_NULL_RETURNS_none", entry.getRuleKey().rule());
+        assertEquals("coverity-java", entry.getActiveRule().getRepositoryKey());
+        assertSame(entry, table.get("java", checker("STATIC_JAVA", "NULL_RETURNS", "none")));
+
+        assertEquals("C description", table.get("cpp", checker("STATIC_C", "NULL_RETURNS", "none")).getActiveRule().getRule().getDescription());
+        assertNull(table.get("java", checker("STATIC_C", "NULL_RETURNS", "none")));
+        assertNull(table.get("java", checker("STATIC_JAVA", "NULL_RETURNS", null)));
+        assertNull(table.get("cs", checker("STATIC_CS", "NULL_RETURNS", "none")));
+    }
+
+    @Test
+    public void testGetMessage() throws Exception {
+        RuleLookupTable.Entry entry = table.get("java", checker("STATIC_JAVA", "NULL_RETURNS", "none"));
+        assertEquals("Description\n\nView in Coverity Connect: \nhttp://localhost:8080/sourcebrowser.htm?projectId=10001#mergedDefectId=42",
+                table.getMessage(entry, 42));
+    }
+
+    @Test
+    public void testGetMessageWithoutLink() throws Exception {
+        RuleLookupTable.Entry entry = table.get("java", checker("STATIC_JAVA", "NULL_RETURNS", "none"));
+        assertEquals("Description", table.getMessage(entry, -1));
+
+        RulesProfile profile = RulesProfile.create("profile", "java");
+        profile.activateRule(Rule.create("coverity-java", "STATIC_JAVA_NULL_RETURNS_none", "Null returns").setDescription("Description"), RulePriority.MAJOR);
+        RuleLookupTable offline = new RuleLookupTable(profile, null);
+        assertEquals("Description", offline.getMessage(offline.get("java", checker("STATIC_JAVA", "NULL_RETURNS", "none")), 42));
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.coverity.batch;
+
+import com.coverity.ws.v6.CheckerSubcategoryIdDataObj;
+import com.coverity.ws.v6.DefectInstanceDataObj;
+import com.coverity.ws.v6.EventDataObj;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.plugins.coverity.ws.CIMClient;
+import org.sonar.plugins.coverity.ws.StreamDefectListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SnapshotDefectSourceTest {
+    private static final String[] FILES = {"/build/module1/A.java", "/build/module1/B.java", "/build/module2/C.java"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    long snapshotId = 7;
+    CIMClient client;
+    FakeSource fetchSource;
+    File snapshotFile;
+
+    /**
+     * Serves one defect per file and counts the fetches
+     */
+    private static class FakeSource implements DefectSource {
+        int fetches;
+        List<Long> skippedCids = Collections.emptyList();
+        boolean stale;
+
+        public void fetch(StreamDefectListener listener) throws IOException {
+            fetches++;
+            List<MergedDefectDataObj> mddos = new ArrayList<MergedDefectDataObj>();
+            List<StreamDefectDataObj> sddos = new ArrayList<StreamDefectDataObj>();
+            for(int i = 0; i < FILES.length; i++) {
+                MergedDefectDataObj mddo = new MergedDefectDataObj();
+                mddo.setCid((long)i);
+                mddo.setFilePathname(FILES[i]);
+                mddos.add(mddo);
+
+                CheckerSubcategoryIdDataObj checker = new CheckerSubcategoryIdDataObj();
+                checker.setCheckerName("NULL_RETURNS");
+                StreamDefectDataObj sddo = new StreamDefectDataObj();
+                sddo.setCid((long)i);
+                DefectInstanceDataObj dido = new DefectInstanceDataObj();
+                dido.setCheckerSubcategoryId(checker);
+                EventDataObj event = new EventDataObj();
+                event.setMain(true);
+                event.setLineNumber(i + 1);
+                dido.getEvents().add(event);
+                sddo.getDefectInstances().add(dido);
+                sddos.add(sddo);
+            }
+            //stream defects do not come in the order of merged defects
+            Collections.reverse(sddos);
+            try {
+                listener.onStreamDefects(mddos, sddos);
+            } catch(InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+
+        public List<Long> getSkippedCids() {
+            return skippedCids;
+        }
+
+        public boolean isStale() {
+            return stale;
+        }
+    }
+
+    private static class Collector implements StreamDefectListener {
+        List<String> files = new ArrayList<String>();
+        List<Long> cids = new ArrayList<Long>();
+
+        public void onStreamDefects(List<MergedDefectDataObj> mergedDefects, List<StreamDefectDataObj> streamDefects) {
+            for(MergedDefectDataObj mddo : mergedDefects) {
+                files.add(mddo.getFilePathname());
+            }
+            for(StreamDefectDataObj sddo : streamDefects) {
+                cids.add(sddo.getCid());
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        client = new CIMClient("localhost", 8080, "admin", "coverity", false) {
+            @Override
+            public long getLastSnapshotId(String projectId) {
+                return snapshotId;
+            }
+        };
+        fetchSource = new FakeSource();
+        snapshotFile = new File(folder.getRoot(), "project.snapshot");
+    }
+
+    private Collector fetch(String... filenamePatterns) throws Exception {
+        SnapshotDefectSource source = new SnapshotDefectSource(client, "project", snapshotFile, fetchSource, 60 * 1000L);
+        source.setFilenamePatterns(Arrays.asList(filenamePatterns));
+        Collector collector = new Collector();
+        source.fetch(collector);
+        return collector;
+    }
+
+    @Test
+    public void testModulesShareTheSnapshot() throws Exception {
+        Collector module1 = fetch("/build/module1/*");
+        assertEquals(Arrays.asList(FILES[0], FILES[1]), module1.files);
+        assertEquals(Arrays.asList(1L, 0L), module1.cids);
+        assertEquals(1, fetchSource.fetches);
+
+        Collector module2 = fetch("/build/module2/*");
+        assertEquals(Arrays.asList(FILES[2]), module2.files);
+        assertEquals(Arrays.asList(2L), module2.cids);
+        assertEquals(Arrays.asList(FILES[0], FILES[1], FILES[2]), fetch().files);
+        assertEquals(1, fetchSource.fetches);
+    }
+
+    @Test
+    public void testNewSnapshotIsFetched() throws Exception {
+        fetch();
+        snapshotId = 8;
+        assertEquals(3, fetch().files.size());
+        assertEquals(2, fetchSource.fetches);
+        fetch();
+        assertEquals(2, fetchSource.fetches);
+
+        //the filter is part of the key of the snapshot
+        client.getFilterSpecFactory().setStatuses(Arrays.asList("New"));
+        fetch();
+        assertEquals(3, fetchSource.fetches);
+    }
+
+    @Test
+    public void testIncompleteFetchIsNotSaved() throws Exception {
+        fetchSource.skippedCids = Arrays.asList(3L);
+        assertEquals(3, fetch().files.size());
+        assertFalse(snapshotFile.exists());
+
+        fetchSource.skippedCids = Collections.emptyList();
+        fetch();
+        fetch();
+        assertEquals(2, fetchSource.fetches);
+    }
+
+    @Test
+    public void testStaleFetchIsNotSaved() throws Exception {
+        fetchSource.stale = true;
+        assertEquals(3, fetch().files.size());
+        assertFalse(snapshotFile.exists());
+
+        fetchSource.stale = false;
+        fetch();
+        fetch();
+        assertEquals(2, fetchSource.fetches);
+    }
+}
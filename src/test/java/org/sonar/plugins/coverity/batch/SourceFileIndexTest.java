@@ -0,0 +1,81 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SourceFileIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    File base;
+    File file1;
+    File file2;
+    SourceFileIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        base = folder.newFolder("project");
+        File src1 = new File(base, "module1/src");
+        File src2 = new File(base, "module2/src");
+        file1 = new File(src1, "a/Util.c");
+        file2 = new File(src2, "a/Util.c");
+        file1.getParentFile().mkdirs();
+        file2.getParentFile().mkdirs();
+        file1.createNewFile();
+        file2.createNewFile();
+
+        index = new SourceFileIndex(base, Arrays.asList(src1));
+    }
+
+    @Test
+    public void testFind() throws Exception {
+        assertEquals(1, index.size());
+        assertEquals(file1, index.find(file1.getAbsolutePath()));
+        assertEquals(file1, index.find("./module1/src/a/Util.c"));
+        assertEquals(file1, index.find(base.getAbsolutePath() + "/module1/src/b/../a/./Util.c"));
+        assertNull(index.find("./module1/src/a/Other.c"));
+        assertNull(index.find("./module2/src/a/Util.c"));
+    }
+
+    @Test
+    public void testFindBySuffix() throws Exception {
+        assertEquals(file1, index.find("/build/agent/project/module1/src/a/Util.c"));
+        assertNull(index.find("/build/agent/project/module2/src/a/Util.c"));
+        assertNull(index.find("/build/agent/project/src/a/Util.c"));
+    }
+
+    @Test
+    public void testNormalize() throws Exception {
+        assertEquals("/a/c", SourceFileIndex.normalize("/a//b/../c/."));
+        assertEquals("C:/a/b", SourceFileIndex.normalize("C:\\a\\b"));
+        assertEquals("/", SourceFileIndex.normalize("/.."));
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.cache;
+
+import com.coverity.ws.v6.CheckerSubcategoryIdDataObj;
+import com.coverity.ws.v6.DefectInstanceDataObj;
+import com.coverity.ws.v6.EventDataObj;
+import com.coverity.ws.v6.FileIdDataObj;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompactDefectStoreTest {
+    private static MergedDefectDataObj mergedDefect(long cid, String file) {
+        MergedDefectDataObj mddo = new MergedDefectDataObj();
+        mddo.setCid(cid);
+        mddo.setFilePathname(file);
+        mddo.setDomain("STATIC_C");
+        mddo.setCheckerName("NULL_RETURNS");
+        mddo.setCheckerSubcategory("none");
+        mddo.setStatus("New");
+        return mddo;
+    }
+
+    private static StreamDefectDataObj streamDefect(long cid, String file, int instances) {
+        StreamDefectDataObj sddo = new StreamDefectDataObj();
+        sddo.setCid(cid);
+        CheckerSubcategoryIdDataObj checker = new CheckerSubcategoryIdDataObj();
+        checker.setDomain("STATIC_C");
+        checker.setCheckerName("NULL_RETURNS");
+        checker.setSubcategory("none");
+        sddo.setCheckerSubcategoryId(checker);
+        for(int i = 0; i < instances; i++) {
+            DefectInstanceDataObj dido = new DefectInstanceDataObj();
+            dido.setCheckerSubcategoryId(checker);
+            EventDataObj secondary = new EventDataObj();
+            secondary.setLineNumber(1);
+            dido.getEvents().add(secondary);
+            EventDataObj main = new EventDataObj();
+            main.setMain(true);
+            main.setLineNumber((int)cid * 10 + i);
+            main.setEventTag("returned_null");
+            FileIdDataObj fileId = new FileIdDataObj();
+            fileId.setFilePathname(file);
+            main.setFileId(fileId);
+            dido.getEvents().add(main);
+            sddo.getDefectInstances().add(dido);
+        }
+        return sddo;
+    }
+
+    @Test
+    public void testPutAndGet() {
+        CompactDefectStore store = new CompactDefectStore();
+        store.put(mergedDefect(42, "/src/a.c"), streamDefect(42, "/src/a.c", 2));
+
+        MergedDefectDataObj mddo = store.getMergedDefect(42);
+        assertEquals("/src/a.c", mddo.getFilePathname());
+        assertEquals("NULL_RETURNS", mddo.getCheckerName());
+        assertEquals("New", mddo.getStatus());
+        assertNull(mddo.getSeverity());
+
+        StreamDefectDataObj sddo = store.getStreamDefect(42);
+        assertEquals(2, sddo.getDefectInstances().size());
+        EventDataObj event = sddo.getDefectInstances().get(1).getEvents().get(0);
+        assertEquals("only main events are kept", 1, sddo.getDefectInstances().get(1).getEvents().size());
+        assertTrue(event.isMain());
+        assertEquals(421, event.getLineNumber());
+        assertEquals("/src/a.c", event.getFileId().getFilePathname());
+        assertEquals("none", sddo.getCheckerSubcategoryId().getSubcategory());
+        assertNull(store.getMergedDefect(43));
+    }
+
+    @Test
+    public void testReplaceAndRemove() {
+        CompactDefectStore store = new CompactDefectStore();
+        for(int round = 0; round < 5; round++) {
+            for(long cid = 0; cid < 1000; cid++) {
+                store.put(mergedDefect(cid, "/src/" + round + ".c"), streamDefect(cid, "/src/" + round + ".c", 1));
+            }
+        }
+        for(long cid = 0; cid < 1000; cid += 2) {
+            assertTrue(store.remove(cid));
+        }
+        assertFalse(store.remove(0));
+
+        assertEquals(500, store.size());
+        assertTrue("unused rows are reclaimed", store.getInstanceRows() < 2000);
+        for(long cid = 1; cid < 1000; cid += 2) {
+            assertEquals("/src/4.c", store.getFilePathname(cid));
+            assertEquals((int)cid * 10, store.getStreamDefect(cid).getDefectInstances().get(0).getEvents().get(0).getLineNumber());
+        }
+    }
+
+    @Test
+    public void testVisitByFile() throws Exception {
+        CompactDefectStore store = new CompactDefectStore();
+        store.put(mergedDefect(1, "/src/a.c"), streamDefect(1, "/src/a.c", 1));
+        store.put(mergedDefect(2, "/src/b.c"), streamDefect(2, "/src/b.c", 1));
+        store.put(mergedDefect(3, "/src/a.c"), streamDefect(3, "/src/a.c", 1));
+
+        final Map<String, long[]> files = new HashMap<String, long[]>();
+        final List<String> order = new ArrayList<String>();
+        store.visitByFile(new CompactDefectStore.FileVisitor() {
+            public void visit(String filePathname, long[] cids) {
+                files.put(filePathname, cids);
+                order.add(filePathname);
+            }
+        });
+
+        assertEquals(Arrays.asList("/src/a.c", "/src/b.c"), order);
+        assertArrayEquals(new long[]{1, 3}, files.get("/src/a.c"));
+        assertArrayEquals(new long[]{2}, files.get("/src/b.c"));
+    }
+
+    @Test
+    public void testLongIntHashMap() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        Random random = new Random(1);
+        for(int i = 0; i < 100000; i++) {
+            long key = random.nextInt(5000) - 10;
+            if(random.nextInt(3) == 0) {
+                Integer previous = expected.remove(key);
+                assertEquals(previous == null ? -1 : previous.intValue(), map.remove(key));
+            } else {
+                Integer previous = expected.put(key, i);
+                assertEquals(previous == null ? -1 : previous.intValue(), map.put(key, i));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for(long key = -10; key < 5000; key++) {
+            Integer value = expected.get(key);
+            assertEquals(value == null ? -1 : value.intValue(), map.get(key));
+        }
+    }
+
+    @Test
+    public void testHeapSizeCountsDictionaries() {
+        CompactDefectStore store = new CompactDefectStore();
+        long empty = store.getHeapSize();
+        store.put(mergedDefect(42, "/src/a.c"), streamDefect(42, "/src/a.c", 2));
+        long one = store.getHeapSize();
+        store.put(mergedDefect(42, "/src/a/much/longer/path/to/the/same/defect.c"), streamDefect(42, "/src/a.c", 2));
+        assertTrue(store.getHeapSize() > one);
+
+        store.clear();
+        assertEquals(empty, store.getHeapSize());
+        store.put(mergedDefect(43, "/src/b.c"), streamDefect(43, "/src/b.c", 1));
+        assertEquals("/src/b.c", store.getMergedDefect(43).getFilePathname());
+        assertEquals("NULL_RETURNS", store.getMergedDefect(43).getCheckerName());
+    }
+
+    @Test
+    public void testCheckersPastTwoMillionStrings() {
+        CompactDefectStore store = new CompactDefectStore();
+        StreamDefectDataObj sddo = streamDefect(0, "/src/a.c", 0);
+        MergedDefectDataObj mddo = mergedDefect(0, null);
+        int paths = (1 << 21) + 10;
+        for(int i = 0; i < paths; i++) {
+            mddo.setCid((long)i);
+            mddo.setFilePathname("p" + i);
+            store.put(mddo, sddo);
+        }
+
+        //checker names whose string ids are past 2^21, next to checker names that shared their key when checker
+        //names were ids of the same dictionary as paths
+        Map<Long, String> expected = new HashMap<Long, String>();
+        long cid = paths;
+        for(int a = 1; a <= 4; a++) {
+            String[][] checkers = {{"p" + a, "p" + ((1 << 21) + a)}, {"p" + (a + 1), "p" + a}};
+            for(String[] checker : checkers) {
+                MergedDefectDataObj other = mergedDefect(cid, "/src/a.c");
+                other.setCheckerName(checker[0]);
+                other.setCheckerSubcategory(checker[1]);
+                store.put(other, sddo);
+                expected.put(cid++, checker[0] + "/" + checker[1]);
+            }
+        }
+        for(Map.Entry<Long, String> e : expected.entrySet()) {
+            MergedDefectDataObj restored = store.getMergedDefect(e.getKey());
+            assertEquals(e.getValue(), restored.getCheckerName() + "/" + restored.getCheckerSubcategory());
+        }
+        assertEquals("p" + (paths - 1), store.getMergedDefect(paths - 1).getFilePathname());
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.cache;
+
+import com.coverity.ws.v6.CheckerSubcategoryIdDataObj;
+import com.coverity.ws.v6.DefectInstanceDataObj;
+import com.coverity.ws.v6.EventDataObj;
+import com.coverity.ws.v6.FileIdDataObj;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.plugins.coverity.ws.StreamDefectListener;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DefectBaselineTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static MergedDefectDataObj mergedDefect(long cid) {
+        MergedDefectDataObj mddo = new MergedDefectDataObj();
+        mddo.setCid(cid);
+        mddo.setFilePathname("/src/file" + cid + ".c");
+        mddo.setCheckerName("NULL_RETURNS");
+        mddo.setDomain("STATIC_C");
+        return mddo;
+    }
+
+    private static StreamDefectDataObj streamDefect(long cid) {
+        StreamDefectDataObj sddo = new StreamDefectDataObj();
+        sddo.setCid(cid);
+        CheckerSubcategoryIdDataObj checker = new CheckerSubcategoryIdDataObj();
+        checker.setCheckerName("NULL_RETURNS");
+        sddo.setCheckerSubcategoryId(checker);
+        DefectInstanceDataObj dido = new DefectInstanceDataObj();
+        dido.setCheckerSubcategoryId(checker);
+        EventDataObj event = new EventDataObj();
+        event.setMain(true);
+        event.setLineNumber((int)cid + 1);
+        event.setEventDescription("description");
+        FileIdDataObj fileId = new FileIdDataObj();
+        fileId.setFilePathname("/src/file" + cid + ".c");
+        event.setFileId(fileId);
+        dido.getEvents().add(event);
+        sddo.getDefectInstances().add(dido);
+        return sddo;
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        DefectBaseline baseline = new DefectBaseline();
+        baseline.putAll(Arrays.asList(mergedDefect(1), mergedDefect(2), mergedDefect(3)),
+                Arrays.asList(streamDefect(1), streamDefect(2), streamDefect(3)));
+        baseline.setWatermark(1234L);
+        baseline.setSnapshotId(42L);
+        assertEquals(1, baseline.retainAll(Arrays.asList(1L, 3L)));
+
+        File file = new File(folder.getRoot(), "dir/project.baseline");
+        baseline.save(file, "host:8080/project");
+        DefectBaseline loaded = DefectBaseline.load(file, "host:8080/project");
+
+        assertEquals(1234L, loaded.getWatermark());
+        assertEquals(42L, loaded.getSnapshotId());
+        assertEquals(2, loaded.size());
+        assertTrue(loaded.contains(3L));
+        assertFalse(loaded.contains(2L));
+
+        final List<StreamDefectDataObj> replayed = new ArrayList<StreamDefectDataObj>();
+        loaded.replay(new StreamDefectListener() {
+            public void onStreamDefects(List<MergedDefectDataObj> mergedDefects, List<StreamDefectDataObj> streamDefects) {
+                replayed.addAll(streamDefects);
+            }
+        }, 1);
+
+        assertEquals(2, replayed.size());
+        EventDataObj event = replayed.get(1).getDefectInstances().get(0).getEvents().get(0);
+        assertEquals(4, event.getLineNumber());
+        assertEquals("/src/file3.c", event.getFileId().getFilePathname());
+    }
+
+    @Test
+    public void testLoadCorruptFile() throws Exception {
+        File file = folder.newFile("corrupt.baseline");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+
+        DefectBaseline baseline = DefectBaseline.load(file, "host:8080/project");
+
+        assertEquals(0L, baseline.getWatermark());
+        assertEquals(0, baseline.size());
+    }
+
+    @Test
+    public void testLoadChecksOwnerAndChecksum() throws Exception {
+        DefectBaseline baseline = new DefectBaseline();
+        baseline.putAll(Arrays.asList(mergedDefect(1)), Arrays.asList(streamDefect(1)));
+        baseline.setWatermark(1234L);
+        File file = new File(folder.getRoot(), "project.baseline");
+        baseline.save(file, "host:8080/project");
+
+        assertEquals(0, DefectBaseline.load(file, "other:8080/project").size());
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length() - 12);
+        raf.write(raf.read() ^ 0xff);
+        raf.close();
+
+        assertEquals(0, DefectBaseline.load(file, "host:8080/project").size());
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.coverity.cache;
+
+import com.coverity.ws.v6.CheckerSubcategoryIdDataObj;
+import com.coverity.ws.v6.DefectInstanceDataObj;
+import com.coverity.ws.v6.EventDataObj;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.plugins.coverity.ws.StreamDefectListener;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DefectSnapshotTest {
+    private static final String KEY = "host:8080/project";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static MergedDefectDataObj mergedDefect(long cid, String file) {
+        MergedDefectDataObj mddo = new MergedDefectDataObj();
+        mddo.setCid(cid);
+        mddo.setFilePathname(file);
+        return mddo;
+    }
+
+    /**
+     * @param lines the main event line of each instance, -1 for an instance without a main event
+     */
+    private static StreamDefectDataObj streamDefect(long cid, String checkerName, int... lines) {
+        CheckerSubcategoryIdDataObj checker = new CheckerSubcategoryIdDataObj();
+        checker.setDomain("STATIC_C");
+        checker.setCheckerName(checkerName);
+        checker.setSubcategory("none");
+        StreamDefectDataObj sddo = new StreamDefectDataObj();
+        sddo.setCid(cid);
+        sddo.setCheckerSubcategoryId(checker);
+        for(int line : lines) {
+            DefectInstanceDataObj dido = new DefectInstanceDataObj();
+            dido.setCheckerSubcategoryId(checker);
+            EventDataObj event = new EventDataObj();
+            event.setMain(line >= 0);
+            event.setLineNumber(Math.abs(line));
+            dido.getEvents().add(event);
+            sddo.getDefectInstances().add(dido);
+        }
+        return sddo;
+    }
+
+    private static class Collector implements StreamDefectListener {
+        int slices;
+        List<MergedDefectDataObj> mergedDefects = new ArrayList<MergedDefectDataObj>();
+        List<StreamDefectDataObj> streamDefects = new ArrayList<StreamDefectDataObj>();
+
+        public void onStreamDefects(List<MergedDefectDataObj> mergedDefects, List<StreamDefectDataObj> streamDefects) {
+            slices++;
+            this.mergedDefects.addAll(mergedDefects);
+            this.streamDefects.addAll(streamDefects);
+        }
+    }
+
+    private File writeSnapshot() throws Exception {
+        DefectSnapshotWriter writer = new DefectSnapshotWriter();
+        writer.onStreamDefects(Arrays.asList(mergedDefect(3, "/src/b.c"), mergedDefect(1, "/src/a.c"), mergedDefect(7, "/lib/x.c")),
+                Arrays.asList(streamDefect(1, "NULL_RETURNS", 10), streamDefect(3, "RESOURCE_LEAK", 30, -1), streamDefect(7, "NULL_RETURNS", 70)));
+        writer.onStreamDefects(Arrays.asList(mergedDefect(2, "/src/b.c"), mergedDefect(4, "/src/c.c")),
+                Arrays.asList(streamDefect(2, "NULL_RETURNS", 20), streamDefect(4, "NULL_RETURNS")));
+        assertEquals(4, writer.size());
+
+        File file = new File(folder.getRoot(), "dir/project.snapshot");
+        writer.write(file, KEY, 42L);
+        return file;
+    }
+
+    @Test
+    public void testWriteAndReplay() throws Exception {
+        File file = writeSnapshot();
+        DefectSnapshot snapshot = DefectSnapshot.open(file, KEY);
+
+        assertNotNull(snapshot);
+        assertNull(DefectSnapshot.open(file, "host:8080/other"));
+        assertEquals(42L, snapshot.getSnapshotId());
+        assertEquals(4, snapshot.size());
+        assertEquals(5, snapshot.getInstanceCount());
+        assertEquals(3, snapshot.getFileCount());
+        assertEquals("/lib/x.c", snapshot.getFile(0));
+        assertEquals(1, snapshot.indexOf("/src/a.c"));
+        assertEquals(3, snapshot.getInstanceCount(snapshot.indexOf("/src/b.c")));
+        assertEquals(-1, snapshot.indexOf("/src/c.c"));
+
+        Collector collector = new Collector();
+        snapshot.replay(collector, 2);
+
+        assertEquals(2, collector.slices);
+        List<Long> cids = new ArrayList<Long>();
+        for(MergedDefectDataObj mddo : collector.mergedDefects) {
+            cids.add(mddo.getCid());
+        }
+        //in order of files, then in order of arrival
+        assertEquals(Arrays.asList(7L, 1L, 3L, 2L), cids);
+
+        MergedDefectDataObj mddo = collector.mergedDefects.get(2);
+        assertEquals("/src/b.c", mddo.getFilePathname());
+        assertEquals("RESOURCE_LEAK", mddo.getCheckerName());
+        StreamDefectDataObj sddo = collector.streamDefects.get(2);
+        assertEquals(Long.valueOf(3), sddo.getCid());
+        assertEquals(2, sddo.getDefectInstances().size());
+        DefectInstanceDataObj dido = sddo.getDefectInstances().get(0);
+        assertEquals("STATIC_C", dido.getCheckerSubcategoryId().getDomain());
+        assertEquals("none", dido.getCheckerSubcategoryId().getSubcategory());
+        assertEquals(30, dido.getEvents().get(0).getLineNumber());
+        assertTrue(dido.getEvents().get(0).isMain());
+        assertEquals("/src/b.c", dido.getEvents().get(0).getFileId().getFilePathname());
+        assertTrue(sddo.getDefectInstances().get(1).getEvents().isEmpty());
+    }
+
+    @Test
+    public void testFindFiles() throws Exception {
+        DefectSnapshot snapshot = DefectSnapshot.open(writeSnapshot(), KEY);
+
+        Collector collector = new Collector();
+        snapshot.replay(collector, 100, snapshot.findFiles(Arrays.asList("/src/*")));
+        assertEquals(3, collector.mergedDefects.size());
+
+        assertEquals(3, snapshot.findFiles(Collections.<String>emptyList()).cardinality());
+        assertEquals(1, snapshot.findFiles(Arrays.asList("/src/a.c")).cardinality());
+        assertEquals(3, snapshot.findFiles(Arrays.asList("*.c", "/src/*.h")).cardinality());
+        assertEquals(0, snapshot.findFiles(Arrays.asList("/src/*.h", "/build/*")).cardinality());
+        assertTrue(snapshot.findFiles(Arrays.asList("/lib/*", "/src/b*")).get(snapshot.indexOf("/src/b.c")));
+    }
+
+    @Test
+    public void testOpenTruncatedFile() throws Exception {
+        File file = writeSnapshot();
+        assertNull(DefectSnapshot.open(new File(folder.getRoot(), "missing.snapshot"), KEY));
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+        assertNull(DefectSnapshot.open(file, KEY));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MemoryCacheTest {
+    long now;
+    MemoryCache<String, String> cache;
+
+    @Before
+    public void setUp() {
+        now = 1000;
+        cache = new MemoryCache<String, String>("test", 100, 2, 1000) {
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        assertNull(cache.get("a"));
+        cache.put("a", "A", 10);
+
+        assertEquals("A", cache.get("a"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testExpiry() {
+        cache.put("a", "A", 10);
+        now += 100;
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        cache.put("a", "A", 10);
+        cache.put("b", "B", 10);
+        cache.get("a");
+        cache.put("c", "C", 10);
+
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testWeightLimit() {
+        cache.put("a", "A", 600);
+        cache.put("b", "B", 600);
+
+        assertNull(cache.get("a"));
+        assertEquals("B", cache.get("b"));
+
+        cache.put("c", "C", 2000);
+        assertNull(cache.get("c"));
+        assertEquals(600, cache.getWeight());
+    }
+}
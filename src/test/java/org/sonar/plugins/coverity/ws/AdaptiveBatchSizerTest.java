@@ -0,0 +1,67 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveBatchSizerTest {
+    @Test
+    public void testShrinksTowardTargetLatency() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer("test", 1000, 10, 1000, 1000, 0);
+        for(int i = 0; i < 20; i++) {
+            int size = sizer.getSize();
+            sizer.record(size, size * 10L, size);
+        }
+        assertEquals(100, sizer.getSize());
+    }
+
+    @Test
+    public void testGrowsAtMostTwofoldUpToMax() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer("test", 10, 10, 100, 1000, 0);
+        sizer.record(10, 1, 10);
+        assertEquals(20, sizer.getSize());
+        for(int i = 0; i < 10; i++) {
+            sizer.record(sizer.getSize(), 1, 10);
+        }
+        assertEquals(100, sizer.getSize());
+    }
+
+    @Test
+    public void testLimitsResponseSize() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer("test", 100, 1, 100, 1000, 500);
+        for(int i = 0; i < 10; i++) {
+            int size = sizer.getSize();
+            sizer.record(size, 1, size * 50L);
+        }
+        assertEquals(10, sizer.getSize());
+    }
+
+    @Test
+    public void testFixed() {
+        AdaptiveBatchSizer sizer = AdaptiveBatchSizer.fixed("test", 100);
+        sizer.record(100, 100000, 100);
+        assertEquals(100, sizer.getSize());
+        assertTrue(sizer.toString().contains("1 calls"));
+    }
+}
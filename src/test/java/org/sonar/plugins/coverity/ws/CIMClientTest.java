@@ -0,0 +1,175 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import com.coverity.ws.v6.DefectService;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.MergedDefectFilterSpecDataObj;
+import com.coverity.ws.v6.MergedDefectsPageDataObj;
+import com.coverity.ws.v6.PageSpecDataObj;
+import com.coverity.ws.v6.ProjectIdDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import com.coverity.ws.v6.StreamDefectFilterSpecDataObj;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.xml.ws.WebServiceException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+public class CIMClientTest {
+    private static final int PAGE_SIZE = 2500;
+
+    CIMClient client;
+    DefectService defectService;
+
+    @Before
+    public void setUp() throws Exception {
+        CIMClient.getDefectCache().clear();
+        CIMClient.getProjectCache().clear();
+
+        defectService = mock(DefectService.class);
+        client = spy(new CIMClient("localhost", 8080, "admin", "coverity", false));
+        client.setStreamingDecoding(false);
+        doReturn(defectService).when(client).getDefectService();
+    }
+
+    private void mockDefects(final int total) throws Exception {
+        when(defectService.getMergedDefectsForProject(any(ProjectIdDataObj.class), any(MergedDefectFilterSpecDataObj.class), any(PageSpecDataObj.class)))
+                .thenAnswer(new Answer<MergedDefectsPageDataObj>() {
+                    public MergedDefectsPageDataObj answer(InvocationOnMock invocation) throws Throwable {
+                        PageSpecDataObj pageSpec = (PageSpecDataObj)invocation.getArguments()[2];
+                        MergedDefectsPageDataObj page = new MergedDefectsPageDataObj();
+                        page.setTotalNumberOfRecords(total);
+                        int end = Math.min(total, pageSpec.getStartIndex() + pageSpec.getPageSize());
+                        for(int i = pageSpec.getStartIndex(); i < end; i++) {
+                            MergedDefectDataObj mddo = new MergedDefectDataObj();
+                            mddo.setCid((long)i);
+                            page.getMergedDefects().add(mddo);
+                        }
+                        return page;
+                    }
+                });
+    }
+
+    @Test
+    public void testGetDefectsSequential() throws Exception {
+        mockDefects(PAGE_SIZE * 3 + 10);
+
+        List<MergedDefectDataObj> defects = client.getDefects("project");
+
+        assertEquals(PAGE_SIZE * 3 + 10, defects.size());
+        for(int i = 0; i < defects.size(); i++) {
+            assertEquals(Long.valueOf(i), defects.get(i).getCid());
+        }
+    }
+
+    @Test
+    public void testGetDefectsConcurrentKeepsOrder() throws Exception {
+        mockDefects(PAGE_SIZE * 7 + 1);
+        client.setPageFetchThreads(4);
+
+        List<MergedDefectDataObj> defects = client.getDefects("project");
+
+        assertEquals(PAGE_SIZE * 7 + 1, defects.size());
+        for(int i = 0; i < defects.size(); i++) {
+            assertEquals("Defects out of order", Long.valueOf(i), defects.get(i).getCid());
+        }
+    }
+
+    @Test
+    public void testGetProjectDefects() throws Exception {
+        mockDefects(PAGE_SIZE * 2 + 50);
+        when(defectService.getStreamDefects(anyListOf(Long.class), any(StreamDefectFilterSpecDataObj.class)))
+                .thenAnswer(new Answer<List<StreamDefectDataObj>>() {
+                    public List<StreamDefectDataObj> answer(InvocationOnMock invocation) throws Throwable {
+                        List<StreamDefectDataObj> result = new ArrayList<StreamDefectDataObj>();
+                        for(Object cid : (List<?>)invocation.getArguments()[0]) {
+                            StreamDefectDataObj sddo = new StreamDefectDataObj();
+                            sddo.setCid((Long)cid);
+                            result.add(sddo);
+                        }
+                        return result;
+                    }
+                });
+        client.setPageFetchThreads(2);
+        client.setStreamDefectThreads(3);
+
+        ProjectDefects projectDefects = client.getProjectDefects("project");
+
+        assertEquals(PAGE_SIZE * 2 + 50, projectDefects.getMergedDefects().size());
+        assertEquals(PAGE_SIZE * 2 + 50, projectDefects.getStreamDefects().size());
+        for(MergedDefectDataObj mddo : projectDefects.getMergedDefects()) {
+            assertEquals(mddo.getCid(), projectDefects.getStreamDefects().get(mddo.getCid()).getCid());
+        }
+    }
+
+    @Test
+    public void testGetProjectDefectsSkipsFailedSlices() throws Exception {
+        mockDefects(PAGE_SIZE);
+        when(defectService.getStreamDefects(anyListOf(Long.class), any(StreamDefectFilterSpecDataObj.class)))
+                .thenAnswer(new Answer<List<StreamDefectDataObj>>() {
+                    public List<StreamDefectDataObj> answer(InvocationOnMock invocation) throws Throwable {
+                        List<StreamDefectDataObj> result = new ArrayList<StreamDefectDataObj>();
+                        for(Object cid : (List<?>)invocation.getArguments()[0]) {
+                            if(cid.equals(0L)) {
+                                throw new WebServiceException("Read timed out");
+                            }
+                            StreamDefectDataObj sddo = new StreamDefectDataObj();
+                            sddo.setCid((Long)cid);
+                            result.add(sddo);
+                        }
+                        return result;
+                    }
+                });
+
+        ProjectDefects projectDefects = client.getProjectDefects("project");
+
+        assertEquals(PAGE_SIZE, projectDefects.getMergedDefects().size());
+        assertEquals(PAGE_SIZE - CIMClient.GET_STREAM_DEFECTS_MAX_CIDS, projectDefects.getStreamDefects().size());
+        assertNull(CIMClient.getDefectCache().get(client.getCacheKey("project")));
+    }
+
+    @Test
+    public void testFilteredDefectsAreCachedSeparately() throws Exception {
+        mockDefects(10);
+        client.getDefects("project");
+
+        DefectFilterSpecFactory filter = new DefectFilterSpecFactory();
+        filter.setFilenamePatterns(Arrays.asList("/build/module1/*"));
+        client.setFilterSpecFactory(filter);
+
+        assertNull(CIMClient.getDefectCache().get(client.getDefectCacheKey("project")));
+        assertEquals(Arrays.asList("/build/module1/*"), client.createDefectFilterSpec().getFilenamePatternList());
+    }
+}
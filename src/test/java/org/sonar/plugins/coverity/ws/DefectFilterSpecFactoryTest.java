@@ -0,0 +1,85 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import com.coverity.ws.v6.CheckerSubcategoryFilterSpecDataObj;
+import com.coverity.ws.v6.CheckerSubcategoryIdDataObj;
+import com.coverity.ws.v6.MergedDefectFilterSpecDataObj;
+import org.junit.Test;
+import org.sonar.plugins.coverity.util.CoverityUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DefectFilterSpecFactoryTest {
+    @Test
+    public void testDefaultFilter() {
+        DefectFilterSpecFactory factory = new DefectFilterSpecFactory();
+        MergedDefectFilterSpecDataObj filterSpec = factory.create();
+
+        assertEquals(Arrays.asList("Triaged", "New"), filterSpec.getStatusNameList());
+        assertEquals(4, filterSpec.getActionNameList().size());
+        assertTrue(filterSpec.getCheckerSubcategoryFilterSpecList().isEmpty());
+        assertEquals("", factory.getFingerprint());
+    }
+
+    @Test
+    public void testCheckersMatchEveryActiveRule() {
+        DefectFilterSpecFactory factory = new DefectFilterSpecFactory();
+        factory.setCheckers("STATIC_JAVA", Arrays.asList("STATIC_JAVA_NULL_RETURNS_none", "STATIC_JAVA_DC.THREADING_thread_run"));
+
+        List<String> flattened = new ArrayList<String>();
+        for(CheckerSubcategoryFilterSpecDataObj spec : factory.create().getCheckerSubcategoryFilterSpecList()) {
+            CheckerSubcategoryIdDataObj id = new CheckerSubcategoryIdDataObj();
+            id.setDomain(spec.getDomain());
+            id.setCheckerName(spec.getCheckerName());
+            id.setSubcategory(spec.getSubcategory());
+            flattened.add(CoverityUtil.flattenCheckerSubcategoryId(id));
+        }
+
+        //every split of a rule key flattens back to that rule key
+        assertEquals(4, flattened.size());
+        assertTrue(flattened.containsAll(factory.getCheckers()));
+        assertTrue(factory.getCheckers().containsAll(flattened));
+    }
+
+    @Test
+    public void testFingerprint() {
+        DefectFilterSpecFactory a = new DefectFilterSpecFactory();
+        a.setCheckers("STATIC_C", Arrays.asList("STATIC_C_NULL_RETURNS_none", "STATIC_C_FORWARD_NULL_none"));
+        DefectFilterSpecFactory b = new DefectFilterSpecFactory();
+        b.setCheckers("STATIC_C", Arrays.asList("STATIC_C_FORWARD_NULL_none", "STATIC_C_NULL_RETURNS_none"));
+        assertEquals(a.getFingerprint(), b.getFingerprint());
+
+        b.setSeverities(Arrays.asList("Major"));
+        assertFalse(a.getFingerprint().equals(b.getFingerprint()));
+
+        b.setSeverities(Collections.<String>emptyList());
+        b.setStatuses(Arrays.asList("New"));
+        assertFalse(a.getFingerprint().equals(b.getFingerprint()));
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import com.coverity.ws.v6.CovRemoteServiceException_Exception;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.xml.ws.WebServiceException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResilientCallerTest {
+    private ResilientCaller caller;
+
+    @Before
+    public void setUp() {
+        caller = new ResilientCaller("test", new CircuitBreaker("test", 3, 60000)) {
+            @Override
+            protected void sleep(long millis) {
+            }
+        };
+    }
+
+    private static Callable<String> failing(final AtomicInteger calls, final int failures, final Exception e) {
+        return new Callable<String>() {
+            public String call() throws Exception {
+                if(calls.incrementAndGet() <= failures) {
+                    throw e;
+                }
+                return "ok";
+            }
+        };
+    }
+
+    @Test
+    public void testRetriesTransientFailures() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        String result = caller.call("getStreamDefects", true, failing(calls, 2, new WebServiceException(new SocketTimeoutException())));
+
+        assertEquals("ok", result);
+        assertEquals(3, calls.get());
+        assertEquals(2, caller.getRetryCount());
+    }
+
+    @Test
+    public void testDoesNotRetryServerErrors() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        try {
+            caller.call("getStreamDefects", true, failing(calls, 1, new CovRemoteServiceException_Exception("error", null)));
+            fail();
+        } catch(CovRemoteServiceException_Exception e) {
+            assertEquals(1, calls.get());
+        }
+    }
+
+    @Test
+    public void testDoesNotRetryUpdates() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        try {
+            caller.call("updateStreamDefects", false, failing(calls, 1, new WebServiceException("down")));
+            fail();
+        } catch(WebServiceException e) {
+            assertEquals(1, calls.get());
+        }
+    }
+
+    @Test
+    public void testOpensCircuit() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        try {
+            caller.call("getStreamDefects", true, failing(calls, 10, new WebServiceException("down")));
+            fail();
+        } catch(WebServiceException e) {
+            assertEquals(3, calls.get());
+        }
+        assertTrue(caller.getCircuitBreaker().isOpen());
+
+        try {
+            caller.call("getStreamDefects", true, failing(calls, 0, null));
+            fail();
+        } catch(CircuitOpenException e) {
+            assertEquals(3, calls.get());
+        }
+    }
+
+    @Test
+    public void testClosesCircuitAfterTrialCall() throws Exception {
+        final long[] now = {0};
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 1000) {
+            @Override
+            protected long now() {
+                return now[0];
+            }
+        };
+        breaker.onFailure();
+        assertTrue(breaker.isOpen());
+
+        now[0] = 1000;
+        breaker.acquire();
+        try {
+            breaker.acquire();
+            fail("Only one trial call at a time");
+        } catch(CircuitOpenException e) {
+            //expected
+        }
+        breaker.onSuccess();
+        assertFalse(breaker.isOpen());
+        breaker.acquire();
+    }
+
+    @Test
+    public void testHedgesSlowCalls() throws Exception {
+        Callable<String> fast = new Callable<String>() {
+            public String call() {
+                return "fast";
+            }
+        };
+        for(int i = 0; i < 50; i++) {
+            caller.call("getStreamDefects", true, fast);
+        }
+
+        final AtomicInteger calls = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        String result = caller.call("getStreamDefects", true, new Callable<String>() {
+            public String call() throws Exception {
+                if(calls.incrementAndGet() == 1) {
+                    Thread.sleep(10000);
+                    return "slow";
+                }
+                return "hedged";
+            }
+        });
+
+        assertEquals("hedged", result);
+        assertEquals(1, caller.getHedgeCount());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void testLosingCallsHoldHedgePermits() throws Exception {
+        Callable<String> fast = new Callable<String>() {
+            public String call() {
+                return "fast";
+            }
+        };
+        for(int i = 0; i < 50; i++) {
+            caller.call("getStreamDefects", true, fast);
+        }
+
+        //losers stuck in blocking I/O, which ignores interrupts
+        CountDownLatch blocked = new CountDownLatch(1);
+        for(int i = 0; i < caller.getMaxHedges(); i++) {
+            assertEquals("hedged", caller.call("getStreamDefects", true, slowFirst(blocked, 0)));
+        }
+        assertEquals(caller.getMaxHedges(), caller.getHedgeCount());
+
+        assertEquals("slow", caller.call("getStreamDefects", true, slowFirst(new CountDownLatch(0), 500)));
+        assertEquals(caller.getMaxHedges(), caller.getHedgeCount());
+
+        blocked.countDown();
+        Thread.sleep(200);
+        assertEquals("hedged", caller.call("getStreamDefects", true, slowFirst(new CountDownLatch(0), 10000)));
+        assertEquals(caller.getMaxHedges() + 1, caller.getHedgeCount());
+    }
+
+    private static Callable<String> slowFirst(final CountDownLatch blocked, final long sleep) {
+        final AtomicInteger calls = new AtomicInteger();
+        return new Callable<String>() {
+            public String call() throws Exception {
+                if(calls.incrementAndGet() > 1) {
+                    return "hedged";
+                }
+                boolean interrupted = false;
+                while(true) {
+                    try {
+                        blocked.await();
+                        break;
+                    } catch(InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if(interrupted) {
+                    return "interrupted";
+                }
+                Thread.sleep(sleep);
+                return "slow";
+            }
+        };
+    }
+}
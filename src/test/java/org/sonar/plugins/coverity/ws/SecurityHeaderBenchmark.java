@@ -0,0 +1,121 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.namespace.QName;
+import javax.xml.soap.MessageFactory;
+import javax.xml.soap.SOAPMessage;
+import javax.xml.ws.handler.soap.SOAPHandler;
+import javax.xml.ws.handler.soap.SOAPMessageContext;
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * Compares the cost of securing an outbound message with {@link ClientAuthenticationHandlerWSS} and with
+ * {@link UsernameTokenHandler}. Not a unit test, run it with
+ * <pre>java -cp ... org.sonar.plugins.coverity.ws.SecurityHeaderBenchmark [iterations]</pre>
+ */
+public class SecurityHeaderBenchmark {
+    private static final String REQUEST = "<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\"><S:Body>" +
+            "<ns2:getStreamDefects xmlns:ns2=\"http://ws.coverity.com/v6\"><cids>10001</cids><cids>10002</cids>" +
+            "<filterSpec><includeDefectInstances>true</includeDefectInstances></filterSpec></ns2:getStreamDefects>" +
+            "</S:Body></S:Envelope>";
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        MessageFactory factory = MessageFactory.newInstance();
+
+        SOAPHandler<SOAPMessageContext> xwss = new ClientAuthenticationHandlerWSS("admin", "coverity");
+        SOAPHandler<SOAPMessageContext> precomputed = new UsernameTokenHandler("admin", "coverity");
+
+        for(int round = 0; round < 3; round++) {
+            long baseline = run(factory, null, iterations);
+            long xwssTime = run(factory, xwss, iterations);
+            long precomputedTime = run(factory, precomputed, iterations);
+            System.out.println("round " + round + ": message only " + baseline / iterations + " ns, XWSS "
+                    + (xwssTime - baseline) / iterations + " ns, precomputed " + (precomputedTime - baseline) / iterations
+                    + " ns per message");
+        }
+    }
+
+    /**
+     * Creates and serializes the given number of messages, securing them with the handler if there is one
+     *
+     * @return the elapsed time in nanoseconds
+     */
+    private static long run(MessageFactory factory, SOAPHandler<SOAPMessageContext> handler, int iterations) throws Exception {
+        byte[] request = REQUEST.getBytes("UTF-8");
+        Context context = new Context();
+        long start = System.nanoTime();
+        for(int i = 0; i < iterations; i++) {
+            context.setMessage(factory.createMessage(null, new ByteArrayInputStream(request)));
+            if(handler != null) {
+                handler.handleMessage(context);
+            }
+            context.getMessage().writeTo(new NullOutputStream());
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static class NullOutputStream extends java.io.OutputStream {
+        public void write(int b) {
+        }
+
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+    /**
+     * Minimal outbound message context, so that the measurement does not include mock overhead
+     */
+    private static class Context extends HashMap<String, Object> implements SOAPMessageContext {
+        private SOAPMessage message;
+
+        Context() {
+            put(MESSAGE_OUTBOUND_PROPERTY, Boolean.TRUE);
+        }
+
+        public SOAPMessage getMessage() {
+            return message;
+        }
+
+        public void setMessage(SOAPMessage message) {
+            this.message = message;
+        }
+
+        public Object[] getHeaders(QName header, JAXBContext context, boolean allRoles) {
+            return new Object[0];
+        }
+
+        public Set<String> getRoles() {
+            return null;
+        }
+
+        public void setScope(String name, Scope scope) {
+        }
+
+        public Scope getScope(String name) {
+            return Scope.HANDLER;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ServicePortPoolTest {
+    private static ServicePortPool<Callable> createPool(final AtomicInteger created, int maxSize, long idleTimeout) {
+        return new ServicePortPool<Callable>(Callable.class, new ServicePortPool.Factory<Callable>() {
+            public Callable create() throws IOException {
+                final int id = created.incrementAndGet();
+                return new Callable() {
+                    public Object call() {
+                        return id;
+                    }
+                };
+            }
+        }, maxSize, idleTimeout);
+    }
+
+    @Test
+    public void testReusesReleasedPorts() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        ServicePortPool<Callable> pool = createPool(created, 2, 60000);
+
+        Callable first = pool.borrow();
+        Callable second = pool.borrow();
+        assertNotSame(first, second);
+        pool.release(second);
+
+        assertSame(second, pool.borrow());
+        assertEquals(2, created.get());
+    }
+
+    @Test
+    public void testProxyBorrowsPerCall() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        ServicePortPool<Callable> pool = createPool(created, 2, 60000);
+
+        Callable proxy = pool.proxy();
+        for(int i = 0; i < 10; i++) {
+            assertEquals(1, proxy.call());
+        }
+        assertEquals(1, pool.getCreated());
+    }
+
+    @Test
+    public void testDropsIdlePorts() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        ServicePortPool<Callable> pool = createPool(created, 1, -1);
+
+        pool.release(pool.borrow());
+        pool.borrow();
+
+        assertEquals(2, created.get());
+    }
+}
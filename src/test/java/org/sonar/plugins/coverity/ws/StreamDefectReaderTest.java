@@ -0,0 +1,85 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import com.coverity.ws.v6.CovRemoteServiceException_Exception;
+import com.coverity.ws.v6.EventDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import org.junit.Test;
+
+import javax.xml.stream.XMLInputFactory;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class StreamDefectReaderTest {
+    private static final String ENVELOPE = "<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\"><S:Body>%s</S:Body></S:Envelope>";
+
+    private static final String EVENT = "<events><events><main>true</main></events><eventDescription>%s</eventDescription>" +
+            "<eventTag>tag</eventTag><fileId><contentsMD5>0</contentsMD5><filePathname>/src/a.c</filePathname></fileId>" +
+            "<lineNumber>%d</lineNumber><main>%s</main></events>";
+
+    private static List<StreamDefectDataObj> read(String body) throws Exception {
+        String xml = String.format(ENVELOPE, body);
+        return new StreamDefectReader(XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(xml))).read();
+    }
+
+    @Test
+    public void testKeepsMainEventOnly() throws Exception {
+        String body = "<ns2:getStreamDefectsResponse xmlns:ns2=\"http://ws.coverity.com/v6\"><return>" +
+                "<checkerSubcategoryId><checkerName>NULL_RETURNS</checkerName><domain>STATIC_C</domain><subcategory>none</subcategory></checkerSubcategoryId>" +
+                "<cid>42</cid><defectInstances>" +
+                String.format(EVENT, "first", 10, "false") + String.format(EVENT, "main &amp; only", 12, "true") + String.format(EVENT, "last", 14, "false") +
+                "<checkerSubcategoryId><checkerName>NULL_RETURNS</checkerName><domain>STATIC_C</domain><subcategory>none</subcategory></checkerSubcategoryId>" +
+                "</defectInstances><status>New</status></return></ns2:getStreamDefectsResponse>";
+
+        List<StreamDefectDataObj> sddos = read(body);
+
+        assertEquals(1, sddos.size());
+        StreamDefectDataObj sddo = sddos.get(0);
+        assertEquals(Long.valueOf(42), sddo.getCid());
+        assertEquals("NULL_RETURNS", sddo.getCheckerSubcategoryId().getCheckerName());
+        assertEquals("none", sddo.getDefectInstances().get(0).getCheckerSubcategoryId().getSubcategory());
+        List<EventDataObj> events = sddo.getDefectInstances().get(0).getEvents();
+        assertEquals(1, events.size());
+        assertEquals("main & only", events.get(0).getEventDescription());
+        assertEquals(12, events.get(0).getLineNumber());
+        assertEquals("/src/a.c", events.get(0).getFileId().getFilePathname());
+        //the nested events are counted too
+        assertEquals(6, ((StreamDefectList)sddos).getEventCount());
+    }
+
+    @Test
+    public void testFault() throws Exception {
+        String body = "<S:Fault><faultcode>S:Server</faultcode><faultstring>No project</faultstring><detail>" +
+                "<ns2:CovRemoteServiceException xmlns:ns2=\"http://ws.coverity.com/v6\"><errorCode>1300</errorCode>" +
+                "<message>No project</message></ns2:CovRemoteServiceException></detail></S:Fault>";
+        try {
+            read(body);
+            fail();
+        } catch(CovRemoteServiceException_Exception e) {
+            assertEquals("No project", e.getMessage());
+            assertEquals(1300, e.getFaultInfo().getErrorCode());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import org.junit.Test;
+
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.handler.MessageContext;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TransportOptionsTest {
+    @Test
+    public void testApply() {
+        Map<String, Object> context = new HashMap<String, Object>();
+        BindingProvider port = mock(BindingProvider.class);
+        when(port.getRequestContext()).thenReturn(context);
+
+        TransportOptions options = new TransportOptions();
+        options.setFastInfoset(true);
+        options.setReadTimeout(30000);
+        options.apply(port);
+
+        Map<?, ?> headers = (Map<?, ?>)context.get(MessageContext.HTTP_REQUEST_HEADERS);
+        assertEquals(Collections.singletonList("gzip"), headers.get("Accept-Encoding"));
+        assertFalse(headers.containsKey("Content-Encoding"));
+        assertEquals("pessimistic", context.get("com.sun.xml.ws.client.ContentNegotiation"));
+        assertEquals(30000, context.get("com.sun.xml.internal.ws.request.timeout"));
+        assertFalse(context.containsKey("com.sun.xml.ws.connect.timeout"));
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.soap.MessageFactory;
+import javax.xml.soap.SOAPMessage;
+import javax.xml.ws.handler.MessageContext;
+import javax.xml.ws.handler.soap.SOAPMessageContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class UsernameTokenHandlerTest {
+    @Test
+    public void testAddsUsernameToken() throws Exception {
+        SOAPMessage message = MessageFactory.newInstance().createMessage();
+        SOAPMessageContext context = mock(SOAPMessageContext.class);
+        when(context.get(MessageContext.MESSAGE_OUTBOUND_PROPERTY)).thenReturn(Boolean.TRUE);
+        when(context.getMessage()).thenReturn(message);
+
+        UsernameTokenHandler handler = new UsernameTokenHandler("admin", "p\"w<d");
+        handler.handleMessage(context);
+        handler.handleMessage(context);
+
+        String ns = ClientAuthenticationHandlerWSS.WSS_AUTH_URI;
+        NodeList security = message.getSOAPHeader().getElementsByTagNameNS(ns, "Security");
+        assertEquals(2, security.getLength());
+        Element header = (Element)security.item(0);
+        assertEquals("1", header.getAttributeNS(message.getSOAPPart().getEnvelope().getNamespaceURI(), "mustUnderstand"));
+        assertEquals("admin", header.getElementsByTagNameNS(ns, "Username").item(0).getTextContent());
+        Element password = (Element)header.getElementsByTagNameNS(ns, "Password").item(0);
+        assertEquals("p\"w<d", password.getTextContent());
+        assertEquals(UsernameTokenHandler.WSS_PASSWORD_TEXT, password.getAttribute("Type"));
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws.server;
+
+/**
+ * Answers the operations of a {@link CoverityConnectServer}
+ */
+public interface Backend {
+    /**
+     * @param operation the name of the operation, e.g. getStreamDefects
+     * @param request   the request wrapper, e.g. a GetStreamDefects
+     * @return the response wrapper, e.g. a GetStreamDefectsResponse
+     * @throws com.coverity.ws.v6.CovRemoteServiceException_Exception sent back as a Coverity fault
+     */
+    Object handle(String operation, Object request) throws Exception;
+}
@@ -0,0 +1,91 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws.server;
+
+import org.sonar.plugins.coverity.ws.CIMClient;
+
+import javax.xml.bind.annotation.XmlType;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+
+/**
+ * Forwards the requests to a real Coverity Connect through a {@link CIMClient}, typically to record its responses
+ * with a {@link RecordingBackend}. The request wrapper is unwrapped into the arguments of the service method of
+ * the same name, following the order of its XML properties.
+ */
+public class ClientBackend implements Backend {
+    private final CIMClient client;
+
+    public ClientBackend(CIMClient client) {
+        this.client = client;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Object handle(String operation, Object request) throws Exception {
+        String[] properties = request.getClass().getAnnotation(XmlType.class).propOrder();
+        Object[] args = new Object[properties.length];
+        for(int i = 0; i < properties.length; i++) {
+            Field field = request.getClass().getDeclaredField(properties[i]);
+            field.setAccessible(true);
+            args[i] = field.get(request);
+        }
+
+        Object service = client.getDefectService();
+        Method method = find(service, operation, args.length);
+        if(method == null) {
+            service = client.getConfigurationService();
+            method = find(service, operation, args.length);
+        }
+        if(method == null) {
+            throw CoverityConnectServer.fault(1002, operation + " is not an operation of the Defect or Configuration service");
+        }
+
+        Object result;
+        try {
+            result = method.invoke(service, args);
+        } catch(InvocationTargetException e) {
+            throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+        }
+
+        Object response = Class.forName(request.getClass().getName() + "Response").newInstance();
+        if(result instanceof Collection) {
+            Method getReturn = response.getClass().getMethod("getReturn");
+            ((Collection<Object>)getReturn.invoke(response)).addAll((Collection<Object>)result);
+        } else if(result != null) {
+            Method setReturn = response.getClass().getMethod("setReturn", method.getReturnType());
+            setReturn.invoke(response, result);
+        }
+        return response;
+    }
+
+    private static Method find(Object service, String operation, int parameters) {
+        for(Class<?> type : service.getClass().getInterfaces()) {
+            for(Method method : type.getMethods()) {
+                if(method.getName().equals(operation) && method.getParameterTypes().length == parameters) {
+                    return method;
+                }
+            }
+        }
+        return null;
+    }
+}
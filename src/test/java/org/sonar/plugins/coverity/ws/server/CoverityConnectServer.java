@@ -0,0 +1,385 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws.server;
+
+import com.coverity.ws.v6.CovRemoteServiceException;
+import com.coverity.ws.v6.CovRemoteServiceException_Exception;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.sonar.plugins.coverity.util.DaemonThreadFactory;
+import org.sonar.plugins.coverity.ws.CIMClient;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local stand-in for Coverity Connect, so that {@link CIMClient} can be exercised end to end without a server.
+ * <p/>
+ * It serves the bundled WSDLs of the Defect and Configuration services with their address set to itself, and
+ * answers SOAP 1.1 requests to both services by handing the unmarshalled request wrappers to a {@link Backend}.
+ * Responses are streamed with chunked transfer encoding and compressed when the client accepts it. Latency can be
+ * injected per operation, and the UsernameToken of the requests is checked if credentials are set.
+ */
+public class CoverityConnectServer {
+    public static final String SOAP_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+    static final String WS_PACKAGE = "com.coverity.ws.v6.";
+    private static final String WSS_NS = "http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-secext-1.0.xsd";
+    private static final String SERVICE_PATH = "/ws/" + CIMClient.COVERITY_WS_VERSION + "/";
+    private static final File WSDL_DIR = new File("src/main/wsdl");
+
+    private static final Pattern BOUNDARY = Pattern.compile("boundary=(?:\"([^\"]+)\"|([^;\\s]+))");
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+    private static final ConcurrentMap<Class<?>, JAXBContext> CONTEXTS = new ConcurrentHashMap<Class<?>, JAXBContext>();
+
+    private final Backend backend;
+    private final Map<String, long[]> latencies = new ConcurrentHashMap<String, long[]>();
+    private final ConcurrentMap<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+    private final Random random = new Random();
+    private String user;
+    private String password;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public CoverityConnectServer(Backend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * Requests are rejected with a Coverity fault unless they carry this user and password
+     */
+    public CoverityConnectServer setCredentials(String user, String password) {
+        this.user = user;
+        this.password = password;
+        return this;
+    }
+
+    /**
+     * Delays the answers to an operation by a fixed time plus a random jitter, in milliseconds
+     *
+     * @param operation the operation, or null for every operation without a latency of its own
+     */
+    public CoverityConnectServer setLatency(String operation, long millis, long jitter) {
+        latencies.put(operation == null ? "" : operation, new long[]{millis, jitter});
+        return this;
+    }
+
+    public CoverityConnectServer start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 50);
+        executor = Executors.newCachedThreadPool(new DaemonThreadFactory("coverity-connect-stand-in"));
+        server.setExecutor(executor);
+        server.createContext(SERVICE_PATH, new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    if("POST".equals(exchange.getRequestMethod())) {
+                        handleSoap(exchange);
+                    } else {
+                        handleGet(exchange);
+                    }
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        return this;
+    }
+
+    public void stop() {
+        if(server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return a client of this server, with the credentials it expects if any
+     */
+    public CIMClient createClient() {
+        return new CIMClient("localhost", getPort(), user == null ? "admin" : user, password == null ? "coverity" : password, false);
+    }
+
+    /**
+     * @return the number of requests of the operation answered so far, faults included
+     */
+    public int getRequestCount(String operation) {
+        AtomicInteger count = requests.get(operation);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Serves the WSDL of a service with the address of this server, and the schema it imports
+     */
+    private void handleGet(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath().substring(SERVICE_PATH.length());
+        File file = new File(WSDL_DIR, path.endsWith(".xml") ? path : path + ".wsdl");
+        if(path.contains("/") || !file.isFile()) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+
+        String content = read(file);
+        if(file.getName().endsWith(".wsdl")) {
+            String address = "http://localhost:" + getPort() + SERVICE_PATH + path;
+            content = content.replaceFirst("(<port [^>]*>)", "$1<soap:address location=\"" + address + "\"/>");
+        }
+        byte[] bytes = content.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private void handleSoap(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        if("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        in = rootPart(in, exchange.getRequestHeaders().getFirst("Content-Type"));
+
+        String operation = null;
+        Object response;
+        int status = 200;
+        try {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+            String[] credentials = readHeader(reader);
+            operation = reader.getLocalName();
+            count(operation);
+            Class<?> requestClass = Class.forName(WS_PACKAGE + Character.toUpperCase(operation.charAt(0)) + operation.substring(1));
+            Object request = getContext(requestClass).createUnmarshaller().unmarshal(reader, requestClass).getValue();
+
+            if(user != null && !(user.equals(credentials[0]) && password.equals(credentials[1]))) {
+                throw fault(1000, "Authentication failed");
+            }
+            delay(operation);
+            response = backend.handle(operation, request);
+        } catch(CovRemoteServiceException_Exception e) {
+            response = e;
+            status = 500;
+        } catch(ClassNotFoundException e) {
+            response = fault(1001, "Unknown operation " + operation);
+            status = 500;
+        } catch(Exception e) {
+            response = e;
+            status = 500;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        if(gzip) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(status, 0);
+        OutputStream out = exchange.getResponseBody();
+        if(gzip) {
+            out = new GZIPOutputStream(out, 8192);
+        }
+        try {
+            writeResponse(out, operation, response);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the SOAP header up to the first element of the body
+     *
+     * @return the user and password of the UsernameToken, null if there is none
+     */
+    private static String[] readHeader(XMLStreamReader reader) throws XMLStreamException {
+        String[] credentials = new String[2];
+        boolean inBody = false;
+        while(reader.hasNext()) {
+            if(reader.next() != XMLStreamReader.START_ELEMENT) {
+                continue;
+            }
+            if(inBody) {
+                return credentials;
+            } else if(SOAP_NS.equals(reader.getNamespaceURI()) && "Body".equals(reader.getLocalName())) {
+                inBody = true;
+            } else if(WSS_NS.equals(reader.getNamespaceURI()) && "Username".equals(reader.getLocalName())) {
+                credentials[0] = reader.getElementText();
+            } else if(WSS_NS.equals(reader.getNamespaceURI()) && "Password".equals(reader.getLocalName())) {
+                credentials[1] = reader.getElementText();
+            }
+        }
+        throw new XMLStreamException("No operation in the SOAP body");
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeResponse(OutputStream out, String operation, Object response) throws IOException {
+        try {
+            XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement("S", "Envelope", SOAP_NS);
+            writer.writeNamespace("S", SOAP_NS);
+            writer.writeStartElement("S", "Body", SOAP_NS);
+            if(response instanceof Exception) {
+                Exception e = (Exception)response;
+                writer.writeStartElement("S", "Fault", SOAP_NS);
+                writer.writeStartElement("faultcode");
+                writer.writeCharacters("S:Server");
+                writer.writeEndElement();
+                writer.writeStartElement("faultstring");
+                writer.writeCharacters(String.valueOf(e.getMessage()));
+                writer.writeEndElement();
+                if(e instanceof CovRemoteServiceException_Exception) {
+                    writer.writeStartElement("detail");
+                    marshal(writer, new JAXBElement<CovRemoteServiceException>(new QName(CIMClient.COVERITY_NAMESPACE, "CoverityFault"),
+                            CovRemoteServiceException.class, ((CovRemoteServiceException_Exception)e).getFaultInfo()));
+                    writer.writeEndElement();
+                }
+                writer.writeEndElement();
+            } else {
+                marshal(writer, new JAXBElement(new QName(CIMClient.COVERITY_NAMESPACE, operation + "Response"), response.getClass(), response));
+            }
+            writer.writeEndElement();
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.flush();
+        } catch(XMLStreamException e) {
+            throw new IOException("Cannot write the response to " + operation + ": " + e);
+        } catch(JAXBException e) {
+            throw new IOException("Cannot write the response to " + operation + ": " + e);
+        }
+    }
+
+    private static void marshal(XMLStreamWriter writer, JAXBElement<?> element) throws JAXBException {
+        Marshaller marshaller = getContext(element.getDeclaredType()).createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+        marshaller.marshal(element, writer);
+    }
+
+    static JAXBContext getContext(Class<?> type) throws JAXBException {
+        JAXBContext context = CONTEXTS.get(type);
+        if(context == null) {
+            context = JAXBContext.newInstance(type);
+            CONTEXTS.put(type, context);
+        }
+        return context;
+    }
+
+    /**
+     * @return a Coverity fault, as thrown by the server
+     */
+    public static CovRemoteServiceException_Exception fault(int errorCode, String message) {
+        CovRemoteServiceException faultInfo = new CovRemoteServiceException();
+        faultInfo.setErrorCode(errorCode);
+        faultInfo.setMessage(message);
+        return new CovRemoteServiceException_Exception(message, faultInfo);
+    }
+
+    private void count(String operation) {
+        AtomicInteger count = requests.get(operation);
+        if(count == null) {
+            requests.putIfAbsent(operation, new AtomicInteger());
+            count = requests.get(operation);
+        }
+        count.incrementAndGet();
+    }
+
+    private void delay(String operation) throws InterruptedException {
+        long[] latency = latencies.get(operation);
+        if(latency == null) {
+            latency = latencies.get("");
+        }
+        if(latency != null) {
+            long jitter;
+            synchronized(random) {
+                jitter = latency[1] > 0 ? (long)(random.nextDouble() * latency[1]) : 0;
+            }
+            Thread.sleep(latency[0] + jitter);
+        }
+    }
+
+    /**
+     * The JAX-WS client sends some requests as MTOM multipart messages. None of the v6 operations take binary
+     * attachments, so the envelope in the root part is all there is to read.
+     */
+    private static InputStream rootPart(InputStream in, String contentType) throws IOException {
+        if(contentType == null || !contentType.toLowerCase().startsWith("multipart/related")) {
+            return in;
+        }
+        Matcher matcher = BOUNDARY.matcher(contentType);
+        if(!matcher.find()) {
+            throw new IOException("No boundary in " + contentType);
+        }
+        String boundary = "--" + (matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+        String body = new String(readBytes(in), "ISO-8859-1");
+        int start = body.indexOf("\r\n\r\n", body.indexOf(boundary));
+        int end = body.indexOf("\r\n" + boundary, start);
+        if(start < 0 || end < 0) {
+            throw new IOException("Malformed multipart request");
+        }
+        return new ByteArrayInputStream(body.substring(start + 4, end).getBytes("ISO-8859-1"));
+    }
+
+    private static byte[] readBytes(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for(int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static String read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return new String(readBytes(in), "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
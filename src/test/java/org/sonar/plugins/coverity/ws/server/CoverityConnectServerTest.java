@@ -0,0 +1,113 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws.server;
+
+import com.coverity.ws.v6.CovRemoteServiceException_Exception;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.plugins.coverity.ws.CIMClient;
+import org.sonar.plugins.coverity.ws.ProjectDefects;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CoverityConnectServerTest {
+    private static final String PROJECT = "project";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    SyntheticBackend backend;
+    CoverityConnectServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        CIMClient.getDefectCache().clear();
+        CIMClient.getProjectCache().clear();
+        backend = new SyntheticBackend(PROJECT, 3000).setInstances(2).setEvents(4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if(server != null) {
+            server.stop();
+        }
+    }
+
+    private void checkDefects(ProjectDefects defects) {
+        assertEquals(3000, defects.getMergedDefects().size());
+        assertEquals(3000, defects.getStreamDefects().size());
+        for(MergedDefectDataObj mddo : defects.getMergedDefects()) {
+            StreamDefectDataObj sddo = defects.getStreamDefects().get(mddo.getCid());
+            assertEquals(2, sddo.getDefectInstances().size());
+            //the streaming decoder of the client only keeps the main event
+            assertEquals(1, sddo.getDefectInstances().get(0).getEvents().size());
+            assertTrue(sddo.getDefectInstances().get(0).getEvents().get(0).isMain());
+        }
+    }
+
+    @Test
+    public void testImport() throws Exception {
+        server = new CoverityConnectServer(backend).setCredentials("admin", "secret").start();
+        CIMClient client = server.createClient();
+        client.setPageFetchThreads(2);
+
+        assertEquals(Long.valueOf(SyntheticBackend.PROJECT_KEY), client.getProject(PROJECT).getProjectKey());
+        checkDefects(client.getProjectDefects(PROJECT));
+        assertTrue(server.getRequestCount("getMergedDefectsForProject") > 0);
+        assertTrue(server.getRequestCount("getStreamDefects") > 0);
+    }
+
+    @Test
+    public void testWrongCredentials() throws Exception {
+        server = new CoverityConnectServer(backend).setCredentials("admin", "secret").start();
+        CIMClient client = new CIMClient("localhost", server.getPort(), "admin", "wrong", false);
+        try {
+            client.getProject(PROJECT);
+            fail();
+        } catch(CovRemoteServiceException_Exception e) {
+            assertEquals(1000, e.getFaultInfo().getErrorCode());
+        }
+    }
+
+    @Test
+    public void testRecordAndReplay() throws Exception {
+        File dir = folder.newFolder("recording");
+        server = new CoverityConnectServer(new RecordingBackend(dir, backend)).start();
+        CIMClient client = server.createClient();
+        checkDefects(client.getProjectDefects(PROJECT));
+        server.stop();
+
+        CIMClient.getDefectCache().clear();
+        CIMClient.getProjectCache().clear();
+        server = new CoverityConnectServer(RecordingBackend.replay(dir)).start();
+        client = server.createClient();
+        checkDefects(client.getProjectDefects(PROJECT));
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws.server;
+
+import org.sonar.plugins.coverity.ws.CIMClient;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Records the responses of another backend to files, and replays them. A response is stored under the operation
+ * and a digest of the request, so that replaying the same requests, for example the same import against a
+ * {@link CoverityConnectServer} backed by a {@link ClientBackend}, gets the same responses without the server.
+ */
+public class RecordingBackend implements Backend {
+    private final File dir;
+    private final Backend delegate;
+
+    /**
+     * @param delegate the backend whose responses are recorded, or null to replay the recorded responses
+     */
+    public RecordingBackend(File dir, Backend delegate) {
+        this.dir = dir;
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return a backend replaying the responses recorded in the directory
+     */
+    public static RecordingBackend replay(File dir) {
+        return new RecordingBackend(dir, null);
+    }
+
+    public Object handle(String operation, Object request) throws Exception {
+        File file = new File(dir, operation + "-" + digest(operation, request) + ".xml");
+        if(delegate == null) {
+            if(!file.isFile()) {
+                throw CoverityConnectServer.fault(1003, "No recorded response to this " + operation + " request");
+            }
+            Class<?> responseClass = Class.forName(request.getClass().getName() + "Response");
+            return CoverityConnectServer.getContext(responseClass).createUnmarshaller().unmarshal(new StreamSource(file), responseClass).getValue();
+        }
+
+        Object response = delegate.handle(operation, request);
+        if(!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        OutputStream out = new FileOutputStream(file);
+        try {
+            marshal(operation + "Response", response, out);
+        } finally {
+            out.close();
+        }
+        return response;
+    }
+
+    private static String digest(String operation, Object request) throws JAXBException, NoSuchAlgorithmException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        marshal(operation, request, out);
+        StringBuilder sb = new StringBuilder();
+        for(byte b : MessageDigest.getInstance("SHA-1").digest(out.toByteArray())) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void marshal(String element, Object value, OutputStream out) throws JAXBException {
+        Marshaller marshaller = CoverityConnectServer.getContext(value.getClass()).createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+        marshaller.marshal(new JAXBElement(new QName(CIMClient.COVERITY_NAMESPACE, element), value.getClass(), value), out);
+    }
+}
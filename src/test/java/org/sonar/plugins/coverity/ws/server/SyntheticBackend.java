@@ -0,0 +1,277 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (C) 2014 Coverity, Inc.
+ * support@coverity.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.coverity.ws.server;
+
+import com.coverity.ws.v6.CheckerSubcategoryIdDataObj;
+import com.coverity.ws.v6.DefectInstanceDataObj;
+import com.coverity.ws.v6.EventDataObj;
+import com.coverity.ws.v6.FileIdDataObj;
+import com.coverity.ws.v6.GetCIDsForProject;
+import com.coverity.ws.v6.GetCIDsForProjectResponse;
+import com.coverity.ws.v6.GetMergedDefectsForProject;
+import com.coverity.ws.v6.GetMergedDefectsForProjectResponse;
+import com.coverity.ws.v6.GetProjects;
+import com.coverity.ws.v6.GetProjectsResponse;
+import com.coverity.ws.v6.GetServerTimeResponse;
+import com.coverity.ws.v6.GetStreamDefects;
+import com.coverity.ws.v6.GetStreamDefectsResponse;
+import com.coverity.ws.v6.MergedDefectDataObj;
+import com.coverity.ws.v6.MergedDefectsPageDataObj;
+import com.coverity.ws.v6.ProjectDataObj;
+import com.coverity.ws.v6.ProjectIdDataObj;
+import com.coverity.ws.v6.StreamDefectDataObj;
+import com.coverity.ws.v6.StreamDefectFilterSpecDataObj;
+
+import javax.xml.datatype.DatatypeFactory;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+/**
+ * Answers with a generated project, whose defects are computed from their CID instead of being kept in memory,
+ * so that projects of millions of defects can be served. Defect filters are ignored.
+ * <p/>
+ * Defect i has CID {@link #FIRST_CID} + i, is found by checker {@code CHECKER_<i % checkers>} of the domain
+ * and has the given number of instances and events, the last event of an instance being its main event.
+ */
+public class SyntheticBackend implements Backend {
+    public static final long FIRST_CID = 10000;
+    public static final long PROJECT_KEY = 10001;
+
+    private final String project;
+    private final int defects;
+    private String domain = "STATIC_JAVA";
+    private String pathPrefix = "/build/ws/src/";
+    private int files = 1000;
+    private int checkers = 100;
+    private int instances = 1;
+    private int events = 3;
+    private int maxPageSize;
+
+    public SyntheticBackend(String project, int defects) {
+        this.project = project;
+        this.defects = defects;
+    }
+
+    public SyntheticBackend setDomain(String domain) {
+        this.domain = domain;
+        return this;
+    }
+
+    /**
+     * @param pathPrefix the directory the files of the defects are in, as seen by the Coverity build
+     */
+    public SyntheticBackend setPathPrefix(String pathPrefix) {
+        this.pathPrefix = pathPrefix.endsWith("/") ? pathPrefix : pathPrefix + "/";
+        return this;
+    }
+
+    public SyntheticBackend setFiles(int files) {
+        this.files = files;
+        return this;
+    }
+
+    public SyntheticBackend setCheckers(int checkers) {
+        this.checkers = checkers;
+        return this;
+    }
+
+    public SyntheticBackend setInstances(int instances) {
+        this.instances = instances;
+        return this;
+    }
+
+    public SyntheticBackend setEvents(int events) {
+        this.events = events;
+        return this;
+    }
+
+    /**
+     * @param maxPageSize larger merged defect pages are rejected with a fault, 0 for no limit
+     */
+    public SyntheticBackend setMaxPageSize(int maxPageSize) {
+        this.maxPageSize = maxPageSize;
+        return this;
+    }
+
+    public int getDefectCount() {
+        return defects;
+    }
+
+    /**
+     * @return the checker subcategory ids of the defects, flattened like the rule keys of the plugin
+     */
+    public List<String> getCheckerKeys() {
+        List<String> keys = new ArrayList<String>(checkers);
+        for(int i = 0; i < checkers; i++) {
+            keys.add(domain + "_" + getChecker(i) + "_none");
+        }
+        return keys;
+    }
+
+    /**
+     * @return the path of a file relative to the path prefix
+     */
+    public String getFile(int file) {
+        return "pkg" + (file % 100) + "/File" + file + ".java";
+    }
+
+    /**
+     * Creates the files the defects are found in, empty, in the given directory
+     */
+    public void createSourceTree(File dir) throws IOException {
+        for(int i = 0; i < Math.min(files, defects); i++) {
+            File file = new File(dir, getFile(i));
+            if(!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+                throw new IOException("Cannot create " + file.getParentFile());
+            }
+            if(!file.isFile() && !file.createNewFile()) {
+                throw new IOException("Cannot create " + file);
+            }
+        }
+    }
+
+    private String getChecker(int checker) {
+        return "CHECKER_" + checker;
+    }
+
+    public Object handle(String operation, Object request) throws Exception {
+        if(operation.equals("getProjects")) {
+            return getProjects((GetProjects)request);
+        } else if(operation.equals("getServerTime")) {
+            GetServerTimeResponse response = new GetServerTimeResponse();
+            response.setReturn(DatatypeFactory.newInstance().newXMLGregorianCalendar(new GregorianCalendar()));
+            return response;
+        } else if(operation.equals("getMergedDefectsForProject")) {
+            return getMergedDefectsForProject((GetMergedDefectsForProject)request);
+        } else if(operation.equals("getCIDsForProject")) {
+            checkProject(((GetCIDsForProject)request).getProjectId());
+            GetCIDsForProjectResponse response = new GetCIDsForProjectResponse();
+            for(int i = 0; i < defects; i++) {
+                response.getReturn().add(FIRST_CID + i);
+            }
+            return response;
+        } else if(operation.equals("getStreamDefects")) {
+            return getStreamDefects((GetStreamDefects)request);
+        }
+        throw CoverityConnectServer.fault(1002, operation + " is not supported by the stand-in server");
+    }
+
+    private GetProjectsResponse getProjects(GetProjects request) {
+        GetProjectsResponse response = new GetProjectsResponse();
+        String pattern = request.getFilterSpec() == null ? null : request.getFilterSpec().getNamePattern();
+        if(pattern == null || project.matches(pattern.replace("*", ".*"))) {
+            ProjectDataObj projectObj = new ProjectDataObj();
+            ProjectIdDataObj id = new ProjectIdDataObj();
+            id.setName(project);
+            projectObj.setId(id);
+            projectObj.setProjectKey(PROJECT_KEY);
+            response.getReturn().add(projectObj);
+        }
+        return response;
+    }
+
+    private void checkProject(ProjectIdDataObj projectId) throws Exception {
+        if(projectId == null || !project.equals(projectId.getName())) {
+            throw CoverityConnectServer.fault(1100, "No project found for name " + (projectId == null ? null : projectId.getName()));
+        }
+    }
+
+    private GetMergedDefectsForProjectResponse getMergedDefectsForProject(GetMergedDefectsForProject request) throws Exception {
+        checkProject(request.getProjectId());
+        int start = request.getPageSpec().getStartIndex();
+        int size = request.getPageSpec().getPageSize();
+        if(maxPageSize > 0 && size > maxPageSize) {
+            throw CoverityConnectServer.fault(1200, "Page size " + size + " exceeds the maximum of " + maxPageSize);
+        }
+
+        MergedDefectsPageDataObj page = new MergedDefectsPageDataObj();
+        page.setTotalNumberOfRecords(defects);
+        for(int i = Math.max(0, start); i < Math.min(defects, start + size); i++) {
+            page.getMergedDefects().add(getMergedDefect(i));
+        }
+        GetMergedDefectsForProjectResponse response = new GetMergedDefectsForProjectResponse();
+        response.setReturn(page);
+        return response;
+    }
+
+    private GetStreamDefectsResponse getStreamDefects(GetStreamDefects request) {
+        StreamDefectFilterSpecDataObj filterSpec = request.getFilterSpec();
+        boolean includeInstances = filterSpec == null || filterSpec.isIncludeDefectInstances();
+        GetStreamDefectsResponse response = new GetStreamDefectsResponse();
+        for(Long cid : request.getCids()) {
+            long i = cid - FIRST_CID;
+            if(i >= 0 && i < defects) {
+                response.getReturn().add(getStreamDefect((int)i, includeInstances));
+            }
+        }
+        return response;
+    }
+
+    public MergedDefectDataObj getMergedDefect(int i) {
+        MergedDefectDataObj mddo = new MergedDefectDataObj();
+        mddo.setCid(FIRST_CID + i);
+        mddo.setDomain(domain);
+        mddo.setCheckerName(getChecker(i % checkers));
+        mddo.setCheckerSubcategory("none");
+        mddo.setFilePathname(pathPrefix + getFile(i % files));
+        mddo.setStatus("New");
+        mddo.setAction("Undecided");
+        mddo.setSeverity("Unspecified");
+        mddo.setClassification("Unclassified");
+        mddo.setComponentName("Default.Other");
+        return mddo;
+    }
+
+    public StreamDefectDataObj getStreamDefect(int i, boolean includeInstances) {
+        CheckerSubcategoryIdDataObj checker = new CheckerSubcategoryIdDataObj();
+        checker.setDomain(domain);
+        checker.setCheckerName(getChecker(i % checkers));
+        checker.setSubcategory("none");
+
+        StreamDefectDataObj sddo = new StreamDefectDataObj();
+        sddo.setCid(FIRST_CID + i);
+        sddo.setCheckerSubcategoryId(checker);
+        if(!includeInstances) {
+            return sddo;
+        }
+        FileIdDataObj fileId = new FileIdDataObj();
+        fileId.setFilePathname(pathPrefix + getFile(i % files));
+        for(int j = 0; j < instances; j++) {
+            DefectInstanceDataObj dido = new DefectInstanceDataObj();
+            dido.setCheckerSubcategoryId(checker);
+            for(int k = 0; k < events; k++) {
+                EventDataObj event = new EventDataObj();
+                event.setMain(k == events - 1);
+                event.setEventNumber(k + 1);
+                event.setEventTag(k == events - 1 ? "deref" : "path");
+                event.setEventDescription("Event " + (k + 1) + " of CID " + sddo.getCid());
+                event.setLineNumber(1 + (i * 31 + j * 7 + k) % 2000);
+                event.setFileId(fileId);
+                dido.getEvents().add(event);
+            }
+            sddo.getDefectInstances().add(dido);
+        }
+        return sddo;
+    }
+}